@@ -0,0 +1,215 @@
+package org.wikidata.query.rdf.blazegraph;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.openrdf.rio.RDFFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bigdata.journal.ITx;
+import com.bigdata.journal.Journal;
+import com.bigdata.rdf.rio.LoadStats;
+import com.bigdata.rdf.store.AbstractTripleStore;
+import com.bigdata.rdf.store.DataLoader;
+import com.bigdata.rdf.store.LocalTripleStore;
+
+/**
+ * Loads munged dumps straight into a journal without running Blazegraph.
+ * Loading over http goes through the SAIL's transactional write path one LOAD
+ * at a time. This writes through a DataLoader instead which sorts each batch
+ * of statements into the order of each index and writes them unisolated. It
+ * must be run while nothing else has the journal open. The journal is built
+ * with the properties Blazegraph uses to serve it so the vocabulary, inline
+ * uris, and extensions match.
+ */
+public class BulkLoad {
+    private static final Logger log = LoggerFactory.getLogger(BulkLoad.class);
+
+    /**
+     * Namespace that the data is loaded into by default.
+     */
+    public static final String DEFAULT_NAMESPACE = "wdq";
+    /**
+     * Number of statements buffered before they are sorted and written by
+     * default.
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 1000000;
+
+    /**
+     * Journal to load into.
+     */
+    private final Journal journal;
+    /**
+     * Triple store in the journal.
+     */
+    private final AbstractTripleStore store;
+    /**
+     * Loads the statements.
+     */
+    private final DataLoader loader;
+
+    /**
+     * Open the journal, creating the triple store if it doesn't exist.
+     *
+     * @param properties blazegraph properties like RWStore.properties
+     * @param namespace the namespace to load into
+     * @param bufferCapacity number of statements to buffer before sorting and
+     *            writing them
+     */
+    public BulkLoad(Properties properties, String namespace, int bufferCapacity) {
+        // The vocabulary and inline uris depend on the configured Wikibase
+        WikibaseUrisConfiguration.load(properties);
+        journal = new Journal(properties);
+        AbstractTripleStore existing = (AbstractTripleStore) journal.getResourceLocator().locate(namespace, ITx.UNISOLATED);
+        if (existing == null) {
+            log.info("Creating namespace {}", namespace);
+            existing = new LocalTripleStore(journal, namespace, ITx.UNISOLATED, properties);
+            existing.create();
+        }
+        store = existing;
+        Properties loaderProperties = new Properties(properties);
+        loaderProperties.setProperty(DataLoader.Options.BUFFER_CAPACITY, Integer.toString(bufferCapacity));
+        // We don't do inference and commit ourselves after every file.
+        loaderProperties.setProperty(DataLoader.Options.CLOSURE, DataLoader.ClosureEnum.None.toString());
+        loaderProperties.setProperty(DataLoader.Options.COMMIT, DataLoader.CommitEnum.None.toString());
+        loader = new DataLoader(loaderProperties, store);
+    }
+
+    /**
+     * Load a file of Turtle, gzipped if its name ends in .gz, and commit it.
+     *
+     * @return statistics about the load
+     * @throws IOException if the file can't be read
+     */
+    public LoadStats load(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        LoadStats stats;
+        try (InputStream in = open(file)) {
+            stats = loader.loadData(in, file.toURI().toString(), RDFFormat.TURTLE);
+        }
+        loader.endSource();
+        store.commit();
+        log.info("Loaded {} in {}ms: {}", file, System.currentTimeMillis() - start, stats);
+        return stats;
+    }
+
+    /**
+     * The triple store being loaded.
+     */
+    public AbstractTripleStore store() {
+        return store;
+    }
+
+    /**
+     * Close the journal.
+     */
+    public void close() {
+        journal.close();
+    }
+
+    /**
+     * Load files into a journal from the command line.
+     *
+     * @throws IOException if the properties or any of the files can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        String namespace = DEFAULT_NAMESPACE;
+        int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+        int arg = 0;
+        while (arg < args.length && args[arg].startsWith("-")) {
+            switch (args[arg]) {
+            case "-n":
+                namespace = args[arg + 1];
+                break;
+            case "-b":
+                bufferCapacity = Integer.parseInt(args[arg + 1]);
+                break;
+            default:
+                usage();
+                return;
+            }
+            arg += 2;
+        }
+        if (args.length - arg < 3) {
+            usage();
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(args[arg])) {
+            properties.load(in);
+        }
+        properties.setProperty(Journal.Options.FILE, args[arg + 1]);
+        List<File> files = files(Arrays.copyOfRange(args, arg + 2, args.length));
+
+        BulkLoad bulkLoad = new BulkLoad(properties, namespace, bufferCapacity);
+        try {
+            long start = System.currentTimeMillis();
+            long statements = 0;
+            for (File file : files) {
+                statements += bulkLoad.load(file).toldTriples.get();
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                log.info("Loaded {} statements at {} statements/s", statements, statements * 1000 / elapsed);
+            }
+        } finally {
+            bulkLoad.close();
+        }
+    }
+
+    /**
+     * Expand directories into the Turtle files that they contain, in name
+     * order so chunks are loaded in the order that they were munged.
+     */
+    private static List<File> files(String[] names) {
+        List<File> files = new ArrayList<>();
+        for (String name : names) {
+            File file = new File(name);
+            if (!file.isDirectory()) {
+                files.add(file);
+                continue;
+            }
+            File[] children = file.listFiles();
+            if (children == null) {
+                continue;
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                String lower = child.getName().toLowerCase(Locale.ROOT);
+                if (child.isFile() && (lower.endsWith(".ttl") || lower.endsWith(".ttl.gz"))) {
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Open a file, decompressing it if it is gzipped.
+     *
+     * @throws IOException if the file can't be opened
+     */
+    private static InputStream open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+        if (file.getName().endsWith(".gz")) {
+            return new GZIPInputStream(in, 1024 * 1024);
+        }
+        return in;
+    }
+
+    /**
+     * Log usage and exit.
+     */
+    private static void usage() {
+        log.error("Usage: BulkLoad [-n <namespace>] [-b <bufferCapacity>] <properties> <journal> <file or directory>...");
+        System.exit(1);
+    }
+}
@@ -1,6 +1,11 @@
 package org.wikidata.query.rdf.blazegraph;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
+import java.util.Properties;
 
 import javax.servlet.ServletContextEvent;
 
@@ -8,6 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wikidata.query.rdf.blazegraph.constraints.WikibaseDateBOp;
 import org.wikidata.query.rdf.blazegraph.constraints.WikibaseNowBOp;
+import org.wikidata.query.rdf.blazegraph.geo.AroundService;
+import org.wikidata.query.rdf.blazegraph.geo.BoxService;
 import org.wikidata.query.rdf.blazegraph.label.LabelService;
 
 import com.bigdata.bop.BOpContextBase;
@@ -15,6 +22,7 @@ import com.bigdata.bop.IValueExpression;
 import com.bigdata.rdf.internal.IV;
 import com.bigdata.rdf.internal.constraints.DateBOp.DateOp;
 import com.bigdata.rdf.sail.webapp.BigdataRDFServletContextListener;
+import com.bigdata.rdf.sail.webapp.ConfigParams;
 import com.bigdata.rdf.sparql.ast.FunctionRegistry;
 import com.bigdata.rdf.sparql.ast.GlobalAnnotations;
 import com.bigdata.rdf.sparql.ast.ValueExpressionNode;
@@ -35,11 +43,13 @@ public class WikibaseContextListener extends BigdataRDFServletContextListener {
 
     /**
      * Replaces the default Blazegraph services with ones that do not allow
-     * remote services and a label resolution service.
+     * remote services, a label resolution service, and geo search services.
      */
     public static void initializeServices() {
         ServiceRegistry.getInstance().setDefaultServiceFactory(new DisableRemotesServiceFactory());
         LabelService.register();
+        AroundService.register();
+        BoxService.register();
 
         // Override date functions so that we can handle them
         // via WikibaseDate
@@ -79,10 +89,32 @@ public class WikibaseContextListener extends BigdataRDFServletContextListener {
 
     @Override
     public void contextInitialized(final ServletContextEvent e) {
+        loadWikibaseUrisConfiguration(e);
         super.contextInitialized(e);
         initializeServices();
     }
 
+    /**
+     * Load the Wikibase host configuration from the same property file
+     * Blazegraph uses. This has to happen before Blazegraph opens the
+     * namespaces because their vocabularies depend on it.
+     */
+    private static void loadWikibaseUrisConfiguration(final ServletContextEvent e) {
+        String propertyFile = System.getProperty(ConfigParams.class.getName() + "." + ConfigParams.PROPERTY_FILE,
+                e.getServletContext().getInitParameter(ConfigParams.PROPERTY_FILE));
+        if (propertyFile == null || !new File(propertyFile).isFile()) {
+            log.info("Not loading wikibase host configuration from {}", propertyFile);
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(propertyFile)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            throw new RuntimeException("Error loading wikibase host configuration from " + propertyFile, ex);
+        }
+        WikibaseUrisConfiguration.load(properties);
+    }
+
     /**
      * Create factory for specific WikibaseDateOp operation.
      * @param dateop
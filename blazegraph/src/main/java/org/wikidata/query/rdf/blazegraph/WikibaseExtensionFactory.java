@@ -4,11 +4,13 @@ import java.util.Collection;
 import java.util.Iterator;
 
 import org.wikidata.query.rdf.blazegraph.inline.literal.WikibaseDateExtension;
+import org.wikidata.query.rdf.blazegraph.inline.literal.WikibaseGeoExtension;
 
 import com.bigdata.rdf.internal.DefaultExtensionFactory;
 import com.bigdata.rdf.internal.IDatatypeURIResolver;
 import com.bigdata.rdf.internal.IExtension;
 import com.bigdata.rdf.internal.ILexiconConfiguration;
+import com.bigdata.rdf.internal.IV;
 import com.bigdata.rdf.internal.impl.extensions.DateTimeExtension;
 import com.bigdata.rdf.model.BigdataLiteral;
 import com.bigdata.rdf.model.BigdataValue;
@@ -30,5 +32,20 @@ public class WikibaseExtensionFactory extends DefaultExtensionFactory {
             }
             extensions.add(new WikibaseDateExtension<BigdataLiteral>(resolver));
         }
+        if (declaresWktLiteral(resolver)) {
+            extensions.add(new WikibaseGeoExtension<BigdataLiteral>(resolver));
+        }
+    }
+
+    /**
+     * Does the vocabulary declare wktLiteral, like WikibaseVocabulary$V002?
+     * Journals built with older vocabularies already store wktLiterals as
+     * plain terms and inlining new ones would mix the two encodings so
+     * coordinates are only inlined when the vocabulary declares the type.
+     */
+    @SuppressWarnings("rawtypes")
+    private boolean declaresWktLiteral(IDatatypeURIResolver resolver) {
+        IV iv = resolver.resolve(WikibaseGeoExtension.WKT_LITERAL).getIV();
+        return iv != null && iv.isVocabulary();
     }
 }
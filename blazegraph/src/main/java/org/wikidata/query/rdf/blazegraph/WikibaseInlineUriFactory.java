@@ -9,6 +9,7 @@ import com.bigdata.rdf.internal.InlineURIFactory;
 import com.bigdata.rdf.internal.InlineUnsignedIntegerURIHandler;
 import com.bigdata.rdf.internal.NormalizingInlineUriHandler;
 import com.bigdata.rdf.internal.TrailingSlashRemovingInlineUriHandler;
+import com.bigdata.rdf.vocab.Vocabulary;
 
 /**
  * Factory building InlineURIHandlers for wikidata.
@@ -27,10 +28,31 @@ import com.bigdata.rdf.internal.TrailingSlashRemovingInlineUriHandler;
  * forbid them entirely.
  */
 public class WikibaseInlineUriFactory extends InlineURIFactory {
-    public WikibaseInlineUriFactory() {
-        // TODO lookup wikibase host and default to wikidata
-        final WikibaseUris uris = WikibaseUris.WIKIDATA;
+    /**
+     * Have the Wikibase handlers been added?
+     */
+    private boolean handlersAdded;
 
+    /**
+     * Blazegraph builds the factory with the default constructor and then
+     * initializes it with the namespace's vocabulary. We build the handlers
+     * then because that is the first time we know which Wikibase instance's
+     * uris we're inlining. The prefixes the handlers use have to be declared
+     * in the vocabulary so it has to have been built for the same instance.
+     */
+    @Override
+    public void init(Vocabulary vocab) {
+        if (!handlersAdded) {
+            addHandlers(WikibaseUrisConfiguration.forVocabulary(vocab));
+            handlersAdded = true;
+        }
+        super.init(vocab);
+    }
+
+    /**
+     * Add the handlers for a Wikibase instance.
+     */
+    private void addHandlers(WikibaseUris uris) {
         /*
          * Order matters here because some of these are prefixes of each other.
          */
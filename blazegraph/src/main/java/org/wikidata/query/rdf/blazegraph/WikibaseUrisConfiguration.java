@@ -0,0 +1,113 @@
+package org.wikidata.query.rdf.blazegraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+
+import com.bigdata.rdf.vocab.Vocabulary;
+
+/**
+ * Finds the Wikibase instance whose data is stored in a Blazegraph namespace.
+ * The host is configured with the wikibaseHost property, either for all
+ * namespaces or for a single one using Blazegraph's namespace override syntax:
+ * <code>
+ * org.wikidata.query.rdf.blazegraph.wikibaseHost=www.wikidata.org
+ * com.bigdata.namespace.testwdq.org.wikidata.query.rdf.blazegraph.wikibaseHost=test.wikidata.org
+ * </code>
+ * The properties are read from RWStore.properties by
+ * {@link WikibaseContextListener} and from system properties, the latter
+ * winning. Namespaces without a configured host get Wikidata.
+ * <p>
+ * The vocabulary and the inline uri factory are built from the host so once a
+ * namespace has been created its host mustn't change.
+ */
+public final class WikibaseUrisConfiguration {
+    /**
+     * Name of the property containing the host.
+     */
+    public static final String HOST_PROPERTY = "org.wikidata.query.rdf.blazegraph.wikibaseHost";
+    /**
+     * Prefix Blazegraph uses for namespace specific properties.
+     */
+    private static final String NAMESPACE_PREFIX = "com.bigdata.namespace.";
+    /**
+     * Host properties loaded from a properties file.
+     */
+    private static final Map<String, String> HOSTS = new HashMap<>();
+    /**
+     * Cache of uris by host.
+     */
+    private static final Map<String, WikibaseUris> URIS = new HashMap<>();
+
+    /**
+     * Load the host properties from Blazegraph's configuration.
+     */
+    public static synchronized void load(Properties properties) {
+        for (String name : properties.stringPropertyNames()) {
+            if (name.endsWith(HOST_PROPERTY)) {
+                HOSTS.put(name, properties.getProperty(name).trim());
+            }
+        }
+    }
+
+    /**
+     * Forget all loaded properties. Used by tests.
+     */
+    static synchronized void clear() {
+        HOSTS.clear();
+    }
+
+    /**
+     * The uris of the Wikibase instance stored in a namespace. Namespaces are
+     * searched from most to least specific so a setting for "wdq" applies to
+     * "wdq.lex" too.
+     */
+    public static synchronized WikibaseUris forNamespace(String namespace) {
+        String host = null;
+        String current = namespace;
+        while (host == null && current != null) {
+            host = lookup(NAMESPACE_PREFIX + current + "." + HOST_PROPERTY);
+            int lastDot = current.lastIndexOf('.');
+            current = lastDot < 0 ? null : current.substring(0, lastDot);
+        }
+        if (host == null) {
+            host = lookup(HOST_PROPERTY);
+        }
+        if (host == null) {
+            return WikibaseUris.WIKIDATA;
+        }
+        WikibaseUris uris = URIS.get(host);
+        if (uris == null) {
+            uris = new WikibaseUris(host);
+            URIS.put(host, uris);
+        }
+        return uris;
+    }
+
+    /**
+     * The uris of the Wikibase instance a vocabulary was built for.
+     */
+    public static WikibaseUris forVocabulary(Vocabulary vocab) {
+        if (vocab instanceof WikibaseVocabulary.V001) {
+            return ((WikibaseVocabulary.V001) vocab).uris();
+        }
+        return forNamespace(vocab.getNamespace());
+    }
+
+    /**
+     * Lookup a property, preferring system properties.
+     */
+    private static String lookup(String name) {
+        String value = System.getProperty(name);
+        if (value != null) {
+            return value.trim();
+        }
+        return HOSTS.get(name);
+    }
+
+    private WikibaseUrisConfiguration() {
+        // Utility class.
+    }
+}
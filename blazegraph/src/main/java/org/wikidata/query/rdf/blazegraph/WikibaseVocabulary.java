@@ -1,6 +1,7 @@
 package org.wikidata.query.rdf.blazegraph;
 
 import org.wikidata.query.rdf.blazegraph.vocabulary.CommonValuesVocabularyDecl;
+import org.wikidata.query.rdf.blazegraph.vocabulary.GeoSparqlVocabularyDecl;
 import org.wikidata.query.rdf.blazegraph.vocabulary.OntologyVocabularyDecl;
 import org.wikidata.query.rdf.blazegraph.vocabulary.ProvenanceVocabularyDecl;
 import org.wikidata.query.rdf.blazegraph.vocabulary.SchemaDotOrgVocabularyDecl;
@@ -25,10 +26,17 @@ public class WikibaseVocabulary {
             super(namespace);
         }
 
+        /**
+         * The uris of the Wikibase instance stored in this vocabulary's
+         * namespace.
+         */
+        public WikibaseUris uris() {
+            return WikibaseUrisConfiguration.forNamespace(getNamespace());
+        }
+
         @Override
         protected void addValues() {
-            // TODO lookup wikibase host and default to wikidata
-            addDecl(new WikibaseUrisVocabularyDecl(WikibaseUris.WIKIDATA));
+            addDecl(new WikibaseUrisVocabularyDecl(uris()));
             addDecl(new OntologyVocabularyDecl());
             addDecl(new SchemaDotOrgVocabularyDecl());
             addDecl(new ProvenanceVocabularyDecl());
@@ -36,4 +44,23 @@ public class WikibaseVocabulary {
             super.addValues();
         }
     }
+
+    /**
+     * Adds GeoSPARQL's wktLiteral so coordinates can be inlined. Declarations
+     * are only ever appended so the values from V001 keep their IVs.
+     */
+    public static class V002 extends V001 {
+        public V002() {
+        }
+
+        public V002(String namespace) {
+            super(namespace);
+        }
+
+        @Override
+        protected void addValues() {
+            super.addValues();
+            addDecl(new GeoSparqlVocabularyDecl());
+        }
+    }
 }
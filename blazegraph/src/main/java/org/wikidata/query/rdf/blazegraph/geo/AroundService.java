@@ -0,0 +1,97 @@
+package org.wikidata.query.rdf.blazegraph.geo;
+
+import java.util.List;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.wikidata.query.rdf.common.WikibasePoint;
+import org.wikidata.query.rdf.common.uri.Ontology;
+
+import com.bigdata.bop.IBindingSet;
+import com.bigdata.rdf.sparql.ast.TermNode;
+import com.bigdata.rdf.sparql.ast.eval.ServiceParams;
+import com.bigdata.rdf.sparql.ast.service.ServiceRegistry;
+import com.bigdata.rdf.store.AbstractTripleStore;
+
+/**
+ * Finds coordinates within a radius of a point. You can call it like this:
+ * <code>
+ *  SELECT *
+ *  WHERE {
+ *    SERVICE wikibase:around {
+ *      ?place wdt:P625 ?location .
+ *      bd:serviceParam wikibase:center "Point(48.8566 2.3522)"^^geo:wktLiteral .
+ *      bd:serviceParam wikibase:radius "10" .
+ *    }
+ *  }
+ * </code>
+ * <p>
+ * The radius is in kilometers. The center can also be a variable bound earlier
+ * in the query, like the location of another place.
+ */
+public class AroundService extends GeoService {
+    /**
+     * The URI service key.
+     */
+    public static final URI SERVICE_KEY = new URIImpl(Ontology.AROUND);
+
+    /**
+     * Register the service so it is recognized by Blazegraph.
+     */
+    public static void register() {
+        ServiceRegistry.getInstance().add(SERVICE_KEY, new AroundService());
+    }
+
+    @Override
+    protected Area createArea(ServiceParams serviceParams) {
+        TermNode center = getParam(serviceParams, "center");
+        TermNode radius = getParam(serviceParams, "radius");
+        return new Circle(center, radius);
+    }
+
+    /**
+     * A circle around a point.
+     */
+    private static final class Circle implements Area {
+        /**
+         * Parameter holding the center of the circle.
+         */
+        private final TermNode centerParam;
+        /**
+         * Parameter holding the radius of the circle.
+         */
+        private final TermNode radiusParam;
+        /**
+         * Center of the circle for the current binding.
+         */
+        private WikibasePoint center;
+        /**
+         * Radius of the circle in kilometers for the current binding.
+         */
+        private double radius;
+
+        private Circle(TermNode centerParam, TermNode radiusParam) {
+            this.centerParam = centerParam;
+            this.radiusParam = radiusParam;
+        }
+
+        @Override
+        public void bind(AbstractTripleStore tripleStore, IBindingSet binding) {
+            center = resolvePoint(tripleStore, centerParam, binding);
+            radius = Double.parseDouble(resolve(tripleStore, radiusParam, binding).stringValue());
+            if (!(radius >= 0)) {
+                throw new IllegalArgumentException("Radius must not be negative but was " + radius);
+            }
+        }
+
+        @Override
+        public List<long[]> ranges(int maxRanges) {
+            return WikibasePoint.zOrderRanges(center, radius, maxRanges);
+        }
+
+        @Override
+        public boolean contains(WikibasePoint point) {
+            return center.distance(point) <= radius;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.wikidata.query.rdf.blazegraph.geo;
+
+import java.util.List;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.wikidata.query.rdf.common.WikibasePoint;
+import org.wikidata.query.rdf.common.uri.Ontology;
+
+import com.bigdata.bop.IBindingSet;
+import com.bigdata.rdf.sparql.ast.TermNode;
+import com.bigdata.rdf.sparql.ast.eval.ServiceParams;
+import com.bigdata.rdf.sparql.ast.service.ServiceRegistry;
+import com.bigdata.rdf.store.AbstractTripleStore;
+
+/**
+ * Finds coordinates within a box defined by its south west and north east
+ * corners. You can call it like this: <code>
+ *  SELECT *
+ *  WHERE {
+ *    SERVICE wikibase:box {
+ *      ?place wdt:P625 ?location .
+ *      bd:serviceParam wikibase:cornerSouthWest "Point(48.8 2.2)"^^geo:wktLiteral .
+ *      bd:serviceParam wikibase:cornerNorthEast "Point(48.9 2.4)"^^geo:wktLiteral .
+ *    }
+ *  }
+ * </code>
+ * <p>
+ * If the south west corner is east of the north east corner then the box
+ * crosses the antimeridian.
+ */
+public class BoxService extends GeoService {
+    /**
+     * The URI service key.
+     */
+    public static final URI SERVICE_KEY = new URIImpl(Ontology.BOX);
+
+    /**
+     * Register the service so it is recognized by Blazegraph.
+     */
+    public static void register() {
+        ServiceRegistry.getInstance().add(SERVICE_KEY, new BoxService());
+    }
+
+    @Override
+    protected Area createArea(ServiceParams serviceParams) {
+        TermNode southWest = getParam(serviceParams, "cornerSouthWest");
+        TermNode northEast = getParam(serviceParams, "cornerNorthEast");
+        return new Box(southWest, northEast);
+    }
+
+    /**
+     * A box between two corners.
+     */
+    private static final class Box implements Area {
+        /**
+         * Parameter holding the south west corner.
+         */
+        private final TermNode southWestParam;
+        /**
+         * Parameter holding the north east corner.
+         */
+        private final TermNode northEastParam;
+        /**
+         * South west corner for the current binding.
+         */
+        private WikibasePoint southWest;
+        /**
+         * North east corner for the current binding.
+         */
+        private WikibasePoint northEast;
+
+        private Box(TermNode southWestParam, TermNode northEastParam) {
+            this.southWestParam = southWestParam;
+            this.northEastParam = northEastParam;
+        }
+
+        @Override
+        public void bind(AbstractTripleStore tripleStore, IBindingSet binding) {
+            southWest = resolvePoint(tripleStore, southWestParam, binding);
+            northEast = resolvePoint(tripleStore, northEastParam, binding);
+        }
+
+        @Override
+        public List<long[]> ranges(int maxRanges) {
+            return WikibasePoint.zOrderRanges(southWest, northEast, maxRanges);
+        }
+
+        @Override
+        public boolean contains(WikibasePoint point) {
+            return point.within(southWest, northEast);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package org.wikidata.query.rdf.blazegraph.geo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.URIImpl;
+import org.wikidata.query.rdf.blazegraph.inline.literal.WikibaseGeoExtension;
+import org.wikidata.query.rdf.common.WikibasePoint;
+import org.wikidata.query.rdf.common.uri.Ontology;
+
+import com.bigdata.bop.BOp;
+import com.bigdata.bop.Constant;
+import com.bigdata.bop.IBindingSet;
+import com.bigdata.bop.IConstant;
+import com.bigdata.bop.IVariable;
+import com.bigdata.btree.IIndex;
+import com.bigdata.btree.ITuple;
+import com.bigdata.btree.ITupleIterator;
+import com.bigdata.btree.keys.IKeyBuilder;
+import com.bigdata.btree.keys.KeyBuilder;
+import com.bigdata.btree.keys.SuccessorUtil;
+import com.bigdata.rdf.internal.IV;
+import com.bigdata.rdf.internal.IVUtility;
+import com.bigdata.rdf.internal.impl.literal.LiteralExtensionIV;
+import com.bigdata.rdf.internal.impl.literal.XSDNumericIV;
+import com.bigdata.rdf.sparql.ast.JoinGroupNode;
+import com.bigdata.rdf.sparql.ast.StatementPatternNode;
+import com.bigdata.rdf.sparql.ast.TermNode;
+import com.bigdata.rdf.sparql.ast.eval.AbstractServiceFactory;
+import com.bigdata.rdf.sparql.ast.eval.ServiceParams;
+import com.bigdata.rdf.sparql.ast.service.BigdataNativeServiceOptions;
+import com.bigdata.rdf.sparql.ast.service.BigdataServiceCall;
+import com.bigdata.rdf.sparql.ast.service.IServiceOptions;
+import com.bigdata.rdf.sparql.ast.service.ServiceCallCreateParams;
+import com.bigdata.rdf.spo.ISPO;
+import com.bigdata.rdf.spo.SPOKeyOrder;
+import com.bigdata.rdf.store.AbstractTripleStore;
+import com.bigdata.rdf.store.BD;
+
+import cutthecrap.utils.striterators.ICloseableIterator;
+
+/**
+ * Base class for services that find coordinates stored with
+ * {@link WikibaseGeoExtension} by scanning ranges of the POS index. The body
+ * of the service must contain exactly one statement pattern linking places to
+ * their coordinates, for example <code>?place wdt:P625 ?location</code>. The
+ * predicate must be constant. The service binds the subject and object of that
+ * pattern for every coordinate it finds.
+ * <p>
+ * Coordinates are inlined as their position on a Z-order curve so an area of
+ * the globe can be covered by a handful of ranges of the index. Points in
+ * those ranges that are outside of the area are filtered out.
+ */
+@SuppressWarnings({"rawtypes", "unchecked", "checkstyle:classfanoutcomplexity"})
+public abstract class GeoService extends AbstractServiceFactory {
+    /**
+     * Options configuring this service as a native Blazegraph service.
+     */
+    private static final BigdataNativeServiceOptions SERVICE_OPTIONS = new BigdataNativeServiceOptions();
+
+    /**
+     * Rough limit on the number of index ranges scanned per search. More
+     * ranges cover the area more tightly but each range costs a seek.
+     */
+    private static final int MAX_RANGES = 64;
+
+    @Override
+    public IServiceOptions getServiceOptions() {
+        return SERVICE_OPTIONS;
+    }
+
+    @Override
+    public BigdataServiceCall create(ServiceCallCreateParams params, ServiceParams serviceParams) {
+        AbstractTripleStore tripleStore = params.getTripleStore();
+        IV dataType = tripleStore.getVocabulary().get(WikibaseGeoExtension.WKT_LITERAL);
+        if (dataType == null) {
+            throw new IllegalStateException("Geo services need a vocabulary that declares "
+                    + WikibaseGeoExtension.WKT_LITERAL + " like WikibaseVocabulary$V002.");
+        }
+        return new GeoServiceCall(tripleStore, dataType, findPattern(params), createArea(serviceParams));
+    }
+
+    /**
+     * Build the area to search from the service parameters.
+     */
+    protected abstract Area createArea(ServiceParams serviceParams);
+
+    /**
+     * Find the single parameter with the given name.
+     */
+    protected static TermNode getParam(ServiceParams serviceParams, String name) {
+        List<TermNode> nodes = serviceParams.get(new URIImpl(Ontology.NAMESPACE + name));
+        if (nodes.size() != 1) {
+            throw new IllegalArgumentException("Expected exactly one wikibase:" + name + " parameter.");
+        }
+        return nodes.get(0);
+    }
+
+    /**
+     * Find the statement pattern to resolve from the service call.
+     */
+    private static StatementPatternNode findPattern(ServiceCallCreateParams params) {
+        JoinGroupNode g = (JoinGroupNode) params.getServiceNode().getGraphPattern();
+        StatementPatternNode pattern = null;
+        for (BOp st : g.args()) {
+            StatementPatternNode sn = (StatementPatternNode) st;
+            if (sn.s().isConstant() && BD.SERVICE_PARAM.equals(sn.s().getValue())) {
+                // skip service params
+                continue;
+            }
+            if (pattern != null) {
+                throw new IllegalArgumentException("Geo services only support a single statement pattern.");
+            }
+            pattern = sn;
+        }
+        if (pattern == null) {
+            throw new IllegalArgumentException("Geo services need a statement pattern like ?place wdt:P625 ?location.");
+        }
+        if (!pattern.p().isConstant()) {
+            throw new IllegalArgumentException("The predicate linking places to coordinates must be constant.");
+        }
+        if (!pattern.o().isVariable()) {
+            throw new IllegalArgumentException("The coordinate must be a variable.");
+        }
+        return pattern;
+    }
+
+    /**
+     * Resolve a service parameter to a value. Parameters can be constants or
+     * variables bound before the service call.
+     */
+    protected static Value resolve(AbstractTripleStore tripleStore, TermNode term, IBindingSet binding) {
+        if (term.isConstant()) {
+            return term.getValue();
+        }
+        IConstant bound = binding.get((IVariable) term.getValueExpression());
+        if (bound == null) {
+            throw new IllegalArgumentException("Refusing to search using unbound " + term + ".");
+        }
+        IV iv = (IV) bound.get();
+        if (iv.hasValue()) {
+            return iv.getValue();
+        }
+        return tripleStore.getLexiconRelation().getTerm(iv);
+    }
+
+    /**
+     * Resolve a service parameter to a point.
+     */
+    protected static WikibasePoint resolvePoint(AbstractTripleStore tripleStore, TermNode term, IBindingSet binding) {
+        Value value = resolve(tripleStore, term, binding);
+        if (!(value instanceof Literal)) {
+            throw new IllegalArgumentException("Expected a Point(latitude longitude) literal but got " + value);
+        }
+        return WikibasePoint.fromString(value.stringValue());
+    }
+
+    /**
+     * An area on the globe to search, possibly depending on the incoming
+     * binding.
+     */
+    protected interface Area {
+        /**
+         * Prepare to search for the binding. Called before each search.
+         */
+        void bind(AbstractTripleStore tripleStore, IBindingSet binding);
+
+        /**
+         * Ranges of the Z-order curve covering the area.
+         */
+        List<long[]> ranges(int maxRanges);
+
+        /**
+         * Is this point in the area?
+         */
+        boolean contains(WikibasePoint point);
+    }
+
+    /**
+     * Represents the call site in a particular SPARQL query.
+     */
+    private static class GeoServiceCall implements BigdataServiceCall {
+        /**
+         * The TripleStore to search.
+         */
+        private final AbstractTripleStore tripleStore;
+        /**
+         * IV of the wktLiteral data type.
+         */
+        private final IV dataType;
+        /**
+         * Predicate linking places to coordinates.
+         */
+        private final IV predicate;
+        /**
+         * Subject of the pattern. Either a constant or a variable to bind.
+         */
+        private final TermNode subject;
+        /**
+         * Variable to bind the coordinate to.
+         */
+        private final IVariable<IV> object;
+        /**
+         * The area to search.
+         */
+        private final Area area;
+
+        GeoServiceCall(AbstractTripleStore tripleStore, IV dataType, StatementPatternNode pattern, Area area) {
+            this.tripleStore = tripleStore;
+            this.dataType = dataType;
+            this.predicate = (IV) pattern.p().getValueExpression().get();
+            this.subject = pattern.s();
+            this.object = (IVariable<IV>) pattern.o().getValueExpression();
+            this.area = area;
+        }
+
+        @Override
+        public IServiceOptions getServiceOptions() {
+            return SERVICE_OPTIONS;
+        }
+
+        @Override
+        public ICloseableIterator<IBindingSet> call(IBindingSet[] bindingSets) throws Exception {
+            List<IBindingSet> results = new ArrayList<>();
+            if (predicate.isNullIV()) {
+                // The predicate isn't in the store so nothing can match
+                return new ListIterator(results);
+            }
+            IIndex index = tripleStore.getSPORelation().getIndex(SPOKeyOrder.POS);
+            IKeyBuilder keyBuilder = KeyBuilder.newInstance();
+            for (IBindingSet binding : bindingSets) {
+                area.bind(tripleStore, binding);
+                for (long[] range : area.ranges(MAX_RANGES)) {
+                    byte[] fromKey = key(keyBuilder, range[0]);
+                    byte[] toKey = SuccessorUtil.successor(key(keyBuilder, range[1]));
+                    ITupleIterator<ISPO> tuples = index.rangeIterator(fromKey, toKey);
+                    while (tuples.hasNext()) {
+                        ITuple<ISPO> tuple = tuples.next();
+                        ISPO spo = tuple.getObject();
+                        IBindingSet result = match(binding, spo);
+                        if (result != null) {
+                            results.add(result);
+                        }
+                    }
+                }
+            }
+            return new ListIterator(results);
+        }
+
+        /**
+         * Build the key into the POS index for a position on the Z-order
+         * curve.
+         */
+        private byte[] key(IKeyBuilder keyBuilder, long zOrder) {
+            keyBuilder.reset();
+            IVUtility.encode(keyBuilder, predicate);
+            IVUtility.encode(keyBuilder, new LiteralExtensionIV(new XSDNumericIV(zOrder), dataType));
+            return keyBuilder.getKey();
+        }
+
+        /**
+         * Build the result binding if the statement matches.
+         *
+         * @return the result binding or null if the statement doesn't match
+         */
+        private IBindingSet match(IBindingSet binding, ISPO spo) {
+            if (subject.isConstant() && !spo.s().equals(subject.getValueExpression().get())) {
+                return null;
+            }
+            LiteralExtensionIV location = (LiteralExtensionIV) spo.o();
+            if (!area.contains(WikibasePoint.fromZOrder(location.getDelegate().longValue()))) {
+                return null;
+            }
+            IBindingSet result = binding.clone();
+            if (!subject.isConstant() && !bindIfCompatible(result, (IVariable<IV>) subject.getValueExpression(), spo.s())) {
+                return null;
+            }
+            if (!bindIfCompatible(result, object, location)) {
+                return null;
+            }
+            return result;
+        }
+
+        /**
+         * Bind a variable unless the binding already binds it to something
+         * else.
+         *
+         * @return false if the variable was already bound to something else
+         */
+        private boolean bindIfCompatible(IBindingSet result, IVariable<IV> variable, IV value) {
+            if (result.isBound(variable)) {
+                return value.equals(result.get(variable).get());
+            }
+            result.set(variable, new Constant(value));
+            return true;
+        }
+    }
+
+    /**
+     * Iterates the results of a search.
+     */
+    private static class ListIterator implements ICloseableIterator<IBindingSet> {
+        /**
+         * The results.
+         */
+        private final Iterator<IBindingSet> results;
+        /**
+         * Has this iterator been closed?
+         */
+        private boolean closed;
+
+        ListIterator(List<IBindingSet> results) {
+            this.results = results.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && results.hasNext();
+        }
+
+        @Override
+        public IBindingSet next() {
+            return results.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
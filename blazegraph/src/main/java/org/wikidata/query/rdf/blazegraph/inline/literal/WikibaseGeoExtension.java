@@ -0,0 +1,73 @@
+package org.wikidata.query.rdf.blazegraph.inline.literal;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.wikidata.query.rdf.common.WikibasePoint;
+import org.wikidata.query.rdf.common.uri.GeoSparql;
+
+import com.bigdata.rdf.internal.IDatatypeURIResolver;
+import com.bigdata.rdf.internal.impl.literal.AbstractLiteralIV;
+import com.bigdata.rdf.internal.impl.literal.LiteralExtensionIV;
+import com.bigdata.rdf.internal.impl.literal.XSDNumericIV;
+import com.bigdata.rdf.model.BigdataLiteral;
+import com.bigdata.rdf.model.BigdataURI;
+import com.bigdata.rdf.model.BigdataValue;
+import com.bigdata.rdf.model.BigdataValueFactory;
+
+/**
+ * This implementation of {@link com.bigdata.rdf.internal.IExtension} inlines
+ * the Point(latitude longitude) wktLiterals that Wikibase exports for globe
+ * coordinates. The point is stored as its position on a Z-order curve encoded
+ * as an inline long so the statements in the POS index are sorted roughly by
+ * location. That is what lets {@link org.wikidata.query.rdf.blazegraph.geo}
+ * services find points near each other with range scans.
+ *
+ * @param <V> Blazegraph value to expand. These are usually treated a bit
+ *            roughly by Blazegraph - lots of rawtypes
+ */
+public class WikibaseGeoExtension<V extends BigdataValue> extends AbstractMultiTypeExtension<V> {
+    /**
+     * The wktLiteral data type.
+     */
+    public static final URI WKT_LITERAL = new URIImpl(GeoSparql.WKT_LITERAL);
+
+    /**
+     * List of data types this extension can inline.
+     */
+    private static final List<URI> SUPPORTED_DATA_TYPES = Collections.singletonList(WKT_LITERAL);
+
+    public WikibaseGeoExtension(final IDatatypeURIResolver resolver) {
+        super(resolver, SUPPORTED_DATA_TYPES);
+    }
+
+    /**
+     * Parses the point and encodes its position on the Z-order curve as a
+     * delegate {@link XSDNumericIV}. Points that we can't parse, like those on
+     * other globes, throw and are stored as plain literals. So do points that
+     * wouldn't decode back to exactly the same literal, like those with more
+     * than seven decimal places or with trailing zeros. Those aren't found by
+     * the geo services.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected AbstractLiteralIV createDelegateIV(Literal literal, BigdataURI dt) {
+        long zOrder = WikibasePoint.fromString(literal.stringValue()).zOrder();
+        if (!WikibasePoint.fromZOrder(zOrder).toString().equals(literal.stringValue())) {
+            throw new IllegalArgumentException("Can't inline " + literal.stringValue() + " without losing precision");
+        }
+        return new XSDNumericIV(zOrder);
+    }
+
+    /**
+     * Decode the point from its position on the Z-order curve.
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected BigdataLiteral safeAsValue(LiteralExtensionIV iv, BigdataValueFactory vf, BigdataURI dt) {
+        return vf.createLiteral(WikibasePoint.fromZOrder(iv.getDelegate().longValue()).toString(), dt);
+    }
+}
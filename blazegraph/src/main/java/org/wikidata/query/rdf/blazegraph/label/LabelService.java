@@ -13,6 +13,7 @@ import org.openrdf.model.Value;
 import org.openrdf.model.impl.LiteralImpl;
 import org.openrdf.model.impl.URIImpl;
 import org.openrdf.model.vocabulary.RDFS;
+import org.wikidata.query.rdf.blazegraph.WikibaseUrisConfiguration;
 import org.wikidata.query.rdf.common.uri.Ontology;
 import org.wikidata.query.rdf.common.uri.WikibaseUris;
 
@@ -377,6 +378,11 @@ public class LabelService extends AbstractServiceFactory {
          * cached.
          */
         private IV rdfsLabelIv;
+        /**
+         * The uris of the Wikibase instance stored in the TripleStore. Looked
+         * up lazily when needed and cached.
+         */
+        private WikibaseUris uris;
 
         public ResolutionContext(AbstractTripleStore tripleStore, Map<String, Integer> languageFallbacks) {
             this.tripleStore = tripleStore;
@@ -523,8 +529,10 @@ public class LabelService extends AbstractServiceFactory {
          * The WikibaseUris to use in this context.
          */
         private WikibaseUris uris() {
-            // TODO lookup wikibase host and default to wikidata
-            return WikibaseUris.WIKIDATA;
+            if (uris == null) {
+                uris = WikibaseUrisConfiguration.forVocabulary(tripleStore.getVocabulary());
+            }
+            return uris;
         }
 
         /**
@@ -75,9 +75,11 @@ public class AbstractRandomizedBlazegraphStorageTestCase extends RandomizedTest
         }
         Properties properties = new Properties();
         properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.vocabularyClass",
-                WikibaseVocabulary.V001.class.getName());
+                WikibaseVocabulary.V002.class.getName());
         properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.inlineURIFactory",
                 WikibaseInlineUriFactory.class.getName());
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.extensionFactoryClass",
+                WikibaseExtensionFactory.class.getName());
         store = new TempTripleStore(temporaryStore(), properties, null);
         return store;
     }
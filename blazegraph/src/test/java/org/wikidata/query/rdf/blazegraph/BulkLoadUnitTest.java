@@ -0,0 +1,90 @@
+package org.wikidata.query.rdf.blazegraph;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.wikidata.query.rdf.blazegraph.WikibaseUrisConfiguration.HOST_PROPERTY;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.impl.URIImpl;
+import org.wikidata.query.rdf.common.uri.SchemaDotOrg;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+
+import com.bigdata.journal.BufferMode;
+import com.bigdata.journal.Journal;
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+
+@RunWith(RandomizedRunner.class)
+public class BulkLoadUnitTest extends RandomizedTest {
+    /**
+     * The loader under test. Null until a test builds it.
+     */
+    private BulkLoad bulkLoad;
+
+    @After
+    public void close() {
+        if (bulkLoad != null) {
+            bulkLoad.close();
+        }
+        WikibaseUrisConfiguration.clear();
+    }
+
+    @Test
+    public void loadsMungedTurtle() throws IOException {
+        bulkLoad = new BulkLoad(properties(), BulkLoad.DEFAULT_NAMESPACE, 100);
+        assertEquals(2, bulkLoad.load(munged(WikibaseUris.WIKIDATA)).toldTriples.get());
+        assertEquals(2, bulkLoad.store().getStatementCount(true));
+        assertNotNull(bulkLoad.store().getStatement(new URIImpl(WikibaseUris.WIKIDATA.entity() + "Q1"),
+                new URIImpl(SchemaDotOrg.VERSION), null));
+    }
+
+    @Test
+    public void usesConfiguredWikibase() throws IOException {
+        Properties properties = properties();
+        properties.setProperty(HOST_PROPERTY, "test.wikidata.org");
+        bulkLoad = new BulkLoad(properties, BulkLoad.DEFAULT_NAMESPACE, 100);
+        assertEquals(WikibaseUris.TEST_WIKIDATA.entity(),
+                WikibaseUrisConfiguration.forVocabulary(bulkLoad.store().getVocabulary()).entity());
+        assertEquals(2, bulkLoad.load(munged(WikibaseUris.TEST_WIKIDATA)).toldTriples.get());
+    }
+
+    /**
+     * Properties for a journal in a temporary directory built the way
+     * Blazegraph serves it.
+     */
+    private Properties properties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(Journal.Options.FILE, new File(newTempDir(), "wikidata.jnl").getPath());
+        properties.setProperty(Journal.Options.BUFFER_MODE, BufferMode.DiskRW.toString());
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.vocabularyClass",
+                WikibaseVocabulary.V002.class.getName());
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.inlineURIFactory",
+                WikibaseInlineUriFactory.class.getName());
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.extensionFactoryClass",
+                WikibaseExtensionFactory.class.getName());
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.quads", "false");
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.statementIdentifiers", "false");
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.axiomsClass",
+                "com.bigdata.rdf.axioms.NoAxioms");
+        properties.setProperty("com.bigdata.rdf.store.AbstractTripleStore.textIndex", "false");
+        return properties;
+    }
+
+    /**
+     * Write a small munged Turtle file about Q1.
+     */
+    private File munged(WikibaseUris uris) throws IOException {
+        File file = new File(newTempDir(), "wikidata.ttl");
+        String entity = "<" + uris.entity() + "Q1>";
+        String turtle = entity + " <" + SchemaDotOrg.VERSION + "> 123 .\n"
+                + entity + " <" + uris.entity() + "P31> <" + uris.entity() + "Q5> .\n";
+        Files.write(file.toPath(), turtle.getBytes(UTF_8));
+        return file;
+    }
+}
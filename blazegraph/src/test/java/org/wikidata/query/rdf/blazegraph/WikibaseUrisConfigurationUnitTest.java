@@ -0,0 +1,50 @@
+package org.wikidata.query.rdf.blazegraph;
+
+import static org.wikidata.query.rdf.blazegraph.WikibaseUrisConfiguration.HOST_PROPERTY;
+import static org.wikidata.query.rdf.blazegraph.WikibaseUrisConfiguration.forNamespace;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+
+@RunWith(RandomizedRunner.class)
+public class WikibaseUrisConfigurationUnitTest extends RandomizedTest {
+    @After
+    public void clear() {
+        WikibaseUrisConfiguration.clear();
+    }
+
+    @Test
+    public void defaultsToWikidata() {
+        assertSame(WikibaseUris.WIKIDATA, forNamespace("wdq"));
+        assertSame(WikibaseUris.WIKIDATA, forNamespace(null));
+    }
+
+    @Test
+    public void global() {
+        load(HOST_PROPERTY, "test.wikidata.org");
+        assertEquals(WikibaseUris.TEST_WIKIDATA.entity(), forNamespace("wdq").entity());
+    }
+
+    @Test
+    public void perNamespace() {
+        load(HOST_PROPERTY, "www.wikidata.org");
+        load("com.bigdata.namespace.test." + HOST_PROPERTY, "test.wikidata.org");
+        assertEquals(WikibaseUris.WIKIDATA.entity(), forNamespace("wdq").entity());
+        assertEquals(WikibaseUris.TEST_WIKIDATA.entity(), forNamespace("test").entity());
+        assertEquals(WikibaseUris.TEST_WIKIDATA.entity(), forNamespace("test.lex").entity());
+        assertSame(forNamespace("test"), forNamespace("test.lex"));
+    }
+
+    private void load(String name, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(name, value);
+        WikibaseUrisConfiguration.load(properties);
+    }
+}
@@ -0,0 +1,121 @@
+package org.wikidata.query.rdf.blazegraph.geo;
+
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.wikidata.query.rdf.test.Matchers.assertResult;
+import static org.wikidata.query.rdf.test.Matchers.binds;
+
+import org.hamcrest.Matcher;
+import org.junit.Test;
+import org.openrdf.model.Literal;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResult;
+import org.wikidata.query.rdf.blazegraph.AbstractRandomizedBlazegraphTestBase;
+import org.wikidata.query.rdf.common.uri.GeoSparql;
+import org.wikidata.query.rdf.common.uri.Ontology;
+
+import com.bigdata.rdf.internal.impl.literal.LiteralExtensionIV;
+import com.bigdata.rdf.model.BigdataStatement;
+
+public class GeoServiceUnitTest extends AbstractRandomizedBlazegraphTestBase {
+    @Test
+    public void coordinatesAreInlined() {
+        BigdataStatement statement = roundTrip("wd:Q1", "wdt:P625", point("Point(48.8566 2.3522)"));
+        assertThat(statement.getObject().getIV(), instanceOf(LiteralExtensionIV.class));
+        assertEquals(point("Point(48.8566 2.3522)"), statement.getObject());
+    }
+
+    @Test
+    public void impreciseCoordinatesAreNotInlined() {
+        for (String lossy : new String[] {"Point(48.858222222222 2.294479166667)", "Point(1.0 2.0)"}) {
+            BigdataStatement statement = roundTrip("wd:Q1", "wdt:P625", point(lossy));
+            assertThat(statement.getObject().getIV(), not(instanceOf(LiteralExtensionIV.class)));
+            assertEquals(point(lossy), statement.getObject());
+        }
+    }
+
+    @Test
+    public void aroundConstant() {
+        addPlaces();
+        assertResult(search("around", "bd:serviceParam ontology:center " + literal("Point(48.8566 2.3522)") + " .\n"
+                + "bd:serviceParam ontology:radius \"20\" .", null),
+                place("Q1", "Point(48.8566 2.3522)"),
+                place("Q3", "Point(48.8049 2.1204)"));
+    }
+
+    @Test
+    public void aroundBoundPlace() {
+        addPlaces();
+        assertResult(search("around", "bd:serviceParam ontology:center " + literal("Point(48.8566 2.3522)") + " .\n"
+                + "bd:serviceParam ontology:radius \"20\" .", "VALUES ?place { wd:Q3 }"),
+                place("Q3", "Point(48.8049 2.1204)"));
+    }
+
+    @Test
+    public void aroundVariable() {
+        addPlaces();
+        assertResult(search("around", "bd:serviceParam ontology:center ?center .\n"
+                + "bd:serviceParam ontology:radius \"400\" .", "wd:Q2 wdt:P625 ?center ."),
+                place("Q1", "Point(48.8566 2.3522)"),
+                place("Q2", "Point(51.5074 -0.1278)"),
+                place("Q3", "Point(48.8049 2.1204)"));
+    }
+
+    @Test
+    public void box() {
+        addPlaces();
+        assertResult(search("box", "bd:serviceParam ontology:cornerSouthWest " + literal("Point(48 -1)") + " .\n"
+                + "bd:serviceParam ontology:cornerNorthEast " + literal("Point(52 2.2)") + " .", null),
+                place("Q2", "Point(51.5074 -0.1278)"),
+                place("Q3", "Point(48.8049 2.1204)"));
+    }
+
+    @Test
+    public void boxAcrossAntimeridian() {
+        addPlaces();
+        assertResult(search("box", "bd:serviceParam ontology:cornerSouthWest " + literal("Point(-20 170)") + " .\n"
+                + "bd:serviceParam ontology:cornerNorthEast " + literal("Point(-10 -170)") + " .", null),
+                place("Q4", "Point(-17.7134 178.065)"),
+                place("Q5", "Point(-13.759 -172.1046)"));
+    }
+
+    private void addPlaces() {
+        add("wd:Q1", "wdt:P625", point("Point(48.8566 2.3522)"));
+        add("wd:Q2", "wdt:P625", point("Point(51.5074 -0.1278)"));
+        add("wd:Q3", "wdt:P625", point("Point(48.8049 2.1204)"));
+        add("wd:Q4", "wdt:P625", point("Point(-17.7134 178.065)"));
+        add("wd:Q5", "wdt:P625", point("Point(-13.759 -172.1046)"));
+        // Not a coordinate so never found
+        add("wd:Q6", "wdt:P625", new LiteralImpl("Point(48.8566 2.3522)"));
+    }
+
+    private TupleQueryResult search(String service, String params, String otherQuery) {
+        StringBuilder query = uris().prefixes(GeoSparql.prefix(Ontology.prefix(new StringBuilder())));
+        query.append("SELECT ?place ?location\n");
+        query.append("WHERE {\n");
+        if (otherQuery != null) {
+            query.append(otherQuery).append("\n");
+        }
+        query.append("  SERVICE ontology:").append(service).append(" {\n");
+        query.append("    ?place wdt:P625 ?location .\n");
+        query.append(params).append("\n");
+        query.append("  }\n");
+        query.append("} ORDER BY ?place\n");
+        return query(query.toString());
+    }
+
+    private Matcher<BindingSet> place(String id, String location) {
+        return both(binds("place", new URIImpl(uris().entity() + id))).and(binds("location", point(location)));
+    }
+
+    private String literal(String point) {
+        return "\"" + point + "\"^^geo:wktLiteral";
+    }
+
+    private Literal point(String point) {
+        return new LiteralImpl(point, new URIImpl(GeoSparql.WKT_LITERAL));
+    }
+}
@@ -0,0 +1,385 @@
+package org.wikidata.query.rdf.common;
+
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.floor;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Handles wikidata globe coordinates. Wikibase exports them as
+ * Point(latitude longitude) literals with the coordinates in degrees.
+ * <p>
+ * Points can be encoded into a single long by quantizing both coordinates to 32
+ * bits and interleaving them along a Z-order (Morton) curve. Points that are
+ * close on the globe are mostly close in that encoding so a box on the globe
+ * can be covered by a handful of ranges of the encoding. The quantization step
+ * is about a centimeter which is small enough that any coordinate with seven
+ * or fewer decimal places round trips exactly. Coordinates with more decimal
+ * places decode to the nearest seven decimal places so they don't.
+ */
+public class WikibasePoint {
+    /**
+     * Mean radius of the earth in kilometers.
+     */
+    public static final double EARTH_RADIUS = 6371.0088;
+
+    /**
+     * Pattern used to recognize points sent from wikibase. Points with a globe
+     * prefix aren't supported because we'd lose the globe encoding them.
+     */
+    private static final Pattern FORMAT_PATTERN = Pattern.compile(
+            "\\s*Point\\(\\s*([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?)\\s+([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?)\\s*\\)\\s*",
+            Pattern.CASE_INSENSITIVE);
+    /**
+     * Bits used to quantize each coordinate.
+     */
+    private static final int BITS = 32;
+    /**
+     * Size of a quantized cell in degrees. Same for latitude and longitude so
+     * latitude only ever uses half of its cells.
+     */
+    private static final double STEP = 360.0 / (1L << BITS);
+    /**
+     * Largest latitude cell.
+     */
+    private static final long MAX_LATITUDE_CELL = (1L << (BITS - 1)) - 1;
+    /**
+     * Largest longitude cell.
+     */
+    private static final long MAX_LONGITUDE_CELL = (1L << BITS) - 1;
+    /**
+     * Number of decimal places kept when decoding points.
+     */
+    private static final int DECIMALS = 7;
+
+    /**
+     * Build a WikibasePoint from the string representation. Supported is
+     * Point(latitude longitude).
+     */
+    public static WikibasePoint fromString(String string) {
+        Matcher m = FORMAT_PATTERN.matcher(string);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid point format:  " + string);
+        }
+        return new WikibasePoint(Double.parseDouble(m.group(1)), Double.parseDouble(m.group(2)));
+    }
+
+    /**
+     * Build a WikibasePoint from its Z-order encoding. The point is decoded
+     * to the center of its quantization cell.
+     */
+    public static WikibasePoint fromZOrder(long zOrder) {
+        double latitude = (compact(zOrder >>> 1) + 0.5) * STEP - 90;
+        double longitude = (compact(zOrder) + 0.5) * STEP - 180;
+        return new WikibasePoint(round(latitude), round(longitude));
+    }
+
+    /**
+     * Latitude in degrees.
+     */
+    private final double latitude;
+    /**
+     * Longitude in degrees.
+     */
+    private final double longitude;
+
+    /**
+     * Build a point from latitude and longitude in degrees.
+     */
+    public WikibasePoint(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90)) {
+            throw new IllegalArgumentException("Latitude out of range:  " + latitude);
+        }
+        if (!(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("Longitude out of range:  " + longitude);
+        }
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Latitude in degrees.
+     */
+    public double latitude() {
+        return latitude;
+    }
+
+    /**
+     * Longitude in degrees.
+     */
+    public double longitude() {
+        return longitude;
+    }
+
+    /**
+     * Encode the point as a position on the Z-order curve. The result is
+     * always positive.
+     */
+    public long zOrder() {
+        return interleave(longitudeCell(longitude), latitudeCell(latitude));
+    }
+
+    /**
+     * Great circle distance to another point in kilometers.
+     */
+    public double distance(WikibasePoint other) {
+        double deltaLatitude = toRadians(other.latitude - latitude);
+        double deltaLongitude = toRadians(other.longitude - longitude);
+        double a = sin(deltaLatitude / 2) * sin(deltaLatitude / 2) + cos(toRadians(latitude))
+                * cos(toRadians(other.latitude)) * sin(deltaLongitude / 2) * sin(deltaLongitude / 2);
+        return 2 * EARTH_RADIUS * asin(min(1, sqrt(a)));
+    }
+
+    /**
+     * Is this point inside the box? If the southWest corner is east of the
+     * northEast corner then the box crosses the antimeridian.
+     */
+    public boolean within(WikibasePoint southWest, WikibasePoint northEast) {
+        if (latitude < southWest.latitude || latitude > northEast.latitude) {
+            return false;
+        }
+        if (southWest.longitude <= northEast.longitude) {
+            return longitude >= southWest.longitude && longitude <= northEast.longitude;
+        }
+        return longitude >= southWest.longitude || longitude <= northEast.longitude;
+    }
+
+    @Override
+    public String toString() {
+        return "Point(" + format(latitude) + " " + format(longitude) + ")";
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(latitude) * 31 + Double.doubleToLongBits(longitude);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        WikibasePoint other = (WikibasePoint) obj;
+        return Double.doubleToLongBits(latitude) == Double.doubleToLongBits(other.latitude)
+                && Double.doubleToLongBits(longitude) == Double.doubleToLongBits(other.longitude);
+    }
+
+    /**
+     * Ranges of the Z-order curve that cover a box. Each range is a two
+     * element array containing the inclusive start and end of the range. The
+     * ranges are sorted and don't overlap. They may cover more than the box
+     * so callers still have to check each point they find.
+     *
+     * @param southWest south west corner of the box. If it is east of the
+     *            northEast corner then the box crosses the antimeridian.
+     * @param northEast north east corner of the box
+     * @param maxRanges rough limit on the number of ranges to return. More
+     *            ranges cover the box more tightly.
+     */
+    public static List<long[]> zOrderRanges(WikibasePoint southWest, WikibasePoint northEast, int maxRanges) {
+        if (southWest.latitude > northEast.latitude) {
+            throw new IllegalArgumentException("South west corner " + southWest + " is north of north east corner "
+                    + northEast);
+        }
+        long minLatitude = latitudeCell(southWest.latitude);
+        long maxLatitude = latitudeCell(northEast.latitude);
+        List<long[]> ranges = new ArrayList<>();
+        if (southWest.longitude <= northEast.longitude) {
+            addRanges(ranges, longitudeCell(southWest.longitude), minLatitude, longitudeCell(northEast.longitude),
+                    maxLatitude, maxRanges);
+        } else {
+            addRanges(ranges, longitudeCell(southWest.longitude), minLatitude, MAX_LONGITUDE_CELL, maxLatitude,
+                    maxRanges / 2);
+            addRanges(ranges, 0, minLatitude, longitudeCell(northEast.longitude), maxLatitude, maxRanges / 2);
+        }
+        return merge(ranges);
+    }
+
+    /**
+     * Ranges of the Z-order curve that cover all points within radius
+     * kilometers of center. See zOrderRanges(WikibasePoint, WikibasePoint,
+     * int) for the format.
+     */
+    public static List<long[]> zOrderRanges(WikibasePoint center, double radius, int maxRanges) {
+        double angularRadius = radius / EARTH_RADIUS;
+        double deltaLatitude = toDegrees(angularRadius);
+        double minLatitude = center.latitude - deltaLatitude;
+        double maxLatitude = center.latitude + deltaLatitude;
+        if (minLatitude <= -90 || maxLatitude >= 90 || angularRadius >= Math.PI / 2) {
+            // The circle contains a pole so it covers every longitude
+            return zOrderRanges(new WikibasePoint(max(minLatitude, -90), -180),
+                    new WikibasePoint(min(maxLatitude, 90), 180), maxRanges);
+        }
+        double deltaLongitude = toDegrees(asin(min(1, sin(angularRadius) / cos(toRadians(center.latitude)))));
+        if (deltaLongitude >= 180) {
+            return zOrderRanges(new WikibasePoint(minLatitude, -180), new WikibasePoint(maxLatitude, 180), maxRanges);
+        }
+        double minLongitude = center.longitude - deltaLongitude;
+        if (minLongitude < -180) {
+            minLongitude += 360;
+        }
+        double maxLongitude = center.longitude + deltaLongitude;
+        if (maxLongitude > 180) {
+            maxLongitude -= 360;
+        }
+        return zOrderRanges(new WikibasePoint(minLatitude, minLongitude), new WikibasePoint(maxLatitude, maxLongitude),
+                maxRanges);
+    }
+
+    /**
+     * Cover a box of cells with ranges by walking a quad tree over the cells
+     * breadth first. Cells fully inside the box become ranges. Cells partially
+     * inside the box are split until we'd have too many ranges at which point
+     * they become ranges as well.
+     */
+    @SuppressWarnings("checkstyle:cyclomaticcomplexity")
+    private static void addRanges(List<long[]> ranges, long minX, long minY, long maxX, long maxY, int maxRanges) {
+        List<long[]> partial = new ArrayList<>();
+        partial.add(new long[] {0, 0});
+        for (int level = 1; level <= BITS; level++) {
+            int shift = BITS - level;
+            List<long[]> next = new ArrayList<>();
+            for (long[] parent : partial) {
+                for (int child = 0; child < 4; child++) {
+                    long x = (parent[0] << 1) | (child & 1);
+                    long y = (parent[1] << 1) | (child >> 1);
+                    long cellMinX = x << shift;
+                    long cellMaxX = ((x + 1) << shift) - 1;
+                    long cellMinY = y << shift;
+                    long cellMaxY = ((y + 1) << shift) - 1;
+                    if (cellMaxX < minX || cellMinX > maxX || cellMaxY < minY || cellMinY > maxY) {
+                        // Disjoint
+                        continue;
+                    }
+                    if (cellMinX >= minX && cellMaxX <= maxX && cellMinY >= minY && cellMaxY <= maxY) {
+                        ranges.add(cellRange(x, y, shift));
+                        continue;
+                    }
+                    next.add(new long[] {x, y});
+                }
+            }
+            partial = next;
+            if (ranges.size() + partial.size() * 4 > maxRanges) {
+                for (long[] cell : partial) {
+                    ranges.add(cellRange(cell[0], cell[1], shift));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * The range of the Z-order curve covered by a cell in the quad tree.
+     */
+    private static long[] cellRange(long x, long y, int shift) {
+        long start = interleave(x << shift, y << shift);
+        return new long[] {start, start + (1L << (2 * shift)) - 1};
+    }
+
+    /**
+     * Sort ranges and merge the ones that touch.
+     */
+    private static List<long[]> merge(List<long[]> ranges) {
+        long[][] sorted = ranges.toArray(new long[ranges.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return Long.compare(lhs[0], rhs[0]);
+            }
+        });
+        List<long[]> merged = new ArrayList<>(sorted.length);
+        long[] last = null;
+        for (long[] range : sorted) {
+            if (last != null && range[0] - 1 <= last[1]) {
+                last[1] = max(last[1], range[1]);
+                continue;
+            }
+            last = range;
+            merged.add(range);
+        }
+        return merged;
+    }
+
+    /**
+     * Quantize a latitude.
+     */
+    private static long latitudeCell(double latitude) {
+        return min((long) floor((latitude + 90) / STEP), MAX_LATITUDE_CELL);
+    }
+
+    /**
+     * Quantize a longitude.
+     */
+    private static long longitudeCell(double longitude) {
+        return min((long) floor((longitude + 180) / STEP), MAX_LONGITUDE_CELL);
+    }
+
+    /**
+     * Interleave the bits of two 32 bit cells with x taking the even bits.
+     */
+    private static long interleave(long x, long y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * Spread the low 32 bits of a long onto the even bits.
+     */
+    private static long spread(long x) {
+        x &= 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Collect the even bits of a long into the low 32 bits.
+     */
+    private static long compact(long x) {
+        x &= 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return x;
+    }
+
+    /**
+     * Round a coordinate to the number of decimals we keep.
+     */
+    private static double round(double coordinate) {
+        return BigDecimal.valueOf(coordinate).setScale(DECIMALS, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    /**
+     * Format a coordinate without trailing zeros.
+     */
+    private static String format(double coordinate) {
+        BigDecimal decimal = BigDecimal.valueOf(coordinate);
+        if (decimal.signum() == 0) {
+            return "0";
+        }
+        return decimal.stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,31 @@
+package org.wikidata.query.rdf.common.uri;
+
+/**
+ * GeoSPARQL uris. Wikibase exports coordinates as literals of the wktLiteral
+ * type.
+ */
+public final class GeoSparql {
+    /**
+     * Common prefix for all GeoSPARQL uris.
+     */
+    public static final String NAMESPACE = "http://www.opengis.net/ont/geosparql#";
+    /**
+     * Data type of the Point(...) literals Wikibase exports for globe
+     * coordinates.
+     */
+    public static final String WKT_LITERAL = NAMESPACE + "wktLiteral";
+
+    /**
+     * Adds the geo: prefix to the query.
+     */
+    public static StringBuilder prefix(StringBuilder query) {
+        return query.append("PREFIX geo: <").append(NAMESPACE).append(">\n");
+    }
+
+    /**
+     * Utility class uncallable constructor.
+     */
+    private GeoSparql() {
+        // Utility class.
+    }
+}
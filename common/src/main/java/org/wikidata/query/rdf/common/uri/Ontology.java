@@ -77,6 +77,16 @@ public final class Ontology {
      * queries.
      */
     public static final String LABEL = NAMESPACE + "label";
+    /**
+     * Service finding coordinates within a radius of a point. Not used in the
+     * data - just for SPARQL queries.
+     */
+    public static final String AROUND = NAMESPACE + "around";
+    /**
+     * Service finding coordinates within a box defined by its corners. Not
+     * used in the data - just for SPARQL queries.
+     */
+    public static final String BOX = NAMESPACE + "box";
 
     /**
      * Predicates used to describe a time.
@@ -0,0 +1,144 @@
+package org.wikidata.query.rdf.common;
+
+import static org.wikidata.query.rdf.common.WikibasePoint.fromString;
+import static org.wikidata.query.rdf.common.WikibasePoint.fromZOrder;
+import static org.wikidata.query.rdf.common.WikibasePoint.zOrderRanges;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.Repeat;
+
+@RunWith(RandomizedRunner.class)
+public class WikibasePointUnitTest extends RandomizedTest {
+    @Test
+    public void parse() {
+        WikibasePoint point = fromString("Point(32.715 -117.1625)");
+        assertEquals(32.715, point.latitude(), 0);
+        assertEquals(-117.1625, point.longitude(), 0);
+        assertEquals("Point(32.715 -117.1625)", point.toString());
+        assertEquals(point, fromString("point( 32.715   -117.1625 )"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void globesNotSupported() {
+        fromString("<http://www.wikidata.org/entity/Q405> Point(32.715 -117.1625)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfRange() {
+        fromString("Point(91 0)");
+    }
+
+    @Test
+    public void highPrecisionDoesNotRoundTrip() {
+        WikibasePoint point = fromString("Point(48.858222222222 2.294479166667)");
+        assertEquals("Point(48.8582223 2.2944791)", fromZOrder(point.zOrder()).toString());
+    }
+
+    @Test
+    public void corners() {
+        roundTrip(new WikibasePoint(0, 0));
+        roundTrip(new WikibasePoint(90, 180));
+        roundTrip(new WikibasePoint(-90, -180));
+        roundTrip(new WikibasePoint(90, -180));
+        roundTrip(new WikibasePoint(-90, 180));
+    }
+
+    @Test
+    @Repeat(iterations = 100)
+    public void randomRoundTrip() {
+        roundTrip(new WikibasePoint(randomCoordinate(90), randomCoordinate(180)));
+    }
+
+    @Test
+    public void distance() {
+        WikibasePoint paris = new WikibasePoint(48.8566, 2.3522);
+        WikibasePoint london = new WikibasePoint(51.5074, -0.1278);
+        assertEquals(343.6, paris.distance(london), 0.5);
+        assertEquals(0, paris.distance(paris), 0);
+    }
+
+    @Test
+    public void within() {
+        WikibasePoint southWest = new WikibasePoint(-20, 170);
+        WikibasePoint northEast = new WikibasePoint(-10, -170);
+        assertTrue(new WikibasePoint(-15, 175).within(southWest, northEast));
+        assertTrue(new WikibasePoint(-15, -175).within(southWest, northEast));
+        assertFalse(new WikibasePoint(-15, 0).within(southWest, northEast));
+        assertFalse(new WikibasePoint(0, 175).within(southWest, northEast));
+    }
+
+    @Test
+    @Repeat(iterations = 20)
+    public void boxRangesCoverPointsInBox() {
+        double latitude1 = randomCoordinate(90);
+        double latitude2 = randomCoordinate(90);
+        WikibasePoint southWest = new WikibasePoint(Math.min(latitude1, latitude2), randomCoordinate(180));
+        WikibasePoint northEast = new WikibasePoint(Math.max(latitude1, latitude2), randomCoordinate(180));
+        List<long[]> ranges = zOrderRanges(southWest, northEast, 64);
+        checkSortedAndDisjoint(ranges);
+        for (int i = 0; i < 1000; i++) {
+            WikibasePoint point = new WikibasePoint(randomCoordinate(90), randomCoordinate(180));
+            if (point.within(southWest, northEast)) {
+                assertTrue(point + " should be in the ranges for " + southWest + " to " + northEast,
+                        covered(ranges, point));
+            }
+        }
+    }
+
+    @Test
+    @Repeat(iterations = 20)
+    public void aroundRangesCoverPointsAround() {
+        WikibasePoint center = new WikibasePoint(randomCoordinate(90), randomCoordinate(180));
+        double radius = randomDoubleBetween(0, 3000);
+        List<long[]> ranges = zOrderRanges(center, radius, 64);
+        checkSortedAndDisjoint(ranges);
+        for (int i = 0; i < 1000; i++) {
+            WikibasePoint point = new WikibasePoint(randomCoordinate(90), randomCoordinate(180));
+            if (center.distance(point) <= radius) {
+                assertTrue(point + " should be in the ranges for " + radius + "km around " + center,
+                        covered(ranges, point));
+            }
+        }
+        assertTrue(covered(ranges, center));
+    }
+
+    private void roundTrip(WikibasePoint point) {
+        long zOrder = point.zOrder();
+        assertTrue(zOrder >= 0);
+        assertEquals(point, fromZOrder(zOrder));
+        assertEquals(point, fromString(point.toString()));
+    }
+
+    private double randomCoordinate(int max) {
+        return Math.round(randomDoubleBetween(-max, max) * 10000000) / 10000000.0;
+    }
+
+    private double randomDoubleBetween(double min, double max) {
+        return min + randomDouble() * (max - min);
+    }
+
+    private boolean covered(List<long[]> ranges, WikibasePoint point) {
+        long zOrder = point.zOrder();
+        for (long[] range : ranges) {
+            if (range[0] <= zOrder && zOrder <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkSortedAndDisjoint(List<long[]> ranges) {
+        long last = -1;
+        for (long[] range : ranges) {
+            assertTrue(last < range[0]);
+            assertTrue(range[0] <= range[1]);
+            last = range[1];
+        }
+    }
+}
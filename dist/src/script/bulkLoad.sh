@@ -0,0 +1,38 @@
+#!/usr/bin/env bash
+
+# Loads munged files straight into a journal without going through Blazegraph's
+# http interface. Blazegraph must not be running against the journal.
+
+DIR=`dirname $0`
+NAMESPACE=wdq
+LOCATION=`pwd`
+JOURNAL=wikidata.jnl
+MEMORY=-Xmx16g
+
+function usage() {
+  echo "Usage: $0 [-n <namespace>] [-d <directory>] [-j <journal>]"
+  exit 1
+}
+
+while getopts n:d:j:? option
+do
+  case "${option}"
+  in
+    n) NAMESPACE=${OPTARG};;
+    d) LOCATION=${OPTARG};;
+    j) JOURNAL=${OPTARG};;
+    ?) usage;;
+  esac
+done
+
+pushd $DIR
+
+# Blazegraph and our extension live in the war
+LIB=lib/blazegraph
+if [ ! -d $LIB ]; then
+  mkdir -p $LIB
+  unzip -q -o -j blazegraph-service-*.war 'WEB-INF/lib/*' -d $LIB
+fi
+
+java -server -XX:+UseG1GC ${MEMORY} -cp "$LIB/*" org.wikidata.query.rdf.blazegraph.BulkLoad \
+     -n $NAMESPACE RWStore.properties $JOURNAL $LOCATION
@@ -0,0 +1,242 @@
+package org.wikidata.query.rdf.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipes bytes from the thread writing a chunk to the thread serving it in
+ * large blocks. Replaces PipedInputStream/PipedOutputStream which have a tiny
+ * buffer, hand off every write separately, and poll once a second when the
+ * buffer is full or empty. The writer blocks once bufferSize bytes are waiting
+ * to be read which pushes back on munging when the consumers are slow.
+ */
+public class ChunkPipe {
+    /**
+     * Default number of bytes that can be waiting to be read.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024 * 1024;
+    /**
+     * Default size of each block handed from the writer to the reader.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+    /**
+     * Marks the end of the chunk.
+     */
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+    /**
+     * How long the writer waits between checking if the reader has gone away.
+     */
+    private static final long READER_CHECK_MILLIS = 1000;
+
+    /**
+     * Blocks written but not yet read.
+     */
+    private final BlockingQueue<ByteBuffer> blocks;
+    /**
+     * Size of each block.
+     */
+    private final int blockSize;
+    /**
+     * The reading side.
+     */
+    private final In in = new In();
+    /**
+     * The writing side.
+     */
+    private final Out out = new Out();
+    /**
+     * Set when the reader is closed so the writer doesn't block forever.
+     */
+    private volatile boolean readerClosed;
+
+    public ChunkPipe(int bufferSize) {
+        this(bufferSize, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Build the pipe.
+     *
+     * @param bufferSize the number of bytes that can be waiting to be read
+     *            before the writer blocks
+     * @param blockSize size of the blocks handed from the writer to the reader
+     */
+    public ChunkPipe(int bufferSize, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive but was " + blockSize);
+        }
+        this.blockSize = blockSize;
+        // Leave room for EOF
+        blocks = new ArrayBlockingQueue<>(Math.max(1, bufferSize / blockSize) + 1);
+    }
+
+    /**
+     * The stream that reads the chunk.
+     */
+    public InputStream in() {
+        return in;
+    }
+
+    /**
+     * The stream that writes the chunk. Closing it marks the end of the
+     * chunk.
+     */
+    public OutputStream out() {
+        return out;
+    }
+
+    /**
+     * Reads blocks from the queue.
+     */
+    private final class In extends InputStream {
+        /**
+         * The block being read. Null before the first read and EOF once the
+         * writer is closed.
+         */
+        private ByteBuffer current;
+
+        @Override
+        public int read() throws IOException {
+            if (!nextBlockIfNeeded()) {
+                return -1;
+            }
+            return current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextBlockIfNeeded()) {
+                return -1;
+            }
+            int read = Math.min(len, current.remaining());
+            current.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.remaining();
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            blocks.clear();
+        }
+
+        /**
+         * Take the next block if the current one is used up.
+         *
+         * @return false if the chunk is finished
+         * @throws IOException if interrupted waiting on the writer
+         */
+        private boolean nextBlockIfNeeded() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (current == EOF) {
+                    return false;
+                }
+                try {
+                    current = blocks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the chunk to be written");
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes blocks to the queue.
+     */
+    private final class Out extends OutputStream {
+        /**
+         * The block being written.
+         */
+        private ByteBuffer current = ByteBuffer.allocate(blockSize);
+        /**
+         * Has this been closed?
+         */
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!current.hasRemaining()) {
+                sendCurrent();
+            }
+            current.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!current.hasRemaining()) {
+                    sendCurrent();
+                }
+                int written = Math.min(len, current.remaining());
+                current.put(b, off, written);
+                off += written;
+                len -= written;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (current.position() > 0) {
+                sendCurrent();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flush();
+            put(EOF);
+        }
+
+        /**
+         * Hand the current block to the reader and start a new one.
+         *
+         * @throws IOException if the reader has gone away or we're
+         *             interrupted
+         */
+        private void sendCurrent() throws IOException {
+            current.flip();
+            put(current);
+            current = ByteBuffer.allocate(blockSize);
+        }
+
+        /**
+         * Put a block on the queue, waiting for the reader to make room.
+         *
+         * @throws IOException if the reader has gone away or we're
+         *             interrupted
+         */
+        private void put(ByteBuffer block) throws IOException {
+            if (readerClosed) {
+                throw new IOException("Reader closed before the chunk was finished");
+            }
+            try {
+                while (!blocks.offer(block, READER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (readerClosed) {
+                        throw new IOException("Reader closed before the chunk was finished");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the chunk to be read");
+            }
+        }
+    }
+}
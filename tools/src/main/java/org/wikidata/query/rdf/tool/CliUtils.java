@@ -14,9 +14,11 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URI;
-import java.util.zip.GZIPInputStream;
+import java.nio.file.Paths;
 import java.util.zip.GZIPOutputStream;
 
+import org.wikidata.query.rdf.tool.ParallelDecompressingInputStream.Format;
+
 import com.google.common.io.Files;
 
 /**
@@ -33,8 +35,15 @@ public final class CliUtils {
     }
 
     /**
-     * Get an input stream for a uri. If the uri looks like a gzip file then
-     * unzips it on the fly.
+     * Number of threads used to decompress input. Leaves a core for whatever
+     * is reading the input.
+     */
+    private static final int DECOMPRESSION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * Get an input stream for a uri. Regular files are memory mapped. If the
+     * uri looks like a gzip or bzip2 file then decompresses it on the fly in
+     * background threads.
      *
      * @throws IOException if it is thrown opening the files and such
      */
@@ -44,12 +53,19 @@ public final class CliUtils {
         }
         InputStream stream;
         if (!uri.contains(":/")) {
-            stream = new BufferedInputStream(new FileInputStream(uri));
+            if (new File(uri).isFile()) {
+                stream = new MappedFileInputStream(Paths.get(uri));
+            } else {
+                // Pipes and such can't be mapped
+                stream = new BufferedInputStream(new FileInputStream(uri));
+            }
         } else {
             stream = URI.create(uri).toURL().openStream();
         }
         if (uri.endsWith(".gz")) {
-            stream = new GZIPInputStream(stream);
+            stream = new ParallelDecompressingInputStream(stream, Format.GZIP, DECOMPRESSION_THREADS);
+        } else if (uri.endsWith(".bz2")) {
+            stream = new ParallelDecompressingInputStream(stream, Format.BZIP2, DECOMPRESSION_THREADS);
         }
         return stream;
     }
@@ -0,0 +1,75 @@
+package org.wikidata.query.rdf.tool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.tool.change.Change;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Changes that couldn't be synced even after retrying them. Each one's entity
+ * id is appended to a file on its own line so they can be replayed later with
+ * something like <code>--ids $(paste -sd, deadLetters)</code>.
+ */
+public class DeadLetters {
+    private static final Logger log = LoggerFactory.getLogger(DeadLetters.class);
+
+    /**
+     * File to append to. Null if the dead letters are only logged.
+     */
+    private final Path file;
+    /**
+     * Counts the dead letters.
+     */
+    private Counter added = new Counter();
+
+    /**
+     * Build.
+     *
+     * @param file file to append to. Null to only log the dead letters.
+     */
+    public DeadLetters(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Register a counter for the dead letters in a metric registry.
+     *
+     * @param metrics registry to register with
+     * @return this for chaining
+     */
+    public DeadLetters register(MetricRegistry metrics) {
+        added = metrics.counter("dead-letters");
+        return this;
+    }
+
+    /**
+     * Give up on a change.
+     *
+     * @param change the change
+     * @param cause the last error syncing it
+     */
+    public synchronized void add(Change change, Exception cause) {
+        added.inc();
+        if (file == null) {
+            log.error("Giving up on {}", change, cause);
+            return;
+        }
+        log.error("Giving up on {} and adding it to {}", change, file, cause);
+        try (Writer writer = Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(change.entityId());
+            writer.write('\n');
+        } catch (IOException e) {
+            log.error("Error adding {} to {} so it won't be replayed", change.entityId(), file, e);
+        }
+    }
+}
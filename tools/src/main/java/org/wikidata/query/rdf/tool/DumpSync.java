@@ -0,0 +1,426 @@
+package org.wikidata.query.rdf.tool;
+
+import static org.wikidata.query.rdf.tool.OptionsUtils.handleOptions;
+import static org.wikidata.query.rdf.tool.OptionsUtils.mungerFromOptions;
+import static org.wikidata.query.rdf.tool.wikibase.WikibaseRepository.inputDateFormat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.common.uri.OWL;
+import org.wikidata.query.rdf.common.uri.Ontology;
+import org.wikidata.query.rdf.common.uri.SchemaDotOrg;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.OptionsUtils.BasicOptions;
+import org.wikidata.query.rdf.tool.OptionsUtils.MungerOptions;
+import org.wikidata.query.rdf.tool.OptionsUtils.WikibaseOptions;
+import org.wikidata.query.rdf.tool.exception.ContainedException;
+import org.wikidata.query.rdf.tool.rdf.DumpParser;
+import org.wikidata.query.rdf.tool.rdf.InterningValueFactory;
+import org.wikidata.query.rdf.tool.rdf.Munger;
+import org.wikidata.query.rdf.tool.rdf.NormalizingRdfHandler;
+import org.wikidata.query.rdf.tool.rdf.RdfRepository;
+
+import com.codahale.metrics.Meter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lexicalscope.jewel.cli.Option;
+
+/**
+ * Syncs a dump into a triple store that already holds an older copy of the
+ * data, only touching the entities whose revision in the dump is newer than
+ * the one in the store. This catches up a replica that is too far behind for
+ * Update to replay recent changes in a fraction of the time that a reload
+ * takes. Entities are compared against the store's schema:version in batches
+ * and the out of date ones are munged and synced in parallel. Entities
+ * deleted since the store was loaded aren't in the dump so they are left
+ * alone.
+ */
+@SuppressWarnings("checkstyle:classfanoutcomplexity")
+public class DumpSync implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(DumpSync.class);
+
+    /**
+     * CLI options for use with JewelCli.
+     */
+    @SuppressWarnings("checkstyle:javadocmethod")
+    public interface Options extends BasicOptions, MungerOptions, WikibaseOptions {
+        @Option(shortName = "f", defaultValue = "-", description = "Source file (or uri) of the dump. Default is - aka stdin.")
+        String from();
+
+        @Option(shortName = "u", description = "URL to post updates and queries.")
+        String sparqlUrl();
+
+        @Option(shortName = "t", defaultValue = "10", description = "Thread count")
+        int threadCount();
+
+        @Option(shortName = "b", defaultValue = "100", description = "Number of entities whose revisions are checked at a time.")
+        int batchSize();
+    }
+
+    /**
+     * Run a dump sync configured from the command line.
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    public static void main(String[] args) {
+        Options options = handleOptions(Options.class, args);
+        WikibaseUris uris = new WikibaseUris(options.wikibaseHost());
+        URI sparqlUri;
+        try {
+            sparqlUri = new URI(options.sparqlUrl());
+        } catch (URISyntaxException e) {
+            log.error("Invalid url:  " + options.sparqlUrl() + " caused by " + e.getMessage());
+            return;
+        }
+        InputStream from;
+        try {
+            from = CliUtils.inputStream(options.from());
+        } catch (IOException e) {
+            log.error("Error finding input", e);
+            System.exit(1);
+            return;
+        }
+        RdfRepository rdfRepository = new RdfRepository(sparqlUri, uris);
+        int threads = options.threadCount();
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sync %s");
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory.build());
+        try {
+            new DumpSync(uris, mungerFromOptions(options), from, rdfRepository, executor, options.batchSize(), threads * 2).run();
+        } catch (RuntimeException e) {
+            log.error("Fatal error syncing dump", e);
+            System.exit(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Uris for this instance of wikibase.
+     */
+    private final WikibaseUris uris;
+    /**
+     * Munges the entities that need syncing.
+     */
+    private final Munger munger;
+    /**
+     * The dump.
+     */
+    private final InputStream from;
+    /**
+     * Repository to which to sync rdf.
+     */
+    private final RdfRepository rdfRepository;
+    /**
+     * Checks and syncs the batches.
+     */
+    private final ExecutorService executor;
+    /**
+     * Number of entities whose revisions are checked at a time.
+     */
+    private final int batchSize;
+    /**
+     * Number of batches that can be waiting on the executor before we stop
+     * parsing the dump to let them catch up.
+     */
+    private final int maxBatchesInFlight;
+    /**
+     * Batches sent to the executor that we haven't checked on yet.
+     */
+    private final Deque<Future<?>> inFlight = new ArrayDeque<>();
+    /**
+     * Meter for the entities synced.
+     */
+    private final Meter syncedMeter = new Meter();
+    /**
+     * Meter for the entities skipped because the store was up to date.
+     */
+    private final Meter skippedMeter = new Meter();
+
+    public DumpSync(WikibaseUris uris, Munger munger, InputStream from, RdfRepository rdfRepository, ExecutorService executor,
+            int batchSize, int maxBatchesInFlight) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive but was " + batchSize);
+        }
+        this.uris = uris;
+        this.munger = munger;
+        this.from = from;
+        this.rdfRepository = rdfRepository;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = Math.max(1, maxBatchesInFlight);
+    }
+
+    @Override
+    public void run() {
+        EntityBatchingRdfHandler handler = new EntityBatchingRdfHandler();
+        try {
+            DumpParser parser = new DumpParser();
+            parser.setValueFactory(new InterningValueFactory(uris));
+            parser.setRDFHandler(new NormalizingRdfHandler(handler));
+            parser.parse(from, uris.entity());
+            while (!inFlight.isEmpty()) {
+                waitFor(inFlight.removeFirst());
+            }
+        } catch (RDFParseException | RDFHandlerException | IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (Future<?> batch : inFlight) {
+                batch.cancel(true);
+            }
+            try {
+                from.close();
+            } catch (IOException e) {
+                log.error("Error closing input", e);
+            }
+        }
+        log.info("Synced {} entities and skipped {} that were up to date", syncedMeter.getCount(), skippedMeter.getCount());
+        if (handler.dumpDate != null) {
+            updateLeftOffTime(handler.dumpDate);
+        }
+    }
+
+    /**
+     * Move the left off time up to the dump's date so Update can carry on
+     * from there. Never moves it backwards because entities changed after the
+     * dump have newer revisions in the store so we skipped them.
+     */
+    private void updateLeftOffTime(Date dumpDate) {
+        Date leftOff = rdfRepository.fetchLeftOffTime();
+        if (leftOff != null && !leftOff.before(dumpDate)) {
+            return;
+        }
+        log.info("Setting left off time to the dump's date:  {}", inputDateFormat().format(dumpDate));
+        rdfRepository.updateLeftOffTime(dumpDate);
+    }
+
+    /**
+     * Check and sync a batch on the executor, waiting on the oldest batches
+     * if too many are in flight.
+     *
+     * @throws RDFHandlerException if a batch failed so we should stop
+     */
+    private void submit(final List<Entity> batch) throws RDFHandlerException {
+        while (inFlight.size() >= maxBatchesInFlight) {
+            waitFor(inFlight.removeFirst());
+        }
+        inFlight.addLast(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                syncBatch(batch);
+            }
+        }));
+    }
+
+    /**
+     * Wait for a batch to finish.
+     *
+     * @throws RDFHandlerException if the batch failed or we're interrupted
+     */
+    private void waitFor(Future<?> batch) throws RDFHandlerException {
+        try {
+            batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RDFHandlerException("Interrupted waiting on a batch", e);
+        } catch (ExecutionException e) {
+            throw new RDFHandlerException("Error syncing a batch", e.getCause());
+        }
+    }
+
+    /**
+     * Check the revisions of a batch of entities in the store and sync the
+     * ones that are out of date.
+     */
+    private void syncBatch(List<Entity> batch) {
+        List<String> entityIds = new ArrayList<>(batch.size());
+        for (Entity entity : batch) {
+            entityIds.add(entity.entityId);
+        }
+        Map<String, Long> stored = rdfRepository.fetchRevisions(entityIds);
+        for (Entity entity : batch) {
+            if (!entity.newerThan(stored.get(entity.entityId))) {
+                skippedMeter.mark();
+                continue;
+            }
+            try {
+                syncEntity(entity);
+            } catch (ContainedException e) {
+                log.warn("Contained error syncing.  Giving up on " + entity.entityId, e);
+            }
+        }
+        log.info("Synced {} entities at ({}, {}, {}) and skipped {}", syncedMeter.getCount(),
+                (long) syncedMeter.getOneMinuteRate(), (long) syncedMeter.getFiveMinuteRate(),
+                (long) syncedMeter.getFifteenMinuteRate(), skippedMeter.getCount());
+    }
+
+    /**
+     * Munge an entity and sync it to the store, cleaning up the values and
+     * references it no longer uses just like Update does.
+     */
+    private void syncEntity(Entity entity) {
+        Set<String> values = rdfRepository.getValues(entity.entityId);
+        Set<String> refs = rdfRepository.getRefs(entity.entityId);
+        munger.munge(entity.entityId, entity.statements, values, refs);
+        List<String> cleanupList = new ArrayList<>();
+        cleanupList.addAll(values);
+        cleanupList.addAll(refs);
+        rdfRepository.sync(entity.entityId, entity.statements, cleanupList);
+        syncedMeter.mark();
+    }
+
+    /**
+     * An entity read from the dump.
+     */
+    private static final class Entity {
+        /**
+         * Id of the entity.
+         */
+        private final String entityId;
+        /**
+         * Revision of the entity in the dump or null if it doesn't have one
+         * because it is a redirect.
+         */
+        private final Long revision;
+        /**
+         * Unmunged statements about the entity.
+         */
+        private final List<Statement> statements;
+
+        private Entity(String entityId, Long revision, List<Statement> statements) {
+            this.entityId = entityId;
+            this.revision = revision;
+            this.statements = statements;
+        }
+
+        /**
+         * Is this newer than what the store has? Redirects don't have a
+         * revision so we only sync them if the store has a revision for them
+         * because that means they were entities before.
+         *
+         * @param stored the revision in the store or null if it doesn't have
+         *            one
+         */
+        private boolean newerThan(Long stored) {
+            if (revision == null) {
+                return stored != null;
+            }
+            return stored == null || stored < revision;
+        }
+    }
+
+    /**
+     * Collects statements about entities until it hits the next entity just
+     * like Munge does and sends them to the executor in batches. Also picks up
+     * the dump's date.
+     */
+    private final class EntityBatchingRdfHandler extends RDFHandlerBase {
+        /**
+         * The statements about the current entity.
+         */
+        private List<Statement> statements = new ArrayList<>();
+        /**
+         * Entities waiting to be sent to the executor.
+         */
+        private List<Entity> batch = new ArrayList<>();
+        /**
+         * Have we hit any non Special:EntityData statements? Used to make sure
+         * we properly pick up the first few statements in every entity.
+         */
+        private boolean haveNonEntityDataStatements;
+        /**
+         * The current entity being read.
+         */
+        private String entityId;
+        /**
+         * The revision of the current entity.
+         */
+        private Long revision;
+        /**
+         * When the dump was made or null if it doesn't say.
+         */
+        private Date dumpDate;
+
+        @Override
+        public void handleStatement(Statement statement) throws RDFHandlerException {
+            String subject = statement.getSubject().stringValue();
+            String predicate = statement.getPredicate().stringValue();
+            if (subject.startsWith(uris.entityDataHttps()) || subject.startsWith(uris.entityData())) {
+                if (haveNonEntityDataStatements) {
+                    finishEntity();
+                }
+                if (predicate.equals(SchemaDotOrg.ABOUT)) {
+                    entityId = statement.getObject().stringValue();
+                    entityId = entityId.substring(entityId.lastIndexOf('/') + 1);
+                } else if (predicate.equals(SchemaDotOrg.VERSION)) {
+                    revision = ((Literal) statement.getObject()).longValue();
+                }
+                statements.add(statement);
+                return;
+            }
+            if (subject.equals(Ontology.DUMP)) {
+                if (predicate.equals(SchemaDotOrg.DATE_MODIFIED)) {
+                    dumpDate = ((Literal) statement.getObject()).calendarValue().toGregorianCalendar().getTime();
+                }
+                return;
+            }
+            if (predicate.equals(OWL.SAME_AS)) {
+                if (haveNonEntityDataStatements) {
+                    finishEntity();
+                }
+                entityId = subject.substring(subject.lastIndexOf('/') + 1);
+            }
+            haveNonEntityDataStatements = true;
+            statements.add(statement);
+        }
+
+        @Override
+        public void endRDF() throws RDFHandlerException {
+            finishEntity();
+            if (!batch.isEmpty()) {
+                submit(batch);
+            }
+        }
+
+        /**
+         * Add the current entity to the batch, sending the batch off if it is
+         * full.
+         *
+         * @throws RDFHandlerException if an earlier batch failed
+         */
+        private void finishEntity() throws RDFHandlerException {
+            if (entityId != null && !statements.isEmpty()) {
+                batch.add(new Entity(entityId, revision, statements));
+                if (batch.size() >= batchSize) {
+                    submit(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            statements = new ArrayList<>();
+            entityId = null;
+            revision = null;
+            haveNonEntityDataStatements = false;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.wikidata.query.rdf.tool;
+
+import java.util.Arrays;
+
+/**
+ * Splits entities into shards by their id. Munge uses this to write each shard
+ * to its own output so several hosts can load disjoint parts of a dump in
+ * parallel and the Updater uses it to only touch the entities in one shard.
+ * Both sides need to be given the same spec so they agree on the shards.
+ */
+public abstract class EntitySharder {
+    /**
+     * Build a sharder from a spec like hash:4 or range:1000000,2000000.
+     *
+     * @throws IllegalArgumentException if the spec is invalid
+     */
+    public static EntitySharder parse(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Shard spec must be hash:<shards> or range:<boundary>,<boundary>... but was " + spec);
+        }
+        String type = spec.substring(0, colon);
+        String args = spec.substring(colon + 1);
+        try {
+            switch (type) {
+            case "hash":
+                return hash(Integer.parseInt(args));
+            case "range":
+                String[] parts = args.split(",");
+                long[] boundaries = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    boundaries[i] = Long.parseLong(parts[i].trim());
+                }
+                return range(boundaries);
+            default:
+                throw new IllegalArgumentException("Unknown shard type: " + type);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shard spec: " + spec, e);
+        }
+    }
+
+    /**
+     * Shard by a hash of the entity id.
+     */
+    public static EntitySharder hash(int shards) {
+        return new Hash(shards);
+    }
+
+    /**
+     * Shard by ranges of the numeric part of the entity id. Shard 0 gets ids
+     * below the first boundary, shard 1 gets ids from the first boundary up to
+     * the second, and so on. Ids without a numeric part go to shard 0.
+     *
+     * @param boundaries the first id of every shard but the first, ascending
+     */
+    public static EntitySharder range(long... boundaries) {
+        return new Range(boundaries);
+    }
+
+    /**
+     * The number of shards.
+     */
+    public abstract int shards();
+
+    /**
+     * The shard that an entity belongs to.
+     *
+     * @return the shard from 0 to shards() - 1
+     */
+    public abstract int shard(String entityId);
+
+    /**
+     * Shards by a hash of the entity id. Uses String's hashCode because it is
+     * specified and so stable across jvms.
+     */
+    private static final class Hash extends EntitySharder {
+        /**
+         * The number of shards.
+         */
+        private final int shards;
+
+        private Hash(int shards) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("Must have at least one shard but was " + shards);
+            }
+            this.shards = shards;
+        }
+
+        @Override
+        public int shards() {
+            return shards;
+        }
+
+        @Override
+        public int shard(String entityId) {
+            if (entityId == null) {
+                return 0;
+            }
+            return (entityId.hashCode() & Integer.MAX_VALUE) % shards;
+        }
+    }
+
+    /**
+     * Shards by ranges of the numeric part of the entity id.
+     */
+    private static final class Range extends EntitySharder {
+        /**
+         * The first id of every shard but the first.
+         */
+        private final long[] boundaries;
+
+        private Range(long[] boundaries) {
+            for (int i = 1; i < boundaries.length; i++) {
+                if (boundaries[i] <= boundaries[i - 1]) {
+                    throw new IllegalArgumentException("Boundaries must be ascending but were " + Arrays.toString(boundaries));
+                }
+            }
+            this.boundaries = boundaries.clone();
+        }
+
+        @Override
+        public int shards() {
+            return boundaries.length + 1;
+        }
+
+        @Override
+        public int shard(String entityId) {
+            long id = numericPart(entityId);
+            if (id < 0) {
+                return 0;
+            }
+            int found = Arrays.binarySearch(boundaries, id);
+            return found >= 0 ? found + 1 : -found - 1;
+        }
+
+        /**
+         * The numeric part of an entity id like Q1234 or -1 if there isn't
+         * one.
+         */
+        private static long numericPart(String entityId) {
+            if (entityId == null) {
+                return -1;
+            }
+            int start = 0;
+            while (start < entityId.length() && !Character.isDigit(entityId.charAt(start))) {
+                start++;
+            }
+            if (start == entityId.length()) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(entityId.substring(start));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.wikidata.query.rdf.tool;
+
+import static org.wikidata.query.rdf.tool.OptionsUtils.handleOptions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.OptionsUtils.BasicOptions;
+import org.wikidata.query.rdf.tool.OptionsUtils.WikibaseOptions;
+import org.wikidata.query.rdf.tool.vocabulary.LossyCounter;
+import org.wikidata.query.rdf.tool.vocabulary.VocabularyWriter;
+
+import com.lexicalscope.jewel.cli.Option;
+
+/**
+ * Scans munged dumps for the most frequently used predicates and object uris
+ * and writes a Blazegraph vocabulary class declaring them. Uris in the
+ * vocabulary are stored in the indexes as two or three byte IVs and never need
+ * a lookup in the term dictionary.
+ */
+public class GenerateVocabulary {
+    private static final Logger log = LoggerFactory.getLogger(GenerateVocabulary.class);
+
+    /**
+     * CLI options for use with JewelCli.
+     */
+    @SuppressWarnings("checkstyle:javadocmethod")
+    public interface Options extends BasicOptions, WikibaseOptions {
+        @Option(shortName = "f", defaultValue = "-", description = "Munged files (or uris) to scan. Default is - aka stdin.")
+        List<String> from();
+
+        @Option(shortName = "t", defaultValue = "-", description = "Where to write the vocabulary's source. Default is - aka "
+                + "stdout.")
+        String to();
+
+        @Option(defaultValue = "1000", description = "Maximum number of uris to declare. Must be less than "
+                + VocabularyWriter.MAX_URIS + ".")
+        int size();
+
+        @Option(defaultValue = "100", description = "Uris used fewer times than this are never declared.")
+        long minimumCount();
+
+        @Option(defaultValue = "3", description = "Version of the vocabulary. The class is named WikibaseVocabularyV<version>.")
+        int version();
+
+        @Option(defaultValue = "org.wikidata.query.rdf.blazegraph.WikibaseVocabulary.V002", description = "Vocabulary class "
+                + "to extend. Vocabularies only ever append to their parent so switching to the new version doesn't change "
+                + "the IVs of anything the parent declares.")
+        String parent();
+    }
+
+    /**
+     * Run a scan configured from the command line.
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    public static void main(String[] args) {
+        Options options = handleOptions(Options.class, args);
+        WikibaseUris uris = new WikibaseUris(options.wikibaseHost());
+        GenerateVocabulary generator = new GenerateVocabulary(uris, options.size());
+        try {
+            for (String from : options.from()) {
+                log.info("Scanning {}", from);
+                try (Reader reader = CliUtils.reader(from)) {
+                    generator.scan(reader);
+                }
+            }
+            VocabularyWriter vocabularyWriter = new VocabularyWriter("org.wikidata.query.rdf.blazegraph",
+                    String.format(Locale.ROOT, "WikibaseVocabularyV%03d", options.version()), options.parent());
+            List<String> top = generator.top(options.size(), options.minimumCount());
+            log.info("Writing {} uris found in {} terms", top.size(), generator.counter.total());
+            try (Writer writer = CliUtils.writer(options.to())) {
+                vocabularyWriter.write(writer, top);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error generating vocabulary", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Uris of the wikibase instance that made the dump.
+     */
+    private final WikibaseUris uris;
+    /**
+     * Counts the uris.
+     */
+    private final LossyCounter counter;
+
+    /**
+     * Build a generator that is going to find size uris. The counts are
+     * accurate enough to find uris used once every 100 * size terms.
+     */
+    public GenerateVocabulary(WikibaseUris uris, int size) {
+        if (size < 1 || size > VocabularyWriter.MAX_URIS) {
+            throw new IllegalArgumentException("Size must be between 1 and " + VocabularyWriter.MAX_URIS + " but was "
+                    + size);
+        }
+        this.uris = uris;
+        counter = new LossyCounter(1.0 / (size * 100.0));
+    }
+
+    /**
+     * Count all the uris in some munged rdf.
+     */
+    public void scan(Reader from) {
+        RDFParser parser = Rio.createParser(RDFFormat.TURTLE);
+        parser.setRDFHandler(new CountingHandler());
+        try {
+            parser.parse(from, uris.entity());
+        } catch (RDFParseException | RDFHandlerException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The most frequent uris, most frequent first.
+     */
+    public List<String> top(int size, long minimumCount) {
+        return counter.top(size, minimumCount);
+    }
+
+    /**
+     * Counts the predicates and uri objects of all statements.
+     */
+    private class CountingHandler extends RDFHandlerBase {
+        @Override
+        public void handleStatement(Statement statement) throws RDFHandlerException {
+            counter.add(statement.getPredicate().stringValue());
+            Value object = statement.getObject();
+            if (object instanceof URI) {
+                counter.add(object.stringValue());
+            }
+            if (counter.total() % 10000000 == 0) {
+                log.info("Counted {} terms", counter.total());
+            }
+        }
+    }
+}
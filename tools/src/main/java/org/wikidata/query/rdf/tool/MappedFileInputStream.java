@@ -0,0 +1,154 @@
+package org.wikidata.query.rdf.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file by memory mapping it a window at a time. Reads are copies out
+ * of the page cache rather than system calls so reading large files with this
+ * is bound by whatever is consuming the bytes rather than by the stream. Only
+ * works on regular files because it relies on knowing the size of the file up
+ * front.
+ * <p>
+ * The windows are unmapped when they are garbage collected because Java 8
+ * doesn't have a supported way to unmap them sooner. That only costs address
+ * space which is plentiful on 64 bit machines.
+ */
+public class MappedFileInputStream extends InputStream {
+    /**
+     * Default size of the mapped window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Channel to the file.
+     */
+    private final FileChannel channel;
+    /**
+     * Size of the file.
+     */
+    private final long size;
+    /**
+     * Size of the mapped windows.
+     */
+    private final int windowSize;
+    /**
+     * Offset into the file of the start of the window.
+     */
+    private long windowStart;
+    /**
+     * The currently mapped window. Null before the first read and after
+     * closing.
+     */
+    private MappedByteBuffer window;
+
+    public MappedFileInputStream(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Open a file.
+     *
+     * @param windowSize size of the windows mapped into memory
+     * @throws IOException if the file can't be opened
+     */
+    public MappedFileInputStream(Path path, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive but was " + windowSize);
+        }
+        this.windowSize = windowSize;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureWindow()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureWindow()) {
+            return -1;
+        }
+        int read = Math.min(len, window.remaining());
+        window.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long position = position();
+        long skipped = Math.min(n, size - position);
+        long target = position + skipped;
+        if (window != null && target < windowStart + window.limit()) {
+            window.position((int) (target - windowStart));
+        } else {
+            map(target);
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Current position in the file.
+     */
+    private long position() {
+        if (window == null) {
+            return windowStart;
+        }
+        return windowStart + window.position();
+    }
+
+    /**
+     * Map the next window if the current one is used up.
+     *
+     * @return false if we're at the end of the file
+     * @throws IOException if the file can't be mapped
+     */
+    private boolean ensureWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        long next = position();
+        if (next >= size) {
+            return false;
+        }
+        map(next);
+        return true;
+    }
+
+    /**
+     * Map the window starting at start.
+     *
+     * @throws IOException if the file can't be mapped
+     */
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+}
@@ -4,31 +4,33 @@ import static org.wikidata.query.rdf.tool.OptionsUtils.handleOptions;
 import static org.wikidata.query.rdf.tool.OptionsUtils.mungerFromOptions;
 import static org.wikidata.query.rdf.tool.StreamUtils.utf8;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.openrdf.model.Statement;
-import org.openrdf.model.URI;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
-import org.openrdf.rio.RDFParser;
 import org.openrdf.rio.Rio;
-import org.openrdf.rio.turtle.TurtleParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wikidata.query.rdf.common.uri.OWL;
@@ -39,6 +41,8 @@ import org.wikidata.query.rdf.tool.OptionsUtils.BasicOptions;
 import org.wikidata.query.rdf.tool.OptionsUtils.MungerOptions;
 import org.wikidata.query.rdf.tool.OptionsUtils.WikibaseOptions;
 import org.wikidata.query.rdf.tool.exception.ContainedException;
+import org.wikidata.query.rdf.tool.rdf.DumpParser;
+import org.wikidata.query.rdf.tool.rdf.InterningValueFactory;
 import org.wikidata.query.rdf.tool.rdf.Munger;
 import org.wikidata.query.rdf.tool.rdf.NormalizingRdfHandler;
 import org.wikidata.query.rdf.tool.rdf.PrefixRecordingRdfHandler;
@@ -73,6 +77,30 @@ public class Munge implements Runnable {
                 + "%08d.ttl is a pretty good choice for format string. If \"to\" is in port form then every http request will "
                 + "get the next chunk. Must be greater than 0 and less than " + Integer.MAX_VALUE + ".")
         int chunkSize();
+
+        @Option(defaultToNull = true, description = "File in which to record a checkpoint after every chunk. Requires chunkSize and "
+                + "writing chunks to files.")
+        String checkpoint();
+
+        @Option(description = "Resume from the checkpoint rather than starting from the beginning. Seeks the input to the first "
+                + "entity that wasn't munged and carries on writing chunks from there. Starts from the beginning if there isn't a "
+                + "checkpoint yet.")
+        boolean resume();
+
+        @Option(defaultToNull = true, description = "Split entities between shards so several hosts can load them in parallel. "
+                + "hash:<shards> routes entities by a hash of their id. range:<boundary>,<boundary>... routes them by ranges of "
+                + "the numeric part of their id. Every shard is written to its own file so \"to\" must be a java format string "
+                + "whose first format identifier is replaced with the shard number and whose second is replaced with the chunk "
+                + "number if chunking. Can't be used with port:<port_number> or checkpoints.")
+        String shards();
+
+        @Option(defaultValue = "2", description = "Number of chunks that can wait to be pulled when serving over http. Raise it to "
+                + "let more loaders pull chunks concurrently.")
+        int httpQueue();
+
+        @Option(defaultValue = "64", description = "Megabytes of each chunk that can be buffered waiting for its loader when "
+                + "serving over http. Munging pauses when the buffer is full.")
+        int httpBufferMb();
     }
 
     /**
@@ -85,30 +113,26 @@ public class Munge implements Runnable {
         Munger munger = mungerFromOptions(options);
 
         int port = parsePort(options.to());
+        Path checkpoint = checkpointFile(options, port);
+        MungeCheckpoint resumeFrom = readCheckpoint(options, checkpoint);
+        EntitySharder sharder = sharder(options, port, checkpoint);
 
-        OutputPicker<Writer> to;
+        List<OutputPicker<Writer>> to;
         Httpd httpd = null;
         try {
-            if (options.chunkSize() > 0) {
-                if (port > 0) {
-                    // We have two slots just in case
-                    BlockingQueue<InputStream> queue = new ArrayBlockingQueue<>(2);
-                    httpd = new Httpd(port, queue);
-                    to = new ChunkedPipedWriterOutputPicker(queue, options.chunkSize());
-                } else {
-                    to = new ChunkedFileWriterOutputPicker(options.to(), options.chunkSize());
-                }
+            if (port <= 0) {
+                to = fileOutputs(options, sharder, resumeFrom);
+            } else if (options.chunkSize() > 0) {
+                BlockingQueue<InputStream> queue = new ArrayBlockingQueue<>(Math.max(1, options.httpQueue()));
+                httpd = new Httpd(port, queue);
+                to = Collections.<OutputPicker<Writer>>singletonList(new ChunkedPipedWriterOutputPicker(queue, options.chunkSize(),
+                        options.httpBufferMb() * 1024 * 1024));
             } else {
-                if (port > 0) {
-                    PipedInputStream toHttp = new PipedInputStream();
-                    Writer writer = utf8(new PipedOutputStream(toHttp));
-                    BlockingQueue<InputStream> queue = new ArrayBlockingQueue<>(1);
-                    queue.put(toHttp);
-                    httpd = new Httpd(port, queue);
-                    to = new AlwaysOutputPicker<>(writer);
-                } else {
-                    to = new AlwaysOutputPicker<>(CliUtils.writer(options.to()));
-                }
+                ChunkPipe pipe = new ChunkPipe(options.httpBufferMb() * 1024 * 1024);
+                BlockingQueue<InputStream> queue = new ArrayBlockingQueue<>(1);
+                queue.put(pipe.in());
+                httpd = new Httpd(port, queue);
+                to = Collections.<OutputPicker<Writer>>singletonList(new AlwaysOutputPicker<>(utf8(pipe.out())));
             }
             if (httpd != null) {
                 log.info("Starting embedded http sever on port {}", port);
@@ -125,7 +149,10 @@ public class Munge implements Runnable {
             return;
         }
         try {
-            Munge munge = new Munge(uris, munger, openInput(options.from()), to);
+            Munge munge = new Munge(uris, munger, openInput(options.from()), to, sharder);
+            if (checkpoint != null) {
+                munge.checkpoint(checkpoint, options.from(), options.chunkSize(), resumeFrom);
+            }
             munge.run();
         } catch (RuntimeException e) {
             log.error("Fatal error munging RDF", e);
@@ -148,9 +175,9 @@ public class Munge implements Runnable {
     /**
      * Open the input using the "from" parameter, exiting on failure.
      */
-    private static Reader openInput(String from) {
+    private static InputStream openInput(String from) {
         try {
-            return CliUtils.reader(from);
+            return CliUtils.inputStream(from);
         } catch (IOException e) {
             log.error("Error finding input", e);
             System.exit(1);
@@ -158,6 +185,109 @@ public class Munge implements Runnable {
         }
     }
 
+    /**
+     * Build the sharder from the options, exiting if the options don't
+     * support sharding.
+     */
+    private static EntitySharder sharder(Options options, int port, Path checkpoint) {
+        if (options.shards() == null) {
+            return EntitySharder.hash(1);
+        }
+        EntitySharder sharder;
+        try {
+            sharder = EntitySharder.parse(options.shards());
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid shards", e);
+            System.exit(1);
+            return null;
+        }
+        if (port > 0 || checkpoint != null) {
+            log.error("Sharding requires writing to files and doesn't support checkpoints");
+            System.exit(1);
+        }
+        if (String.format(Locale.ROOT, options.to(), 0, 1).equals(String.format(Locale.ROOT, options.to(), 1, 1))) {
+            log.error("When sharding \"to\" must contain a format identifier for the shard");
+            System.exit(1);
+        }
+        return sharder;
+    }
+
+    /**
+     * Build the outputs when writing to files, one per shard.
+     *
+     * @throws IOException if an unchunked output can't be opened
+     */
+    private static List<OutputPicker<Writer>> fileOutputs(Options options, EntitySharder sharder, MungeCheckpoint resumeFrom)
+            throws IOException {
+        if (sharder.shards() == 1) {
+            if (options.chunkSize() > 0) {
+                return Collections.<OutputPicker<Writer>>singletonList(new ChunkedFileWriterOutputPicker(options.to(),
+                        options.chunkSize(), resumeFrom == null ? 1 : resumeFrom.chunk()));
+            }
+            return Collections.<OutputPicker<Writer>>singletonList(new AlwaysOutputPicker<>(CliUtils.writer(options.to())));
+        }
+        List<OutputPicker<Writer>> to = new ArrayList<>(sharder.shards());
+        for (int shard = 0; shard < sharder.shards(); shard++) {
+            if (options.chunkSize() > 0) {
+                to.add(new ShardedChunkedFileWriterOutputPicker(options.to(), shard, options.chunkSize()));
+            } else {
+                to.add(new AlwaysOutputPicker<>(CliUtils.writer(String.format(Locale.ROOT, options.to(), shard))));
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Find the file to write checkpoints to, exiting if the options don't
+     * support checkpointing.
+     *
+     * @return the file or null if not checkpointing
+     */
+    private static Path checkpointFile(Options options, int port) {
+        if (options.checkpoint() == null) {
+            if (options.resume()) {
+                log.error("Resuming requires a checkpoint");
+                System.exit(1);
+            }
+            return null;
+        }
+        if (options.chunkSize() <= 0 || port > 0) {
+            log.error("Checkpoints require chunkSize and writing chunks to files");
+            System.exit(1);
+        }
+        return Paths.get(options.checkpoint());
+    }
+
+    /**
+     * Read the checkpoint to resume from, exiting on failure.
+     *
+     * @return the checkpoint or null if not resuming or there isn't one yet
+     */
+    private static MungeCheckpoint readCheckpoint(Options options, Path checkpoint) {
+        if (!options.resume()) {
+            return null;
+        }
+        if (!Files.exists(checkpoint)) {
+            log.info("No checkpoint at {} so starting from the beginning", checkpoint);
+            return null;
+        }
+        try {
+            MungeCheckpoint resumeFrom = MungeCheckpoint.read(checkpoint);
+            if (!resumeFrom.input().equals(options.from())) {
+                log.error("Checkpoint is for {} but munging {}", resumeFrom.input(), options.from());
+                System.exit(1);
+                return null;
+            }
+            log.info("Resuming after {} entities ending with {} at offset {} writing chunk {}", resumeFrom.entities(),
+                    resumeFrom.lastEntityId(), resumeFrom.offset(), resumeFrom.chunk());
+            return resumeFrom;
+        } catch (IOException e) {
+            log.error("Error reading checkpoint", e);
+            System.exit(1);
+            return null;
+        }
+    }
+
     /**
      * Wait for the HTTP server to shutdown if it was used.
      */
@@ -166,7 +296,7 @@ public class Munge implements Runnable {
             return;
         }
         log.info("Finished munging and waiting for the http server to finish sending them");
-        while (httpd.busy.get()) {
+        while (httpd.busy()) {
             try {
                 Thread.sleep(100);
             } catch (InterruptedException e) {
@@ -185,32 +315,104 @@ public class Munge implements Runnable {
      */
     private final Munger munger;
     /**
-     * Source of the rdf.
+     * Source of the rdf. Expected to be UTF-8.
+     */
+    private final InputStream from;
+    /**
+     * Where the munged RDF is synced, one per shard.
+     */
+    private final List<OutputPicker<Writer>> to;
+    /**
+     * Picks the shard for each entity.
+     */
+    private final EntitySharder sharder;
+    /**
+     * File to write checkpoints to. Null if not checkpointing.
+     */
+    private Path checkpoint;
+    /**
+     * Name of the input recorded in checkpoints.
      */
-    private final Reader from;
+    private String input;
     /**
-     * Where the munged RDF is synced.
+     * Number of entities in each chunk. Checkpoints are written after every
+     * chunk.
      */
-    private final OutputPicker<Writer> to;
+    private int chunkSize;
+    /**
+     * Checkpoint to resume from. Null if starting from the beginning.
+     */
+    private MungeCheckpoint resumeFrom;
+
+    public Munge(WikibaseUris uris, Munger munger, InputStream from, OutputPicker<Writer> to) {
+        this(uris, munger, from, Collections.singletonList(to), EntitySharder.hash(1));
+    }
 
-    public Munge(WikibaseUris uris, Munger munger, Reader from, OutputPicker<Writer> to) {
+    public Munge(WikibaseUris uris, Munger munger, InputStream from, List<OutputPicker<Writer>> to, EntitySharder sharder) {
+        if (to.size() != sharder.shards()) {
+            throw new IllegalArgumentException("Need one output per shard but got " + to.size() + " outputs for "
+                    + sharder.shards() + " shards");
+        }
         this.uris = uris;
         this.munger = munger;
         this.from = from;
         this.to = to;
+        this.sharder = sharder;
+    }
+
+    /**
+     * Write a checkpoint after every chunk.
+     *
+     * @param checkpoint file to write checkpoints to
+     * @param input name of the input to record in the checkpoint
+     * @param chunkSize number of entities in every chunk
+     * @param resumeFrom checkpoint to resume from or null to start from the
+     *            beginning
+     * @return this for chaining
+     */
+    public Munge checkpoint(Path checkpoint, String input, int chunkSize, MungeCheckpoint resumeFrom) {
+        if (sharder.shards() != 1) {
+            throw new IllegalStateException("Checkpoints aren't supported when sharding");
+        }
+        this.checkpoint = checkpoint;
+        this.input = input;
+        this.chunkSize = chunkSize;
+        this.resumeFrom = resumeFrom;
+        return this;
     }
 
     @Override
     public void run() {
         try {
-            // TODO this is a temporary hack
-            // RDFParser parser = Rio.createParser(RDFFormat.TURTLE);
-            RDFParser parser = new ForbiddenOk.HackedTurtleParser();
-            OutputPicker<RDFHandler> writer = new WriterToRDFWriterChunkPicker(to);
-            EntityMungingRdfHandler handler = new EntityMungingRdfHandler(uris, munger, writer);
+            DumpParser parser = new DumpParser();
+            parser.setValueFactory(new InterningValueFactory(uris));
+            InputStream in = from;
+            long offsetBase = 0;
+            long entities = 0;
+            if (resumeFrom != null) {
+                // Seek past what we've munged and redeclare the prefixes from before there
+                try {
+                    resumeFrom.seek(from);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error seeking to checkpoint", e);
+                }
+                byte[] prelude = resumeFrom.prelude();
+                in = new SequenceInputStream(new ByteArrayInputStream(prelude), from);
+                offsetBase = resumeFrom.offset() - prelude.length;
+                entities = resumeFrom.entities();
+            }
+            Checkpointer checkpointer = null;
+            if (checkpoint != null) {
+                checkpointer = new Checkpointer(checkpoint, input, chunkSize, parser, offsetBase);
+            }
+            List<OutputPicker<RDFHandler>> writers = new ArrayList<>(to.size());
+            for (OutputPicker<Writer> shard : to) {
+                writers.add(new WriterToRDFWriterChunkPicker(shard));
+            }
+            EntityMungingRdfHandler handler = new EntityMungingRdfHandler(uris, munger, writers, sharder, entities, checkpointer);
             parser.setRDFHandler(new NormalizingRdfHandler(handler));
             try {
-                parser.parse(from, uris.entity());
+                parser.parse(in, uris.entity());
             } catch (RDFParseException | RDFHandlerException | IOException e) {
                 throw new RuntimeException(e);
             }
@@ -220,10 +422,12 @@ public class Munge implements Runnable {
             } catch (IOException e) {
                 log.error("Error closing input", e);
             }
-            try {
-                to.output().close();
-            } catch (IOException e) {
-                log.error("Error closing output", e);
+            for (OutputPicker<Writer> shard : to) {
+                try {
+                    shard.output().close();
+                } catch (IOException e) {
+                    log.error("Error closing output", e);
+                }
             }
         }
     }
@@ -251,9 +455,13 @@ public class Munge implements Runnable {
          */
         private final Munger munger;
         /**
-         * The place where we sync munged entities.
+         * The places where we sync munged entities, one per shard.
+         */
+        private final List<OutputPicker<RDFHandler>> next;
+        /**
+         * Picks the shard for each entity.
          */
-        private final OutputPicker<RDFHandler> next;
+        private final EntitySharder sharder;
         /**
          * The statements about the current entity.
          */
@@ -273,29 +481,59 @@ public class Munge implements Runnable {
          * the old statements to the munger and theyn sync them to next.
          */
         private String entityId;
+        /**
+         * Number of entities munged into each shard including any munged
+         * before resuming.
+         */
+        private final long[] entities;
+        /**
+         * Writes checkpoints after each chunk. Null if not checkpointing.
+         */
+        private final Checkpointer checkpointer;
 
-        public EntityMungingRdfHandler(WikibaseUris uris, Munger munger, OutputPicker<RDFHandler> next) {
+        /**
+         * Build the handler.
+         *
+         * @param entities the number of entities already munged. Only
+         *            supported with a single shard because that's all
+         *            checkpointing supports.
+         */
+        public EntityMungingRdfHandler(WikibaseUris uris, Munger munger, List<OutputPicker<RDFHandler>> next,
+                EntitySharder sharder, long entities, Checkpointer checkpointer) {
             this.uris = uris;
             this.munger = munger;
             this.next = next;
+            this.sharder = sharder;
+            this.entities = new long[next.size()];
+            this.entities[0] = entities;
+            this.checkpointer = checkpointer;
         }
 
         @Override
         public void startRDF() throws RDFHandlerException {
             haveNonEntityDataStatements = false;
-            next.output().startRDF();
+            for (OutputPicker<RDFHandler> shard : next) {
+                shard.output().startRDF();
+            }
         }
 
         @Override
         public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
-            // Namespaces go through to the next handler.
-            next.output().handleNamespace(prefix, uri);
+            // Namespaces go through to every shard.
+            for (OutputPicker<RDFHandler> shard : next) {
+                shard.output().handleNamespace(prefix, uri);
+            }
+            if (checkpointer != null) {
+                checkpointer.namespace(prefix, uri);
+            }
         }
 
         @Override
         public void handleComment(String comment) throws RDFHandlerException {
-            // Comments go right through to the next handler.
-            next.output().handleComment(comment);
+            // Comments go right through to every shard.
+            for (OutputPicker<RDFHandler> shard : next) {
+                shard.output().handleComment(comment);
+            }
         }
 
         @Override
@@ -303,7 +541,7 @@ public class Munge implements Runnable {
             String subject = statement.getSubject().stringValue();
             if (subject.startsWith(uris.entityDataHttps()) || subject.startsWith(uris.entityData())) {
                 if (haveNonEntityDataStatements) {
-                    munge();
+                    munge(true);
                 }
                 if (statement.getPredicate().stringValue().equals(SchemaDotOrg.ABOUT)) {
                     entityId = statement.getObject().stringValue();
@@ -314,15 +552,17 @@ public class Munge implements Runnable {
             }
             if (subject.equals(Ontology.DUMP)) {
                 /*
-                 * Just pipe dump statements strait through.
+                 * Just pipe dump statements strait through to every shard.
                  */
-                next.output().handleStatement(statement);
+                for (OutputPicker<RDFHandler> shard : next) {
+                    shard.output().handleStatement(statement);
+                }
                 return;
             }
             if (statement.getPredicate().stringValue().equals(OWL.SAME_AS)) {
                 // Temporary fix for T100463
                 if (haveNonEntityDataStatements) {
-                    munge();
+                    munge(true);
                 }
                 entityId = subject.substring(subject.lastIndexOf('/') + 1);
                 statements.add(statement);
@@ -336,29 +576,39 @@ public class Munge implements Runnable {
 
         @Override
         public void endRDF() throws RDFHandlerException {
-            munge();
-            next.output().endRDF();
+            munge(false);
+            for (OutputPicker<RDFHandler> shard : next) {
+                shard.output().endRDF();
+            }
         }
 
         /**
          * Munge an entity's worth of RDF and then sync it the the output.
          *
+         * @param atNextEntity is the parser at the start of the next entity? We
+         *            can only checkpoint if it is.
          * @throws RDFHandlerException if there is an error syncing it
          */
-        private void munge() throws RDFHandlerException {
+        private void munge(boolean atNextEntity) throws RDFHandlerException {
             try {
                 log.debug("Munging {}", entityId);
                 munger.munge(entityId, statements);
+                int shard = sharder.shard(entityId);
+                OutputPicker<RDFHandler> out = next.get(shard);
                 for (Statement statement : statements) {
-                    next.output().handleStatement(statement);
+                    out.output().handleStatement(statement);
                 }
                 entitiesMeter.mark();
+                entities[shard]++;
                 if (entitiesMeter.getCount() % 10000 == 0) {
                     log.info("Processed {} entities at ({}, {}, {})", entitiesMeter.getCount(),
                             (long) entitiesMeter.getOneMinuteRate(), (long) entitiesMeter.getFiveMinuteRate(),
                             (long) entitiesMeter.getFifteenMinuteRate());
                 }
-                next.entitiesMunged((int) entitiesMeter.getCount());
+                out.entitiesMunged((int) entities[shard]);
+                if (checkpointer != null && atNextEntity) {
+                    checkpointer.entityMunged(out, entities[shard], entityId);
+                }
 
             } catch (ContainedException e) {
                 log.warn("Error munging {}", entityId, e);
@@ -368,16 +618,92 @@ public class Munge implements Runnable {
         }
     }
 
+    /**
+     * Writes a checkpoint every time a chunk is finished.
+     */
+    private static class Checkpointer {
+        /**
+         * File to write the checkpoint to.
+         */
+        private final Path file;
+        /**
+         * Name of the input recorded in the checkpoint.
+         */
+        private final String input;
+        /**
+         * Number of entities in each chunk.
+         */
+        private final int chunkSize;
+        /**
+         * The parser reading the input. Tells us the offset of the entity it
+         * is reading.
+         */
+        private final DumpParser parser;
+        /**
+         * Offset of the start of what the parser is reading in the input. Non
+         * zero when resuming.
+         */
+        private final long offsetBase;
+        /**
+         * Prefixes declared so far. Saved in the checkpoint so we can declare
+         * them again when resuming.
+         */
+        private final Map<String, String> prefixes = new LinkedHashMap<>();
+
+        Checkpointer(Path file, String input, int chunkSize, DumpParser parser, long offsetBase) {
+            this.file = file;
+            this.input = input;
+            this.chunkSize = chunkSize;
+            this.parser = parser;
+            this.offsetBase = offsetBase;
+        }
+
+        /**
+         * Record a namespace declared in the input.
+         */
+        void namespace(String prefix, String uri) {
+            prefixes.put(prefix, uri);
+        }
+
+        /**
+         * Called after each entity is munged while the parser is at the start
+         * of the next entity. Writes a checkpoint if that finished a chunk.
+         */
+        void entityMunged(OutputPicker<RDFHandler> next, long entities, String lastEntityId) {
+            if (entities % chunkSize != 0) {
+                return;
+            }
+            // Switch to the next chunk now so the finished one is closed before we say it is done
+            next.output();
+            MungeCheckpoint checkpoint = new MungeCheckpoint(input, offsetBase + parser.currentStatementOffset(), entities,
+                    (int) (entities / chunkSize + 1), lastEntityId, prefixes);
+            try {
+                checkpoint.write(file);
+            } catch (IOException e) {
+                log.error("Error writing checkpoint after {}", lastEntityId, e);
+            }
+        }
+    }
+
     /**
      * Very simple HTTP server that only knows how to spit out results from a
-     * queue.
+     * queue. Every request gets the next result so several loaders can pull
+     * different chunks at the same time. Logs how fast each one is pulling.
      */
     public static class Httpd extends NanoHTTPD {
         /**
-         * Flag that the server is still busy. We try to make sure to set this
-         * to false if we're not busy so the process can exit.
+         * Size of the buffer in front of each socket.
+         */
+        private static final int SEND_BUFFER_SIZE = 1024 * 1024;
+        /**
+         * The number of requests being served. The process waits for this to
+         * drop to 0 before exiting.
          */
-        private final AtomicBoolean busy = new AtomicBoolean(false);
+        private final AtomicInteger active = new AtomicInteger();
+        /**
+         * The number of results handed out so far. Used to name them in logs.
+         */
+        private final AtomicInteger served = new AtomicInteger();
         /**
          * Queue from which Turtle formatter RDF is read.
          */
@@ -388,15 +714,30 @@ public class Munge implements Runnable {
             this.results = results;
         }
 
+        /**
+         * Is the server still sending results or are there results waiting to
+         * be sent?
+         */
+        public boolean busy() {
+            return active.get() > 0 || !results.isEmpty();
+        }
+
         @Override
         public Response serve(IHTTPSession session) {
+            active.incrementAndGet();
             try {
-                busy.set(true);
-                Response response = new Response(Response.Status.OK, " application/x-turtle", results.take()) {
+                String name = "result " + served.incrementAndGet() + " to " + session.getHeaders().get("remote-addr");
+                final ThroughputLoggingInputStream result = new ThroughputLoggingInputStream(results.take(), name);
+                log.info("Sending {}", name);
+                Response response = new Response(Response.Status.OK, " application/x-turtle", result) {
                     @Override
                     protected void send(OutputStream outputStream) {
-                        super.send(outputStream);
-                        busy.set(false);
+                        try {
+                            super.send(new BufferedOutputStream(outputStream, SEND_BUFFER_SIZE));
+                        } finally {
+                            result.logFinished();
+                            active.decrementAndGet();
+                        }
                     }
                 };
                 response.setChunkedTransfer(true);
@@ -404,12 +745,88 @@ public class Munge implements Runnable {
             } catch (InterruptedException e) {
                 log.error("Interrupted while waiting for a result", e);
                 Thread.currentThread().interrupt();
-                busy.set(false);
+                active.decrementAndGet();
                 return new Response(Response.Status.INTERNAL_ERROR, "text/plain", "internal server error");
             }
         }
     }
 
+    /**
+     * Counts the bytes read from a result being served and logs the rate at
+     * which they are read.
+     */
+    private static class ThroughputLoggingInputStream extends FilterInputStream {
+        /**
+         * Log progress every time this many bytes are read.
+         */
+        private static final long LOG_EVERY = 256L * 1024 * 1024;
+        /**
+         * Name of the result for the logs.
+         */
+        private final String name;
+        /**
+         * When we started sending.
+         */
+        private final long start = System.nanoTime();
+        /**
+         * Bytes read so far.
+         */
+        private long bytes;
+        /**
+         * Bytes read when we next log progress.
+         */
+        private long nextLog = LOG_EVERY;
+
+        ThroughputLoggingInputStream(InputStream in, String name) {
+            super(in);
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        /**
+         * Log that the result is finished.
+         */
+        void logFinished() {
+            log.info("Sent {} MB of {} at {} MB/s", bytes / (1024 * 1024), name, megabytesPerSecond());
+        }
+
+        /**
+         * Count some bytes read, logging progress if it is time to.
+         */
+        private void count(int read) {
+            bytes += read;
+            if (bytes >= nextLog) {
+                log.info("Sent {} MB of {} so far at {} MB/s", bytes / (1024 * 1024), name, megabytesPerSecond());
+                nextLog += LOG_EVERY;
+            }
+        }
+
+        /**
+         * The rate at which the result is being read.
+         */
+        private long megabytesPerSecond() {
+            long nanos = Math.max(1, System.nanoTime() - start);
+            return (long) (bytes / (1024.0 * 1024.0) / (nanos / 1e9));
+        }
+    }
+
     /**
      * Picks the right RDFHandler for writing.
      */
@@ -464,10 +881,11 @@ public class Munge implements Runnable {
         /**
          * The chunk number that writer was built for.
          */
-        private int lastChunk = 1;
+        private int lastChunk;
 
-        public ChunkedWriterOutputPicker(int chunkSize) {
+        public ChunkedWriterOutputPicker(int chunkSize, int firstChunk) {
             this.chunkSize = chunkSize;
+            lastChunk = firstChunk;
         }
 
         @Override
@@ -503,13 +921,17 @@ public class Munge implements Runnable {
         private final String pattern;
 
         public ChunkedFileWriterOutputPicker(String pattern, int chunkSize) {
-            super(chunkSize);
+            this(pattern, chunkSize, 1);
+        }
+
+        public ChunkedFileWriterOutputPicker(String pattern, int chunkSize, int firstChunk) {
+            super(chunkSize, firstChunk);
             this.pattern = pattern;
         }
 
         @Override
         protected Writer buildWriter(long chunk) {
-            String file = String.format(Locale.ROOT, pattern, chunk);
+            String file = fileName(pattern, chunk);
             log.info("Switching to {}", file);
             try {
                 return CliUtils.writer(file);
@@ -517,11 +939,38 @@ public class Munge implements Runnable {
                 throw new RuntimeException("Error switching chunks", e);
             }
         }
+
+        /**
+         * Build the name of the file for a chunk.
+         */
+        protected String fileName(String pattern, long chunk) {
+            return String.format(Locale.ROOT, pattern, chunk);
+        }
     }
 
     /**
-     * OutputPicker writes to PipedOutput stream and throws the corresponding
-     * PipedInputStreams on a BlockingQueue.
+     * OutputPicker that writes one shard's chunks to files.
+     */
+    public static class ShardedChunkedFileWriterOutputPicker extends ChunkedFileWriterOutputPicker {
+        /**
+         * The shard being written.
+         */
+        private final int shard;
+
+        public ShardedChunkedFileWriterOutputPicker(String pattern, int shard, int chunkSize) {
+            super(pattern, chunkSize);
+            this.shard = shard;
+        }
+
+        @Override
+        protected String fileName(String pattern, long chunk) {
+            return String.format(Locale.ROOT, pattern, shard, chunk);
+        }
+    }
+
+    /**
+     * OutputPicker writes each chunk to a ChunkPipe and throws the reading end
+     * of the pipe on a BlockingQueue.
      */
     public static class ChunkedPipedWriterOutputPicker extends ChunkedWriterOutputPicker {
         /**
@@ -529,18 +978,28 @@ public class Munge implements Runnable {
          */
         private final BlockingQueue<InputStream> queue;
 
+        /**
+         * Bytes of each chunk buffered waiting for its reader.
+         */
+        private final int bufferSize;
+
         public ChunkedPipedWriterOutputPicker(BlockingQueue<InputStream> queue, int chunkSize) {
-            super(chunkSize);
+            this(queue, chunkSize, ChunkPipe.DEFAULT_BUFFER_SIZE);
+        }
+
+        public ChunkedPipedWriterOutputPicker(BlockingQueue<InputStream> queue, int chunkSize, int bufferSize) {
+            super(chunkSize, 1);
             this.queue = queue;
+            this.bufferSize = bufferSize;
         }
 
         @Override
         protected Writer buildWriter(long chunk) {
-            PipedInputStream toQueue = new PipedInputStream();
+            ChunkPipe pipe = new ChunkPipe(bufferSize);
             try {
-                queue.put(toQueue);
-                return utf8(new PipedOutputStream(toQueue));
-            } catch (InterruptedException | IOException e) {
+                queue.put(pipe.in());
+                return utf8(pipe.out());
+            } catch (InterruptedException e) {
                 throw new RuntimeException("Error switching chunks", e);
             }
         }
@@ -621,53 +1080,4 @@ public class Munge implements Runnable {
             }
         }
     }
-
-    /**
-     * We need access to getMessage from exceptions. This is brittle but
-     * (hopefully) temporary.
-     */
-    private static class ForbiddenOk {
-        /**
-         * TurtleParser that tries to recover from errors we see in wikibase.
-         */
-        private static class HackedTurtleParser extends TurtleParser {
-            @Override
-            protected URI parseURI() throws IOException, RDFParseException {
-                try {
-                    return super.parseURI();
-                } catch (RDFParseException e) {
-                    if (e.getMessage().startsWith("IRI includes string escapes: ")
-                            || e.getMessage().startsWith("IRI included an unencoded space: '32'")) {
-                        log.warn("Attempting to recover from", e);
-                        if (!e.getMessage().startsWith("IRI includes string escapes: '\\62'")) {
-                            while (readCodePoint() != '>') {
-                                /*
-                                 * Dump until the end of the uri.
-                                 */
-                            }
-                        }
-                        return super.resolveURI("http://example.com/error");
-                    }
-                    throw e;
-                }
-            }
-
-            @Override
-            protected void parseStatement() throws IOException, RDFParseException, RDFHandlerException {
-                try {
-                    super.parseStatement();
-                } catch (RDFParseException e) {
-                    if (e.getMessage().startsWith("Namespace prefix 'Warning' used but not defined")) {
-                        log.warn("Attempting to recover from", e);
-                        while (readCodePoint() != '\n') {
-                            /*
-                             * Just dump the rest of the line. Hopefully that'll
-                             * be enough to recover.
-                             */
-                        }
-                    }
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,204 @@
+package org.wikidata.query.rdf.tool;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+/**
+ * Where a chunked Munge got to. Munge writes one after finishing each chunk
+ * so that if it dies it can resume from the start of the next chunk rather
+ * than from the start of the dump.
+ */
+public class MungeCheckpoint {
+    /**
+     * Prefix for the keys holding prefixes.
+     */
+    private static final String PREFIX_KEY = "prefix.";
+
+    /**
+     * The input being munged. Used to make sure we resume the same input.
+     */
+    private final String input;
+    /**
+     * Offset in bytes into the (decompressed) input of the first entity that
+     * isn't yet munged.
+     */
+    private final long offset;
+    /**
+     * Number of entities already munged.
+     */
+    private final long entities;
+    /**
+     * The chunk to write next.
+     */
+    private final int chunk;
+    /**
+     * The id of the last entity that was munged.
+     */
+    private final String lastEntityId;
+    /**
+     * Prefixes declared in the input before offset.
+     */
+    private final ImmutableSortedMap<String, String> prefixes;
+
+    public MungeCheckpoint(String input, long offset, long entities, int chunk, String lastEntityId, Map<String, String> prefixes) {
+        this.input = input;
+        this.offset = offset;
+        this.entities = entities;
+        this.chunk = chunk;
+        this.lastEntityId = lastEntityId;
+        this.prefixes = ImmutableSortedMap.copyOf(prefixes);
+    }
+
+    /**
+     * The input being munged.
+     */
+    public String input() {
+        return input;
+    }
+
+    /**
+     * Offset in bytes into the input of the first entity that isn't yet
+     * munged.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * Number of entities already munged.
+     */
+    public long entities() {
+        return entities;
+    }
+
+    /**
+     * The chunk to write next.
+     */
+    public int chunk() {
+        return chunk;
+    }
+
+    /**
+     * The id of the last entity that was munged.
+     */
+    public String lastEntityId() {
+        return lastEntityId;
+    }
+
+    /**
+     * Prefixes declared in the input before offset.
+     */
+    public Map<String, String> prefixes() {
+        return prefixes;
+    }
+
+    /**
+     * Turtle declaring the prefixes. Parse this before the input after offset
+     * so prefixed names resolve.
+     */
+    public byte[] prelude() {
+        StringBuilder prelude = new StringBuilder();
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            prelude.append("@prefix ").append(prefix.getKey()).append(": <").append(prefix.getValue()).append("> .\n");
+        }
+        return prelude.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Skip the input to offset. Seeks if the input supports it efficiently.
+     *
+     * @throws IOException if the input ends before offset or can't be read
+     */
+    public void seek(InputStream from) throws IOException {
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = from.skip(remaining);
+            if (skipped > 0) {
+                remaining -= skipped;
+                continue;
+            }
+            // skip is allowed to give up without being at the end
+            if (from.read() < 0) {
+                throw new IOException("Input ended " + remaining + " bytes before the checkpoint");
+            }
+            remaining--;
+        }
+    }
+
+    /**
+     * Write the checkpoint, replacing any existing one atomically.
+     *
+     * @throws IOException if the checkpoint can't be written
+     */
+    public void write(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("input", input);
+        properties.setProperty("offset", Long.toString(offset));
+        properties.setProperty("entities", Long.toString(entities));
+        properties.setProperty("chunk", Integer.toString(chunk));
+        properties.setProperty("lastEntityId", lastEntityId);
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            properties.setProperty(PREFIX_KEY + prefix.getKey(), prefix.getValue());
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, UTF_8)) {
+                properties.store(writer, "Munge checkpoint");
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read a checkpoint.
+     *
+     * @throws IOException if the checkpoint can't be read or is invalid
+     */
+    public static MungeCheckpoint read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, String> prefixes = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PREFIX_KEY)) {
+                prefixes.put(key.substring(PREFIX_KEY.length()), properties.getProperty(key));
+            }
+        }
+        try {
+            return new MungeCheckpoint(required(properties, "input"), Long.parseLong(required(properties, "offset")),
+                    Long.parseLong(required(properties, "entities")), Integer.parseInt(required(properties, "chunk")),
+                    required(properties, "lastEntityId"), prefixes);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint in " + file, e);
+        }
+    }
+
+    /**
+     * Get a property that must be in the checkpoint.
+     *
+     * @throws IOException if it isn't there
+     */
+    private static String required(Properties properties, String key) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IOException("Checkpoint is missing " + key);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,547 @@
+package org.wikidata.query.rdf.tool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Decompresses gzip or bzip2 on background threads, reading ahead of whoever
+ * is reading from it. Files made by concatenating many compressed members,
+ * like those from pbzip2 or multi-member gzip, are split on member boundaries
+ * and the chunks are decompressed in parallel. Files that can't be split are
+ * decompressed by a single background thread so at least decompression and
+ * parsing happen on different cores.
+ * <p>
+ * Member boundaries are found by scanning the compressed bytes for member
+ * headers so it is possible to find a false boundary. Decompressing the chunk
+ * before a false boundary fails because the member it contains is truncated.
+ * When that happens the chunk is merged with the chunks after it and
+ * decompressed again.
+ */
+public class ParallelDecompressingInputStream extends InputStream {
+    private static final Logger log = LoggerFactory.getLogger(ParallelDecompressingInputStream.class);
+
+    /**
+     * Default minimum size of a compressed chunk.
+     */
+    public static final int DEFAULT_MIN_CHUNK = 1024 * 1024;
+    /**
+     * Default size of compressed data we'll buffer while looking for a member
+     * boundary before giving up and decompressing the rest of the input in one
+     * stream.
+     */
+    public static final int DEFAULT_MAX_CHUNK = 32 * 1024 * 1024;
+    /**
+     * Size of the blocks read from the input and produced when decompressing
+     * a stream that can't be split.
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    /**
+     * Maximum number of chunks merged together to recover from a false member
+     * boundary.
+     */
+    private static final int MAX_MERGE = 16;
+    /**
+     * Milliseconds to wait for background threads to stop on close.
+     */
+    private static final long CLOSE_TIMEOUT = 10000;
+    /**
+     * Magic number at the start of every bzip2 block. The bcd of pi.
+     */
+    private static final byte[] BZIP2_BLOCK_MAGIC = {0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+
+    /**
+     * Compression formats.
+     */
+    public enum Format {
+        /**
+         * Gzip, possibly with multiple members.
+         */
+        GZIP {
+            @Override
+            boolean isMemberStart(byte[] b, int i) {
+                // Magic, deflate, no reserved flags, known xfl, known os
+                int xfl = b[i + 8];
+                int os = b[i + 9] & 0xFF;
+                return b[i] == (byte) 0x1F && b[i + 1] == (byte) 0x8B && b[i + 2] == 8 && (b[i + 3] & 0xE0) == 0
+                        && (xfl == 0 || xfl == 2 || xfl == 4) && (os <= 13 || os == 255);
+            }
+
+            @Override
+            InputStream decompress(InputStream compressed) throws IOException {
+                return new GZIPInputStream(compressed, BLOCK_SIZE);
+            }
+        },
+        /**
+         * Bzip2, possibly with multiple streams.
+         */
+        BZIP2 {
+            @Override
+            boolean isMemberStart(byte[] b, int i) {
+                // Stream magic, block size, and then the first block's magic
+                if (b[i] != 'B' || b[i + 1] != 'Z' || b[i + 2] != 'h' || b[i + 3] < '1' || b[i + 3] > '9') {
+                    return false;
+                }
+                for (int m = 0; m < BZIP2_BLOCK_MAGIC.length; m++) {
+                    if (b[i + 4 + m] != BZIP2_BLOCK_MAGIC[m]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            InputStream decompress(InputStream compressed) throws IOException {
+                return new BZip2CompressorInputStream(compressed, true);
+            }
+        };
+
+        /**
+         * Number of bytes isMemberStart needs.
+         */
+        static final int HEADER_LENGTH = 10;
+
+        /**
+         * Does a member start at i? There are always HEADER_LENGTH bytes
+         * available after i.
+         */
+        abstract boolean isMemberStart(byte[] b, int i);
+
+        /**
+         * Decompress a stream of one or more members.
+         *
+         * @throws IOException if the stream can't be read
+         */
+        abstract InputStream decompress(InputStream compressed) throws IOException;
+    }
+
+    /**
+     * The compressed input.
+     */
+    private final InputStream compressed;
+    /**
+     * The format of the compressed input.
+     */
+    private final Format format;
+    /**
+     * Minimum size of a compressed chunk.
+     */
+    private final int minChunk;
+    /**
+     * Maximum size of a compressed chunk.
+     */
+    private final int maxChunk;
+    /**
+     * Decompresses chunks.
+     */
+    private final ExecutorService decompressors;
+    /**
+     * Decompressed segments in order. This is the read ahead buffer.
+     */
+    private final BlockingQueue<Segment> segments;
+    /**
+     * Thread splitting the input into chunks.
+     */
+    private final Thread splitter;
+    /**
+     * All the background threads so close can wait for them to stop.
+     */
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    /**
+     * The decompressed block being read.
+     */
+    private byte[] block = new byte[0];
+    /**
+     * Position in block.
+     */
+    private int position;
+    /**
+     * Have we hit the end of the input?
+     */
+    private boolean done;
+    /**
+     * Segment taken from the queue but not used.
+     */
+    private Segment pushedBack;
+
+    public ParallelDecompressingInputStream(InputStream compressed, Format format, int threadCount) {
+        this(compressed, format, threadCount, DEFAULT_MIN_CHUNK, DEFAULT_MAX_CHUNK);
+    }
+
+    /**
+     * Build the stream and start decompressing.
+     *
+     * @param threadCount number of threads to decompress chunks
+     * @param minChunk minimum size of a compressed chunk
+     * @param maxChunk maximum size of compressed data to buffer looking for a
+     *            member boundary
+     */
+    public ParallelDecompressingInputStream(InputStream compressed, Format format, int threadCount, int minChunk, int maxChunk) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Must have at least one thread but got " + threadCount);
+        }
+        if (minChunk < 1 || maxChunk < minChunk) {
+            throw new IllegalArgumentException("Chunk sizes must be positive and in order but were " + minChunk + " and " + maxChunk);
+        }
+        this.compressed = compressed;
+        this.format = format;
+        this.minChunk = minChunk;
+        this.maxChunk = maxChunk;
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("decompress %s").build();
+        decompressors = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = threadFactory.newThread(r);
+                threads.add(thread);
+                return thread;
+            }
+        });
+        segments = new ArrayBlockingQueue<>(threadCount * 2);
+        splitter = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                split();
+            }
+        });
+        threads.add(splitter);
+        splitter.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextBlockIfNeeded()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextBlockIfNeeded()) {
+            return -1;
+        }
+        int read = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !nextBlockIfNeeded()) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, block.length - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        splitter.interrupt();
+        decompressors.shutdownNow();
+        compressed.close();
+        try {
+            for (Thread thread : threads) {
+                thread.join(CLOSE_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Move to the next decompressed block if we've finished this one.
+     *
+     * @return false if there are no more blocks
+     * @throws IOException if decompressing fails
+     */
+    private boolean nextBlockIfNeeded() throws IOException {
+        while (position >= block.length) {
+            if (done) {
+                return false;
+            }
+            Segment segment = take();
+            if (segment == Segment.END) {
+                done = true;
+                return false;
+            }
+            block = get(segment);
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Get the decompressed contents of a segment, recovering from false member
+     * boundaries.
+     *
+     * @throws IOException if decompressing fails
+     */
+    private byte[] get(Segment segment) throws IOException {
+        try {
+            return segment.decompressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting on decompression", e);
+        } catch (ExecutionException e) {
+            IOException cause = cause(e);
+            if (segment.compressed == null) {
+                throw cause;
+            }
+            return merge(segment, cause);
+        }
+    }
+
+    /**
+     * Recover from a false member boundary by merging a chunk that couldn't be
+     * decompressed with the chunks after it.
+     *
+     * @throws IOException if merging doesn't help
+     */
+    private byte[] merge(Segment failed, IOException cause) throws IOException {
+        log.debug("Chunk failed to decompress, assuming it ends on a false member boundary", cause);
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        merged.write(failed.compressed);
+        for (int i = 0; i < MAX_MERGE; i++) {
+            Segment next = take();
+            if (next == Segment.END || next.compressed == null) {
+                // Put back what we can't merge so it still gets read
+                pushBack(next);
+                break;
+            }
+            merged.write(next.compressed);
+            try {
+                return decompress(merged.toByteArray());
+            } catch (IOException e) {
+                log.debug("Merged chunk failed to decompress", e);
+            }
+        }
+        throw cause;
+    }
+
+    /**
+     * Take the next segment from the queue.
+     *
+     * @throws IOException if interrupted
+     */
+    private Segment take() throws IOException {
+        if (pushedBack != null) {
+            Segment segment = pushedBack;
+            pushedBack = null;
+            return segment;
+        }
+        try {
+            return segments.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting on decompression", e);
+        }
+    }
+
+    /**
+     * Push a segment back so the next call to take returns it.
+     */
+    private void pushBack(Segment segment) {
+        pushedBack = segment;
+    }
+
+    /**
+     * Split the input into chunks and queue them for decompression. Runs in
+     * the splitter thread.
+     */
+    private void split() {
+        try {
+            byte[] chunk = new byte[minChunk + BLOCK_SIZE];
+            int length = 0;
+            int scanned = 0;
+            while (true) {
+                if (length + BLOCK_SIZE > chunk.length) {
+                    chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, length + BLOCK_SIZE));
+                }
+                int read = compressed.read(chunk, length, BLOCK_SIZE);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+                int boundary;
+                while ((boundary = findBoundary(chunk, Math.max(scanned, minChunk), length)) >= 0) {
+                    submit(Arrays.copyOf(chunk, boundary));
+                    length -= boundary;
+                    System.arraycopy(chunk, boundary, chunk, 0, length);
+                    scanned = 0;
+                }
+                scanned = Math.max(scanned, length - Format.HEADER_LENGTH + 1);
+                if (length >= maxChunk) {
+                    stream(chunk, length);
+                    return;
+                }
+            }
+            if (length > 0) {
+                submit(Arrays.copyOf(chunk, length));
+            }
+            segments.put(Segment.END);
+        } catch (InterruptedException e) {
+            // Closed so just stop.
+            return;
+        } catch (IOException e) {
+            failed(e);
+        } finally {
+            // Lets the decompressors finish what they have and then exit
+            decompressors.shutdown();
+        }
+    }
+
+    /**
+     * Find the first member boundary in chunk at or after start.
+     *
+     * @return the offset of the boundary or -1 if there isn't one
+     */
+    private int findBoundary(byte[] chunk, int start, int length) {
+        for (int i = start; i <= length - Format.HEADER_LENGTH; i++) {
+            if (format.isMemberStart(chunk, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Queue a chunk for decompression.
+     *
+     * @throws InterruptedException if interrupted waiting for room in the queue
+     */
+    private void submit(final byte[] chunk) throws InterruptedException {
+        Future<byte[]> decompressed = decompressors.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return decompress(chunk);
+            }
+        });
+        segments.put(new Segment(chunk, decompressed));
+    }
+
+    /**
+     * Decompress the rest of the input as a single stream in the splitter
+     * thread because we couldn't find a member boundary.
+     *
+     * @throws InterruptedException if interrupted waiting for room in the queue
+     * @throws IOException if the input can't be decompressed
+     */
+    private void stream(byte[] chunk, int length) throws InterruptedException, IOException {
+        log.debug("Couldn't find a member boundary so decompressing the rest of the input in one stream");
+        try (InputStream in = format.decompress(new SequenceInputStream(new ByteArrayInputStream(chunk, 0, length), compressed))) {
+            while (true) {
+                byte[] decompressed = new byte[BLOCK_SIZE];
+                int filled = 0;
+                while (filled < decompressed.length) {
+                    int read = in.read(decompressed, filled, decompressed.length - filled);
+                    if (read < 0) {
+                        break;
+                    }
+                    filled += read;
+                }
+                if (filled > 0) {
+                    segments.put(new Segment(null, Futures.immediateFuture(Arrays.copyOf(decompressed, filled))));
+                }
+                if (filled < decompressed.length) {
+                    break;
+                }
+            }
+        }
+        segments.put(Segment.END);
+    }
+
+    /**
+     * Pass an error reading the input to the reader.
+     */
+    private void failed(IOException e) {
+        try {
+            segments.put(new Segment(null, Futures.<byte[]> immediateFailedFuture(e)));
+        } catch (InterruptedException interrupted) {
+            // Closed so nothing will read the failure.
+            return;
+        }
+    }
+
+    /**
+     * Decompress a whole chunk.
+     *
+     * @throws IOException if the chunk can't be decompressed
+     */
+    private byte[] decompress(byte[] chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.length * 4);
+        byte[] buffer = new byte[BLOCK_SIZE];
+        try (InputStream in = format.decompress(new ByteArrayInputStream(chunk))) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Unwrap the IOException from a failed decompression.
+     */
+    private static IOException cause(ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        return new IOException("Error decompressing", e.getCause());
+    }
+
+    /**
+     * A piece of the decompressed output.
+     */
+    private static final class Segment {
+        /**
+         * Marks the end of the input.
+         */
+        private static final Segment END = new Segment(null, null);
+
+        /**
+         * The compressed chunk if this segment is a chunk, null otherwise.
+         */
+        private final byte[] compressed;
+        /**
+         * The decompressed bytes.
+         */
+        private final Future<byte[]> decompressed;
+
+        private Segment(byte[] compressed, Future<byte[]> decompressed) {
+            this.compressed = compressed;
+            this.decompressed = decompressed;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.wikidata.query.rdf.tool;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+
+import org.openrdf.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.tool.change.Change;
+import org.wikidata.query.rdf.tool.exception.ContainedException;
+import org.wikidata.query.rdf.tool.exception.FatalException;
+import org.wikidata.query.rdf.tool.rdf.Munger;
+import org.wikidata.query.rdf.tool.rdf.RdfRepository;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A triple store that Update syncs entities to. Each replica munges the
+ * fetched statements against the values and references it already has so it
+ * is only sent what it is missing. Each replica syncs on
+ * its own executor and keeps its own left off time so a slow replica only
+ * holds up itself, at least until it falls maxPendingBatches behind. Because
+ * the updater moves on to the next batch before a replica has finished the
+ * last one the same entity can be synced twice at once. Those syncs are run
+ * one at a time and a sync is skipped if the replica was already synced to a
+ * newer revision. A replica that hits a fatal error stops syncing and stops
+ * moving its left off time. The rest carry on.
+ */
+// TODO fan out complexity
+@SuppressWarnings("checkstyle:classfanoutcomplexity")
+public class Replica {
+    private static final Logger log = LoggerFactory.getLogger(Replica.class);
+
+    /**
+     * Default for the most batches a replica can fall behind.
+     */
+    public static final int DEFAULT_MAX_PENDING_BATCHES = 10;
+    /**
+     * Most entities whose synced revisions we remember.
+     */
+    private static final int MAX_SYNCED_REVISIONS = 100000;
+
+    /**
+     * Name of the replica for logging.
+     */
+    private final String name;
+    /**
+     * The triple store.
+     */
+    private final RdfRepository rdfRepository;
+    /**
+     * Executor that syncs to the triple store. Null if syncs run on the thread
+     * that submits them.
+     */
+    private final ExecutorService syncExecutor;
+    /**
+     * Most batches the replica can fall behind.
+     */
+    private final int maxPendingBatches;
+    /**
+     * Permits for the batches the replica has yet to finish.
+     */
+    private final Semaphore pendingBatches;
+    /**
+     * Makes syncs of the same entity take turns.
+     */
+    private final Striped<Lock> entityLocks = Striped.lock(1024);
+    /**
+     * Revision that each entity was last synced to.
+     */
+    private final Cache<String, Long> syncedRevisions = CacheBuilder.newBuilder().maximumSize(MAX_SYNCED_REVISIONS).build();
+    /**
+     * Counts the batches the replica has yet to finish.
+     */
+    private Counter pending = new Counter();
+    /**
+     * Histogram of the milliseconds between a change being made and it being
+     * synced, for changes that know when they were made.
+     */
+    private Histogram changeLag = new Histogram(new ExponentiallyDecayingReservoir());
+    /**
+     * Waits for each batch to be synced and then updates the left off time.
+     * Null unless the replica is started.
+     */
+    private ExecutorService watermarker;
+    /**
+     * Set if the replica hit a fatal error.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Build.
+     *
+     * @param name name of the replica for logging
+     * @param rdfRepository the triple store
+     * @param syncExecutor executor that syncs to the triple store. Null to sync
+     *            on the thread that submits the sync.
+     * @param maxPendingBatches most batches the replica can fall behind
+     */
+    public Replica(String name, RdfRepository rdfRepository, ExecutorService syncExecutor, int maxPendingBatches) {
+        this.name = name;
+        this.rdfRepository = rdfRepository;
+        this.syncExecutor = syncExecutor;
+        this.maxPendingBatches = maxPendingBatches;
+        pendingBatches = new Semaphore(maxPendingBatches);
+    }
+
+    /**
+     * Use metrics from a registry. Replicas that share a prefix share
+     * metrics.
+     *
+     * @param metrics registry to register with
+     * @param prefix prefix of the names of metrics that are just for this
+     *            replica
+     * @return this for chaining
+     */
+    public Replica register(MetricRegistry metrics, String prefix) {
+        pending = metrics.counter(prefix + "pending-batches");
+        changeLag = metrics.histogram("change-lag-millis");
+        return this;
+    }
+
+    /**
+     * The triple store.
+     */
+    public RdfRepository rdfRepository() {
+        return rdfRepository;
+    }
+
+    /**
+     * Has the replica hit a fatal error?
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Start watching batches.
+     */
+    public void start() {
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("watermark %s");
+        watermarker = Executors.newSingleThreadExecutor(threadFactory.build());
+    }
+
+    /**
+     * Wait for all pending batches to finish and stop watching batches.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void finish() throws InterruptedException {
+        pendingBatches.acquire(maxPendingBatches);
+        pendingBatches.release(maxPendingBatches);
+        watermarker.shutdown();
+    }
+
+    /**
+     * Does the replica need to be synced for this change?
+     */
+    public boolean needs(Change change) {
+        if (failed) {
+            return false;
+        }
+        if (change.revision() >= 0 && rdfRepository.hasRevision(change.entityId(), change.revision())) {
+            log.debug("{} already has {}, skipping.", name, change);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Munge statements fetched for a change against what the replica already
+     * has and sync them.
+     *
+     * @param change the change
+     * @param statements statements fetched for the entity. Not modified.
+     * @param munger munger to munge a copy of the statements with
+     * @return a future that is done when the sync is done
+     */
+    public Future<?> sync(final Change change, final Collection<Statement> statements, final Munger munger) {
+        FutureTask<?> sync = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                if (failed) {
+                    return;
+                }
+                Lock lock = entityLocks.get(change.entityId());
+                lock.lock();
+                try {
+                    syncIfNewer(change, statements, munger);
+                } catch (ContainedException e) {
+                    log.warn("Contained error syncing to " + name + ".  Giving up on " + change.entityId(), e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }, null);
+        if (syncExecutor == null) {
+            sync.run();
+        } else {
+            syncExecutor.execute(sync);
+        }
+        return sync;
+    }
+
+    /**
+     * Munge and sync statements unless the replica was already synced to a
+     * newer revision. Must hold the entity's lock.
+     */
+    private void syncIfNewer(Change change, Collection<Statement> fetched, Munger munger) {
+        Long synced = syncedRevisions.getIfPresent(change.entityId());
+        if (synced != null && synced > change.revision()) {
+            log.debug("{} was already synced to revision {} of {}, skipping.", name, synced, change);
+            return;
+        }
+        Collection<Statement> statements = new ArrayList<>(fetched);
+        Set<String> values = rdfRepository.getValues(change.entityId());
+        Set<String> refs = rdfRepository.getRefs(change.entityId());
+        munger.munge(change.entityId(), statements, values, refs, change);
+        List<String> cleanupList = new ArrayList<>();
+        cleanupList.addAll(values);
+        cleanupList.addAll(refs);
+        rdfRepository.sync(change.entityId(), statements, cleanupList);
+        if (change.revision() >= 0) {
+            syncedRevisions.put(change.entityId(), change.revision());
+        }
+        if (change.timestamp() != null) {
+            changeLag.update(System.currentTimeMillis() - change.timestamp().getTime());
+        }
+    }
+
+    /**
+     * Record a batch. Once its fetches are done all of its syncs have been
+     * submitted and once those are done too the left off time is moved up to
+     * leftOffDate. Waits if the replica is already maxPendingBatches behind.
+     *
+     * @param fetches done once each change in the batch has been fetched and
+     *            submitted or given up on, including changes still being
+     *            retried
+     * @param syncs the batch's syncs. Changes that are still being retried
+     *            add theirs before their fetch is done.
+     * @param leftOffDate the batch's left off date. Null if it doesn't have
+     *            one.
+     * @return a future that is done once the replica has finished the batch
+     *         or failed
+     * @throws InterruptedException if interrupted waiting for the replica to
+     *             catch up
+     */
+    public Future<?> batchSubmitted(final List<Future<?>> fetches, final List<Future<?>> syncs, final Date leftOffDate)
+            throws InterruptedException {
+        if (!pendingBatches.tryAcquire()) {
+            log.info("{} is {} batches behind.  Waiting for it.", name, maxPendingBatches);
+            pendingBatches.acquire();
+        }
+        pending.inc();
+        return watermarker.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    advance(fetches, syncs, leftOffDate);
+                } finally {
+                    pending.dec();
+                    pendingBatches.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for a batch's fetches and syncs and then move the left off time
+     * up.
+     */
+    private void advance(List<Future<?>> fetches, List<Future<?>> syncs, Date leftOffDate) {
+        try {
+            for (Future<?> fetch : fetches) {
+                fetch.get();
+            }
+            // Nothing adds to syncs once the fetches are done
+            for (Future<?> sync : new ArrayList<>(syncs)) {
+                sync.get();
+            }
+            if (leftOffDate == null || failed) {
+                return;
+            }
+            /*
+             * Back one second because the resolution on our poll isn't super
+             * good and because its not big deal to recheck if we have some
+             * updates.
+             */
+            rdfRepository.updateLeftOffTime(new Date(leftOffDate.getTime() - SECONDS.toMillis(1)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        } catch (FatalException | ContainedException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stop syncing to the replica.
+     */
+    private void fail(Throwable cause) {
+        if (!failed) {
+            log.error("{} encountered a fatal exception.  Not syncing it any more.", name, cause);
+        }
+        failed = true;
+    }
+
+    /**
+     * Build a replica of each triple store.
+     *
+     * @param rdfRepositories the triple stores
+     * @param syncExecutors executor to sync each triple store on. Null ones
+     *            sync on the thread that submits the sync.
+     * @param maxPendingBatches most batches each replica can fall behind
+     * @param metrics registry to register the replicas with. If there is more
+     *            than one replica then each gets its own metrics.
+     * @return the replicas
+     */
+    public static List<Replica> replicas(List<RdfRepository> rdfRepositories, List<ExecutorService> syncExecutors,
+            int maxPendingBatches, MetricRegistry metrics) {
+        List<Replica> replicas = new ArrayList<>(rdfRepositories.size());
+        for (int r = 0; r < rdfRepositories.size(); r++) {
+            String prefix = rdfRepositories.size() == 1 ? "" : "replica-" + r + "-";
+            replicas.add(new Replica("replica " + r, rdfRepositories.get(r), syncExecutors.get(r), maxPendingBatches).register(
+                    metrics, prefix));
+        }
+        return replicas;
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.wikidata.query.rdf.tool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.wikidata.query.rdf.tool.change.Change;
+
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Schedules syncing changes so a few huge entities can't take every thread
+ * while hundreds of small changes queue behind them. Remembers how many
+ * statements each entity had when it was last synced and treats the ones
+ * with at least largeStatements as large. Large entities are synced one after
+ * another in at most largeThreads lanes which start first so they don't hold
+ * up the end of the batch. Everything else, including entities we haven't
+ * synced yet, is submitted to the executor individually and so gets the
+ * remaining threads.
+ */
+public class SizeAwareScheduler {
+    /**
+     * Most entities whose sizes we remember.
+     */
+    private static final int MAX_SIZES = 100000;
+
+    /**
+     * Executor that syncs the changes.
+     */
+    private final ExecutorService executor;
+    /**
+     * Most threads to sync large entities on at once.
+     */
+    private final int largeThreads;
+    /**
+     * Entities with at least this many statements are large.
+     */
+    private final int largeStatements;
+    /**
+     * Number of statements each entity had when it was last synced.
+     */
+    private final Cache<String, Integer> sizes = CacheBuilder.newBuilder().maximumSize(MAX_SIZES).build();
+
+    /**
+     * Build.
+     *
+     * @param executor executor that syncs the changes
+     * @param largeThreads most threads to sync large entities on at once
+     * @param largeStatements entities with at least this many statements are
+     *            large
+     */
+    public SizeAwareScheduler(ExecutorService executor, int largeThreads, int largeStatements) {
+        if (largeThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread for large entities");
+        }
+        this.executor = executor;
+        this.largeThreads = largeThreads;
+        this.largeStatements = largeStatements;
+    }
+
+    /**
+     * Remember how many statements an entity had when it was synced.
+     */
+    public void synced(String entityId, int statements) {
+        sizes.put(entityId, statements);
+    }
+
+    /**
+     * Is the entity large?
+     */
+    public boolean large(String entityId) {
+        Integer size = sizes.getIfPresent(entityId);
+        return size != null && size >= largeStatements;
+    }
+
+    /**
+     * Submit syncs for some changes.
+     *
+     * @param changes changes to sync
+     * @param syncs builds the task that syncs a change
+     * @return futures that are done when all of the changes have been synced
+     */
+    public List<Future<?>> submit(List<Change> changes, Function<Change, Runnable> syncs) {
+        final Queue<Runnable> large = new ConcurrentLinkedQueue<>();
+        List<Runnable> small = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            Runnable sync = syncs.apply(change);
+            if (large(change.entityId())) {
+                large.add(sync);
+            } else {
+                small.add(sync);
+            }
+        }
+        List<Future<?>> tasks = new ArrayList<>();
+        int lanes = Math.min(largeThreads, large.size());
+        for (int i = 0; i < lanes; i++) {
+            tasks.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        Runnable sync = large.poll();
+                        if (sync == null) {
+                            return;
+                        }
+                        sync.run();
+                    }
+                }
+            }));
+        }
+        for (Runnable sync : small) {
+            tasks.add(executor.submit(sync));
+        }
+        return tasks;
+    }
+}
@@ -3,21 +3,30 @@ package org.wikidata.query.rdf.tool;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.wikidata.query.rdf.tool.OptionsUtils.handleOptions;
 import static org.wikidata.query.rdf.tool.OptionsUtils.mungerFromOptions;
+import static org.wikidata.query.rdf.tool.OptionsUtils.splitByComma;
 import static org.wikidata.query.rdf.tool.wikibase.WikibaseRepository.inputDateFormat;
 import static org.wikidata.query.rdf.tool.wikibase.WikibaseRepository.outputDateFormat;
 
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -28,13 +37,17 @@ import org.wikidata.query.rdf.common.uri.WikibaseUris;
 import org.wikidata.query.rdf.tool.OptionsUtils.BasicOptions;
 import org.wikidata.query.rdf.tool.OptionsUtils.MungerOptions;
 import org.wikidata.query.rdf.tool.OptionsUtils.WikibaseOptions;
+import org.wikidata.query.rdf.tool.change.AdaptiveBatchSize;
 import org.wikidata.query.rdf.tool.change.Change;
 import org.wikidata.query.rdf.tool.change.Change.Batch;
+import org.wikidata.query.rdf.tool.change.CoalescingChangeSource;
+import org.wikidata.query.rdf.tool.change.EventStreamChangeSource;
 import org.wikidata.query.rdf.tool.change.IdListChangeSource;
 import org.wikidata.query.rdf.tool.change.IdRangeChangeSource;
 import org.wikidata.query.rdf.tool.change.RecentChangesPoller;
 import org.wikidata.query.rdf.tool.exception.ContainedException;
 import org.wikidata.query.rdf.tool.exception.RetryableException;
+import org.wikidata.query.rdf.tool.rdf.AdaptiveConcurrencyLimiter;
 import org.wikidata.query.rdf.tool.rdf.Munger;
 import org.wikidata.query.rdf.tool.rdf.RdfRepository;
 import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
@@ -42,6 +55,8 @@ import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lexicalscope.jewel.cli.Option;
 
@@ -55,6 +70,19 @@ import com.lexicalscope.jewel.cli.Option;
 public class Update<B extends Change.Batch> implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(Update.class);
 
+    /**
+     * Default for the most times to retry syncing a change.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 10;
+    /**
+     * Default backoff before the first retry.
+     */
+    public static final long DEFAULT_RETRY_BACKOFF_MILLIS = 1000;
+    /**
+     * Longest backoff between retries.
+     */
+    private static final long MAX_RETRY_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
     /**
      * CLI options for use with JewelCli.
      */
@@ -70,8 +98,45 @@ public class Update<B extends Change.Batch> implements Runnable {
                 + "changes. Start and end are inclusive.")
         String ids();
 
-        @Option(shortName = "u", description = "URL to post updates and queries.")
-        String sparqlUrl();
+        @Option(defaultToNull = true, description = "Shards that the dump was munged into, like hash:4 or range:1000000,2000000. "
+                + "Must match what was given to Munge. With <start>-<end> --ids only ids in --shard are updated.")
+        String shards();
+
+        @Option(defaultValue = "0", description = "Shard to update if --shards is specified.")
+        int shard();
+
+        @Option(description = "With <start>-<end> --ids look up which ids exist and their latest revisions "
+                + WikibaseRepository.MAX_ENTITIES_PER_REQUEST + " at a time and only update the ones that exist and are newer "
+                + "than the RDF store's. Saves a request for every missing id in sparse ranges.")
+        boolean checkRevisions();
+
+        @Option(defaultValue = "1", description = "Split the <start>-<end> --ids range into this many partitions that are updated "
+                + "concurrently, each tracking its own progress. All partitions share --threadCount threads to sync changes so "
+                + "raise it too.")
+        int partitions();
+
+        @Option(defaultValue = "0", description = "Seconds to hold polled recent changes so entities that are edited again "
+                + "within them are synced once with their latest revision. 0 syncs every change as soon as it is polled.")
+        int coalesceWindow();
+
+        @Option(defaultToNull = true, description = "Read changes from this stream of recent change events instead of polling "
+                + "recent changes. A file or http url with one JSON event per line, optionally sent as server-sent events. "
+                + "Files are tailed. Up to --maxBatchSize changes are read at a time. Http streams resume from the id of the last "
+                + "event read so they must send server-sent event ids and honor Last-Event-ID.")
+        String eventStream();
+
+        @Option(defaultValue = "eventStream.offset", description = "File in which to save the position in --eventStream so "
+                + "updating can resume from it. It only moves once every --sparqlUrl has synced up to it.")
+        String eventStreamOffsetFile();
+
+        @Option(shortName = "u", description = "URL to post updates and queries. With more than one every entity is fetched "
+                + "once and munged and synced for each of them on their own --threadCount threads. Each one tracks where it left off "
+                + "and polling resumes from the earliest.")
+        List<String> sparqlUrl();
+
+        @Option(defaultValue = "" + Replica.DEFAULT_MAX_PENDING_BATCHES, description = "Most batches a triple store can fall "
+                + "behind before the updater waits for it to catch up.")
+        int maxPendingBatches();
 
         @Option(shortName = "d", defaultValue = "10", description = "Poll delay when no updates found")
         int pollDelay();
@@ -79,8 +144,41 @@ public class Update<B extends Change.Batch> implements Runnable {
         @Option(shortName = "t", defaultValue = "10", description = "Thread count")
         int threadCount();
 
-        @Option(shortName = "b", defaultValue = "10", description = "Number of recent changes fetched at a time.")
+        @Option(defaultValue = "2", description = "Most threads that sync large entities at once so they can't hold up "
+                + "small changes.")
+        int largeEntityThreads();
+
+        @Option(defaultValue = "10000", description = "Entities that had at least this many statements when they were last "
+                + "synced are large.")
+        int largeEntityStatements();
+
+        @Option(defaultValue = "" + DEFAULT_MAX_RETRIES, description = "Most times to retry syncing a change that fails in a "
+                + "retryable way. Retries back off from a second, doubling up to a minute. Changes that run out of retries are "
+                + "added to --deadLetters.")
+        int maxRetries();
+
+        @Option(defaultValue = "deadLetters", description = "File to which to append the ids of entities that couldn't be synced. "
+                + "Replay them with --ids $(paste -sd, <file>).")
+        String deadLetters();
+
+        @Option(defaultValue = "1", description = "Fewest updates the triple store is sent at once.")
+        int minConcurrentUpdates();
+
+        @Option(defaultValue = "0", description = "Most updates the triple store is sent at once. 0 means --threadCount. The "
+                + "limit starts at --minConcurrentUpdates, creeps up while updates are quick and halves when they are slow or fail.")
+        int maxConcurrentUpdates();
+
+        @Option(defaultValue = "1000", description = "Updates that take longer than this many milliseconds halve the number of "
+                + "updates the triple store is sent at once.")
+        long updateLatencyTarget();
+
+        @Option(shortName = "b", defaultValue = "10", description = "Number of recent changes fetched at a time. When polling "
+                + "recent changes this is the smallest batch size.")
         int batchSize();
+
+        @Option(defaultValue = "500", description = "Largest number of recent changes fetched at a time. The batch size grows "
+                + "towards this while the updater lags and shrinks back to --batchSize once it has caught up.")
+        int maxBatchSize();
     }
 
     /**
@@ -89,27 +187,125 @@ public class Update<B extends Change.Batch> implements Runnable {
     public static void main(String[] args) {
         Options options = handleOptions(Options.class, args);
         WikibaseRepository wikibaseRepository = new WikibaseRepository(options.wikibaseScheme(), options.wikibaseHost());
-        URI sparqlUri;
-        try {
-            sparqlUri = new URI(options.sparqlUrl());
-        } catch (URISyntaxException e) {
-            log.error("Invalid url:  " + options.sparqlUrl() + " caused by " + e.getMessage());
+        MetricRegistry metrics = reportedMetrics();
+        List<RdfRepository> rdfRepositories = rdfRepositories(options, metrics);
+        if (rdfRepositories == null) {
             return;
         }
-        WikibaseUris uris = new WikibaseUris(options.wikibaseHost());
-        RdfRepository rdfRepository = new RdfRepository(sparqlUri, uris);
-        Change.Source<? extends Change.Batch> changeSource = buildChangeSource(options, rdfRepository,
-                wikibaseRepository);
+        Change.Source<? extends Change.Batch> changeSource = buildChangeSource(options, rdfRepositories,
+                wikibaseRepository, metrics);
         if (changeSource == null) {
             return;
         }
-        int threads = options.threadCount();
-        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("update %s");
-        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(), threadFactory.build());
+        ExecutorService executor = fixedThreadPool(options.threadCount(), "update %s");
+        // A single triple store is synced right after fetching on the same thread
+        List<ExecutorService> syncExecutors = new ArrayList<>(rdfRepositories.size());
+        for (int r = 0; r < rdfRepositories.size(); r++) {
+            syncExecutors.add(rdfRepositories.size() == 1 ? null : fixedThreadPool(options.threadCount(), "replica " + r
+                    + " sync %s"));
+        }
 
         Munger munger = mungerFromOptions(options);
-        new Update<>(changeSource, wikibaseRepository, rdfRepository, munger, executor, options.pollDelay()).run();
+        DeadLetters deadLetters = new DeadLetters(Paths.get(options.deadLetters())).register(metrics);
+        if (options.partitions() > 1) {
+            if (!(changeSource instanceof IdRangeChangeSource)) {
+                log.error("--partitions requires --ids <start>-<end>");
+                return;
+            }
+            List<IdRangeChangeSource> partitions = ((IdRangeChangeSource) changeSource).partition(options.partitions());
+            runPartitions(partitions, wikibaseRepository, rdfRepositories, syncExecutors, munger, executor, options, metrics,
+                    deadLetters);
+            return;
+        }
+        List<Replica> replicas = Replica.replicas(rdfRepositories, syncExecutors, options.maxPendingBatches(), metrics);
+        configure(new Update<>(changeSource, wikibaseRepository, replicas, munger, executor, options.pollDelay(), metrics),
+                options, deadLetters).run();
+    }
+
+    /**
+     * Build a repository for each --sparqlUrl, each limiting the updates it is
+     * sent on its own.
+     *
+     * @return null if any url is invalid - errors have been logged to the user
+     */
+    private static List<RdfRepository> rdfRepositories(Options options, MetricRegistry metrics) {
+        WikibaseUris uris = new WikibaseUris(options.wikibaseHost());
+        int maxConcurrentUpdates = options.maxConcurrentUpdates() > 0 ? options.maxConcurrentUpdates() : options.threadCount();
+        List<String> sparqlUrls = splitByComma(options.sparqlUrl());
+        List<RdfRepository> rdfRepositories = new ArrayList<>(sparqlUrls.size());
+        for (String sparqlUrl : sparqlUrls) {
+            URI sparqlUri;
+            try {
+                sparqlUri = new URI(sparqlUrl);
+            } catch (URISyntaxException e) {
+                log.error("Invalid url:  {}", sparqlUrl, e);
+                return null;
+            }
+            String prefix = sparqlUrls.size() == 1 ? "" : "replica-" + rdfRepositories.size() + "-";
+            rdfRepositories.add(new RdfRepository(sparqlUri, uris).limitUpdates(new AdaptiveConcurrencyLimiter(
+                    Math.min(options.minConcurrentUpdates(), maxConcurrentUpdates), maxConcurrentUpdates,
+                    options.updateLatencyTarget()).register(metrics, prefix + "concurrent-updates")));
+        }
+        return rdfRepositories;
+    }
+
+    /**
+     * Build a pool of daemon threads.
+     */
+    private static ExecutorService fixedThreadPool(int threads, String nameFormat) {
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat);
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                threadFactory.build());
+    }
+
+    /**
+     * Update each partition of an id range concurrently. The partitions share
+     * the executors that sync changes and the metrics. Each one runs on a
+     * thread named after it so its progress can be picked out of the logs.
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    private static void runPartitions(List<IdRangeChangeSource> partitions, WikibaseRepository wikibaseRepository,
+            List<RdfRepository> rdfRepositories, List<ExecutorService> syncExecutors, Munger munger, ExecutorService executor,
+            Options options, MetricRegistry metrics, DeadLetters deadLetters) {
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("partition %s");
+        ExecutorService partitionExecutor = Executors.newFixedThreadPool(partitions.size(), threadFactory.build());
+        try {
+            List<Future<?>> running = new ArrayList<>(partitions.size());
+            for (int p = 0; p < partitions.size(); p++) {
+                log.info("Partition {} updates {}", p, partitions.get(p));
+                List<Replica> replicas = Replica.replicas(rdfRepositories, syncExecutors, options.maxPendingBatches(), metrics);
+                running.add(partitionExecutor.submit(configure(new Update<>(partitions.get(p), wikibaseRepository, replicas,
+                        munger, executor, options.pollDelay(), metrics), options, deadLetters)));
+            }
+            for (Future<?> partition : running) {
+                partition.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Updating a partition encountered a fatal exception", e);
+        } finally {
+            partitionExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Configure an updater from the command line options.
+     *
+     * @return the updater for chaining
+     */
+    private static <B extends Change.Batch> Update<B> configure(Update<B> update, Options options, DeadLetters deadLetters) {
+        return update.scheduleLargeEntities(options.largeEntityThreads(), options.largeEntityStatements())
+                .retries(options.maxRetries(), DEFAULT_RETRY_BACKOFF_MILLIS, deadLetters);
+    }
+
+    /**
+     * Build a metric registry that is reported over JMX.
+     */
+    private static MetricRegistry reportedMetrics() {
+        MetricRegistry metrics = new MetricRegistry();
+        JmxReporter.forRegistry(metrics).build().start();
+        return metrics;
     }
 
     /**
@@ -119,34 +315,14 @@ public class Update<B extends Change.Batch> implements Runnable {
      *         logged to the user
      */
     @SuppressWarnings("checkstyle:cyclomaticcomplexity")
-    private static Change.Source<? extends Batch> buildChangeSource(Options options, RdfRepository rdfRepository,
-            WikibaseRepository wikibaseRepository) {
+    private static Change.Source<? extends Batch> buildChangeSource(Options options, List<RdfRepository> rdfRepositories,
+            WikibaseRepository wikibaseRepository, MetricRegistry metrics) {
         if (options.ids() != null) {
-            if (options.ids().contains(",")) {
-                // Id list
-                return new IdListChangeSource(options.ids().split(","), options.batchSize());
-            }
-            String[] ids = options.ids().split("-");
-            long start;
-            long end;
-            switch (ids.length) {
-            case 1:
-                if (!Character.isDigit(ids[0].charAt(0))) {
-                    // Not a digit - probably just single ID
-                    return new IdListChangeSource(ids, options.batchSize());
-                }
-                start = Long.parseLong(ids[0]);
-                end = start;
-                break;
-            case 2:
-                start = Long.parseLong(ids[0]);
-                end = Long.parseLong(ids[1]);
-                break;
-            default:
-                log.error("Invalid format for --ids.  Need <start>-<stop>.");
-                return null;
-            }
-            return IdRangeChangeSource.forItems(start, end, options.batchSize());
+            // Revisions are only checked against a lone triple store - the others might be behind it
+            return idsChangeSource(options, rdfRepositories.size() == 1 ? rdfRepositories.get(0) : null, wikibaseRepository);
+        }
+        if (options.eventStream() != null) {
+            return eventStreamChangeSource(options);
         }
         long startTime;
         if (options.start() != null) {
@@ -162,7 +338,7 @@ public class Update<B extends Change.Batch> implements Runnable {
             }
         } else {
             log.info("Checking where we left off");
-            Date leftOff = rdfRepository.fetchLeftOffTime();
+            Date leftOff = earliestLeftOffTime(rdfRepositories);
             long minStartTime = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30);
             if (leftOff == null) {
                 startTime = minStartTime;
@@ -182,38 +358,144 @@ public class Update<B extends Change.Batch> implements Runnable {
                 log.info("Found start time in the RDF store: {}", inputDateFormat().format(leftOff));
             }
         }
-        return new RecentChangesPoller(wikibaseRepository, new Date(startTime), options.batchSize());
+        return recentChangesPoller(options, new Date(startTime), wikibaseRepository, metrics);
+    }
+
+    /**
+     * Find the earliest time any of the triple stores left off at.
+     *
+     * @return null if any of them don't know where they left off
+     */
+    private static Date earliestLeftOffTime(List<RdfRepository> rdfRepositories) {
+        Date earliest = null;
+        for (RdfRepository rdfRepository : rdfRepositories) {
+            Date leftOff = rdfRepository.fetchLeftOffTime();
+            if (leftOff == null) {
+                return null;
+            }
+            if (earliest == null || leftOff.before(earliest)) {
+                earliest = leftOff;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Build a change source that polls recent changes starting at startTime.
+     */
+    private static Change.Source<? extends Batch> recentChangesPoller(Options options, Date startTime,
+            WikibaseRepository wikibaseRepository, MetricRegistry metrics) {
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prefetch %s");
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(options.batchSize(), Math.max(options.batchSize(),
+                options.maxBatchSize())).register(metrics);
+        RecentChangesPoller poller = new RecentChangesPoller(wikibaseRepository, startTime, batchSize)
+                .prefetch(Executors.newSingleThreadExecutor(threadFactory.build()));
+        if (options.coalesceWindow() <= 0) {
+            return poller;
+        }
+        return new CoalescingChangeSource<>(poller, SECONDS.toMillis(options.coalesceWindow())).register(metrics);
+    }
+
+    /**
+     * Build a change source for the ids in --ids.
+     *
+     * @return null if non can be built - its ok to just exit - errors have been
+     *         logged to the user
+     */
+    private static Change.Source<? extends Batch> idsChangeSource(Options options, RdfRepository rdfRepository,
+            WikibaseRepository wikibaseRepository) {
+        if (options.ids().contains(",")) {
+            // Id list
+            return new IdListChangeSource(options.ids().split(","), options.batchSize());
+        }
+        String[] ids = options.ids().split("-");
+        long start;
+        long end;
+        switch (ids.length) {
+        case 1:
+            if (!Character.isDigit(ids[0].charAt(0))) {
+                // Not a digit - probably just single ID
+                return new IdListChangeSource(ids, options.batchSize());
+            }
+            start = Long.parseLong(ids[0]);
+            end = start;
+            break;
+        case 2:
+            start = Long.parseLong(ids[0]);
+            end = Long.parseLong(ids[1]);
+            break;
+        default:
+            log.error("Invalid format for --ids.  Need <start>-<stop>.");
+            return null;
+        }
+        return idRangeChangeSource(options, start, end, rdfRepository, wikibaseRepository);
     }
 
     /**
-     * Metric registry.
+     * Build a change source that reads --eventStream.
+     *
+     * @return null if the url is invalid - errors have been logged to the user
      */
-    private final MetricRegistry metrics = new MetricRegistry();
+    private static EventStreamChangeSource eventStreamChangeSource(Options options) {
+        URL stream;
+        try {
+            stream = new URL(options.eventStream());
+        } catch (MalformedURLException e) {
+            log.error("Invalid event stream url:  {}", options.eventStream(), e);
+            return null;
+        }
+        return new EventStreamChangeSource(stream, Paths.get(options.eventStreamOffsetFile()), options.wikibaseHost(),
+                options.maxBatchSize());
+    }
+
+    /**
+     * Build a change source for a range of ids.
+     *
+     * @return null if the shard options are invalid - errors have been logged
+     *         to the user
+     */
+    private static IdRangeChangeSource idRangeChangeSource(Options options, long start, long end, RdfRepository rdfRepository,
+            WikibaseRepository wikibaseRepository) {
+        IdRangeChangeSource source = IdRangeChangeSource.forItems(start, end, options.batchSize());
+        if (options.shards() != null) {
+            try {
+                source.shard(EntitySharder.parse(options.shards()), options.shard());
+            } catch (IllegalArgumentException e) {
+                log.error("Invalid shard", e);
+                return null;
+            }
+        }
+        if (options.checkRevisions()) {
+            source.checkRevisions(wikibaseRepository, rdfRepository);
+        }
+        return source;
+    }
+
     /**
      * Meter for the raw number of updates synced.
      */
-    private final Meter updateMeter = metrics.meter("updates");
+    private final Meter updateMeter;
     /**
      * Meter measuring in a batch specific unit. For the RecentChangesPoller its
      * milliseconds, for the IdChangeSource its ids.
      */
-    private final Meter batchAdvanced = metrics.meter("batch-progress");
-    /**
-     * JMX interface for metrics counters.
-     */
-    private final JmxReporter reporter = JmxReporter.forRegistry(metrics).build();
+    private final Meter batchAdvanced;
     /**
      * Source of change batches.
      */
     private final Change.Source<B> changeSource;
+    /**
+     * The change source if it saves where it left off itself. Null otherwise.
+     */
+    private final Change.Checkpointing<B> checkpointing;
     /**
      * Wikibase to read rdf from.
      */
     private final WikibaseRepository wikibase;
     /**
-     * Repository to which to sync rdf.
+     * Replicas to which to sync rdf.
      */
-    private final RdfRepository rdfRepository;
+    private final List<Replica> replicas;
     /**
      * Munger to munge rdf from wikibase before adding it to the rdf store.
      */
@@ -228,20 +510,136 @@ public class Update<B extends Change.Batch> implements Runnable {
      * particular this will happen if the RecentChangesPoller finds no changes.
      */
     private final int pollDelay;
+    /**
+     * Schedules the syncs. By default every change is submitted to the
+     * executor as it comes.
+     */
+    private SizeAwareScheduler scheduler;
+    /**
+     * Most times to retry syncing a change before giving up on it.
+     */
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    /**
+     * Backoff before the first retry. It doubles for each retry after that.
+     */
+    private long retryBackoffMillis = DEFAULT_RETRY_BACKOFF_MILLIS;
+    /**
+     * Where changes go when we give up on them.
+     */
+    private DeadLetters deadLetters = new DeadLetters(null);
+    /**
+     * Waits out retry backoffs while running.
+     */
+    private ScheduledExecutorService retryTimer;
+    /**
+     * Waits for every replica to finish each batch and then tells
+     * checkpointing. Null unless running with a checkpointing change source.
+     */
+    private ExecutorService checkpointer;
 
     public Update(Change.Source<B> changeSource, WikibaseRepository wikibase, RdfRepository rdfRepository,
             Munger munger, ExecutorService executor, int pollDelay) {
+        this(changeSource, wikibase, rdfRepository, munger, executor, pollDelay, reportedMetrics());
+    }
+
+    /**
+     * Build the updater, registering its meters in metrics. Updaters that
+     * share metrics share meters.
+     */
+    public Update(Change.Source<B> changeSource, WikibaseRepository wikibase, RdfRepository rdfRepository,
+            Munger munger, ExecutorService executor, int pollDelay, MetricRegistry metrics) {
+        this(changeSource, wikibase, Collections.singletonList(new Replica("rdf repository", rdfRepository, null,
+                Replica.DEFAULT_MAX_PENDING_BATCHES).register(metrics, "")), munger, executor, pollDelay, metrics);
+    }
+
+    /**
+     * Build the updater to fetch each change once with executor and then
+     * munge and sync it for each of the replicas. Updaters that share metrics share
+     * meters.
+     */
+    @SuppressWarnings("unchecked")
+    public Update(Change.Source<B> changeSource, WikibaseRepository wikibase, List<Replica> replicas,
+            Munger munger, ExecutorService executor, int pollDelay, MetricRegistry metrics) {
         this.changeSource = changeSource;
+        checkpointing = changeSource instanceof Change.Checkpointing ? (Change.Checkpointing<B>) changeSource : null;
         this.wikibase = wikibase;
-        this.rdfRepository = rdfRepository;
+        this.replicas = replicas;
         this.munger = munger;
         this.executor = executor;
         this.pollDelay = pollDelay;
-        reporter.start();
+        updateMeter = metrics.meter("updates");
+        batchAdvanced = metrics.meter("batch-progress");
+        scheduler = new SizeAwareScheduler(executor, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sync entities that had at least largeStatements statements when they
+     * were last synced on at most largeThreads threads so they can't hold up
+     * small changes.
+     *
+     * @return this for chaining
+     */
+    public Update<B> scheduleLargeEntities(int largeThreads, int largeStatements) {
+        scheduler = new SizeAwareScheduler(executor, largeThreads, largeStatements);
+        return this;
+    }
+
+    /**
+     * Retry changes that fail in a retryable way at most maxRetries times,
+     * waiting backoffMillis before the first retry and doubling that, up to a
+     * minute, for each retry after. Once the retries run out the change goes
+     * to deadLetters and the batch moves on without it.
+     *
+     * @return this for chaining
+     */
+    public Update<B> retries(int maxRetries, long backoffMillis, DeadLetters deadLetters) {
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = backoffMillis;
+        this.deadLetters = deadLetters;
+        return this;
     }
 
     @Override
     public void run() {
+        ThreadFactoryBuilder threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("retry %s");
+        retryTimer = Executors.newSingleThreadScheduledExecutor(threadFactory.build());
+        if (checkpointing != null) {
+            checkpointer = Executors.newSingleThreadExecutor(threadFactory.setNameFormat("checkpoint %s").build());
+        }
+        for (Replica replica : replicas) {
+            replica.start();
+        }
+        try {
+            runBatches();
+        } finally {
+            // Replicas wait for retries so the timer has to outlive them
+            finishReplicas();
+            retryTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for the replicas to finish the batches they are behind on and for
+     * those batches to be checkpointed.
+     */
+    private void finishReplicas() {
+        try {
+            for (Replica replica : replicas) {
+                replica.finish();
+            }
+            if (checkpointer != null) {
+                checkpointer.shutdown();
+                checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sync batches until the last one.
+     */
+    private void runBatches() {
         B batch = null;
         do {
             try {
@@ -253,16 +651,20 @@ public class Update<B extends Change.Batch> implements Runnable {
         log.debug("{} changes in batch", batch.changes().size());
         while (true) {
             try {
-                handleChanges(batch);
-                Date leftOffDate = batch.leftOffDate();
-                if (leftOffDate != null) {
-                    /*
-                     * Back one second because the resolution on our poll isn't
-                     * super good and because its not big deal to recheck if we
-                     * have some updates.
-                     */
-                    leftOffDate = new Date(batch.leftOffDate().getTime() - SECONDS.toMillis(1));
-                    rdfRepository.updateLeftOffTime(leftOffDate);
+                List<Future<?>> fetches = new ArrayList<>(batch.changes().size());
+                Map<Replica, List<Future<?>>> replicaSyncs = handleChanges(batch, fetches);
+                /*
+                 * Each replica moves its left off time once it has synced the
+                 * batch, including the changes that are still being retried.
+                 */
+                List<Future<?>> watermarks = new ArrayList<>(replicas.size());
+                for (Replica replica : replicas) {
+                    watermarks.add(replica.batchSubmitted(fetches, replicaSyncs.get(replica), batch.leftOffDate()));
+                }
+                checkpoint(batch, watermarks);
+                if (allFailed()) {
+                    log.error("Every replica encountered a fatal exception");
+                    break;
                 }
                 // TODO wrap all retry-able exceptions in a special exception
                 batchAdvanced.mark(batch.advanced());
@@ -282,36 +684,181 @@ public class Update<B extends Change.Batch> implements Runnable {
     }
 
     /**
-     * Handle the changes in a batch.
+     * Tell checkpointing about the batch once every replica has finished it.
+     * Once a replica fails nothing more is checkpointed so resuming starts
+     * from the last batch that every replica has.
      *
-     * @throws InterruptedException if the process is interrupted while waiting
-     *             on changes to sync
-     * @throws ExecutionException if there is an error syncing any of the
-     *             changes
+     * @param batch the batch
+     * @param watermarks done when each replica has finished the batch
      */
-    private void handleChanges(Change.Batch batch) throws InterruptedException, ExecutionException {
-        List<Future<?>> tasks = new ArrayList<>();
-        for (final Change change : batch.changes()) {
-            tasks.add(executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    while (true) {
-                        try {
-                            handleChange(change);
-                            return;
-                        } catch (RetryableException e) {
-                            log.warn("Retryable error syncing.  Retrying.", e);
-                        } catch (ContainedException e) {
-                            log.warn("Contained error syncing.  Giving up on " + change.entityId(), e);
-                            return;
-                        }
+    private void checkpoint(final B batch, final List<Future<?>> watermarks) {
+        if (checkpointer == null) {
+            return;
+        }
+        checkpointer.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Future<?> watermark : watermarks) {
+                        watermark.get();
+                    }
+                    if (anyFailed()) {
+                        return;
                     }
+                    checkpointing.synced(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | RetryableException e) {
+                    log.warn("Error saving where we left off.  The next batch will try again.", e);
                 }
-            }));
+            }
+        });
+    }
+
+    /**
+     * Have any of the replicas encountered fatal exceptions?
+     */
+    private boolean anyFailed() {
+        for (Replica replica : replicas) {
+            if (replica.failed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Have all the replicas encountered fatal exceptions?
+     */
+    private boolean allFailed() {
+        for (Replica replica : replicas) {
+            if (!replica.failed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fetch the changes in a batch and submit them to the replicas. Returns
+     * once every change has been tried once. Changes that are being retried
+     * don't hold up the next batch, only the replicas' left off times.
+     *
+     * @param fetches filled with futures that are done once each change has
+     *            been submitted to the replicas or given up on
+     * @return each replica's syncs for the batch. Changes that are being
+     *         retried add theirs later.
+     * @throws InterruptedException if the process is interrupted while waiting
+     *             on changes to be fetched
+     * @throws ExecutionException if there is an error fetching any of the
+     *             changes
+     */
+    private Map<Replica, List<Future<?>>> handleChanges(Change.Batch batch, final List<Future<?>> fetches)
+            throws InterruptedException, ExecutionException {
+        final Map<Replica, List<Future<?>>> replicaSyncs = new HashMap<>();
+        for (Replica replica : replicas) {
+            replicaSyncs.put(replica, Collections.synchronizedList(new ArrayList<Future<?>>()));
         }
+        List<Future<?>> tasks = scheduler.submit(batch.changes(), new Function<Change, Runnable>() {
+            @Override
+            public Runnable apply(Change change) {
+                Sync sync = new Sync(change, replicaSyncs);
+                fetches.add(sync.done);
+                return sync;
+            }
+        });
         for (Future<?> task : tasks) {
             task.get();
         }
+        return replicaSyncs;
+    }
+
+    /**
+     * Fetches a change and submits it to the replicas. Retryable
+     * errors are retried after a backoff that doubles every time. The backoff
+     * is waited out on retryTimer rather than on a worker thread so the
+     * workers can sync other changes. Once the retries run out the change is
+     * added to the dead letters.
+     */
+    private final class Sync implements Runnable {
+        /**
+         * The change to sync.
+         */
+        private final Change change;
+        /**
+         * Each replica's syncs for the batch.
+         */
+        private final Map<Replica, List<Future<?>>> replicaSyncs;
+        /**
+         * Done when the change has been submitted to the replicas or given up
+         * on.
+         */
+        private final SettableFuture<Void> done = SettableFuture.create();
+        /**
+         * Number of times the sync has been retried.
+         */
+        private int retries;
+
+        /**
+         * Build.
+         */
+        Sync(Change change, Map<Replica, List<Future<?>>> replicaSyncs) {
+            this.change = change;
+            this.replicaSyncs = replicaSyncs;
+        }
+
+        @Override
+        @SuppressWarnings("checkstyle:illegalcatch")
+        public void run() {
+            try {
+                handleChange(change, replicaSyncs);
+                done.set(null);
+            } catch (RetryableException e) {
+                retry(e);
+            } catch (ContainedException e) {
+                log.warn("Contained error syncing.  Giving up on " + change.entityId(), e);
+                done.set(null);
+            } catch (RuntimeException e) {
+                // Retries run outside of any future that is waited on so fail done
+                done.setException(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Retry after a backoff or give up if we're out of retries.
+         */
+        private void retry(RetryableException e) {
+            if (retries >= maxRetries) {
+                deadLetters.add(change, e);
+                done.set(null);
+                return;
+            }
+            long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS, retryBackoffMillis << Math.min(retries, 20));
+            retries++;
+            log.warn("Retryable error syncing {}.  Retrying in {} ms.", change.entityId(), backoff, e);
+            try {
+                retryTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        resubmit();
+                    }
+                }, backoff, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException re) {
+                done.setException(re);
+            }
+        }
+
+        /**
+         * Submit the retry to the executor.
+         */
+        private void resubmit() {
+            try {
+                executor.submit(this);
+            } catch (RejectedExecutionException e) {
+                done.setException(e);
+            }
+        }
     }
 
     /**
@@ -341,29 +888,33 @@ public class Update<B extends Change.Batch> implements Runnable {
     /**
      * Handle a change.
      * <ul>
-     * <li>Check if the RDF store has the version of the page.
+     * <li>Check which replicas don't have the version of the page.
      * <li>Fetch the RDF from the Wikibase install.
-     * <li>Add revision information to the statements if it isn't there already.
-     * <li>Sync data to the triple store.
+     * <li>Submit the data to each of those replicas to munge and sync.
      * </ul>
+     * The rdf is fetched once for all the replicas and each replica munges
+     * its own copy against the values and references it already has.
      *
-     * @throws RetryableException if there is a retryable error updating the rdf
-     *             store
+     * @throws RetryableException if there is a retryable error fetching the
+     *             rdf
      */
-    private void handleChange(Change change) throws RetryableException {
+    private void handleChange(Change change, Map<Replica, List<Future<?>>> replicaSyncs) throws RetryableException {
         log.debug("Received revision information {}", change);
-        if (change.revision() >= 0 && rdfRepository.hasRevision(change.entityId(), change.revision())) {
-            log.debug("RDF repository already has this revision, skipping.");
+        List<Replica> stale = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            if (replica.needs(change)) {
+                stale.add(replica);
+            }
+        }
+        if (stale.isEmpty()) {
             return;
         }
         Collection<Statement> statements = wikibase.fetchRdfForEntity(change.entityId());
-        Set<String> values = rdfRepository.getValues(change.entityId());
-        Set<String> refs = rdfRepository.getRefs(change.entityId());
-        munger.munge(change.entityId(), statements, values, refs, change);
-        List<String> cleanupList = new ArrayList<>();
-        cleanupList.addAll(values);
-        cleanupList.addAll(refs);
-        rdfRepository.sync(change.entityId(), statements, cleanupList);
+        scheduler.synced(change.entityId(), statements.size());
+        statements = Collections.unmodifiableCollection(statements);
+        for (Replica replica : stale) {
+            replicaSyncs.get(replica).add(replica.sync(change, statements, munger));
+        }
         updateMeter.mark();
     }
 
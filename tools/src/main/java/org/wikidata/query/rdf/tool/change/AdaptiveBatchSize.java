@@ -0,0 +1,154 @@
+package org.wikidata.query.rdf.tool.change;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Picks the number of recent changes to poll at a time based on how far
+ * behind we are. While we lag it doubles the batch size so catching up takes
+ * fewer, bigger api calls. Once we've caught up it halves it again so we
+ * don't poll big, mostly empty windows. Between the two thresholds it leaves
+ * the batch size alone so it doesn't flap.
+ */
+public class AdaptiveBatchSize {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+
+    /**
+     * Default lag above which we're lagging.
+     */
+    public static final long DEFAULT_LAGGING_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * Default lag below which we've caught up.
+     */
+    public static final long DEFAULT_CAUGHT_UP_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Smallest batch size.
+     */
+    private final int min;
+    /**
+     * Largest batch size.
+     */
+    private final int max;
+    /**
+     * Lag above which the batch size grows.
+     */
+    private final long laggingMillis;
+    /**
+     * Lag below which the batch size shrinks.
+     */
+    private final long caughtUpMillis;
+    /**
+     * Counts the times the batch size grew.
+     */
+    private Counter grown = new Counter();
+    /**
+     * Counts the times the batch size shrank.
+     */
+    private Counter shrunk = new Counter();
+    /**
+     * The current batch size.
+     */
+    private volatile int batchSize;
+    /**
+     * The last lag observed.
+     */
+    private volatile long lagMillis;
+
+    /**
+     * Build with the default thresholds.
+     *
+     * @param min smallest batch size and the one we start with
+     * @param max largest batch size
+     */
+    public AdaptiveBatchSize(int min, int max) {
+        this(min, max, DEFAULT_LAGGING_MILLIS, DEFAULT_CAUGHT_UP_MILLIS);
+    }
+
+    /**
+     * Build.
+     *
+     * @param min smallest batch size and the one we start with
+     * @param max largest batch size
+     * @param laggingMillis lag above which the batch size grows
+     * @param caughtUpMillis lag below which the batch size shrinks
+     */
+    public AdaptiveBatchSize(int min, int max, long laggingMillis, long caughtUpMillis) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Need 0 < min <= max but got min=" + min + " and max=" + max);
+        }
+        if (caughtUpMillis > laggingMillis) {
+            throw new IllegalArgumentException("The caught up lag can't be more than the lagging lag");
+        }
+        this.min = min;
+        this.max = max;
+        this.laggingMillis = laggingMillis;
+        this.caughtUpMillis = caughtUpMillis;
+        batchSize = min;
+    }
+
+    /**
+     * Register gauges for the batch size and lag and counters for the
+     * decisions in a metric registry.
+     *
+     * @param metrics registry to register with
+     * @return this for chaining
+     */
+    public AdaptiveBatchSize register(MetricRegistry metrics) {
+        metrics.register("batch-size", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return batchSize;
+            }
+        });
+        metrics.register("lag-millis", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return lagMillis;
+            }
+        });
+        grown = metrics.counter("batch-size-grown");
+        shrunk = metrics.counter("batch-size-shrunk");
+        return this;
+    }
+
+    /**
+     * The number of changes to poll next.
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Adjust the batch size after polling up to leftOff.
+     *
+     * @param leftOff time up to which changes have been polled
+     * @param now the current time
+     */
+    public synchronized void polledUpTo(Date leftOff, Date now) {
+        lagMillis = Math.max(0, now.getTime() - leftOff.getTime());
+        int next = batchSize;
+        if (lagMillis > laggingMillis) {
+            next = (int) Math.min(max, batchSize * 2L);
+        } else if (lagMillis < caughtUpMillis) {
+            next = Math.max(min, batchSize / 2);
+        }
+        if (next == batchSize) {
+            return;
+        }
+        log.info("{} ms behind so changing batch size from {} to {}", lagMillis, batchSize, next);
+        if (next > batchSize) {
+            grown.inc();
+        } else {
+            shrunk.inc();
+        }
+        batchSize = next;
+    }
+}
@@ -112,6 +112,20 @@ public class Change implements Comparable<Change> {
         B nextBatch(B lastBatch) throws RetryableException;
     }
 
+    /**
+     * Source that saves where it left off itself rather than relying on the
+     * left off time in the triple stores.
+     */
+    public interface Checkpointing<B extends Change.Batch> {
+        /**
+         * Save that the batch and all the batches before it have been synced
+         * to every triple store.
+         *
+         * @throws RetryableException if saving fails in a retryable way
+         */
+        void synced(B batch) throws RetryableException;
+    }
+
     /**
      * A batch of changes. Implementations should be immutable.
      */
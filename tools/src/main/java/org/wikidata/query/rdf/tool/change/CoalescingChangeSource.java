@@ -0,0 +1,270 @@
+package org.wikidata.query.rdf.tool.change;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.wikidata.query.rdf.tool.exception.RetryableException;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Holds changes from another source for a window so entities that are edited
+ * over and over again, usually by bots, are synced once with their latest
+ * revision rather than once per edit. A change is released when it has been
+ * held for the window or the source has polled more than the window past it,
+ * whichever comes first. Changes are released in the order their entities
+ * were first seen. The left off date of each batch never passes a change that
+ * is still held so resuming from it picks held changes up again. Unlike most
+ * sources this one keeps the held changes itself rather than in its batches.
+ *
+ * @param <B> type of the batches from the wrapped source
+ */
+public class CoalescingChangeSource<B extends Change.Batch> implements Change.Source<CoalescingChangeSource.Batch<B>> {
+    /**
+     * Source of the changes to hold.
+     */
+    private final Change.Source<B> source;
+    /**
+     * How long to hold changes.
+     */
+    private final long windowMillis;
+    /**
+     * Measures how long changes have been held.
+     */
+    private final Ticker ticker;
+    /**
+     * Changes being held by entity in the order the entities were first seen.
+     */
+    private final Map<String, Held> held = new LinkedHashMap<>();
+    /**
+     * Counts changes that were dropped because a later revision of their
+     * entity was already held.
+     */
+    private Counter coalesced = new Counter();
+
+    /**
+     * Build.
+     *
+     * @param source source of the changes to hold
+     * @param windowMillis how long to hold changes
+     */
+    public CoalescingChangeSource(Change.Source<B> source, long windowMillis) {
+        this(source, windowMillis, Ticker.systemTicker());
+    }
+
+    /**
+     * Build with a ticker to measure how long changes have been held.
+     *
+     * @param source source of the changes to hold
+     * @param windowMillis how long to hold changes
+     * @param ticker measures how long changes have been held
+     */
+    public CoalescingChangeSource(Change.Source<B> source, long windowMillis, Ticker ticker) {
+        this.source = source;
+        this.windowMillis = windowMillis;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Register a counter for the changes dropped in favor of a later revision
+     * in a metric registry.
+     *
+     * @param metrics registry to register with
+     * @return this for chaining
+     */
+    public CoalescingChangeSource<B> register(MetricRegistry metrics) {
+        coalesced = metrics.counter("changes-coalesced");
+        return this;
+    }
+
+    @Override
+    public Batch<B> firstBatch() throws RetryableException {
+        held.clear();
+        return release(source.firstBatch());
+    }
+
+    @Override
+    public Batch<B> nextBatch(Batch<B> lastBatch) throws RetryableException {
+        return release(source.nextBatch(lastBatch.batch));
+    }
+
+    /**
+     * Batch of released changes.
+     *
+     * @param <B> type of the batches from the wrapped source
+     */
+    public static final class Batch<B extends Change.Batch> implements Change.Batch {
+        /**
+         * The last batch from the wrapped source.
+         */
+        private final B batch;
+        /**
+         * The changes released.
+         */
+        private final ImmutableList<Change> changes;
+        /**
+         * Where to resume so no held change is missed.
+         */
+        private final Date leftOffDate;
+
+        /**
+         * Build.
+         */
+        private Batch(B batch, ImmutableList<Change> changes, Date leftOffDate) {
+            this.batch = batch;
+            this.changes = changes;
+            this.leftOffDate = leftOffDate;
+        }
+
+        @Override
+        public List<Change> changes() {
+            return changes;
+        }
+
+        @Override
+        public String advancedUnits() {
+            return batch.advancedUnits();
+        }
+
+        @Override
+        public long advanced() {
+            return batch.advanced();
+        }
+
+        @Override
+        public String leftOffHuman() {
+            return batch.leftOffHuman();
+        }
+
+        @Override
+        public Date leftOffDate() {
+            return leftOffDate;
+        }
+
+        @Override
+        public boolean last() {
+            return batch.last();
+        }
+    }
+
+    /**
+     * Hold the changes in batch and release the ones that are ready. If the
+     * batch had changes but none are ready then keep fetching batches so we
+     * don't wait out the poll delay while the wrapped source still has
+     * changes.
+     *
+     * @throws RetryableException if fetching the next batch fails in a
+     *             retryable way
+     */
+    private Batch<B> release(B batch) throws RetryableException {
+        while (true) {
+            Batch<B> released = coalesce(batch);
+            if (!released.changes().isEmpty() || batch.changes().isEmpty() || batch.last()) {
+                return released;
+            }
+            batch = source.nextBatch(batch);
+        }
+    }
+
+    /**
+     * Hold the changes in batch and release the ones that are ready.
+     */
+    private Batch<B> coalesce(B batch) {
+        long now = TimeUnit.NANOSECONDS.toMillis(ticker.read());
+        for (Change change : batch.changes()) {
+            hold(change, now);
+        }
+        Date polledUpTo = batch.leftOffDate();
+        ImmutableList.Builder<Change> released = ImmutableList.builder();
+        Iterator<Held> itr = held.values().iterator();
+        while (itr.hasNext()) {
+            Held next = itr.next();
+            if (!batch.last() && !next.ready(now, polledUpTo)) {
+                break;
+            }
+            released.add(next.change);
+            itr.remove();
+        }
+        return new Batch<>(batch, released.build(), leftOffDate(polledUpTo));
+    }
+
+    /**
+     * Hold a change, replacing any older revision of its entity that is
+     * already held.
+     */
+    private void hold(Change change, long now) {
+        Held existing = held.get(change.entityId());
+        if (existing == null) {
+            held.put(change.entityId(), new Held(change, now));
+            return;
+        }
+        coalesced.inc();
+        if (change.revision() > existing.change.revision()) {
+            existing.change = change;
+        }
+    }
+
+    /**
+     * Where to resume after polling up to polledUpTo without missing any of
+     * the held changes. Resuming from the latest change held for an entity
+     * is enough because it is the only one that is synced.
+     */
+    private Date leftOffDate(Date polledUpTo) {
+        Date leftOff = polledUpTo;
+        if (leftOff == null) {
+            return null;
+        }
+        for (Held h : held.values()) {
+            Date timestamp = h.change.timestamp();
+            if (timestamp != null && timestamp.before(leftOff)) {
+                leftOff = timestamp;
+            }
+        }
+        return leftOff;
+    }
+
+    /**
+     * A change being held.
+     */
+    private final class Held {
+        /**
+         * When the entity was first seen according to the ticker.
+         */
+        private final long heldSince;
+        /**
+         * Timestamp of the first change seen for the entity. Null if it didn't
+         * have one.
+         */
+        private final Date firstTimestamp;
+        /**
+         * The latest change for the entity.
+         */
+        private Change change;
+
+        /**
+         * Build.
+         */
+        Held(Change change, long heldSince) {
+            this.change = change;
+            this.heldSince = heldSince;
+            firstTimestamp = change.timestamp();
+        }
+
+        /**
+         * Has this been held long enough?
+         */
+        boolean ready(long now, Date polledUpTo) {
+            if (now - heldSince >= windowMillis) {
+                return true;
+            }
+            return firstTimestamp != null && polledUpTo != null && polledUpTo.getTime() - firstTimestamp.getTime() >= windowMillis;
+        }
+    }
+}
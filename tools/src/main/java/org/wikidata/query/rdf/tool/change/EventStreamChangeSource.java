@@ -0,0 +1,449 @@
+package org.wikidata.query.rdf.tool.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.tool.exception.FatalException;
+import org.wikidata.query.rdf.tool.exception.RetryableException;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Reads changes from a stream of recent change events rather than polling the
+ * recent changes api. The stream has one JSON event per line, optionally
+ * prefixed with "data:" like server-sent events. Other server-sent event
+ * fields and blank lines are skipped. Events look like the ones that
+ * Wikimedia's EventStreams serves:
+ *
+ * <pre>
+ * {"id": 12, "type": "edit", "namespace": 0, "title": "Q1", "timestamp": 1434500000,
+ *  "revision": {"old": 3, "new": 4}, "server_name": "www.wikidata.org"}
+ * </pre>
+ *
+ * <p>
+ * Each batch waits for a change and then takes whatever other events have
+ * already arrived so changes are picked up as soon as they are published
+ * rather than on the next poll. File urls are tailed: reaching the end of the
+ * file waits for more to be appended.
+ *
+ * <p>
+ * The position in an http stream is the id of the last server-sent event read
+ * and resuming sends it back as Last-Event-ID so the stream picks up right
+ * after it. Events before the first id are read again on resume. A tailed
+ * file has no ids so its position is the number of events read from its
+ * start and resuming skips that many. The position is saved to the offset
+ * file once the updater has synced the batch to every triple store.
+ */
+public class EventStreamChangeSource implements Change.Source<EventStreamChangeSource.Batch>,
+        Change.Checkpointing<EventStreamChangeSource.Batch> {
+    private static final Logger log = LoggerFactory.getLogger(EventStreamChangeSource.class);
+
+    /**
+     * How long to wait for a stream to send something before giving up on it
+     * and reconnecting.
+     */
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.MINUTES.toMillis(1);
+    /**
+     * How long to wait before checking a tailed file for more events.
+     */
+    private static final long TAIL_DELAY_MILLIS = 100;
+
+    /**
+     * Stream of events.
+     */
+    private final URL stream;
+    /**
+     * File in which to save the offset into the stream.
+     */
+    private final Path offsetFile;
+    /**
+     * Only changes to this server are read. Null to read changes to all
+     * servers.
+     */
+    private final String serverName;
+    /**
+     * Most changes to put in a batch.
+     */
+    private final int batchSize;
+    /**
+     * Should the end of the stream be waited on rather than reconnected?
+     */
+    private final boolean tail;
+    /**
+     * Parses events.
+     */
+    private final JSONParser parser = new JSONParser();
+    /**
+     * Part of a line that was read before the rest of it arrived.
+     */
+    private final StringBuilder partialLine = new StringBuilder();
+    /**
+     * Reader open on the stream or null if it isn't open.
+     */
+    private BufferedReader reader;
+    /**
+     * The number of events read since the stream was opened. For tailed files
+     * that is from the start of the file.
+     */
+    private long readerOffset;
+    /**
+     * Id of the last server-sent event read. Null if there hasn't been one.
+     */
+    private String lastEventId;
+
+    /**
+     * Build.
+     *
+     * @param stream stream of events
+     * @param offsetFile file in which to save the offset into the stream
+     * @param serverName only changes to this server are read. Null to read
+     *            changes to all servers.
+     * @param batchSize most changes to put in a batch
+     */
+    public EventStreamChangeSource(URL stream, Path offsetFile, String serverName, int batchSize) {
+        this.stream = stream;
+        this.offsetFile = offsetFile;
+        this.serverName = serverName;
+        this.batchSize = batchSize;
+        tail = "file".equals(stream.getProtocol());
+    }
+
+    @Override
+    public Batch firstBatch() throws RetryableException {
+        close();
+        return batch(readOffset());
+    }
+
+    @Override
+    public Batch nextBatch(Batch lastBatch) throws RetryableException {
+        return batch(lastBatch.position);
+    }
+
+    @Override
+    public void synced(Batch batch) throws RetryableException {
+        if (batch.position != null) {
+            writeOffset(batch.position);
+        }
+    }
+
+    /**
+     * Batch implementation for this change source.
+     */
+    public static final class Batch extends Change.Batch.AbstractDefaultImplementation {
+        /**
+         * Position in the stream after this batch. Null if there isn't one
+         * yet.
+         */
+        private final String position;
+        /**
+         * Timestamp of the latest change in the batch or null if none had one.
+         */
+        private final Date leftOffDate;
+
+        /**
+         * Build.
+         */
+        private Batch(ImmutableList<Change> changes, long advanced, String position, Date leftOffDate) {
+            super(changes, advanced, "event " + position);
+            this.position = position;
+            this.leftOffDate = leftOffDate;
+        }
+
+        @Override
+        public String advancedUnits() {
+            return "events";
+        }
+
+        @Override
+        public Date leftOffDate() {
+            return leftOffDate;
+        }
+
+        /**
+         * Position in the stream after this batch. Null if there isn't one
+         * yet.
+         */
+        public String position() {
+            return position;
+        }
+    }
+
+    /**
+     * Read a batch starting at a position. Waits until there is at least one
+     * change. If the thread is interrupted while waiting the batch may be
+     * empty.
+     *
+     * @param position position to start at. Null to start wherever the stream
+     *            starts.
+     * @throws RetryableException if the stream can't be read
+     */
+    private Batch batch(String position) throws RetryableException {
+        try {
+            if (reader == null || !Objects.equal(position, position())) {
+                open(position);
+            }
+            long start = readerOffset;
+            // Using LinkedHashMap here so that changes came out sorted by order of arrival
+            Map<String, Change> changesByEntity = new LinkedHashMap<>();
+            Date leftOffDate = null;
+            while (changesByEntity.size() < batchSize) {
+                String event = readEvent(changesByEntity.isEmpty());
+                if (event == null) {
+                    break;
+                }
+                Change change = change(event);
+                if (change == null) {
+                    continue;
+                }
+                Change dupe = changesByEntity.remove(change.entityId());
+                changesByEntity.put(change.entityId(), dupe != null && dupe.revision() > change.revision() ? dupe : change);
+                leftOffDate = later(leftOffDate, change.timestamp());
+            }
+            return new Batch(ImmutableList.copyOf(changesByEntity.values()), readerOffset - start, position(), leftOffDate);
+        } catch (IOException e) {
+            // The next batch will reopen the stream back at the last batch's position
+            close();
+            throw new RetryableException("Error reading event stream", e);
+        }
+    }
+
+    /**
+     * The later of two dates, either of which may be null.
+     */
+    private static Date later(Date lhs, Date rhs) {
+        if (lhs == null || rhs != null && rhs.after(lhs)) {
+            return rhs;
+        }
+        return lhs;
+    }
+
+    /**
+     * The position the reader is at.
+     */
+    private String position() {
+        return tail ? Long.toString(readerOffset) : lastEventId;
+    }
+
+    /**
+     * Open the stream at a position. Http streams are asked to start after
+     * the event with that id. Tailed files skip that many events.
+     *
+     * @param position position to open at. Null to start wherever the stream
+     *            starts.
+     * @throws IOException if the stream can't be opened
+     */
+    private void open(String position) throws IOException {
+        close();
+        log.info("Opening {} at event {}", stream, position);
+        URLConnection connection = stream.openConnection();
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (!tail && position != null) {
+            connection.setRequestProperty("Last-Event-ID", position);
+        }
+        reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8));
+        readerOffset = 0;
+        lastEventId = tail ? null : position;
+        long skip = tail ? Long.parseLong(position) : 0;
+        while (readerOffset < skip) {
+            if (readEvent(true) == null) {
+                throw new IOException("Interrupted skipping to event " + position);
+            }
+        }
+    }
+
+    /**
+     * Close the stream if it is open.
+     */
+    private void close() {
+        partialLine.setLength(0);
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+        } catch (IOException e) {
+            log.warn("Error closing event stream", e);
+        }
+        reader = null;
+    }
+
+    /**
+     * Read the next event.
+     *
+     * @param wait should we wait for an event if there isn't one ready?
+     * @return the event or null if there isn't one ready or we were
+     *         interrupted waiting for one
+     * @throws IOException if the stream can't be read
+     */
+    private String readEvent(boolean wait) throws IOException {
+        while (true) {
+            String line = readLine(wait);
+            if (line == null) {
+                return null;
+            }
+            if (line.startsWith("id:")) {
+                lastEventId = line.substring("id:".length()).trim();
+                continue;
+            }
+            if (line.startsWith("data:")) {
+                line = line.substring("data:".length()).trim();
+            }
+            if (line.startsWith("{")) {
+                readerOffset++;
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Read the next whole line.
+     *
+     * @param wait should we wait for a line if there isn't one ready?
+     * @return the line or null if there isn't one ready or we were interrupted
+     *         waiting for one
+     * @throws IOException if the stream can't be read
+     */
+    private String readLine(boolean wait) throws IOException {
+        while (true) {
+            if (!wait && !reader.ready()) {
+                return null;
+            }
+            int c = reader.read();
+            if (c == '\n') {
+                String line = partialLine.toString().trim();
+                partialLine.setLength(0);
+                return line;
+            }
+            if (c >= 0) {
+                partialLine.append((char) c);
+                continue;
+            }
+            if (!tail) {
+                throw new IOException("Event stream closed");
+            }
+            if (!wait || !sleep()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Wait for more to be appended to a tailed file.
+     *
+     * @return false if we were interrupted
+     */
+    private boolean sleep() {
+        try {
+            Thread.sleep(TAIL_DELAY_MILLIS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Turn an event into a change.
+     *
+     * @return the change or null if the event isn't a change we should sync
+     */
+    private Change change(String event) {
+        JSONObject json;
+        try {
+            json = (JSONObject) parser.parse(event);
+        } catch (ParseException | ClassCastException e) {
+            log.warn("Skipping invalid event:  {}", event);
+            return null;
+        }
+        if (!relevant(json)) {
+            log.debug("Skipping irrelevant event:  {}", event);
+            return null;
+        }
+        long revision = (long) ((JSONObject) json.get("revision")).get("new");
+        Object timestamp = json.get("timestamp");
+        Object rcid = json.get("id");
+        return new Change(json.get("title").toString(), revision,
+                timestamp instanceof Long ? new Date(TimeUnit.SECONDS.toMillis((long) timestamp)) : null,
+                rcid instanceof Long ? (long) rcid : -1);
+    }
+
+    /**
+     * Is this event a new revision of an entity on our server?
+     */
+    private boolean relevant(JSONObject event) {
+        if (serverName != null && event.containsKey("server_name") && !serverName.equals(event.get("server_name"))) {
+            return false;
+        }
+        Object namespace = event.get("namespace");
+        if (!(namespace instanceof Long) || (long) namespace != 0 && (long) namespace != 120) {
+            return false;
+        }
+        Object revision = event.get("revision");
+        return event.get("title") != null && revision instanceof JSONObject && ((JSONObject) revision).get("new") instanceof Long;
+    }
+
+    /**
+     * Read the saved position.
+     *
+     * @return the saved position or null if there isn't one and this isn't a
+     *         tailed file
+     * @throws RetryableException if the offset file can't be read
+     */
+    private String readOffset() throws RetryableException {
+        if (!Files.exists(offsetFile)) {
+            log.info("No offset saved in {} so starting at the start of {}", offsetFile, stream);
+            return tail ? "0" : null;
+        }
+        String position;
+        try {
+            position = new String(Files.readAllBytes(offsetFile), UTF_8).trim();
+        } catch (IOException e) {
+            throw new RetryableException("Error reading offset from " + offsetFile, e);
+        }
+        if (tail && !position.matches("\\d+")) {
+            throw new FatalException("Invalid offset in " + offsetFile + ":  " + position);
+        }
+        return position;
+    }
+
+    /**
+     * Save the position, replacing any existing one atomically.
+     *
+     * @throws RetryableException if the offset file can't be written
+     */
+    private void writeOffset(String position) throws RetryableException {
+        try {
+            Path parent = offsetFile.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, offsetFile.getFileName().toString(), ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(temp, UTF_8)) {
+                    writer.write(position);
+                }
+                Files.move(temp, offsetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new RetryableException("Error writing offset to " + offsetFile, e);
+        }
+    }
+}
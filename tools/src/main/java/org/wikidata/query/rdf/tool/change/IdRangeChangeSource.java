@@ -2,12 +2,19 @@ package org.wikidata.query.rdf.tool.change;
 
 import static java.lang.Math.min;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Locale;
 
+import org.wikidata.query.rdf.tool.EntitySharder;
 import org.wikidata.query.rdf.tool.exception.RetryableException;
+import org.wikidata.query.rdf.tool.rdf.RdfRepository;
+import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 /**
  * Blindly iterates an id range and returns those as "changes". Can be used to
@@ -37,6 +44,24 @@ public class IdRangeChangeSource implements Change.Source<IdRangeChangeSource.Ba
      * Batch size to split up ids.
      */
     private final long batchSize;
+    /**
+     * Sharder used to skip ids outside of shard. Null if returning all ids.
+     */
+    private EntitySharder sharder;
+    /**
+     * The shard whose ids are returned if sharder isn't null.
+     */
+    private int shard;
+    /**
+     * Wikibase to check for the ids that exist and their latest revisions.
+     * Null if returning all ids.
+     */
+    private WikibaseRepository wikibase;
+    /**
+     * Repository to check for entities that are already up to date. Null if
+     * not skipping them.
+     */
+    private RdfRepository rdfRepository;
 
     public IdRangeChangeSource(String format, long start, long stop, long batchSize) {
         this.format = format;
@@ -45,6 +70,73 @@ public class IdRangeChangeSource implements Change.Source<IdRangeChangeSource.Ba
         this.batchSize = batchSize;
     }
 
+    /**
+     * Only return ids in one shard. Batches still advance by batchSize ids
+     * so they'll contain fewer changes.
+     *
+     * @return this for chaining
+     */
+    public IdRangeChangeSource shard(EntitySharder sharder, int shard) {
+        if (shard < 0 || shard >= sharder.shards()) {
+            throw new IllegalArgumentException("Shard must be between 0 and " + (sharder.shards() - 1) + " but was " + shard);
+        }
+        this.sharder = sharder;
+        this.shard = shard;
+        return this;
+    }
+
+    /**
+     * Skip ids that don't exist by looking up the latest revisions of
+     * MAX_ENTITIES_PER_REQUEST ids at a time in wikibase rather than leaving
+     * Update to fetch each one's rdf. Changes carry the latest revision.
+     *
+     * @param wikibase where to look up the latest revisions
+     * @param rdfRepository if not null then entities that already have the
+     *            latest revision in this repository are skipped too
+     * @return this for chaining
+     */
+    public IdRangeChangeSource checkRevisions(WikibaseRepository wikibase, RdfRepository rdfRepository) {
+        this.wikibase = wikibase;
+        this.rdfRepository = rdfRepository;
+        return this;
+    }
+
+    /**
+     * Split the range into contiguous partitions of about the same size that
+     * can be iterated concurrently. Each partition keeps its own progress and
+     * is restricted to the same shard as this source.
+     *
+     * @param partitions number of partitions to split into
+     * @return the partitions in id order. There are fewer than partitions of
+     *         them if the range has fewer ids than that.
+     */
+    public List<IdRangeChangeSource> partition(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be positive but was " + partitions);
+        }
+        long size = stop - start + 1;
+        List<IdRangeChangeSource> result = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            long partitionStart = start + size * p / partitions;
+            long partitionStop = start + size * (p + 1) / partitions - 1;
+            if (partitionStart > partitionStop) {
+                continue;
+            }
+            IdRangeChangeSource partition = new IdRangeChangeSource(format, partitionStart, partitionStop, batchSize);
+            if (sharder != null) {
+                partition.shard(sharder, shard);
+            }
+            partition.checkRevisions(wikibase, rdfRepository);
+            result.add(partition);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, format, start) + "-" + String.format(Locale.ROOT, format, stop);
+    }
+
     @Override
     public Batch firstBatch() throws RetryableException {
         return batch(start);
@@ -87,13 +179,70 @@ public class IdRangeChangeSource implements Change.Source<IdRangeChangeSource.Ba
 
     /**
      * Build a batch starting at batchStart.
+     *
+     * @throws RetryableException if there is an error checking revisions in
+     *             wikibase
      */
-    private Batch batch(long batchStart) {
+    private Batch batch(long batchStart) throws RetryableException {
         long batchStop = min(batchStart + batchSize, stop + 1);
-        ImmutableList.Builder<Change> changes = ImmutableList.builder();
+        List<Change> changes = new ArrayList<>();
         for (long id = batchStart; id < batchStop; id++) {
-            changes.add(new Change(String.format(Locale.ROOT, format, id), -1, null, id));
+            String entityId = String.format(Locale.ROOT, format, id);
+            if (sharder != null && sharder.shard(entityId) != shard) {
+                continue;
+            }
+            changes.add(new Change(entityId, -1, null, id));
+        }
+        if (wikibase != null) {
+            changes = existing(changes);
+        }
+        if (rdfRepository != null) {
+            changes = outOfDate(changes);
+        }
+        return new Batch(ImmutableList.copyOf(changes), batchStop - batchStart, batchStop);
+    }
+
+    /**
+     * Filter changes to the entities that exist in wikibase, adding their
+     * latest revisions.
+     *
+     * @throws RetryableException if there is an error talking to wikibase
+     */
+    private List<Change> existing(List<Change> changes) throws RetryableException {
+        List<Change> existing = new ArrayList<>(changes.size());
+        for (List<Change> block : Lists.partition(changes, WikibaseRepository.MAX_ENTITIES_PER_REQUEST)) {
+            List<String> entityIds = new ArrayList<>(block.size());
+            for (Change change : block) {
+                entityIds.add(change.entityId());
+            }
+            Map<String, Long> revisions = wikibase.fetchLatestRevisions(entityIds);
+            for (Change change : block) {
+                Long revision = revisions.get(change.entityId());
+                if (revision != null) {
+                    existing.add(new Change(change.entityId(), revision, null, change.rcid()));
+                }
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Filter changes to those whose revision is newer than the rdf
+     * repository's. Changes without a revision are always kept.
+     */
+    private List<Change> outOfDate(List<Change> changes) {
+        List<String> entityIds = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            entityIds.add(change.entityId());
+        }
+        Map<String, Long> stored = rdfRepository.fetchRevisions(entityIds);
+        List<Change> outOfDate = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            Long revision = stored.get(change.entityId());
+            if (change.revision() < 0 || revision == null || revision < change.revision()) {
+                outOfDate.add(change);
+            }
         }
-        return new Batch(changes.build(), batchStop - batchStart, batchStop);
+        return outOfDate;
     }
 }
@@ -6,11 +6,16 @@ import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.tool.exception.FatalException;
 import org.wikidata.query.rdf.tool.exception.RetryableException;
 import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
 
@@ -20,7 +25,9 @@ import com.google.common.collect.ImmutableList;
  * Polls recent changes. The first batch polls the recent changes api starting
  * at the firstStartTime. Subsequent batches either start on the last continue
  * of the previous poll, or, if there isn't a continue, then they start one
- * second after the last first start time.
+ * second after the last first start time. If given an executor it fetches
+ * the batch after each non-empty batch in the background while the caller
+ * processes it so the caller doesn't wait on the api between batches.
  */
 public class RecentChangesPoller implements Change.Source<RecentChangesPoller.Batch> {
     private static final Logger log = LoggerFactory.getLogger(RecentChangesPoller.class);
@@ -34,24 +41,116 @@ public class RecentChangesPoller implements Change.Source<RecentChangesPoller.Ba
      */
     private final Date firstStartTime;
     /**
-     * Size of the batches to poll against wikibase.
+     * Picks the size of the batches to poll against wikibase.
      */
-    private final int batchSize;
+    private final AdaptiveBatchSize batchSize;
+    /**
+     * Fetches the next batch in the background. Null if not prefetching.
+     */
+    private ExecutorService prefetcher;
+    /**
+     * The batch after prefetchedAfter being fetched in the background. Null
+     * if there isn't one.
+     */
+    private Future<Batch> prefetched;
+    /**
+     * The batch that prefetched follows.
+     */
+    private Batch prefetchedAfter;
 
     public RecentChangesPoller(WikibaseRepository wikibase, Date firstStartTime, int batchSize) {
+        this(wikibase, firstStartTime, new AdaptiveBatchSize(batchSize, batchSize));
+    }
+
+    public RecentChangesPoller(WikibaseRepository wikibase, Date firstStartTime, AdaptiveBatchSize batchSize) {
         this.wikibase = wikibase;
         this.firstStartTime = firstStartTime;
         this.batchSize = batchSize;
     }
 
+    /**
+     * Fetch the batch after each non-empty batch in the background. Empty
+     * batches mean we've caught up so the batch after them isn't fetched until
+     * it is asked for.
+     *
+     * @param prefetcher executor on which to fetch
+     * @return this for chaining
+     */
+    public RecentChangesPoller prefetch(ExecutorService prefetcher) {
+        this.prefetcher = prefetcher;
+        return this;
+    }
+
     @Override
     public Batch firstBatch() throws RetryableException {
-        return batch(firstStartTime, null);
+        return prefetchAfter(batch(firstStartTime, null));
     }
 
     @Override
     public Batch nextBatch(Batch lastBatch) throws RetryableException {
-        return batch(lastBatch.leftOffDate, lastBatch.nextContinue);
+        Future<Batch> next = takePrefetched(lastBatch);
+        if (next == null) {
+            return prefetchAfter(batch(lastBatch.leftOffDate, lastBatch.nextContinue));
+        }
+        return prefetchAfter(waitFor(next));
+    }
+
+    /**
+     * Start fetching the batch after this one in the background if we're
+     * prefetching and this batch isn't empty.
+     *
+     * @return the batch for chaining
+     */
+    private Batch prefetchAfter(final Batch batch) {
+        if (prefetcher == null || batch.changes().isEmpty()) {
+            return batch;
+        }
+        prefetchedAfter = batch;
+        prefetched = prefetcher.submit(new Callable<Batch>() {
+            @Override
+            public Batch call() throws RetryableException {
+                return batch(batch.leftOffDate, batch.nextContinue);
+            }
+        });
+        return batch;
+    }
+
+    /**
+     * Take the prefetched batch if it follows lastBatch.
+     *
+     * @return the prefetched batch or null if there isn't one for lastBatch
+     */
+    private Future<Batch> takePrefetched(Batch lastBatch) {
+        Future<Batch> next = null;
+        if (prefetchedAfter == lastBatch) {
+            next = prefetched;
+        } else if (prefetched != null) {
+            prefetched.cancel(true);
+        }
+        prefetched = null;
+        prefetchedAfter = null;
+        return next;
+    }
+
+    /**
+     * Wait for a prefetched batch. If fetching it failed then the next call
+     * to nextBatch will fetch it again directly.
+     *
+     * @throws RetryableException if fetching the batch failed in a retryable
+     *             way
+     */
+    private Batch waitFor(Future<Batch> next) throws RetryableException {
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FatalException("Interrupted waiting for prefetched recent changes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RetryableException) {
+                throw (RetryableException) e.getCause();
+            }
+            throw new FatalException("Error prefetching recent changes", e.getCause());
+        }
     }
 
     /**
@@ -96,7 +195,7 @@ public class RecentChangesPoller implements Change.Source<RecentChangesPoller.Ba
      */
     private Batch batch(Date lastNextStartTime, JSONObject lastNextContinue) throws RetryableException {
         try {
-            JSONObject recentChanges = wikibase.fetchRecentChanges(lastNextStartTime, lastNextContinue, batchSize);
+            JSONObject recentChanges = wikibase.fetchRecentChanges(lastNextStartTime, lastNextContinue, batchSize.batchSize());
             // Using LinkedHashMap here so that changes came out sorted by order of arrival
             Map<String, Change> changesByTitle = new LinkedHashMap<>();
             JSONObject nextContinue = (JSONObject) recentChanges.get("continue");
@@ -138,6 +237,7 @@ public class RecentChangesPoller implements Change.Source<RecentChangesPoller.Ba
             // be sure we got the whole second
             String upTo = inputDateFormat().format(new Date(nextStartTime - 1000));
             long advanced = nextStartTime - lastNextStartTime.getTime();
+            batchSize.polledUpTo(new Date(nextStartTime), new Date());
             return new Batch(changes, advanced, upTo, new Date(nextStartTime), nextContinue);
         } catch (java.text.ParseException e) {
             throw new RetryableException("Parse error from api", e);
@@ -0,0 +1,178 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Limits how many requests are in flight at once, adapting the limit to how
+ * the server copes with them. Every request that succeeds within the target
+ * latency raises the limit by 1/limit, so by about one per limit requests.
+ * A request that fails or takes longer than the target halves the limit.
+ * Requests that were already in flight when the limit was halved are likely
+ * to be slow too, so the limit isn't halved again until another limit's
+ * worth of requests have finished. The limit stays between min and max.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    /**
+     * Lowest limit.
+     */
+    private final int min;
+    /**
+     * Highest limit.
+     */
+    private final int max;
+    /**
+     * Requests that take longer than this lower the limit.
+     */
+    private final long targetLatencyMillis;
+    /**
+     * Guards the limit and the counts.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signaled when a request finishes.
+     */
+    private final Condition finished = lock.newCondition();
+    /**
+     * The limit. Fractional so additive increases can add up.
+     */
+    private double limit;
+    /**
+     * Requests in flight.
+     */
+    private int inFlight;
+    /**
+     * Requests finished since the limit was last lowered.
+     */
+    private int finishedSinceDecrease;
+
+    /**
+     * Build.
+     *
+     * @param min lowest limit and the one we start at
+     * @param max highest limit
+     * @param targetLatencyMillis requests that take longer than this lower
+     *            the limit
+     */
+    public AdaptiveConcurrencyLimiter(int min, int max, long targetLatencyMillis) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Need 0 < min <= max but got min=" + min + " and max=" + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.targetLatencyMillis = targetLatencyMillis;
+        limit = min;
+        finishedSinceDecrease = min;
+    }
+
+    /**
+     * Register gauges for the limit and the requests in flight in a metric
+     * registry.
+     *
+     * @param metrics registry to register with
+     * @param name prefix of the gauges' names
+     * @return this for chaining
+     */
+    public AdaptiveConcurrencyLimiter register(MetricRegistry metrics, String name) {
+        metrics.register(name + "-limit", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return limit();
+            }
+        });
+        metrics.register(name + "-in-flight", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return inFlight();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * The current limit.
+     */
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests in flight.
+     */
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until there is room for another request under the limit. Every
+     * call must be followed by a call to release.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                finished.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record that a request has finished and adapt the limit.
+     *
+     * @param latencyMillis how long the request took
+     * @param failed did the request fail?
+     */
+    public void release(long latencyMillis, boolean failed) {
+        lock.lock();
+        try {
+            inFlight--;
+            finishedSinceDecrease++;
+            if (failed || latencyMillis > targetLatencyMillis) {
+                decrease(latencyMillis, failed);
+            } else {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+            finished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Halve the limit unless it was halved within the last limit's worth of
+     * requests. Must hold the lock.
+     */
+    private void decrease(long latencyMillis, boolean failed) {
+        if (finishedSinceDecrease < (int) limit || limit <= min) {
+            return;
+        }
+        double lowered = Math.max(min, limit / 2);
+        log.info("Lowering concurrency limit from {} to {} after a request that {} in {} ms", (int) limit, (int) lowered,
+                failed ? "failed" : "succeeded", latencyMillis);
+        limit = lowered;
+        finishedSinceDecrease = 0;
+    }
+}
@@ -0,0 +1,1080 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.helpers.RDFParserBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Parses Turtle as Wikibase writes it in its dumps. Sesame's TurtleParser
+ * reads a char at a time from a pushback reader. This reads bytes straight
+ * from a buffer and decodes UTF-8 itself while building tokens, skipping
+ * decoding entirely for the ascii that makes up almost all of a dump. Since
+ * N-Triples is a subset of Turtle it handles N-Triples dumps as well.
+ * <p>
+ * It supports all of Turtle and it is lenient in the same ways Munge has
+ * always been with broken dumps:
+ * <ul>
+ * <li>Uris containing spaces are replaced with http://example.com/error.
+ * <li>Statements that fail to parse are logged and skipped up to the next
+ * statement.
+ * </ul>
+ */
+// The parse methods all throw the same exceptions for the same reasons so
+// they don't document them and they switch on the next byte a lot.
+@SuppressWarnings({"checkstyle:classfanoutcomplexity", "checkstyle:javadocmethod", "checkstyle:cyclomaticcomplexity"})
+public class DumpParser extends RDFParserBase {
+    private static final Logger log = LoggerFactory.getLogger(DumpParser.class);
+
+    /**
+     * Uri used in place of invalid uris.
+     */
+    static final String ERROR_URI = "http://example.com/error";
+    /**
+     * Size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Replacement for invalid UTF-8.
+     */
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * The input.
+     */
+    private InputStream in;
+    /**
+     * Input buffer.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /**
+     * Position of the next byte to read in the buffer.
+     */
+    private int position;
+    /**
+     * End of the valid bytes in the buffer.
+     */
+    private int limit;
+    /**
+     * Bytes of input that were discarded from the front of the buffer.
+     */
+    private long discarded;
+    /**
+     * Offset of the start of the statement being parsed.
+     */
+    private long statementStart;
+    /**
+     * Current line for error messages.
+     */
+    private int line;
+    /**
+     * Token currently being built.
+     */
+    private char[] token = new char[256];
+    /**
+     * Length of the token currently being built.
+     */
+    private int tokenLength;
+    /**
+     * Prefixes defined so far. Looked up without building a string for the
+     * prefix.
+     */
+    private char[][] prefixNames = new char[16][];
+    /**
+     * Namespaces for prefixNames.
+     */
+    private String[] prefixNamespaces = new String[16];
+    /**
+     * Number of prefixes defined.
+     */
+    private int prefixCount;
+    /**
+     * The value factory. Cached out of the base class.
+     */
+    private ValueFactory factory;
+    /**
+     * The handler. Cached out of the base class.
+     */
+    private RDFHandler handler;
+    /**
+     * Uri for Turtle's a keyword, built by the value factory so it is shared
+     * if the factory interns it.
+     */
+    private URI type;
+
+    @Override
+    public RDFFormat getRDFFormat() {
+        return RDFFormat.TURTLE;
+    }
+
+    @Override
+    public void parse(InputStream in, String baseURI) throws IOException, RDFParseException, RDFHandlerException {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        discarded = 0;
+        statementStart = 0;
+        line = 1;
+        prefixCount = 0;
+        factory = valueFactory;
+        handler = getRDFHandler();
+        type = factory.createURI(RDF.TYPE.stringValue());
+        setBaseURI(baseURI);
+        handler.startRDF();
+        try {
+            while (skipWhitespace() >= 0) {
+                statementStart = discarded + position;
+                try {
+                    statement();
+                } catch (RDFParseException e) {
+                    log.warn("Skipping unparseable statement", e);
+                    skipToNextStatement();
+                }
+            }
+        } finally {
+            clear();
+            this.in = null;
+        }
+        handler.endRDF();
+    }
+
+    /**
+     * Parse from a reader. Slower than parsing from a stream because the
+     * reader has to be encoded back into UTF-8.
+     */
+    @Override
+    public void parse(Reader reader, String baseURI) throws IOException, RDFParseException, RDFHandlerException {
+        parse(new ReaderInputStream(reader), baseURI);
+    }
+
+    /**
+     * Offset in bytes from the start of the input of the directive or set of
+     * triples currently being parsed. RDFHandlers can call this while
+     * handling statements to find where their statement started.
+     */
+    public long currentStatementOffset() {
+        return statementStart;
+    }
+
+    /**
+     * Parse a directive or a set of triples.
+     */
+    private void statement() throws IOException, RDFParseException, RDFHandlerException {
+        int c = peek();
+        if (c == '@') {
+            read();
+            readName();
+            String directive = tokenString();
+            if (directive.equals("prefix")) {
+                prefix();
+            } else if (directive.equals("base")) {
+                base();
+            } else {
+                throw error("Unknown directive @" + directive);
+            }
+            expect('.');
+            return;
+        }
+        switch (c) {
+        case '<':
+        case '_':
+            triples(resource());
+            return;
+        case '[':
+            BNode subject = blankNodePropertyList();
+            if (skipWhitespace() == '.') {
+                read();
+                return;
+            }
+            triples(subject);
+            return;
+        case '(':
+            triples(collection());
+            return;
+        default:
+        }
+        // Either a prefixed name or a SPARQL style directive
+        readName();
+        if (peek() == ':') {
+            triples(prefixedNameAfterPrefix());
+            return;
+        }
+        String directive = tokenString();
+        if (directive.equalsIgnoreCase("prefix")) {
+            prefix();
+        } else if (directive.equalsIgnoreCase("base")) {
+            base();
+        } else {
+            throw error("Unexpected " + directive);
+        }
+    }
+
+    /**
+     * Parse the rest of a prefix directive.
+     */
+    private void prefix() throws IOException, RDFParseException, RDFHandlerException {
+        skipWhitespace();
+        readName();
+        expectNoWhitespace(':');
+        char[] name = Arrays.copyOf(token, tokenLength);
+        skipWhitespace();
+        String namespace = iri().stringValue();
+        for (int i = 0; i < prefixCount; i++) {
+            if (Arrays.equals(prefixNames[i], name)) {
+                prefixNamespaces[i] = namespace;
+                handler.handleNamespace(new String(name), namespace);
+                return;
+            }
+        }
+        if (prefixCount == prefixNames.length) {
+            prefixNames = Arrays.copyOf(prefixNames, prefixCount * 2);
+            prefixNamespaces = Arrays.copyOf(prefixNamespaces, prefixCount * 2);
+        }
+        prefixNames[prefixCount] = name;
+        prefixNamespaces[prefixCount] = namespace;
+        prefixCount++;
+        handler.handleNamespace(new String(name), namespace);
+    }
+
+    /**
+     * Parse the rest of a base directive.
+     */
+    private void base() throws IOException, RDFParseException {
+        skipWhitespace();
+        setBaseURI(iri().stringValue());
+    }
+
+    /**
+     * Parse all the predicates and objects of a subject.
+     */
+    private void triples(Resource subject) throws IOException, RDFParseException, RDFHandlerException {
+        skipWhitespace();
+        predicateObjectList(subject);
+        expect('.');
+    }
+
+    /**
+     * Parse predicates and objects separated by ; and ,.
+     */
+    private void predicateObjectList(Resource subject) throws IOException, RDFParseException, RDFHandlerException {
+        while (true) {
+            URI predicate = predicate();
+            while (true) {
+                skipWhitespace();
+                Value object = object();
+                handler.handleStatement(factory.createStatement(subject, predicate, object));
+                if (skipWhitespace() != ',') {
+                    break;
+                }
+                read();
+            }
+            if (peek() != ';') {
+                return;
+            }
+            while (skipWhitespace() == ';') {
+                read();
+            }
+            int c = peek();
+            if (c == '.' || c == ']' || c < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parse a predicate.
+     */
+    private URI predicate() throws IOException, RDFParseException {
+        if (peek() == '<') {
+            return iri();
+        }
+        readName();
+        if (peek() != ':' && tokenLength == 1 && token[0] == 'a') {
+            return type;
+        }
+        return prefixedNameAfterPrefix();
+    }
+
+    /**
+     * Parse a uri or blank node.
+     */
+    private Resource resource() throws IOException, RDFParseException {
+        if (peek() == '_') {
+            return blankNode();
+        }
+        return uri();
+    }
+
+    /**
+     * Parse a uri, either in angle brackets or prefixed.
+     */
+    private URI uri() throws IOException, RDFParseException {
+        if (peek() == '<') {
+            return iri();
+        }
+        return prefixedName();
+    }
+
+    /**
+     * Parse an object.
+     */
+    private Value object() throws IOException, RDFParseException, RDFHandlerException {
+        int c = peek();
+        switch (c) {
+        case '<':
+            return iri();
+        case '"':
+        case '\'':
+            return literal();
+        case '_':
+            return blankNode();
+        case '[':
+            return blankNodePropertyList();
+        case '(':
+            return collection();
+        case '+':
+        case '-':
+        case '.':
+        case '0':
+        case '1':
+        case '2':
+        case '3':
+        case '4':
+        case '5':
+        case '6':
+        case '7':
+        case '8':
+        case '9':
+            return number();
+        default:
+        }
+        readName();
+        if (peek() != ':') {
+            String word = tokenString();
+            if (word.equals("true") || word.equals("false")) {
+                return factory.createLiteral(word, XMLSchema.BOOLEAN);
+            }
+        }
+        return prefixedNameAfterPrefix();
+    }
+
+    /**
+     * Parse an iri in angle brackets.
+     */
+    private URI iri() throws IOException, RDFParseException {
+        expectNoWhitespace('<');
+        tokenLength = 0;
+        boolean invalid = false;
+        while (true) {
+            int c = peek();
+            if (c < 0 || c == '\n') {
+                // Leave the newline so we can recover on the next line
+                throw error("Unterminated uri");
+            }
+            read();
+            if (c == '>') {
+                break;
+            }
+            switch (c) {
+            case ' ':
+                invalid = true;
+                break;
+            case '\\':
+                if (peek() == 'u' || peek() == 'U') {
+                    escape();
+                } else {
+                    append('\\');
+                }
+                break;
+            default:
+                appendUtf8(c);
+            }
+        }
+        if (invalid) {
+            log.warn("Replacing invalid uri <{}> on line {}", tokenString(), line);
+            return factory.createURI(ERROR_URI);
+        }
+        return resolve(tokenString());
+    }
+
+    /**
+     * Parse a prefixed name.
+     */
+    private URI prefixedName() throws IOException, RDFParseException {
+        readName();
+        return prefixedNameAfterPrefix();
+    }
+
+    /**
+     * Parse the rest of a prefixed name after its prefix has been read into
+     * the token.
+     */
+    private URI prefixedNameAfterPrefix() throws IOException, RDFParseException {
+        expectNoWhitespace(':');
+        String namespace = namespace();
+        tokenLength = 0;
+        for (int i = 0; i < namespace.length(); i++) {
+            append(namespace.charAt(i));
+        }
+        readLocalName();
+        return factory.createURI(tokenString());
+    }
+
+    /**
+     * Lookup the namespace of the prefix in the token.
+     */
+    private String namespace() throws RDFParseException {
+        for (int i = 0; i < prefixCount; i++) {
+            char[] name = prefixNames[i];
+            if (name.length != tokenLength) {
+                continue;
+            }
+            int j = 0;
+            while (j < tokenLength && name[j] == token[j]) {
+                j++;
+            }
+            if (j == tokenLength) {
+                return prefixNamespaces[i];
+            }
+        }
+        throw error("Namespace prefix '" + tokenString() + "' used but not defined");
+    }
+
+    /**
+     * Read the local part of a prefixed name onto the end of the token.
+     */
+    private void readLocalName() throws IOException, RDFParseException {
+        while (true) {
+            int c = peek();
+            if (c == '.') {
+                // Dots are allowed in local names but not at the end
+                int next = peekSecond();
+                if (next >= 0 && isNameChar(next) || next == ':' || next == '%' || next == '\\') {
+                    read();
+                    append('.');
+                    continue;
+                }
+                return;
+            }
+            if (c == '\\') {
+                read();
+                int escaped = read();
+                if (escaped < 0) {
+                    throw error("Unterminated escape in local name");
+                }
+                append((char) escaped);
+                continue;
+            }
+            if (c == ':' || c == '%' || c == '-' || c >= 0 && isNameChar(c)) {
+                read();
+                appendUtf8(c);
+                continue;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Read a name (a prefix or a keyword) into the token.
+     */
+    private void readName() throws IOException, RDFParseException {
+        tokenLength = 0;
+        while (true) {
+            int c = peek();
+            if (c < 0 || !(isNameChar(c) || c == '-')) {
+                return;
+            }
+            read();
+            appendUtf8(c);
+        }
+    }
+
+    /**
+     * Parse a blank node label.
+     */
+    private BNode blankNode() throws IOException, RDFParseException {
+        expectNoWhitespace('_');
+        expectNoWhitespace(':');
+        tokenLength = 0;
+        readLocalName();
+        if (tokenLength == 0) {
+            throw error("Empty blank node label");
+        }
+        return createBNode(tokenString());
+    }
+
+    /**
+     * Parse a blank node with a property list in square brackets.
+     */
+    private BNode blankNodePropertyList() throws IOException, RDFParseException, RDFHandlerException {
+        expectNoWhitespace('[');
+        BNode node = createBNode();
+        if (skipWhitespace() != ']') {
+            predicateObjectList(node);
+        }
+        expect(']');
+        return node;
+    }
+
+    /**
+     * Parse a collection in parentheses.
+     */
+    private Resource collection() throws IOException, RDFParseException, RDFHandlerException {
+        expectNoWhitespace('(');
+        Resource head = RDF.NIL;
+        BNode last = null;
+        while (skipWhitespace() != ')') {
+            if (peek() < 0) {
+                throw error("Unterminated collection");
+            }
+            Value item = object();
+            BNode node = createBNode();
+            if (last == null) {
+                head = node;
+            } else {
+                handler.handleStatement(factory.createStatement(last, RDF.REST, node));
+            }
+            handler.handleStatement(factory.createStatement(node, RDF.FIRST, item));
+            last = node;
+        }
+        read();
+        if (last != null) {
+            handler.handleStatement(factory.createStatement(last, RDF.REST, RDF.NIL));
+        }
+        return head;
+    }
+
+    /**
+     * Parse a string literal with its language or datatype.
+     */
+    private Literal literal() throws IOException, RDFParseException {
+        int quote = read();
+        tokenLength = 0;
+        if (peek() == quote && peekSecond() == quote) {
+            read();
+            read();
+            longString(quote);
+        } else {
+            shortString(quote);
+        }
+        return literalSuffix(tokenString());
+    }
+
+    /**
+     * Read the contents of a single quoted string into the token. Like
+     * Sesame's TurtleParser this allows raw newlines even though Turtle
+     * doesn't.
+     */
+    private void shortString(int quote) throws IOException, RDFParseException {
+        while (true) {
+            int c = read();
+            if (c == quote) {
+                break;
+            }
+            switch (c) {
+            case -1:
+                throw error("Unterminated string");
+            case '\\':
+                escape();
+                break;
+            default:
+                appendUtf8(c);
+            }
+        }
+    }
+
+    /**
+     * Read the contents of a triple quoted string into the token.
+     */
+    private void longString(int quote) throws IOException, RDFParseException {
+        while (true) {
+            int c = read();
+            if (c == quote && peek() == quote && peekSecond() == quote) {
+                read();
+                read();
+                return;
+            }
+            switch (c) {
+            case -1:
+                throw error("Unterminated string");
+            case '\\':
+                escape();
+                break;
+            default:
+                appendUtf8(c);
+            }
+        }
+    }
+
+    /**
+     * Parse the language or datatype after a string.
+     */
+    private Literal literalSuffix(String label) throws IOException, RDFParseException {
+        int c = peek();
+        if (c == '@') {
+            read();
+            tokenLength = 0;
+            while (true) {
+                c = peek();
+                if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-') {
+                    read();
+                    append((char) c);
+                } else {
+                    break;
+                }
+            }
+            if (tokenLength == 0) {
+                throw error("Empty language tag");
+            }
+            return factory.createLiteral(label, tokenString());
+        }
+        if (c == '^') {
+            read();
+            expectNoWhitespace('^');
+            return factory.createLiteral(label, uri());
+        }
+        return factory.createLiteral(label);
+    }
+
+    /**
+     * Parse a bare number.
+     */
+    private Literal number() throws IOException, RDFParseException {
+        tokenLength = 0;
+        int c = peek();
+        if (c == '+' || c == '-') {
+            read();
+            append((char) c);
+        }
+        readDigits();
+        URI datatype = XMLSchema.INTEGER;
+        if (peek() == '.' && isDigit(peekSecond())) {
+            read();
+            append('.');
+            readDigits();
+            datatype = XMLSchema.DECIMAL;
+        }
+        c = peek();
+        if (c == 'e' || c == 'E') {
+            read();
+            append((char) c);
+            c = peek();
+            if (c == '+' || c == '-') {
+                read();
+                append((char) c);
+            }
+            readDigits();
+            datatype = XMLSchema.DOUBLE;
+        }
+        if (tokenLength == 0 || !isDigit(token[tokenLength - 1])) {
+            throw error("Invalid number " + tokenString());
+        }
+        return factory.createLiteral(tokenString(), datatype);
+    }
+
+    /**
+     * Read digits into the token.
+     */
+    private void readDigits() throws IOException {
+        while (isDigit(peek())) {
+            append((char) read());
+        }
+    }
+
+    /**
+     * Read a string escape after its backslash and append it to the token.
+     */
+    private void escape() throws IOException, RDFParseException {
+        int c = read();
+        switch (c) {
+        case 't':
+            append('\t');
+            return;
+        case 'b':
+            append('\b');
+            return;
+        case 'n':
+            append('\n');
+            return;
+        case 'r':
+            append('\r');
+            return;
+        case 'f':
+            append('\f');
+            return;
+        case '"':
+        case '\'':
+        case '\\':
+            append((char) c);
+            return;
+        case 'u':
+            appendCodePoint(hex(4));
+            return;
+        case 'U':
+            appendCodePoint(hex(8));
+            return;
+        default:
+            throw error("Invalid escape \\" + (char) c);
+        }
+    }
+
+    /**
+     * Read some hex digits.
+     */
+    private int hex(int digits) throws IOException, RDFParseException {
+        int result = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw error("Invalid unicode escape");
+            }
+            result = result << 4 | digit;
+        }
+        return result;
+    }
+
+    /**
+     * Resolve a uri against the base uri if it is relative.
+     */
+    private URI resolve(String uri) throws RDFParseException {
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == ':') {
+                return factory.createURI(uri);
+            }
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '+' || c == '-' || c == '.')) {
+                break;
+            }
+        }
+        return resolveURI(uri);
+    }
+
+    /**
+     * Skip to the end of the current statement after an error. Wikibase
+     * always ends statements with a dot at the end of a line.
+     */
+    private void skipToNextStatement() throws IOException {
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                return;
+            }
+            if (c == '.') {
+                int next = peek();
+                if (next < 0 || next == '\n' || next == '\r') {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Skip whitespace and comments.
+     *
+     * @return the next byte or -1 if we're at the end of the input
+     */
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == '#') {
+                while (c >= 0 && c != '\n') {
+                    read();
+                    c = peek();
+                }
+                continue;
+            }
+            if (c < 0 || !isWhitespace(c)) {
+                return c;
+            }
+            read();
+        }
+    }
+
+    /**
+     * Skip whitespace and read an expected character.
+     */
+    private void expect(char expected) throws IOException, RDFParseException {
+        skipWhitespace();
+        expectNoWhitespace(expected);
+    }
+
+    /**
+     * Read an expected character.
+     */
+    private void expectNoWhitespace(char expected) throws IOException, RDFParseException {
+        int c = read();
+        if (c != expected) {
+            throw error("Expected '" + expected + "' but got " + (c < 0 ? "end of input" : "'" + (char) c + "'"));
+        }
+    }
+
+    /**
+     * Build a parse exception on the current line.
+     */
+    private RDFParseException error(String message) {
+        return new RDFParseException(message, line, -1);
+    }
+
+    /**
+     * Append a char to the token.
+     */
+    private void append(char c) {
+        if (tokenLength == token.length) {
+            token = Arrays.copyOf(token, tokenLength * 2);
+        }
+        token[tokenLength++] = c;
+    }
+
+    /**
+     * Append a code point to the token.
+     */
+    private void appendCodePoint(int codePoint) throws RDFParseException {
+        if (!Character.isValidCodePoint(codePoint)) {
+            throw error("Invalid code point " + codePoint);
+        }
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            append((char) codePoint);
+        } else {
+            append(Character.highSurrogate(codePoint));
+            append(Character.lowSurrogate(codePoint));
+        }
+    }
+
+    /**
+     * Append a byte that we've read to the token, decoding it and the rest of
+     * its UTF-8 sequence if it isn't ascii.
+     */
+    private void appendUtf8(int first) throws IOException, RDFParseException {
+        if (first < 0x80) {
+            append((char) first);
+            return;
+        }
+        int length;
+        int codePoint;
+        if (first >= 0xF0 && first < 0xF8) {
+            length = 3;
+            codePoint = first & 0x07;
+        } else if (first >= 0xE0) {
+            length = 2;
+            codePoint = first & 0x0F;
+        } else if (first >= 0xC0) {
+            length = 1;
+            codePoint = first & 0x1F;
+        } else {
+            append(REPLACEMENT);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            int c = peek();
+            if ((c & 0xC0) != 0x80) {
+                append(REPLACEMENT);
+                return;
+            }
+            read();
+            codePoint = codePoint << 6 | c & 0x3F;
+        }
+        if (first >= 0xF8 || !Character.isValidCodePoint(codePoint)) {
+            append(REPLACEMENT);
+            return;
+        }
+        appendCodePoint(codePoint);
+    }
+
+    /**
+     * The token as a string.
+     */
+    private String tokenString() {
+        return new String(token, 0, tokenLength);
+    }
+
+    /**
+     * Peek at the next byte without consuming it.
+     *
+     * @return the byte or -1 if at the end of the input
+     */
+    private int peek() throws IOException {
+        if (position >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Peek at the byte after the next byte without consuming either.
+     *
+     * @return the byte or -1 if at the end of the input
+     */
+    private int peekSecond() throws IOException {
+        while (position + 1 >= limit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return buffer[position + 1] & 0xFF;
+    }
+
+    /**
+     * Read a byte.
+     *
+     * @return the byte or -1 if at the end of the input
+     */
+    private int read() throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            position++;
+            if (c == '\n') {
+                line++;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Fill the buffer, keeping any unread bytes.
+     *
+     * @return false if there are no more bytes in the input
+     */
+    private boolean fill() throws IOException {
+        discarded += position;
+        int remaining = limit - position;
+        System.arraycopy(buffer, position, buffer, 0, remaining);
+        position = 0;
+        limit = remaining;
+        while (limit < buffer.length) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                break;
+            }
+            limit += read;
+            if (limit > remaining) {
+                return true;
+            }
+        }
+        return limit > remaining;
+    }
+
+    /**
+     * Is this byte whitespace?
+     */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Is this a digit?
+     */
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Is this byte part of a name? Non-ascii bytes always are.
+     */
+    private static boolean isNameChar(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c >= 0x80;
+    }
+
+    /**
+     * Encodes a Reader as UTF-8.
+     */
+    private static final class ReaderInputStream extends InputStream {
+        /**
+         * The reader.
+         */
+        private final Reader reader;
+        /**
+         * Encodes characters from the reader.
+         */
+        private final CharsetEncoder encoder = Charsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        /**
+         * Characters read from the reader but not yet encoded.
+         */
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE / 4);
+        /**
+         * Bytes encoded but not yet read.
+         */
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * Have we seen the end of the reader?
+         */
+        private boolean eof;
+        /**
+         * Have we flushed the encoder after the end of the reader?
+         */
+        private boolean flushed;
+
+        private ReaderInputStream(Reader reader) {
+            this.reader = reader;
+            chars.flip();
+            bytes.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fillBytes()) {
+                return -1;
+            }
+            return bytes.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!fillBytes()) {
+                return -1;
+            }
+            int read = Math.min(len, bytes.remaining());
+            bytes.get(b, off, read);
+            return read;
+        }
+
+        /**
+         * Encode more bytes if there aren't any left.
+         *
+         * @return false if there are no more bytes
+         */
+        private boolean fillBytes() throws IOException {
+            while (!bytes.hasRemaining()) {
+                if (flushed) {
+                    return false;
+                }
+                if (!eof) {
+                    // compact keeps any unencoded high surrogate
+                    chars.compact();
+                    eof = reader.read(chars) < 0;
+                    chars.flip();
+                }
+                bytes.clear();
+                encoder.encode(chars, bytes, eof);
+                if (eof) {
+                    encoder.flush(bytes);
+                    flushed = true;
+                }
+                bytes.flip();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.wikidata.query.rdf.common.uri.OWL;
+import org.wikidata.query.rdf.common.uri.Ontology;
+import org.wikidata.query.rdf.common.uri.Provenance;
+import org.wikidata.query.rdf.common.uri.RDF;
+import org.wikidata.query.rdf.common.uri.RDFS;
+import org.wikidata.query.rdf.common.uri.SKOS;
+import org.wikidata.query.rdf.common.uri.SchemaDotOrg;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * ValueFactory that reuses URIs rather than building a new one every time the
+ * parser sees a uri. Wikibase's RDF repeats the same few thousand predicates,
+ * types, and units millions of times so this saves a lot of garbage.
+ * <p>
+ * The terms the Munger checks for are always reused and their uris share
+ * their strings with the constants in org.wikidata.query.rdf.common.uri. That
+ * way the Munger's string comparisons against those constants are identity
+ * comparisons and the strings' hash codes are only ever calculated once.
+ * Other uris go into a fixed size cache where each uri replaces whatever was
+ * in its slot. Statement, reference, value, and export uris are unique to an
+ * entity so they skip the cache.
+ * <p>
+ * This is safe to share between threads.
+ */
+public class InterningValueFactory extends ValueFactoryImpl {
+    /**
+     * Default number of slots in the cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    /**
+     * Terms that are always reused.
+     */
+    private static final ImmutableMap<String, URI> PINNED;
+    static {
+        ImmutableMap.Builder<String, URI> pinned = ImmutableMap.builder();
+        for (String term : new String[] {RDF.TYPE, RDFS.LABEL, SKOS.PREF_LABEL, SKOS.ALT_LABEL, OWL.SAME_AS, OWL.CLASS,
+            Provenance.WAS_DERIVED_FROM, SchemaDotOrg.VERSION, SchemaDotOrg.DATE_MODIFIED, SchemaDotOrg.ABOUT,
+            SchemaDotOrg.ARTICLE, SchemaDotOrg.NAME, SchemaDotOrg.IN_LANGUAGE, SchemaDotOrg.DESCRIPTION, Ontology.ITEM,
+            Ontology.PROPERTY, Ontology.STATEMENT, Ontology.REFERENCE, Ontology.VALUE, Ontology.DUMP, Ontology.RANK,
+            Ontology.BEST_RANK, Ontology.PREFERRED_RANK, Ontology.NORMAL_RANK, Ontology.DEPRECATED_RANK,
+            Ontology.Time.VALUE, Ontology.Time.PRECISION, Ontology.Time.TIMEZONE, Ontology.Time.CALENDAR_MODEL,
+            Ontology.Geo.LATITUDE, Ontology.Geo.LONGITUDE, Ontology.Geo.PRECISION, Ontology.Geo.GLOBE,
+            Ontology.Quantity.AMOUNT, Ontology.Quantity.UPPER_BOUND, Ontology.Quantity.LOWER_BOUND,
+            Ontology.Quantity.UNIT}) {
+            pinned.put(term, new URIImpl(term));
+        }
+        PINNED = pinned.build();
+    }
+
+    /**
+     * Finds uris that shouldn't be cached.
+     */
+    private final UriClassifier classifier;
+    /**
+     * The cache.
+     */
+    private final AtomicReferenceArray<URI> cache;
+    /**
+     * Mask to turn a hash code into a slot in the cache.
+     */
+    private final int mask;
+
+    public InterningValueFactory(WikibaseUris uris) {
+        this(uris, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Build the factory.
+     *
+     * @param cacheSize number of uris to cache. Rounded up to a power of two.
+     */
+    public InterningValueFactory(WikibaseUris uris, int cacheSize) {
+        if (cacheSize < 1 || cacheSize > 1 << 30) {
+            throw new IllegalArgumentException("Cache size must be between 1 and 2^30 but was " + cacheSize);
+        }
+        classifier = new UriClassifier(uris);
+        int slots = Integer.highestOneBit(cacheSize);
+        if (slots < cacheSize) {
+            slots <<= 1;
+        }
+        cache = new AtomicReferenceArray<>(slots);
+        mask = slots - 1;
+    }
+
+    @Override
+    public URI createURI(String uri) {
+        URI result = PINNED.get(uri);
+        if (result != null) {
+            return result;
+        }
+        switch (classifier.classify(uri)) {
+        case STATEMENT:
+        case REFERENCE:
+        case VALUE:
+        case ENTITY_DATA:
+            return new URIImpl(uri);
+        default:
+        }
+        int hash = uri.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        result = cache.get(slot);
+        if (result != null && result.stringValue().equals(uri)) {
+            return result;
+        }
+        result = new URIImpl(uri);
+        cache.set(slot, result);
+        return result;
+    }
+
+    @Override
+    public URI createURI(String namespace, String localName) {
+        return createURI(namespace + localName);
+    }
+}
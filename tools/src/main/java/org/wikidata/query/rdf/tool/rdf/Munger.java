@@ -10,6 +10,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -19,6 +20,7 @@ import org.openrdf.model.BNode;
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
 import org.openrdf.model.impl.LiteralImpl;
 import org.openrdf.model.impl.NumericLiteralImpl;
 import org.openrdf.model.impl.StatementImpl;
@@ -38,6 +40,7 @@ import org.wikidata.query.rdf.common.uri.WikibaseUris;
 import org.wikidata.query.rdf.common.uri.WikibaseUris.PropertyType;
 import org.wikidata.query.rdf.tool.change.Change;
 import org.wikidata.query.rdf.tool.exception.ContainedException;
+import org.wikidata.query.rdf.tool.rdf.UriClassifier.Namespace;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
@@ -52,11 +55,23 @@ import com.google.common.collect.ListMultimap;
 @SuppressWarnings("checkstyle:classfanoutcomplexity")
 public class Munger {
     private static final Logger log = LoggerFactory.getLogger(Munger.class);
+    /**
+     * Uri of the version predicate added to every entity.
+     */
+    private static final URI VERSION = new URIImpl(SchemaDotOrg.VERSION);
+    /**
+     * Uri of the date modified predicate added to every entity.
+     */
+    private static final URI DATE_MODIFIED = new URIImpl(SchemaDotOrg.DATE_MODIFIED);
 
     /**
      * Wikibase uris we're working with.
      */
     private final WikibaseUris uris;
+    /**
+     * Sorts uris into the namespaces in uris.
+     */
+    private final UriClassifier classifier;
     /**
      * Null if not in limit label languages mode and a set of allowed languages
      * if in it.
@@ -72,6 +87,16 @@ public class Munger {
      * True if we should remove site links or false if we shouldn't.
      */
     private final boolean removeSiteLinks;
+    /**
+     * Munge operations are reused for every entity munged by a thread so
+     * munging doesn't allocate a pile of collections per entity.
+     */
+    private final ThreadLocal<MungeOperation> operations = new ThreadLocal<MungeOperation>() {
+        @Override
+        protected MungeOperation initialValue() {
+            return new MungeOperation();
+        }
+    };
 
     public Munger(WikibaseUris uris) {
         this(uris, null, null, false);
@@ -80,6 +105,7 @@ public class Munger {
     private Munger(WikibaseUris uris, Set<String> limitLabelLanguages, List<String> singleLabelModeLanguages,
             boolean removeSiteLinks) {
         this.uris = uris;
+        classifier = new UriClassifier(uris);
         this.limitLabelLanguages = limitLabelLanguages;
         this.singleLabelModeLanguages = singleLabelModeLanguages;
         this.removeSiteLinks = removeSiteLinks;
@@ -143,15 +169,19 @@ public class Munger {
             // Empty collection is a delete.
             return;
         }
-        MungeOperation op = new MungeOperation(entityId, statements, existingValues, existingRefs);
-        if (sourceChange != null) {
-            op.importFromChange(sourceChange);
+        MungeOperation op = operations.get();
+        op.start(entityId, statements, existingValues, existingRefs);
+        try {
+            if (sourceChange != null) {
+                op.importFromChange(sourceChange);
+            }
+            op.munge();
+            // remove all values that we have seen as they are used by statements
+            existingValues.removeAll(op.extraValidSubjects);
+            existingRefs.removeAll(op.extraValidSubjects);
+        } finally {
+            op.finish();
         }
-        op.munge();
-        // remove all values that we have seen as they are used by statements
-        existingValues.removeAll(op.extraValidSubjects);
-        existingRefs.removeAll(op.extraValidSubjects);
-        return;
     }
 
     /**
@@ -179,21 +209,22 @@ public class Munger {
     }
 
     /**
-     * Holds state during a single munge operation.
+     * Holds state during a munge operation. Each thread reuses the same
+     * operation for all the entities it munges, clearing it in between.
      */
     private class MungeOperation {
         /**
          * The uri of the entity we're processing.
          */
-        private final String entityUri;
+        private String entityUri;
         /**
          * The statements that we're processing.
          */
-        private final Collection<Statement> statements;
+        private Collection<Statement> statements;
         /**
          * The entity uri that we're working with.
          */
-        private final Resource entityUriImpl;
+        private Resource entityUriImpl;
 
         /*
          * These are modified during the pass over the statements and used to
@@ -232,12 +263,12 @@ public class Munger {
         /**
          * Existing values that we'll just remove from the provided statements.
          */
-        private final Collection<String> existingValues;
+        private Collection<String> existingValues;
         /**
          * Existing references which we'll just remove from the provided
          * statements.
          */
-        private final Collection<String> existingRefs;
+        private Collection<String> existingRefs;
 
         // These are set by the entire munge operation
         /**
@@ -264,11 +295,7 @@ public class Munger {
          */
         private String predicate;
 
-        public MungeOperation(String entityId, Collection<Statement> statements, Collection<String> existingValues,
-                Collection<String> existingRefs) {
-            this.statements = statements;
-            entityUri = uris.entity() + entityId;
-            entityUriImpl = new URIImpl(entityUri);
+        public MungeOperation() {
             if (singleLabelModeLanguages != null) {
                 singleLabelModeWorkForLabel = new SingleLabelModeWork();
                 singleLabelModeWorkForDescription = new SingleLabelModeWork();
@@ -276,10 +303,46 @@ public class Munger {
                 singleLabelModeWorkForLabel = null;
                 singleLabelModeWorkForDescription = null;
             }
+        }
+
+        /**
+         * Start munging an entity.
+         */
+        public void start(String entityId, Collection<Statement> statements, Collection<String> existingValues,
+                Collection<String> existingRefs) {
+            this.statements = statements;
+            entityUri = uris.entity() + entityId;
+            entityUriImpl = new URIImpl(entityUri);
             this.existingValues = existingValues;
             this.existingRefs = existingRefs;
         }
 
+        /**
+         * Clear all the state from munging an entity so the operation can be
+         * used for the next one. This drops all references to the entity's
+         * statements so a thread doesn't hold on to them between entities.
+         */
+        public void finish() {
+            statements = null;
+            entityUri = null;
+            entityUriImpl = null;
+            existingValues = null;
+            existingRefs = null;
+            restoredStatements.clear();
+            siteLinks.clear();
+            extraValidSubjects.clear();
+            unknownSubjects.clear();
+            if (singleLabelModeLanguages != null) {
+                singleLabelModeWorkForLabel.clear();
+                singleLabelModeWorkForDescription.clear();
+            }
+            revisionId = null;
+            lastModified = null;
+            statement = null;
+            subject = null;
+            predicate = null;
+        }
+
         /**
          * Import revision data from Change object.
          * @param sourceChange
@@ -300,6 +363,43 @@ public class Munger {
          * Munge the statements.
          */
         public void munge() {
+            if (statements instanceof List && statements instanceof RandomAccess) {
+                filterList((List<Statement>) statements);
+            } else {
+                filterCollection();
+            }
+            statement = null;
+            finishSingleLabelMode();
+            finishCommon();
+        }
+
+        /**
+         * Filter a random access list in place by shifting the statements we
+         * keep down over the ones we remove and then chopping off the end.
+         * Removing from the middle of an ArrayList with its iterator would
+         * copy the rest of the list for every removed statement.
+         */
+        private void filterList(List<Statement> list) {
+            int size = list.size();
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                statement = list.get(i);
+                if (statement()) {
+                    if (kept != i) {
+                        list.set(kept, statement);
+                    }
+                    kept++;
+                }
+            }
+            if (kept < size) {
+                list.subList(kept, size).clear();
+            }
+        }
+
+        /**
+         * Filter any other kind of collection using its iterator.
+         */
+        private void filterCollection() {
             Iterator<Statement> itr = statements.iterator();
             while (itr.hasNext()) {
                 statement = itr.next();
@@ -307,10 +407,6 @@ public class Munger {
                     itr.remove();
                 }
             }
-
-            statement = null;
-            finishSingleLabelMode();
-            finishCommon();
         }
 
         /**
@@ -325,20 +421,18 @@ public class Munger {
                 // temporary patch for T98405
                 return false;
             }
-            if (inNamespace(subject, uris.entityData()) || inNamespace(subject, uris.entityDataHttps())) {
+            switch (classifier.classify(subject)) {
+            case ENTITY_DATA:
                 return entityDataStatement();
-            }
-            if (inNamespace(subject, uris.statement())) {
+            case STATEMENT:
                 return entityStatementStatement();
-            }
-            if (inNamespace(subject, uris.reference())) {
+            case REFERENCE:
                 return entityReferenceStatement();
-            }
-            if (inNamespace(subject, uris.value())) {
+            case VALUE:
                 return entityValueStatement();
-            }
-            if (inNamespace(subject, uris.entity())) {
+            case ENTITY:
                 return entityStatement();
+            default:
             }
             /*
              *  Allow bnodes, they are not linked to specific entitty
@@ -350,16 +444,6 @@ public class Munger {
             return unknownStatement();
         }
 
-        /**
-         * Is a uri in just this namespace? The trouble is that some namespaces
-         * are suffixes of one another. For now / isn't a valid character after
-         * a namespace so we can use its absence to determine that we're just in
-         * the provided namespace and not a suffix namespace.
-         */
-        private boolean inNamespace(String uri, String namespace) {
-            return uri.startsWith(namespace) && uri.indexOf('/', namespace.length()) < 0;
-        }
-
         /**
          * Process a statement who's subject is in the entityData prefix.
          *
@@ -444,7 +528,7 @@ public class Munger {
          */
         private boolean entityStatementWithUnrecognizedPredicate() {
             String object = statement.getObject().stringValue();
-            if (inNamespace(predicate, uris.property(PropertyType.CLAIM)) && inNamespace(object, uris.statement())) {
+            if (classifier.in(predicate, Namespace.CLAIM) && classifier.in(object, Namespace.STATEMENT)) {
                 registerExtraValidSubject(object);
             }
             // Most statements should be kept.
@@ -469,7 +553,7 @@ public class Munger {
                 break;
             case Provenance.WAS_DERIVED_FROM:
                 String object = statement.getObject().stringValue();
-                if (inNamespace(object, uris.reference())) {
+                if (classifier.in(object, Namespace.REFERENCE)) {
                     registerExtraValidSubject(object);
                 }
                 return true;
@@ -486,7 +570,7 @@ public class Munger {
                 return false;
             }
             String object = statement.getObject().stringValue();
-            if (inNamespace(object, uris.value())) {
+            if (classifier.in(object, Namespace.VALUE)) {
                 registerExtraValidSubject(object);
             }
             return true;
@@ -528,7 +612,7 @@ public class Munger {
                 return false;
             }
             String object = statement.getObject().stringValue();
-            if (inNamespace(predicate, uris.property(PropertyType.REFERENCE_VALUE)) && inNamespace(object, uris.value())) {
+            if (classifier.in(predicate, Namespace.REFERENCE_VALUE) && classifier.in(object, Namespace.VALUE)) {
                 registerExtraValidSubject(object);
             }
             return true;
@@ -667,8 +751,8 @@ public class Munger {
             if (lastModified == null) {
                 throw new ContainedException("Didn't get a last modified date for " + statements);
             }
-            statements.add(new StatementImpl(entityUriImpl, new URIImpl(SchemaDotOrg.VERSION), revisionId));
-            statements.add(new StatementImpl(entityUriImpl, new URIImpl(SchemaDotOrg.DATE_MODIFIED), lastModified));
+            statements.add(new StatementImpl(entityUriImpl, VERSION, revisionId));
+            statements.add(new StatementImpl(entityUriImpl, DATE_MODIFIED, lastModified));
             statements.addAll(restoredStatements);
         }
 
@@ -737,6 +821,14 @@ public class Munger {
                 return false;
             }
 
+            /**
+             * Forget the best statement so the work can be reused.
+             */
+            public void clear() {
+                bestStatement = null;
+                bestIndex = -1;
+            }
+
             /**
              * Add the best label or description to the statements if there is
              * one.
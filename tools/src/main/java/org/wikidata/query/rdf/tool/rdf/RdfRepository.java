@@ -12,9 +12,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
@@ -40,6 +42,7 @@ import org.json.simple.parser.ParseException;
 import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryResultHandlerException;
 import org.openrdf.query.TupleQueryResult;
@@ -105,6 +108,10 @@ public class RdfRepository {
      * Sparql to sync the left off time.
      */
     private final String updateLeftOffTimeBody;
+    /**
+     * Sparql to fetch the revisions of many entities at once.
+     */
+    private final String getRevisions;
 
     /**
      * How many times we retry a failed HTTP call.
@@ -115,6 +122,11 @@ public class RdfRepository {
      * Next retries would be slower by 2x, 3x, 4x etc. until maxRetries is exhausted.
      */
     private int delay = 2000;
+    /**
+     * Limits how many updates are in flight at once. Null if they aren't
+     * limited.
+     */
+    private AdaptiveConcurrencyLimiter updateLimiter;
 
     /**
      * Allow subclass access to the HTTP client.
@@ -131,6 +143,7 @@ public class RdfRepository {
         getValues = loadBody("GetValues");
         getRefs = loadBody("GetRefs");
         cleanUnused = loadBody("CleanUnused");
+        getRevisions = loadBody("GetRevisions");
     }
 
     /**
@@ -169,6 +182,17 @@ public class RdfRepository {
         return this;
     }
 
+    /**
+     * Limit how many updates are sent to the triple store at once. Queries
+     * aren't limited.
+     *
+     * @return this for chaining
+     */
+    public RdfRepository limitUpdates(AdaptiveConcurrencyLimiter updateLimiter) {
+        this.updateLimiter = updateLimiter;
+        return this;
+    }
+
     /**
      * Loads some sparql.
      *
@@ -317,6 +341,44 @@ public class RdfRepository {
                 prefixes, entityId, revision));
     }
 
+    /**
+     * Fetch the revisions that the triple store has for many entities in one
+     * query.
+     *
+     * @param entityIds ids of the entities to check
+     * @return map from entity id to the revision in the triple store. Entities
+     *         without a revision are missing from the map.
+     */
+    public Map<String, Long> fetchRevisions(Collection<String> entityIds) {
+        Map<String, Long> revisions = new HashMap<>();
+        if (entityIds.isEmpty()) {
+            return revisions;
+        }
+        List<String> entityUris = new ArrayList<>(entityIds.size());
+        for (String entityId : entityIds) {
+            entityUris.add(uris.entity() + entityId);
+        }
+        UpdateBuilder b = new UpdateBuilder(getRevisions);
+        b.bindUris("entities", entityUris);
+        b.bindUri("schema:version", SchemaDotOrg.VERSION);
+        TupleQueryResult result = query(b.toString());
+        try {
+            while (result.hasNext()) {
+                BindingSet bindings = result.next();
+                String entity = bindings.getValue("entity").stringValue();
+                long revision = ((Literal) bindings.getValue("version")).longValue();
+                String entityId = entity.substring(uris.entity().length());
+                Long old = revisions.get(entityId);
+                if (old == null || old < revision) {
+                    revisions.put(entityId, revision);
+                }
+            }
+        } catch (QueryEvaluationException e) {
+            throw new FatalException("Can't load results: " + e, e);
+        }
+        return revisions;
+    }
+
     /**
      * Fetch where we left off updating the repository.
      *
@@ -393,17 +455,13 @@ public class RdfRepository {
         List<NameValuePair> entity = new ArrayList<>();
         entity.add(new BasicNameValuePair(type, sparql));
         post.setEntity(new UrlEncodedFormEntity(entity, Consts.UTF_8));
+        AdaptiveConcurrencyLimiter limiter = "update".equals(type) ? updateLimiter : null;
         int retries = 0;
         while (true) {
             try {
-                try (CloseableHttpResponse response = client.execute(post)) {
-                    if (response.getStatusLine().getStatusCode() != 200) {
-                        throw new ContainedException("Non-200 response from triple store:  " + response + " body=\n"
-                                + responseBodyAsString(response));
-                    }
-                    log.debug("Completed in {} ms", System.currentTimeMillis() - startQuery);
-                    return responseHandler.parse(response.getEntity());
-                }
+                T result = executeLimited(post, responseHandler, limiter);
+                log.debug("Completed in {} ms", System.currentTimeMillis() - startQuery);
+                return result;
             } catch (IOException e) {
                 if (retries < maxRetries) {
                     // Increasing delay, with random 10% variation so threads won't all get restarts
@@ -424,6 +482,51 @@ public class RdfRepository {
 
     }
 
+    /**
+     * Send a request once, waiting for room under the limiter first if there
+     * is one.
+     *
+     * @param limiter limiter to wait on and tell how the request went. Null
+     *            to send the request straight away.
+     * @throws IOException if there is an error talking to the triple store
+     */
+    private <T> T executeLimited(HttpPost post, ResponseHandler<T> responseHandler, AdaptiveConcurrencyLimiter limiter)
+            throws IOException {
+        if (limiter == null) {
+            return executeOnce(post, responseHandler);
+        }
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FatalException("Interrupted waiting to send an update", e);
+        }
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            T result = executeOnce(post, responseHandler);
+            failed = false;
+            return result;
+        } finally {
+            limiter.release(System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    /**
+     * Send a request once.
+     *
+     * @throws IOException if there is an error talking to the triple store
+     */
+    private <T> T executeOnce(HttpPost post, ResponseHandler<T> responseHandler) throws IOException {
+        try (CloseableHttpResponse response = client.execute(post)) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new ContainedException("Non-200 response from triple store:  " + response + " body=\n"
+                        + responseBodyAsString(response));
+            }
+            return responseHandler.parse(response.getEntity());
+        }
+    }
+
     /**
      * Fetch the body of the response as a string.
      *
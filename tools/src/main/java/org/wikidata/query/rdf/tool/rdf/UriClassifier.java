@@ -0,0 +1,129 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.common.uri.WikibaseUris.PropertyType;
+
+/**
+ * Sorts uris into the Wikibase namespaces the Munger cares about. A uri is in
+ * a namespace if it starts with the namespace and has no / after it. Some
+ * namespaces are suffixes of one another so the / check is what tells
+ * entity:Q1 from entity:statement/Q1-uuid. That means the only namespace a uri
+ * can be in is everything up to and including its last / so we find that and
+ * look it up in a table indexed by length. Wikibase's namespaces all have
+ * different lengths so that is one comparison of the uri's prefix and no
+ * copying or hashing.
+ */
+public class UriClassifier {
+    /**
+     * Namespaces a uri can be in.
+     */
+    public enum Namespace {
+        /**
+         * Export metadata - both http and https flavors.
+         */
+        ENTITY_DATA,
+        /**
+         * Entities.
+         */
+        ENTITY,
+        /**
+         * Statements.
+         */
+        STATEMENT,
+        /**
+         * References.
+         */
+        REFERENCE,
+        /**
+         * Values.
+         */
+        VALUE,
+        /**
+         * Entity to statement predicates.
+         */
+        CLAIM,
+        /**
+         * Reference to value predicates.
+         */
+        REFERENCE_VALUE,
+        /**
+         * Not in any of the namespaces above.
+         */
+        OTHER;
+    }
+
+    /**
+     * Candidate namespaces indexed by the length of their prefix.
+     */
+    private final Candidate[] byLength;
+
+    public UriClassifier(WikibaseUris uris) {
+        Candidate[] candidates = new Candidate[] {
+            new Candidate(uris.entityData(), Namespace.ENTITY_DATA),
+            new Candidate(uris.entityDataHttps(), Namespace.ENTITY_DATA),
+            new Candidate(uris.entity(), Namespace.ENTITY),
+            new Candidate(uris.statement(), Namespace.STATEMENT),
+            new Candidate(uris.reference(), Namespace.REFERENCE),
+            new Candidate(uris.value(), Namespace.VALUE),
+            new Candidate(uris.property(PropertyType.CLAIM), Namespace.CLAIM),
+            new Candidate(uris.property(PropertyType.REFERENCE_VALUE), Namespace.REFERENCE_VALUE),
+        };
+        int maxLength = 0;
+        for (Candidate candidate : candidates) {
+            maxLength = Math.max(maxLength, candidate.prefix.length());
+        }
+        byLength = new Candidate[maxLength + 1];
+        for (Candidate candidate : candidates) {
+            int length = candidate.prefix.length();
+            candidate.next = byLength[length];
+            byLength[length] = candidate;
+        }
+    }
+
+    /**
+     * The namespace containing a uri.
+     */
+    public Namespace classify(String uri) {
+        int length = uri.lastIndexOf('/') + 1;
+        if (length >= byLength.length) {
+            return Namespace.OTHER;
+        }
+        for (Candidate candidate = byLength[length]; candidate != null; candidate = candidate.next) {
+            if (uri.regionMatches(0, candidate.prefix, 0, length)) {
+                return candidate.namespace;
+            }
+        }
+        return Namespace.OTHER;
+    }
+
+    /**
+     * Is the uri in the namespace?
+     */
+    public boolean in(String uri, Namespace namespace) {
+        return classify(uri) == namespace;
+    }
+
+    /**
+     * A namespace prefix and the namespace it stands for.
+     */
+    private static final class Candidate {
+        /**
+         * The prefix, ending in /.
+         */
+        private final String prefix;
+        /**
+         * The namespace.
+         */
+        private final Namespace namespace;
+        /**
+         * Next candidate with the same prefix length or null if there isn't
+         * one.
+         */
+        private Candidate next;
+
+        private Candidate(String prefix, Namespace namespace) {
+            this.prefix = prefix;
+            this.namespace = namespace;
+        }
+    }
+}
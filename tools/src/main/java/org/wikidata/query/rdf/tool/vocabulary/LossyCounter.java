@@ -0,0 +1,137 @@
+package org.wikidata.query.rdf.tool.vocabulary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Ordering;
+
+/**
+ * Counts how often strings are seen in bounded memory using Manku and
+ * Motwani's lossy counting. Every string seen more than error * total times is
+ * guaranteed to be kept and its count is never overestimated and never
+ * underestimated by more than error * total. That is plenty to find the most
+ * frequent terms in a dump without keeping a counter for every entity in it.
+ */
+public class LossyCounter {
+    /**
+     * Orders entries by count descending and then by string so the results
+     * are stable.
+     */
+    private static final Ordering<Map.Entry<String, Entry>> BY_COUNT = new Ordering<Map.Entry<String, Entry>>() {
+        @Override
+        public int compare(Map.Entry<String, Entry> lhs, Map.Entry<String, Entry> rhs) {
+            int result = Long.compare(rhs.getValue().count, lhs.getValue().count);
+            if (result != 0) {
+                return result;
+            }
+            return lhs.getKey().compareTo(rhs.getKey());
+        }
+    };
+
+    /**
+     * Number of strings in each bucket. Infrequent strings are pruned at the
+     * end of every bucket.
+     */
+    private final long bucketWidth;
+    /**
+     * Counters for strings that haven't been pruned.
+     */
+    private final Map<String, Entry> counters = new HashMap<>();
+    /**
+     * Total number of strings seen.
+     */
+    private long total;
+    /**
+     * The current bucket.
+     */
+    private long bucket = 1;
+
+    /**
+     * Build a counter.
+     *
+     * @param error maximum error in the counts as a fraction of the total
+     */
+    public LossyCounter(double error) {
+        if (!(error > 0 && error < 1)) {
+            throw new IllegalArgumentException("Error must be between 0 and 1 but was " + error);
+        }
+        bucketWidth = (long) Math.ceil(1 / error);
+    }
+
+    /**
+     * Count a string.
+     */
+    public void add(String string) {
+        Entry entry = counters.get(string);
+        if (entry == null) {
+            counters.put(string, new Entry(bucket - 1));
+        } else {
+            entry.count++;
+        }
+        total++;
+        if (total % bucketWidth == 0) {
+            prune();
+            bucket++;
+        }
+    }
+
+    /**
+     * Total number of strings seen.
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * The most frequent strings, most frequent first.
+     *
+     * @param limit maximum number of strings to return
+     * @param minimumCount strings with fewer than this many occurrences are
+     *            never returned
+     */
+    public List<String> top(int limit, long minimumCount) {
+        List<String> result = new ArrayList<>(limit);
+        for (Map.Entry<String, Entry> entry : BY_COUNT.leastOf(counters.entrySet(), limit)) {
+            if (entry.getValue().count < minimumCount) {
+                break;
+            }
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * Drop all counters that can't be frequent.
+     */
+    private void prune() {
+        Iterator<Entry> itr = counters.values().iterator();
+        while (itr.hasNext()) {
+            Entry entry = itr.next();
+            if (entry.count + entry.maxError <= bucket) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Counter for a single string.
+     */
+    private static final class Entry {
+        /**
+         * Maximum number of times the string could have been seen before it
+         * was last added to the map.
+         */
+        private final long maxError;
+        /**
+         * Times the string was seen since it was last added to the map.
+         */
+        private long count = 1;
+
+        private Entry(long maxError) {
+            this.maxError = maxError;
+        }
+    }
+}
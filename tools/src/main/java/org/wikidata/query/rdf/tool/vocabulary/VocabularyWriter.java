@@ -0,0 +1,134 @@
+package org.wikidata.query.rdf.tool.vocabulary;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the source of a Blazegraph vocabulary class declaring a list of uris.
+ * The generated class extends an existing vocabulary and only appends to it so
+ * the uris the parent declares keep their IVs.
+ */
+public class VocabularyWriter {
+    /**
+     * Each uri takes two entries in the generated class's constant pool which
+     * Java limits to 64k entries. Blazegraph's two byte vocabulary IVs would
+     * allow a bit more than this.
+     */
+    public static final int MAX_URIS = 30000;
+    /**
+     * Number of uris declared per generated method. Java limits methods to 64k
+     * of bytecode and each uri takes about seven bytes to put in the array.
+     */
+    private static final int URIS_PER_METHOD = 1000;
+
+    /**
+     * Package of the generated class.
+     */
+    private final String packageName;
+    /**
+     * Simple name of the generated class.
+     */
+    private final String className;
+    /**
+     * Fully qualified name of the vocabulary to extend.
+     */
+    private final String parentClass;
+
+    public VocabularyWriter(String packageName, String className, String parentClass) {
+        this.packageName = packageName;
+        this.className = className;
+        this.parentClass = parentClass;
+    }
+
+    /**
+     * Write a vocabulary declaring uris.
+     *
+     * @throws IOException if the writer throws it
+     */
+    public void write(Writer writer, List<String> uris) throws IOException {
+        if (uris.size() > MAX_URIS) {
+            throw new IllegalArgumentException("Vocabularies can't have more than " + MAX_URIS + " uris but got "
+                    + uris.size());
+        }
+        int methods = (uris.size() + URIS_PER_METHOD - 1) / URIS_PER_METHOD;
+        line(writer, "package %s;", packageName);
+        line(writer, "");
+        line(writer, "import com.bigdata.rdf.vocab.BaseVocabularyDecl;");
+        line(writer, "");
+        line(writer, "/**");
+        line(writer, " * Vocabulary declaring the %s most frequent uris in a munged dump.", uris.size());
+        line(writer, " * Generated by org.wikidata.query.rdf.tool.GenerateVocabulary. Don't edit it");
+        line(writer, " * by hand - generate a new version instead.");
+        line(writer, " */");
+        line(writer, "public class %s extends %s {", className, parentClass);
+        line(writer, "    public %s() {", className);
+        line(writer, "    }");
+        line(writer, "");
+        line(writer, "    public %s(String namespace) {", className);
+        line(writer, "        super(namespace);");
+        line(writer, "    }");
+        line(writer, "");
+        line(writer, "    @Override");
+        line(writer, "    protected void addValues() {");
+        line(writer, "        super.addValues();");
+        for (int m = 0; m < methods; m++) {
+            line(writer, "        addDecl(new Part(uris%d()));", m);
+        }
+        line(writer, "    }");
+        for (int m = 0; m < methods; m++) {
+            line(writer, "");
+            line(writer, "    /**");
+            line(writer, "     * Part %s of the uris.", m);
+            line(writer, "     */");
+            line(writer, "    private static String[] uris%d() {", m);
+            line(writer, "        return new String[] {");
+            int end = Math.min(uris.size(), (m + 1) * URIS_PER_METHOD);
+            for (int i = m * URIS_PER_METHOD; i < end; i++) {
+                line(writer, "            \"%s\",", escape(uris.get(i)));
+            }
+            line(writer, "        };");
+            line(writer, "    }");
+        }
+        line(writer, "");
+        line(writer, "    /**");
+        line(writer, "     * Declares a part of the uris.");
+        line(writer, "     */");
+        line(writer, "    private static class Part extends BaseVocabularyDecl {");
+        line(writer, "        Part(String[] uris) {");
+        line(writer, "            super((Object[]) uris);");
+        line(writer, "        }");
+        line(writer, "    }");
+        line(writer, "}");
+        writer.flush();
+    }
+
+    /**
+     * Write a line of source.
+     *
+     * @throws IOException if the writer throws it
+     */
+    private void line(Writer writer, String format, Object... args) throws IOException {
+        writer.write(String.format(Locale.ROOT, format, args));
+        writer.write('\n');
+    }
+
+    /**
+     * Escape a string so it can be put in a Java string literal.
+     */
+    static String escape(String string) {
+        StringBuilder b = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\').append(c);
+            } else if (c < ' ' || c > '~') {
+                b.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
@@ -10,8 +10,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.apache.http.Consts;
@@ -25,6 +27,7 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -38,14 +41,17 @@ import org.openrdf.rio.Rio;
 import org.openrdf.rio.helpers.StatementCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
 import org.wikidata.query.rdf.tool.HttpClientUtils;
 import org.wikidata.query.rdf.tool.change.Change;
 import org.wikidata.query.rdf.tool.exception.ContainedException;
 import org.wikidata.query.rdf.tool.exception.FatalException;
 import org.wikidata.query.rdf.tool.exception.RetryableException;
+import org.wikidata.query.rdf.tool.rdf.InterningValueFactory;
 import org.wikidata.query.rdf.tool.rdf.NormalizingRdfHandler;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 
 /**
  * Wraps Wikibase api.
@@ -55,6 +61,11 @@ import com.google.common.base.Charsets;
 public class WikibaseRepository {
     private static final Logger log = LoggerFactory.getLogger(WikibaseRepository.class);
 
+    /**
+     * Most entities that wbgetentities will return info for in one request.
+     */
+    public static final int MAX_ENTITIES_PER_REQUEST = 50;
+
     /**
      * HTTP client for wikibase.
      */
@@ -64,9 +75,22 @@ public class WikibaseRepository {
      * Builds uris to get stuff from wikibase.
      */
     private final Uris uris;
+    /**
+     * Builds the values in the fetched rdf, reusing common uris.
+     */
+    private final InterningValueFactory valueFactory;
 
     public WikibaseRepository(String scheme, String host) {
-        uris = new Uris(scheme, host);
+        this(scheme, host, -1);
+    }
+
+    /**
+     * Build the repository for a wikibase on a non-standard port. Useful for
+     * testing against a stub.
+     */
+    public WikibaseRepository(String scheme, String host, int port) {
+        uris = new Uris(scheme, host, port);
+        valueFactory = new InterningValueFactory(new WikibaseUris(host));
     }
 
     /**
@@ -103,7 +127,7 @@ public class WikibaseRepository {
         // TODO handle ?flavor=dump or whatever parameters we need
         URI uri = uris.rdf(entityId);
         log.debug("Fetching rdf from {}", uri);
-        RDFParser parser = Rio.createParser(RDFFormat.TURTLE);
+        RDFParser parser = Rio.createParser(RDFFormat.TURTLE, valueFactory);
         StatementCollector collector = new StatementCollector();
         parser.setRDFHandler(new NormalizingRdfHandler(collector));
         HttpGet request = new HttpGet(uri);
@@ -111,10 +135,12 @@ public class WikibaseRepository {
         try {
             try (CloseableHttpResponse response = client.execute(request)) {
                 if (response.getStatusLine().getStatusCode() == 404) {
-                    // A delete/nonexistent page
+                    // A delete/nonexistent page. Read the body so the connection is kept alive.
+                    EntityUtils.consume(response.getEntity());
                     return Collections.emptyList();
                 }
                 if (response.getStatusLine().getStatusCode() >= 300) {
+                    EntityUtils.consume(response.getEntity());
                     throw new ContainedException("Unexpected status code fetching RDF for " + uri + ":  "
                             + response.getStatusLine().getStatusCode());
                 }
@@ -128,6 +154,51 @@ public class WikibaseRepository {
         return collector.getStatements();
     }
 
+    /**
+     * Fetch the latest revision of some entities in a single request.
+     *
+     * @param entityIds ids of the entities. No more than
+     *            MAX_ENTITIES_PER_REQUEST.
+     * @return map from entity id to its latest revision. Entities that don't
+     *         exist are missing from the map. Redirects map to -1 because
+     *         wikibase returns the revision of their target instead.
+     * @throws RetryableException thrown if there is an error communicating with
+     *             wikibase
+     */
+    public Map<String, Long> fetchLatestRevisions(Collection<String> entityIds) throws RetryableException {
+        if (entityIds.size() > MAX_ENTITIES_PER_REQUEST) {
+            throw new IllegalArgumentException("Can only fetch " + MAX_ENTITIES_PER_REQUEST + " entities at a time but asked for "
+                    + entityIds.size());
+        }
+        Map<String, Long> revisions = new HashMap<>();
+        if (entityIds.isEmpty()) {
+            return revisions;
+        }
+        URI uri = uris.entityInfo(entityIds);
+        log.debug("Fetching entity info from {}", uri);
+        JSONObject entities;
+        try {
+            entities = (JSONObject) checkApi(getJson(new HttpGet(uri))).get("entities");
+        } catch (IOException | ParseException e) {
+            throw new RetryableException("Error fetching entity info", e);
+        }
+        if (entities == null) {
+            return revisions;
+        }
+        for (Object entityObject : entities.values()) {
+            JSONObject entity = (JSONObject) entityObject;
+            if (entity.containsKey("missing") || !entity.containsKey("lastrevid")) {
+                continue;
+            }
+            revisions.put(entity.get("id").toString(), ((Number) entity.get("lastrevid")).longValue());
+            JSONObject redirects = (JSONObject) entity.get("redirects");
+            if (redirects != null) {
+                revisions.put(redirects.get("from").toString(), -1L);
+            }
+        }
+        return revisions;
+    }
+
     /**
      * Get the first id with the provided label in the provided language.
      *
@@ -258,10 +329,19 @@ public class WikibaseRepository {
          * Host for wikibase.
          */
         private final String host;
+        /**
+         * Port for wikibase or -1 for the scheme's default.
+         */
+        private final int port;
 
         public Uris(String scheme, String host) {
+            this(scheme, host, -1);
+        }
+
+        public Uris(String scheme, String host, int port) {
             this.scheme = scheme;
             this.host = host;
+            this.port = port;
         }
 
         /**
@@ -308,6 +388,18 @@ public class WikibaseRepository {
             return build(builder);
         }
 
+        /**
+         * Uri to fetch the basic info, including the latest revision, of some
+         * entities.
+         */
+        public URI entityInfo(Collection<String> entityIds) {
+            URIBuilder builder = apiBuilder();
+            builder.addParameter("action", "wbgetentities");
+            builder.addParameter("ids", Joiner.on('|').join(entityIds));
+            builder.addParameter("props", "info");
+            return build(builder);
+        }
+
         /**
          * Uri to fetch a csrf token.
          */
@@ -372,6 +464,7 @@ public class WikibaseRepository {
             URIBuilder builder = new URIBuilder();
             builder.setHost(host);
             builder.setScheme(scheme);
+            builder.setPort(port);
             return builder;
         }
 
@@ -394,6 +487,13 @@ public class WikibaseRepository {
             return host;
         }
 
+        /**
+         * The wikibase port or -1 for the scheme's default.
+         */
+        public int getPort() {
+            return port;
+        }
+
         /**
          * The uri scheme for the wikibase instance.
          */
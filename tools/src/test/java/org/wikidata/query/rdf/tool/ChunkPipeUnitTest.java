@@ -0,0 +1,107 @@
+package org.wikidata.query.rdf.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests ChunkPipe.
+ */
+// Executor threads can still be on their way out after awaitTermination returns
+@ThreadLeakLingering(linger = 1000)
+@RunWith(RandomizedRunner.class)
+public class ChunkPipeUnitTest extends RandomizedTest {
+    /**
+     * Runs the writing side of the pipe.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void pipes() throws IOException, InterruptedException, ExecutionException {
+        byte[] bytes = new byte[randomIntBetween(0, 100000)];
+        getRandom().nextBytes(bytes);
+        ChunkPipe pipe = new ChunkPipe(randomIntBetween(1, 1000), randomIntBetween(1, 100));
+        Future<?> writer = write(pipe, bytes);
+        try (InputStream in = pipe.in()) {
+            assertTrue(Arrays.equals(bytes, ByteStreams.toByteArray(in)));
+            assertEquals(-1, in.read());
+        }
+        writer.get();
+    }
+
+    @Test
+    public void writerBlocksWhenBufferIsFull() throws IOException, InterruptedException, ExecutionException {
+        ChunkPipe pipe = new ChunkPipe(100, 10);
+        Future<?> writer = write(pipe, new byte[1000]);
+        try {
+            writer.get(100, TimeUnit.MILLISECONDS);
+            fail("Writer should have blocked");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        try (InputStream in = pipe.in()) {
+            assertEquals(1000, ByteStreams.toByteArray(in).length);
+        }
+        writer.get();
+    }
+
+    @Test
+    public void closingReaderUnblocksWriter() throws IOException, InterruptedException {
+        ChunkPipe pipe = new ChunkPipe(100, 10);
+        Future<?> writer = write(pipe, new byte[1000]);
+        assertEquals(0, pipe.in().read());
+        pipe.in().close();
+        try {
+            writer.get();
+            fail("Writer should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * Write bytes to the pipe on another thread, closing it when done.
+     */
+    private Future<?> write(final ChunkPipe pipe, final byte[] bytes) {
+        // The randomized context doesn't follow us to the writer thread
+        final Random random = new Random(randomLong());
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try (OutputStream out = pipe.out()) {
+                    int position = 0;
+                    while (position < bytes.length) {
+                        int length = Math.min(bytes.length - position, 1 + random.nextInt(1000));
+                        out.write(bytes, position, length);
+                        position += length;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+}
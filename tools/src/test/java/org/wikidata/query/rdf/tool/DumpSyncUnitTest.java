@@ -0,0 +1,178 @@
+package org.wikidata.query.rdf.tool;
+
+import static com.google.common.io.Resources.getResource;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+
+import java.io.IOException;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.rdf.Munger;
+import org.wikidata.query.rdf.tool.rdf.RdfRepository;
+import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+
+/**
+ * Tests DumpSync against a fake repository.
+ */
+// Executor threads can still be on their way out after awaitTermination returns
+@ThreadLeakLingering(linger = 1000)
+@RunWith(RandomizedRunner.class)
+public class DumpSyncUnitTest extends RandomizedTest {
+    private static final WikibaseUris URIS = WikibaseUris.TEST_WIKIDATA;
+
+    /**
+     * Runs the batches.
+     */
+    private final ExecutorService executor = Executors.newFixedThreadPool(randomIntBetween(1, 4));
+    /**
+     * The repository that we sync to.
+     */
+    private final FakeRdfRepository repository = new FakeRdfRepository();
+
+    @After
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void emptyStoreGetsEveryEntity() throws ParseException {
+        sync();
+        assertThat(repository.synced.keySet(), containsInAnyOrder("Q9", "P9", "Q10", "Q11", "P12", "Q14", "Q15", "P15", "P16",
+                "Q19", "P19"));
+        assertEquals(WikibaseRepository.inputDateFormat().parse("2015-04-02T10:54:56Z"), repository.leftOffTime);
+    }
+
+    @Test
+    public void upToDateEntitiesAreSkipped() {
+        repository.revisions.put("Q9", 7177L);
+        repository.revisions.put("Q10", 7000L);
+        repository.revisions.put("P19", 9300L);
+        sync();
+        assertThat(repository.synced.keySet(), not(hasItem("Q9")));
+        assertThat(repository.synced.keySet(), hasItem("Q10"));
+        assertThat(repository.synced.keySet(), not(hasItem("P19")));
+        assertEquals(9, repository.synced.size());
+    }
+
+    @Test
+    public void syncedEntitiesAreMunged() {
+        sync();
+        boolean foundVersion = false;
+        for (Statement statement : repository.synced.get("Q10")) {
+            assertFalse(statement.getSubject().stringValue().startsWith(URIS.entityData()));
+            foundVersion |= statement.getSubject().stringValue().equals(URIS.entity() + "Q10");
+        }
+        assertTrue(foundVersion);
+    }
+
+    @Test
+    public void redirectsAreSyncedOnlyIfTheyWereEntities() {
+        repository.revisions.put("Q20", 12L);
+        sync();
+        assertThat(repository.synced.keySet(), hasItem("Q20"));
+        assertThat(repository.synced.keySet(), not(hasItem("Q21")));
+    }
+
+    @Test
+    public void leftOffTimeNeverMovesBackwards() {
+        Date later = new Date();
+        repository.leftOffTime = later;
+        sync();
+        assertEquals(later, repository.leftOffTime);
+    }
+
+    /**
+     * Sync the test dump into the repository.
+     */
+    private void sync() {
+        try {
+            new DumpSync(URIS, new Munger(URIS), getResource(DumpSyncUnitTest.class, "test.ttl").openStream(), repository,
+                    executor, randomIntBetween(1, 5), randomIntBetween(1, 4)).run();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Repository that keeps revisions in memory and records what is synced.
+     */
+    private static class FakeRdfRepository extends RdfRepository {
+        /**
+         * Revisions in the "store".
+         */
+        private final Map<String, Long> revisions = new ConcurrentHashMap<>();
+        /**
+         * Statements synced for each entity.
+         */
+        private final Map<String, Collection<Statement>> synced = new ConcurrentHashMap<>();
+        /**
+         * The left off time.
+         */
+        private volatile Date leftOffTime;
+
+        FakeRdfRepository() {
+            super(URI.create("http://localhost:1/sparql"), URIS);
+        }
+
+        @Override
+        public Map<String, Long> fetchRevisions(Collection<String> entityIds) {
+            Map<String, Long> result = new HashMap<>();
+            for (String entityId : entityIds) {
+                if (revisions.containsKey(entityId)) {
+                    result.put(entityId, revisions.get(entityId));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Set<String> getValues(String entityId) {
+            return new HashSet<>();
+        }
+
+        @Override
+        public Set<String> getRefs(String entityId) {
+            return new HashSet<>();
+        }
+
+        @Override
+        public int sync(String entityId, Collection<Statement> statements, Collection<String> valueList) {
+            assertEquals(Collections.emptyList(), valueList);
+            synced.put(entityId, statements);
+            return statements.size();
+        }
+
+        @Override
+        public Date fetchLeftOffTime() {
+            return leftOffTime;
+        }
+
+        @Override
+        public void updateLeftOffTime(Date leftOffTime) {
+            this.leftOffTime = leftOffTime;
+        }
+    }
+}
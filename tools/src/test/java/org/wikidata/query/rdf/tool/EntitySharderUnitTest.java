@@ -0,0 +1,147 @@
+package org.wikidata.query.rdf.tool;
+
+import static com.google.common.io.Resources.getResource;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Model;
+import org.openrdf.model.Resource;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.util.ModelUtil;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.Rio;
+import org.wikidata.query.rdf.common.uri.SchemaDotOrg;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.Munge.AlwaysOutputPicker;
+import org.wikidata.query.rdf.tool.Munge.OutputPicker;
+import org.wikidata.query.rdf.tool.rdf.Munger;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+
+/**
+ * Tests EntitySharder and sharding Munge's output with it.
+ */
+@RunWith(RandomizedRunner.class)
+public class EntitySharderUnitTest extends RandomizedTest {
+    private static final WikibaseUris URIS = WikibaseUris.TEST_WIKIDATA;
+
+    @Test
+    public void hash() {
+        EntitySharder sharder = EntitySharder.parse("hash:4");
+        assertEquals(4, sharder.shards());
+        int[] counts = new int[4];
+        for (int id = 1; id <= 1000; id++) {
+            int shard = sharder.shard("Q" + id);
+            assertEquals(shard, sharder.shard("Q" + id));
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertThat(count, both(greaterThan(200)).and(lessThan(300)));
+        }
+    }
+
+    @Test
+    public void range() {
+        EntitySharder sharder = EntitySharder.parse("range:100,1000");
+        assertEquals(3, sharder.shards());
+        assertEquals(0, sharder.shard("Q1"));
+        assertEquals(0, sharder.shard("P99"));
+        assertEquals(1, sharder.shard("Q100"));
+        assertEquals(1, sharder.shard("Q999"));
+        assertEquals(2, sharder.shard("Q1000"));
+        assertEquals(2, sharder.shard("Q123456789"));
+        assertEquals(0, sharder.shard("notanid"));
+        assertEquals(0, sharder.shard(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeMustAscend() {
+        EntitySharder.parse("range:1000,100");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownType() {
+        EntitySharder.parse("modulo:4");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noShards() {
+        EntitySharder.parse("hash:0");
+    }
+
+    @Test
+    public void mungeShards() throws IOException, RDFParseException {
+        EntitySharder sharder = EntitySharder.hash(randomIntBetween(2, 5));
+        File dir = newTempDir();
+        File unsharded = new File(dir, "all.ttl");
+        new Munge(URIS, new Munger(URIS), dump(), new AlwaysOutputPicker<>(CliUtils.writer(unsharded.getPath()))).run();
+
+        List<OutputPicker<Writer>> to = new ArrayList<>();
+        for (int shard = 0; shard < sharder.shards(); shard++) {
+            to.add(new AlwaysOutputPicker<>(CliUtils.writer(shardFile(dir, shard).getPath())));
+        }
+        new Munge(URIS, new Munger(URIS), dump(), to, sharder).run();
+
+        Model union = new LinkedHashModel();
+        int nonEmptyShards = 0;
+        for (int shard = 0; shard < sharder.shards(); shard++) {
+            Model model = read(shardFile(dir, shard));
+            // Munged entities have their version right on them
+            Model entities = model.filter(null, new URIImpl(SchemaDotOrg.VERSION), null);
+            if (!entities.isEmpty()) {
+                nonEmptyShards++;
+            }
+            for (Resource entity : entities.subjects()) {
+                String id = entity.stringValue();
+                assertEquals(shard, sharder.shard(id.substring(id.lastIndexOf('/') + 1)));
+            }
+            union.addAll(model);
+        }
+        assertThat(nonEmptyShards, greaterThan(1));
+        // Redirects are stamped with the time they are munged so they won't match
+        Model all = read(unsharded);
+        all.remove(null, new URIImpl(SchemaDotOrg.DATE_MODIFIED), null);
+        union.remove(null, new URIImpl(SchemaDotOrg.DATE_MODIFIED), null);
+        assertTrue(ModelUtil.equals(all, union));
+    }
+
+    /**
+     * Open the test dump.
+     */
+    private InputStream dump() throws IOException {
+        return getResource(EntitySharderUnitTest.class, "test.ttl").openStream();
+    }
+
+    /**
+     * The file for a shard.
+     */
+    private File shardFile(File dir, int shard) {
+        return new File(dir, String.format(Locale.ROOT, "shard.%s.ttl", shard));
+    }
+
+    /**
+     * Read a munged file.
+     */
+    private Model read(File file) throws IOException, RDFParseException {
+        try (Reader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+            return Rio.parse(reader, "", RDFFormat.TURTLE);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.wikidata.query.rdf.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+/**
+ * Tests MappedFileInputStream.
+ */
+@RunWith(RandomizedRunner.class)
+public class MappedFileInputStreamUnitTest extends RandomizedTest {
+    @Test
+    public void readsWholeFile() throws IOException {
+        byte[] contents = randomContents();
+        try (InputStream in = open(contents)) {
+            assertTrue(Arrays.equals(contents, ByteStreams.toByteArray(in)));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void readsSingleBytes() throws IOException {
+        byte[] contents = randomContents();
+        try (InputStream in = open(contents)) {
+            for (byte b : contents) {
+                assertEquals(b & 0xFF, in.read());
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void skips() throws IOException {
+        byte[] contents = randomContents();
+        try (InputStream in = open(contents)) {
+            int position = 0;
+            while (position < contents.length) {
+                assertEquals(contents.length - position, in.available());
+                assertEquals(contents[position] & 0xFF, in.read());
+                position++;
+                long skipped = in.skip(randomIntBetween(0, 30));
+                assertTrue(skipped <= contents.length - position);
+                position += skipped;
+            }
+            assertEquals(0, in.skip(10));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void empty() throws IOException {
+        try (InputStream in = open(new byte[0])) {
+            assertEquals(0, in.available());
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(new byte[10], 0, 10));
+        }
+    }
+
+    /**
+     * Random contents for a file.
+     */
+    private byte[] randomContents() {
+        byte[] contents = new byte[randomIntBetween(1, 1000)];
+        getRandom().nextBytes(contents);
+        return contents;
+    }
+
+    /**
+     * Write contents to a file and open it with a small, random window.
+     */
+    private InputStream open(byte[] contents) throws IOException {
+        File file = newTempFile();
+        Files.write(contents, file);
+        return new MappedFileInputStream(file.toPath(), randomIntBetween(1, 100));
+    }
+}
@@ -0,0 +1,134 @@
+package org.wikidata.query.rdf.tool;
+
+import static com.google.common.io.Resources.getResource;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Model;
+import org.openrdf.model.util.ModelUtil;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.Rio;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.Munge.ChunkedFileWriterOutputPicker;
+import org.wikidata.query.rdf.tool.rdf.Munger;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests MungeCheckpoint and resuming Munge from one.
+ */
+@RunWith(RandomizedRunner.class)
+public class MungeCheckpointUnitTest extends RandomizedTest {
+    private static final WikibaseUris URIS = WikibaseUris.TEST_WIKIDATA;
+
+    @Test
+    public void roundTrip() throws IOException {
+        Map<String, String> prefixes = new TreeMap<>();
+        prefixes.put("wd", "http://www.wikidata.org/entity/");
+        prefixes.put("schema", "http://schema.org/");
+        MungeCheckpoint checkpoint = new MungeCheckpoint("dump.ttl.gz", randomLong() & Long.MAX_VALUE, randomIntBetween(0, 100000),
+                randomIntBetween(1, 1000), "Q" + randomInt(), prefixes);
+        Path file = newTempFile().toPath();
+        checkpoint.write(file);
+        MungeCheckpoint read = MungeCheckpoint.read(file);
+        assertEquals(checkpoint.input(), read.input());
+        assertEquals(checkpoint.offset(), read.offset());
+        assertEquals(checkpoint.entities(), read.entities());
+        assertEquals(checkpoint.chunk(), read.chunk());
+        assertEquals(checkpoint.lastEntityId(), read.lastEntityId());
+        assertEquals(prefixes, read.prefixes());
+        assertEquals("@prefix schema: <http://schema.org/> .\n@prefix wd: <http://www.wikidata.org/entity/> .\n",
+                new String(read.prelude(), Charsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingProperty() throws IOException {
+        Path file = newTempFile().toPath();
+        Files.write(file, "input=dump.ttl\noffset=10\n".getBytes(Charsets.UTF_8));
+        MungeCheckpoint.read(file);
+    }
+
+    @Test
+    public void seek() throws IOException {
+        byte[] bytes = new byte[randomIntBetween(10, 1000)];
+        getRandom().nextBytes(bytes);
+        int offset = randomIntBetween(0, bytes.length);
+        InputStream in = new ByteArrayInputStream(bytes);
+        checkpointAt(offset).seek(in);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, offset, bytes.length), ByteStreams.toByteArray(in)));
+    }
+
+    @Test(expected = IOException.class)
+    public void seekPastEnd() throws IOException {
+        checkpointAt(11).seek(new ByteArrayInputStream(new byte[10]));
+    }
+
+    @Test
+    public void resumeMatchesUninterrupted() throws IOException, RDFParseException, RDFHandlerException {
+        int chunkSize = randomIntBetween(1, 10);
+        File uninterrupted = newTempDir();
+        Path checkpointFile = uninterrupted.toPath().resolve("checkpoint");
+        munge(uninterrupted, chunkSize, checkpointFile, null);
+        MungeCheckpoint checkpoint = MungeCheckpoint.read(checkpointFile);
+        assertThat(checkpoint.chunk(), greaterThan(1));
+        assertEquals((checkpoint.chunk() - 1) * chunkSize, checkpoint.entities());
+
+        File resumed = newTempDir();
+        munge(resumed, chunkSize, resumed.toPath().resolve("checkpoint"), checkpoint);
+        assertFalse(chunk(resumed, checkpoint.chunk() - 1).exists());
+        for (int c = checkpoint.chunk(); chunk(uninterrupted, c).exists(); c++) {
+            assertTrue("Chunk " + c + " differs", ModelUtil.equals(read(chunk(uninterrupted, c)), read(chunk(resumed, c))));
+        }
+    }
+
+    /**
+     * A checkpoint at an offset.
+     */
+    private MungeCheckpoint checkpointAt(long offset) {
+        return new MungeCheckpoint("dump.ttl", offset, 0, 1, "Q1", new TreeMap<String, String>());
+    }
+
+    /**
+     * Munge the test dump into chunks in a directory.
+     */
+    private void munge(File dir, int chunkSize, Path checkpointFile, MungeCheckpoint resumeFrom) throws IOException {
+        InputStream from = getResource(MungeCheckpointUnitTest.class, "test.ttl").openStream();
+        ChunkedFileWriterOutputPicker to = new ChunkedFileWriterOutputPicker(new File(dir, "chunk.%s.ttl").getPath(), chunkSize,
+                resumeFrom == null ? 1 : resumeFrom.chunk());
+        new Munge(URIS, new Munger(URIS), from, to).checkpoint(checkpointFile, "test.ttl", chunkSize, resumeFrom).run();
+    }
+
+    /**
+     * A chunk file in a directory.
+     */
+    private File chunk(File dir, int chunk) {
+        return new File(dir, String.format(Locale.ROOT, "chunk.%s.ttl", chunk));
+    }
+
+    /**
+     * Read a chunk file.
+     */
+    private Model read(File chunk) throws IOException, RDFParseException {
+        try (Reader reader = Files.newBufferedReader(chunk.toPath(), Charsets.UTF_8)) {
+            return Rio.parse(reader, "", RDFFormat.TURTLE);
+        }
+    }
+}
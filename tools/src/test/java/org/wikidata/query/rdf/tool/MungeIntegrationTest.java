@@ -7,7 +7,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
-import java.io.Reader;
 import java.io.Writer;
 import java.text.ParseException;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -47,7 +46,7 @@ public class MungeIntegrationTest extends AbstractRdfRepositoryIntegrationTestBa
     @Test
     @SuppressWarnings("checkstyle:illegalcatch")
     public void loadTest() throws IOException, InterruptedException, ExecutionException, ParseException {
-        Reader from = utf8(getResource(MungeIntegrationTest.class, "test.ttl").openStream());
+        InputStream from = getResource(MungeIntegrationTest.class, "test.ttl").openStream();
         PipedInputStream toHttp = new PipedInputStream();
         Writer writer = utf8(new PipedOutputStream(toHttp));
         OutputPicker<Writer> to = new AlwaysOutputPicker<>(writer);
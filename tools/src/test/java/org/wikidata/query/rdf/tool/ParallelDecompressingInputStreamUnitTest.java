@@ -0,0 +1,172 @@
+package org.wikidata.query.rdf.tool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wikidata.query.rdf.tool.ParallelDecompressingInputStream.Format;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests ParallelDecompressingInputStream.
+ */
+@RunWith(RandomizedRunner.class)
+public class ParallelDecompressingInputStreamUnitTest extends RandomizedTest {
+    @Test
+    public void multiMemberGzip() throws IOException {
+        check(Format.GZIP, randomIntBetween(2, 30));
+    }
+
+    @Test
+    public void multiMemberBzip2() throws IOException {
+        check(Format.BZIP2, randomIntBetween(2, 30));
+    }
+
+    @Test
+    public void singleMemberGzipStreams() throws IOException {
+        check(Format.GZIP, 1);
+    }
+
+    @Test
+    public void singleMemberBzip2Streams() throws IOException {
+        check(Format.BZIP2, 1);
+    }
+
+    @Test
+    public void empty() throws IOException {
+        try (InputStream in = new ParallelDecompressingInputStream(new ByteArrayInputStream(new byte[0]), Format.GZIP, 2)) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void falseMemberBoundary() throws IOException {
+        // Stored gzip members contain their contents verbatim so we can plant
+        // a gzip header in them.
+        byte[] fakeHeader = {0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 3};
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (int m = 0; m < 5; m++) {
+            byte[] member = randomBytes(randomIntBetween(3000, 10000));
+            System.arraycopy(fakeHeader, 0, member, randomIntBetween(0, member.length - fakeHeader.length), fakeHeader.length);
+            expected.write(member);
+            try (OutputStream out = new StoredGZIPOutputStream(compressed)) {
+                out.write(member);
+            }
+        }
+        // Chunks must be allowed to hold a whole member. Otherwise the last
+        // member is streamed and we can't recover from the false boundary.
+        byte[] bytes = compressed.toByteArray();
+        assertDecompressesTo(expected.toByteArray(), bytes, Format.GZIP, 20000, bytes.length * 2);
+    }
+
+    @Test
+    public void skips() throws IOException {
+        byte[] expected = randomText(randomIntBetween(50000, 300000));
+        byte[] compressed = compress(Format.GZIP, expected, randomIntBetween(1, 10));
+        try (InputStream in = new ParallelDecompressingInputStream(new ByteArrayInputStream(compressed), Format.GZIP,
+                randomIntBetween(1, 4), 100, 1000)) {
+            int position = 0;
+            while (position < expected.length) {
+                assertEquals(expected[position] & 0xFF, in.read());
+                position++;
+                long skipped = in.skip(randomIntBetween(0, 10000));
+                assertTrue(skipped <= expected.length - position);
+                position += skipped;
+            }
+            assertEquals(0, in.skip(10));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corrupt() throws IOException {
+        byte[] compressed = compress(Format.BZIP2, randomBytes(100000), 3);
+        compressed[compressed.length / 2] ^= 0xFF;
+        try (InputStream in = new ParallelDecompressingInputStream(new ByteArrayInputStream(compressed), Format.BZIP2, 2, 100,
+                100000)) {
+            ByteStreams.toByteArray(in);
+        }
+    }
+
+    /**
+     * Compress some random text into some members, then decompress it.
+     */
+    private void check(Format format, int members) throws IOException {
+        byte[] expected = randomText(randomIntBetween(50000, 300000));
+        byte[] compressed = compress(format, expected, members);
+        assertDecompressesTo(expected, compressed, format, 100, 1000, compressed.length * 2);
+    }
+
+    /**
+     * Decompress with some maximum chunk sizes and random thread counts.
+     */
+    private void assertDecompressesTo(byte[] expected, byte[] compressed, Format format, int... maxChunks) throws IOException {
+        for (int maxChunk : maxChunks) {
+            int threads = randomIntBetween(1, 4);
+            try (InputStream in = new ParallelDecompressingInputStream(new ByteArrayInputStream(compressed), format, threads,
+                    Math.min(100, maxChunk), maxChunk)) {
+                assertTrue("Failed with max chunk size " + maxChunk, Arrays.equals(expected, ByteStreams.toByteArray(in)));
+            }
+        }
+    }
+
+    /**
+     * Compress bytes into some concatenated members.
+     */
+    private byte[] compress(Format format, byte[] bytes, int members) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int start = 0;
+        for (int m = 0; m < members; m++) {
+            int end = m == members - 1 ? bytes.length : start + bytes.length / members;
+            try (OutputStream out = format == Format.GZIP ? new GZIPOutputStream(compressed)
+                    : new BZip2CompressorOutputStream(compressed)) {
+                out.write(bytes, start, end - start);
+            }
+            start = end;
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Random text, compressible like a dump.
+     */
+    private byte[] randomText(int length) {
+        StringBuilder b = new StringBuilder(length);
+        while (b.length() < length) {
+            b.append(randomFrom(new String[] {"wd:Q", "wdt:P", " ;\n", " .\n", "\"label\"@en"})).append(randomInt(1000));
+        }
+        return b.toString().getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Random bytes.
+     */
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        getRandom().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * GZIPOutputStream that stores rather than compresses.
+     */
+    private static class StoredGZIPOutputStream extends GZIPOutputStream {
+        StoredGZIPOutputStream(OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.NO_COMPRESSION);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.wikidata.query.rdf.tool;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wikidata.query.rdf.tool.change.Change;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import com.google.common.base.Function;
+
+/**
+ * Tests SizeAwareScheduler.
+ */
+// Executor threads can still be on their way out after awaitTermination returns
+@ThreadLeakLingering(linger = 1000)
+@RunWith(RandomizedRunner.class)
+public class SizeAwareSchedulerUnitTest extends RandomizedTest {
+    /**
+     * Runs the syncs.
+     */
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    /**
+     * Scheduler under test. Entities with 100 or more statements are large
+     * and are synced on one thread.
+     */
+    private final SizeAwareScheduler scheduler = new SizeAwareScheduler(executor, 1, 100);
+
+    @After
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void entitiesAreLargeIfTheyWereLargeWhenSynced() {
+        assertFalse(scheduler.large("Q1"));
+        scheduler.synced("Q1", 100);
+        assertTrue(scheduler.large("Q1"));
+        scheduler.synced("Q1", 99);
+        assertFalse(scheduler.large("Q1"));
+    }
+
+    @Test
+    public void largeEntitiesAreSyncedInTheirLanes() throws InterruptedException, ExecutionException {
+        List<Change> changes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String entityId = "Q" + i;
+            scheduler.synced(entityId, i % 2 == 0 ? 1000 : 10);
+            changes.add(new Change(entityId, 1, new Date(), i));
+        }
+        final AtomicInteger largeRunning = new AtomicInteger();
+        final AtomicInteger mostLargeRunning = new AtomicInteger();
+        final List<String> synced = Collections.synchronizedList(new ArrayList<String>());
+        List<Future<?>> tasks = scheduler.submit(changes, new Function<Change, Runnable>() {
+            @Override
+            public Runnable apply(final Change change) {
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean large = scheduler.large(change.entityId());
+                        if (large) {
+                            int running = largeRunning.incrementAndGet();
+                            mostLargeRunning.set(Math.max(mostLargeRunning.get(), running));
+                        }
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        synced.add(change.entityId());
+                        if (large) {
+                            largeRunning.decrementAndGet();
+                        }
+                    }
+                };
+            }
+        });
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        List<String> expected = new ArrayList<>();
+        for (Change change : changes) {
+            expected.add(change.entityId());
+        }
+        assertThat(synced, containsInAnyOrder(expected.toArray()));
+        assertEquals(1, mostLargeRunning.get());
+        // One lane for the ten large entities and a task for each of the ten small ones
+        assertEquals(11, tasks.size());
+    }
+}
@@ -0,0 +1,409 @@
+package org.wikidata.query.rdf.tool;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.change.Change;
+import org.wikidata.query.rdf.tool.change.IdListChangeSource;
+import org.wikidata.query.rdf.tool.exception.FatalException;
+import org.wikidata.query.rdf.tool.exception.RetryableException;
+import org.wikidata.query.rdf.tool.rdf.Munger;
+import org.wikidata.query.rdf.tool.rdf.RdfRepository;
+import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests Update against a fake Wikibase and RDF store.
+ */
+// Executor threads can still be on their way out after awaitTermination returns
+@ThreadLeakLingering(linger = 1000)
+@RunWith(RandomizedRunner.class)
+public class UpdateUnitTest extends RandomizedTest {
+    private static final WikibaseUris URIS = WikibaseUris.TEST_WIKIDATA;
+
+    /**
+     * Syncs the changes.
+     */
+    private final ExecutorService executor = Executors.newFixedThreadPool(1);
+    /**
+     * Wikibase whose entities fail a preprogrammed number of times.
+     */
+    private final FlakyWikibaseRepository wikibase = new FlakyWikibaseRepository();
+    /**
+     * RDF store that records the entities synced.
+     */
+    private final RecordingRdfRepository rdfRepository = new RecordingRdfRepository();
+    /**
+     * Registry the updater reports to.
+     */
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    /**
+     * Executors that sync the replicas.
+     */
+    private final List<ExecutorService> replicaExecutors = new ArrayList<>();
+
+    @After
+    public void shutdownExecutor() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        for (ExecutorService replicaExecutor : replicaExecutors) {
+            replicaExecutor.shutdownNow();
+            replicaExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void retriesThenDeadLetters() throws IOException {
+        wikibase.failures.put("Q1", Integer.MAX_VALUE);
+        wikibase.failures.put("Q2", 2);
+        Path deadLetterFile = new File(newTempDir(), "deadLetters").toPath();
+        DeadLetters deadLetters = new DeadLetters(deadLetterFile).register(metrics);
+        update("Q1", "Q2", "Q3").retries(3, 1, deadLetters).run();
+
+        assertThat(rdfRepository.synced, containsInAnyOrder("Q2", "Q3"));
+        assertEquals(4, wikibase.fetches("Q1"));
+        assertEquals(3, wikibase.fetches("Q2"));
+        assertEquals(Arrays.asList("Q1"), Files.readAllLines(deadLetterFile, UTF_8));
+        assertEquals(1, metrics.counter("dead-letters").getCount());
+    }
+
+    @Test
+    public void retriesWaitOffTheWorkers() {
+        wikibase.failures.put("Q1", 1);
+        // The only worker would sync Q2 and Q3 while Q1 waits out its backoff
+        update("Q1", "Q2", "Q3").retries(3, 200, new DeadLetters(null)).run();
+        assertEquals(Arrays.asList("Q2", "Q3", "Q1"), rdfRepository.synced);
+    }
+
+    @Test
+    public void retriesOnlyHoldUpTheLeftOffTime() {
+        wikibase.failures.put("Q1", 1);
+        // The next batch is polled and synced while Q1 waits out its backoff
+        update(replicas(rdfRepository), Arrays.asList(new Change("Q1", 5, new Date(10000), 1)),
+                Arrays.asList(new Change("Q2", 7, new Date(20000), 2))).retries(3, 500, new DeadLetters(null)).run();
+
+        assertEquals(Arrays.asList("Q2", "Q1"), rdfRepository.synced);
+        assertEquals(Arrays.asList(new Date(9000), new Date(19000)), rdfRepository.leftOffTimes);
+    }
+
+    @Test
+    public void fetchesOnceAndSyncsEveryReplica() {
+        RecordingRdfRepository other = new RecordingRdfRepository();
+        String[] ids = {"Q1", "Q2", "Q3"};
+        new Update<>(IdListChangeSource.forItems(ids, ids.length), wikibase, replicas(rdfRepository, other), new Munger(URIS),
+                executor, 0, metrics).run();
+
+        assertThat(rdfRepository.synced, containsInAnyOrder(ids));
+        assertThat(other.synced, containsInAnyOrder(ids));
+        for (String id : ids) {
+            assertEquals(1, wikibase.fetches(id));
+        }
+    }
+
+    @Test
+    public void eachReplicaCleansUpItsOwnValues() {
+        RecordingRdfRepository other = new RecordingRdfRepository();
+        other.values.add("http://example.com/v1");
+        String[] ids = {"Q1"};
+        new Update<>(IdListChangeSource.forItems(ids, ids.length), wikibase, replicas(rdfRepository, other), new Munger(URIS),
+                executor, 0, metrics).run();
+
+        assertEquals(Collections.emptyList(), rdfRepository.cleanups.get("Q1"));
+        assertEquals(Arrays.asList("http://example.com/v1"), other.cleanups.get("Q1"));
+    }
+
+    @Test
+    public void replicasOnlySyncWhatTheyAreMissing() {
+        RecordingRdfRepository other = new RecordingRdfRepository();
+        other.revisions.put("Q1", 5L);
+        update(replicas(rdfRepository, other), Arrays.asList(new Change("Q1", 5, new Date(10000), 1),
+                new Change("Q2", 7, new Date(20000), 2))).run();
+
+        assertThat(rdfRepository.synced, containsInAnyOrder("Q1", "Q2"));
+        assertEquals(Arrays.asList("Q2"), other.synced);
+        assertEquals(1, wikibase.fetches("Q1"));
+        assertEquals(Arrays.asList(new Date(19000)), rdfRepository.leftOffTimes);
+        assertEquals(Arrays.asList(new Date(19000)), other.leftOffTimes);
+    }
+
+    @Test
+    public void failedReplicaDoesNotHoldUpTheOthers() {
+        RecordingRdfRepository broken = new RecordingRdfRepository();
+        broken.broken = true;
+        update(replicas(rdfRepository, broken), Arrays.asList(new Change("Q1", 5, new Date(10000), 1)),
+                Arrays.asList(new Change("Q2", 7, new Date(20000), 2))).run();
+
+        assertThat(rdfRepository.synced, containsInAnyOrder("Q1", "Q2"));
+        assertEquals(Arrays.asList(new Date(9000), new Date(19000)), rdfRepository.leftOffTimes);
+        assertEquals(Collections.emptyList(), broken.leftOffTimes);
+    }
+
+    @Test
+    public void checkpointsOnceEveryReplicaHasFinished() throws InterruptedException {
+        RecordingRdfRepository slow = new RecordingRdfRepository();
+        slow.gate = new CountDownLatch(1);
+        ListChangeSource source = new ListChangeSource(Arrays.asList(Arrays.asList(new Change("Q1", 5, new Date(10000), 1)),
+                Arrays.asList(new Change("Q2", 7, new Date(20000), 2))));
+        Thread updater = new Thread(new Update<ListChangeSource.Batch>(source, wikibase, replicas(rdfRepository, slow),
+                new Munger(URIS), executor, 0, metrics));
+        updater.start();
+        try {
+            // The other replica finishes both batches but the slow one holds up checkpointing
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (rdfRepository.leftOffTimes.size() < 2) {
+                assertTrue("Timed out waiting for the other replica", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            assertEquals(Collections.emptyList(), source.checkpoints);
+        } finally {
+            slow.gate.countDown();
+            updater.join();
+        }
+        assertEquals(Arrays.asList(0, 1), source.checkpoints);
+    }
+
+    /**
+     * Build replicas of some RDF stores, each syncing on its own executor.
+     */
+    private List<Replica> replicas(RdfRepository... rdfRepositories) {
+        List<ExecutorService> syncExecutors = new ArrayList<>();
+        for (int r = 0; r < rdfRepositories.length; r++) {
+            ExecutorService replicaExecutor = Executors.newFixedThreadPool(2);
+            replicaExecutors.add(replicaExecutor);
+            syncExecutors.add(replicaExecutor);
+        }
+        return Replica.replicas(Arrays.asList(rdfRepositories), syncExecutors, 2, metrics);
+    }
+
+    /**
+     * Build an updater for batches of changes that syncs to replicas.
+     */
+    private Update<ListChangeSource.Batch> update(List<Replica> replicas, List<Change> first, List<Change>... rest) {
+        List<List<Change>> batches = new ArrayList<>();
+        batches.add(first);
+        batches.addAll(Arrays.asList(rest));
+        return new Update<>(new ListChangeSource(batches), wikibase, replicas, new Munger(URIS), executor, 0, metrics);
+    }
+
+    /**
+     * Build an updater for some ids.
+     */
+    private Update<IdListChangeSource.Batch> update(String... ids) {
+        return new Update<>(IdListChangeSource.forItems(ids, ids.length), wikibase, rdfRepository, new Munger(URIS), executor, 0,
+                metrics);
+    }
+
+    /**
+     * Wikibase that fails to fetch entities a preprogrammed number of times
+     * and then returns them without any statements.
+     */
+    private static class FlakyWikibaseRepository extends WikibaseRepository {
+        /**
+         * Number of times fetching each entity fails.
+         */
+        private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+        /**
+         * Number of times each entity was fetched.
+         */
+        private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+
+        FlakyWikibaseRepository() {
+            super("http", "localhost", 1);
+        }
+
+        @Override
+        public Collection<Statement> fetchRdfForEntity(String entityId) throws RetryableException {
+            fetches.putIfAbsent(entityId, new AtomicInteger());
+            int fetch = fetches.get(entityId).incrementAndGet();
+            Integer failing = failures.get(entityId);
+            if (failing != null && fetch <= failing) {
+                throw new RetryableException("Failing " + entityId + " on purpose");
+            }
+            return Collections.emptyList();
+        }
+
+        /**
+         * Number of times an entity was fetched.
+         */
+        int fetches(String entityId) {
+            return fetches.get(entityId).get();
+        }
+    }
+
+    /**
+     * Source of preprogrammed batches of changes that leave off at their
+     * latest change and record the batches that are checkpointed.
+     */
+    private static class ListChangeSource implements Change.Source<ListChangeSource.Batch>,
+            Change.Checkpointing<ListChangeSource.Batch> {
+        /**
+         * The batches.
+         */
+        private final List<List<Change>> batches;
+        /**
+         * Index of each batch checkpointed in the order they were.
+         */
+        private final List<Integer> checkpoints = new CopyOnWriteArrayList<>();
+
+        ListChangeSource(List<List<Change>> batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        public Batch firstBatch() {
+            return new Batch(0);
+        }
+
+        @Override
+        public Batch nextBatch(Batch lastBatch) {
+            return new Batch(lastBatch.index + 1);
+        }
+
+        @Override
+        public void synced(Batch batch) {
+            checkpoints.add(batch.index);
+        }
+
+        /**
+         * One of the batches.
+         */
+        private final class Batch extends Change.Batch.AbstractDefaultImplementation {
+            /**
+             * Index of the batch.
+             */
+            private final int index;
+
+            Batch(int index) {
+                super(ImmutableList.copyOf(batches.get(index)), 1, index);
+                this.index = index;
+            }
+
+            @Override
+            public String advancedUnits() {
+                return "batches";
+            }
+
+            @Override
+            public Date leftOffDate() {
+                Date leftOff = null;
+                for (Change change : changes()) {
+                    if (leftOff == null || change.timestamp().after(leftOff)) {
+                        leftOff = change.timestamp();
+                    }
+                }
+                return leftOff;
+            }
+
+            @Override
+            public boolean last() {
+                return index == batches.size() - 1;
+            }
+        }
+    }
+
+    /**
+     * RDF store that records the entities synced.
+     */
+    private static class RecordingRdfRepository extends RdfRepository {
+        /**
+         * Entities synced in the order they were synced.
+         */
+        private final List<String> synced = new CopyOnWriteArrayList<>();
+        /**
+         * Left off times in the order they were set.
+         */
+        private final List<Date> leftOffTimes = new CopyOnWriteArrayList<>();
+        /**
+         * Values the store already has.
+         */
+        private final Set<String> values = new HashSet<>();
+        /**
+         * Values and references each entity's sync was asked to clean up.
+         */
+        private final Map<String, List<String>> cleanups = new ConcurrentHashMap<>();
+        /**
+         * Revisions the store already has.
+         */
+        private final Map<String, Long> revisions = new ConcurrentHashMap<>();
+        /**
+         * Does every sync fail fatally?
+         */
+        private volatile boolean broken;
+        /**
+         * Syncs wait for this to open if it isn't null.
+         */
+        private volatile CountDownLatch gate;
+
+        RecordingRdfRepository() {
+            super(URI.create("http://localhost:1/sparql"), URIS);
+        }
+
+        @Override
+        public Set<String> getValues(String entityId) {
+            return new HashSet<>(values);
+        }
+
+        @Override
+        public Set<String> getRefs(String entityId) {
+            return new HashSet<>();
+        }
+
+        @Override
+        public int sync(String entityId, Collection<Statement> statements, Collection<String> valueList) {
+            if (broken) {
+                throw new FatalException("Failing " + entityId + " on purpose");
+            }
+            if (gate != null) {
+                Uninterruptibles.awaitUninterruptibly(gate);
+            }
+            synced.add(entityId);
+            cleanups.put(entityId, new ArrayList<>(valueList));
+            return statements.size();
+        }
+
+        @Override
+        public boolean hasRevision(String entityId, long revision) {
+            Long stored = revisions.get(entityId);
+            return stored != null && stored >= revision;
+        }
+
+        @Override
+        public void updateLeftOffTime(Date leftOffTime) {
+            leftOffTimes.add(leftOffTime);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.wikidata.query.rdf.tool.change;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests AdaptiveBatchSize.
+ */
+public class AdaptiveBatchSizeUnitTest {
+    /**
+     * The current time as far as the tests are concerned.
+     */
+    private final Date now = new Date();
+    /**
+     * Registry that the batch size reports to.
+     */
+    private final MetricRegistry metrics = new MetricRegistry();
+    /**
+     * The batch size under test.
+     */
+    private final AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 100, 60000, 10000).register(metrics);
+
+    @Test
+    public void startsAtMin() {
+        assertEquals(10, batchSize.batchSize());
+    }
+
+    @Test
+    public void growsWhileLagging() {
+        pollLagging(120000);
+        assertEquals(20, batchSize.batchSize());
+        pollLagging(120000);
+        assertEquals(40, batchSize.batchSize());
+        assertEquals(2, metrics.counter("batch-size-grown").getCount());
+        assertEquals(120000L, metrics.getGauges().get("lag-millis").getValue());
+    }
+
+    @Test
+    public void growsNoBiggerThanMax() {
+        for (int i = 0; i < 10; i++) {
+            pollLagging(120000);
+        }
+        assertEquals(100, batchSize.batchSize());
+        assertEquals(100, metrics.getGauges().get("batch-size").getValue());
+        assertEquals(4, metrics.counter("batch-size-grown").getCount());
+    }
+
+    @Test
+    public void shrinksOnceCaughtUp() {
+        for (int i = 0; i < 10; i++) {
+            pollLagging(120000);
+        }
+        pollLagging(1000);
+        assertEquals(50, batchSize.batchSize());
+        for (int i = 0; i < 10; i++) {
+            pollLagging(1000);
+        }
+        assertEquals(10, batchSize.batchSize());
+        assertEquals(4, metrics.counter("batch-size-shrunk").getCount());
+    }
+
+    @Test
+    public void holdsBetweenThresholds() {
+        pollLagging(120000);
+        pollLagging(30000);
+        pollLagging(30000);
+        assertEquals(20, batchSize.batchSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxMustBeAtLeastMin() {
+        new AdaptiveBatchSize(10, 5);
+    }
+
+    /**
+     * Tell the batch size that we've polled up to lagMillis ago.
+     */
+    private void pollLagging(long lagMillis) {
+        batchSize.polledUpTo(new Date(now.getTime() - lagMillis), now);
+    }
+}
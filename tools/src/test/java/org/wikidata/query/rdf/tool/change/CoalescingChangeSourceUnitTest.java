@@ -0,0 +1,166 @@
+package org.wikidata.query.rdf.tool.change;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasToString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.wikidata.query.rdf.tool.exception.RetryableException;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+public class CoalescingChangeSourceUnitTest {
+    /**
+     * The batches that the wrapped source returns in order.
+     */
+    private final List<FakeBatch> batches = new ArrayList<>();
+    /**
+     * Current time in milliseconds as far as the source is concerned.
+     */
+    private long now;
+    /**
+     * Registry that the source reports to.
+     */
+    private final MetricRegistry metrics = new MetricRegistry();
+    /**
+     * Reads now.
+     */
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(now);
+        }
+    };
+    /**
+     * The source under test, holding changes for 10 seconds.
+     */
+    private final CoalescingChangeSource<FakeBatch> source = new CoalescingChangeSource<>(new FakeSource(), 10000, ticker)
+            .register(metrics);
+
+    @Test
+    public void keepsTheLatestRevisionOfEachEntity() throws RetryableException {
+        batch(5, change("Q1", 1, 1), change("Q2", 2, 2), change("Q1", 3, 3));
+        batch(6, change("Q1", 4, 6));
+        batch(20);
+        CoalescingChangeSource.Batch<FakeBatch> batch = source.firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q1@4@" + new Date(6000)), hasToString("Q2@2@" + new Date(2000))));
+        assertEquals(new Date(20000), batch.leftOffDate());
+        assertEquals(2, metrics.counter("changes-coalesced").getCount());
+    }
+
+    @Test
+    public void leftOffDateDoesNotPassHeldChanges() throws RetryableException {
+        batch(5, change("Q1", 1, 1));
+        batch(14, change("Q2", 2, 8), change("Q1", 3, 12));
+        batch(14);
+        batch(20);
+        // Q1 was first seen 13 seconds before 14 so it is released, Q2 only 6 seconds before so it is held
+        CoalescingChangeSource.Batch<FakeBatch> batch = source.firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q1@3@" + new Date(12000))));
+        assertEquals(new Date(8000), batch.leftOffDate());
+
+        batch = source.nextBatch(batch);
+        assertThat(batch.changes(), empty());
+        assertEquals(new Date(8000), batch.leftOffDate());
+
+        batch = source.nextBatch(batch);
+        assertThat(batch.changes(), contains(hasToString("Q2@2@" + new Date(8000))));
+        assertEquals(new Date(20000), batch.leftOffDate());
+    }
+
+    @Test
+    public void releasesChangesHeldForTheWindow() throws RetryableException {
+        batch(5, change("Q1", 1, 5));
+        batch(5);
+        batch(5);
+        CoalescingChangeSource.Batch<FakeBatch> batch = source.firstBatch();
+        assertThat(batch.changes(), empty());
+        now += 10000;
+        batch = source.nextBatch(batch);
+        assertThat(batch.changes(), contains(hasToString("Q1@1@" + new Date(5000))));
+        assertEquals(new Date(5000), batch.leftOffDate());
+    }
+
+    @Test
+    public void releasesEverythingOnTheLastBatch() throws RetryableException {
+        batch(5, change("Q1", 1, 5));
+        batches.add(new FakeBatch(ImmutableList.of(change("Q2", 2, 5)), new Date(5000), true));
+        CoalescingChangeSource.Batch<FakeBatch> batch = source.firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q1@1@" + new Date(5000)), hasToString("Q2@2@" + new Date(5000))));
+        assertEquals(true, batch.last());
+    }
+
+    /**
+     * Add a batch to be returned by the wrapped source.
+     */
+    private void batch(long leftOffSeconds, Change... changes) {
+        batches.add(new FakeBatch(ImmutableList.copyOf(Arrays.asList(changes)), new Date(leftOffSeconds * 1000), false));
+    }
+
+    /**
+     * Build a change.
+     */
+    private Change change(String entityId, long revision, long timestampSeconds) {
+        return new Change(entityId, revision, new Date(timestampSeconds * 1000), revision);
+    }
+
+    /**
+     * Source that returns the preprogrammed batches in order.
+     */
+    private class FakeSource implements Change.Source<FakeBatch> {
+        @Override
+        public FakeBatch firstBatch() {
+            return batches.get(0);
+        }
+
+        @Override
+        public FakeBatch nextBatch(FakeBatch lastBatch) {
+            return batches.get(batches.indexOf(lastBatch) + 1);
+        }
+    }
+
+    /**
+     * Batch returned by the fake source.
+     */
+    private static class FakeBatch extends Change.Batch.AbstractDefaultImplementation {
+        /**
+         * Where the batch left off.
+         */
+        private final Date leftOffDate;
+        /**
+         * Is this the last batch?
+         */
+        private final boolean last;
+
+        FakeBatch(ImmutableList<Change> changes, Date leftOffDate, boolean last) {
+            super(changes, changes.size(), leftOffDate);
+            this.leftOffDate = leftOffDate;
+            this.last = last;
+        }
+
+        @Override
+        public String advancedUnits() {
+            return "changes";
+        }
+
+        @Override
+        public Date leftOffDate() {
+            return leftOffDate;
+        }
+
+        @Override
+        public boolean last() {
+            return last;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.wikidata.query.rdf.tool.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasToString;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wikidata.query.rdf.tool.exception.RetryableException;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Tests EventStreamChangeSource by tailing a file and by reading from a stub
+ * server-sent event stream.
+ */
+@RunWith(RandomizedRunner.class)
+// NanoHTTPD's request threads can still be on their way out after we stop it
+@ThreadLeakLingering(linger = 1000)
+public class EventStreamChangeSourceUnitTest extends RandomizedTest {
+    /**
+     * The stream of events.
+     */
+    private Path stream;
+    /**
+     * Where the offset is saved.
+     */
+    private Path offsetFile;
+
+    @Before
+    public void setupFiles() {
+        File dir = newTempDir();
+        stream = new File(dir, "events").toPath();
+        offsetFile = new File(dir, "offset").toPath();
+    }
+
+    @Test
+    public void readsChanges() throws IOException, RetryableException {
+        append(edit("Q1", 10, 1434500000), edit("Q2", 20, 1434500001));
+        EventStreamChangeSource.Batch batch = source(10).firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q1@10@" + new Date(1434500000000L)),
+                hasToString("Q2@20@" + new Date(1434500001000L))));
+        assertEquals(new Date(1434500001000L), batch.leftOffDate());
+        assertEquals("2", batch.position());
+        assertEquals(2, batch.advanced());
+    }
+
+    @Test
+    public void skipsIrrelevantEvents() throws IOException, RetryableException {
+        append(edit("Q1", 10, 1), "event: message", "id: [{\"offset\": 1}]", "",
+                "{\"type\": \"edit\", \"namespace\": 1, \"title\": \"Talk:Q1\", \"revision\": {\"new\": 2}}",
+                "{\"type\": \"log\", \"namespace\": 0, \"title\": \"Q2\"}",
+                "{\"type\": \"edit\", \"namespace\": 0, \"title\": \"Q3\", \"revision\": {\"new\": 3}, \"server_name\": \"other\"}",
+                "not json", "data: " + edit("Property:P4", 40, 2));
+        EventStreamChangeSource.Batch batch = source(10).firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q1@10@" + new Date(1000)), hasToString("P4@40@" + new Date(2000))));
+        assertEquals("5", batch.position());
+    }
+
+    @Test
+    public void keepsTheLatestRevisionOfEachEntity() throws IOException, RetryableException {
+        append(edit("Q1", 10, 1), edit("Q2", 20, 2), edit("Q1", 12, 3), edit("Q1", 11, 4));
+        EventStreamChangeSource.Batch batch = source(10).firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q2@20@" + new Date(2000)), hasToString("Q1@12@" + new Date(3000))));
+    }
+
+    @Test
+    public void resumesFromTheSavedOffset() throws IOException, RetryableException {
+        append(edit("Q1", 1, 1), edit("Q2", 2, 2), edit("Q3", 3, 3));
+        EventStreamChangeSource source = source(2);
+        EventStreamChangeSource.Batch first = source.firstBatch();
+        assertThat(first.changes(), contains(hasToString("Q1@1@" + new Date(1000)), hasToString("Q2@2@" + new Date(2000))));
+        EventStreamChangeSource.Batch batch = source.nextBatch(first);
+        assertThat(batch.changes(), contains(hasToString("Q3@3@" + new Date(3000))));
+
+        // Only batches that have been synced are saved
+        source.synced(first);
+        batch = source(2).firstBatch();
+        assertThat(batch.changes(), contains(hasToString("Q3@3@" + new Date(3000))));
+        assertEquals("3", batch.position());
+    }
+
+    @Test
+    public void waitsForEventsToBeAppended() throws IOException, RetryableException, InterruptedException {
+        append(edit("Q1", 1, 1));
+        EventStreamChangeSource source = source(10);
+        EventStreamChangeSource.Batch batch = source.firstBatch();
+        final String next = edit("Q2", 2, 2);
+        Files.write(stream, next.substring(0, 10).getBytes(UTF_8), StandardOpenOption.APPEND);
+        Thread appender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    append(next.substring(10));
+                } catch (InterruptedException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        appender.start();
+        try {
+            batch = source.nextBatch(batch);
+        } finally {
+            appender.join();
+        }
+        assertThat(batch.changes(), contains(hasToString("Q2@2@" + new Date(2000))));
+        assertEquals("2", batch.position());
+    }
+
+    @Test
+    public void reconnectsAfterTheLastEventId() throws IOException, RetryableException {
+        EventStreamStub server = new EventStreamStub();
+        server.start();
+        try {
+            server.event("[{\"offset\": 1}]", edit("Q1", 1, 1)).event("[{\"offset\": 2}]", edit("Q2", 2, 2));
+            EventStreamChangeSource source = source(server, 10);
+            EventStreamChangeSource.Batch first = source.firstBatch();
+            assertThat(first.changes(), contains(hasToString("Q1@1@" + new Date(1000)), hasToString("Q2@2@" + new Date(2000))));
+            assertEquals("[{\"offset\": 2}]", first.position());
+
+            // The stub ends the stream after the events it has so this has to reconnect
+            server.event("[{\"offset\": 3}]", edit("Q3", 3, 3));
+            EventStreamChangeSource.Batch batch = nextBatch(source, first);
+            assertThat(batch.changes(), contains(hasToString("Q3@3@" + new Date(3000))));
+            assertEquals("[{\"offset\": 3}]", batch.position());
+            assertThat(server.lastEventIds(), contains("[{\"offset\": 2}]"));
+
+            // Resuming picks up after the last synced batch
+            source.synced(first);
+            batch = source(server, 10).firstBatch();
+            assertThat(batch.changes(), contains(hasToString("Q3@3@" + new Date(3000))));
+            assertThat(server.lastEventIds(), contains("[{\"offset\": 2}]", "[{\"offset\": 2}]"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Get the next batch, retrying once if the stream has to be reconnected.
+     */
+    private EventStreamChangeSource.Batch nextBatch(EventStreamChangeSource source, EventStreamChangeSource.Batch batch)
+            throws RetryableException {
+        try {
+            return source.nextBatch(batch);
+        } catch (RetryableException e) {
+            return source.nextBatch(batch);
+        }
+    }
+
+    /**
+     * Build a change source that reads from a stub event stream.
+     */
+    private EventStreamChangeSource source(EventStreamStub server, int batchSize) throws MalformedURLException {
+        return new EventStreamChangeSource(new URL("http://localhost:" + server.getListeningPort() + "/stream"), offsetFile,
+                "www.wikidata.org", batchSize);
+    }
+
+    /**
+     * Build a change source that reads the stream.
+     */
+    private EventStreamChangeSource source(int batchSize) throws MalformedURLException {
+        return new EventStreamChangeSource(stream.toUri().toURL(), offsetFile, "www.wikidata.org", batchSize);
+    }
+
+    /**
+     * Append lines to the stream.
+     */
+    private void append(String... lines) throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (String line : lines) {
+            b.append(line).append('\n');
+        }
+        Files.write(stream, b.toString().getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Stub server-sent event stream. Serves the events after the one whose id
+     * is sent as Last-Event-ID and then ends the stream.
+     */
+    private static class EventStreamStub extends NanoHTTPD {
+        /**
+         * Id of each event.
+         */
+        private final List<String> ids = new CopyOnWriteArrayList<>();
+        /**
+         * Each event.
+         */
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        /**
+         * The Last-Event-IDs that the stream was opened with.
+         */
+        private final List<String> lastEventIds = new CopyOnWriteArrayList<>();
+
+        EventStreamStub() {
+            super("localhost", 0);
+        }
+
+        /**
+         * Add an event.
+         *
+         * @return this for chaining
+         */
+        EventStreamStub event(String id, String event) {
+            ids.add(id);
+            events.add(event);
+            return this;
+        }
+
+        /**
+         * The Last-Event-IDs that the stream was opened with.
+         */
+        List<String> lastEventIds() {
+            return lastEventIds;
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            String lastEventId = session.getHeaders().get("last-event-id");
+            int start = 0;
+            if (lastEventId != null) {
+                lastEventIds.add(lastEventId);
+                start = ids.indexOf(lastEventId) + 1;
+            }
+            StringBuilder b = new StringBuilder();
+            for (int i = start; i < events.size(); i++) {
+                b.append("event: message\nid: ").append(ids.get(i)).append("\ndata: ").append(events.get(i)).append("\n\n");
+            }
+            Response response = new Response(Response.Status.OK, "text/event-stream", b.toString());
+            response.addHeader("Connection", "close");
+            return response;
+        }
+    }
+
+    /**
+     * An edit event.
+     */
+    private static String edit(String title, long revision, long timestamp) {
+        return String.format(Locale.ROOT, "{\"id\": %s, \"type\": \"edit\", \"namespace\": %s, \"title\": \"%s\", \"timestamp\": %s, "
+                + "\"revision\": {\"new\": %s}, \"server_name\": \"www.wikidata.org\"}", revision, title.startsWith("Property:") ? 120
+                : 0, title, timestamp, revision);
+    }
+}
@@ -5,8 +5,22 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.wikidata.query.rdf.tool.change.IdRangeChangeSource.forItems;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.junit.Test;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.tool.EntitySharder;
 import org.wikidata.query.rdf.tool.exception.RetryableException;
+import org.wikidata.query.rdf.tool.rdf.RdfRepository;
+import org.wikidata.query.rdf.tool.wikibase.WikibaseRepository;
 
 public class IdRangeChangeSourceUnitTest {
     @Test
@@ -54,4 +68,94 @@ public class IdRangeChangeSourceUnitTest {
         }
         assertEquals(1, batch.advanced());
     }
+
+    @Test
+    public void sharded() throws RetryableException {
+        EntitySharder sharder = EntitySharder.range(5);
+        IdRangeChangeSource changeSource = forItems(0, 9, 10).shard(sharder, 1);
+        IdRangeChangeSource.Batch batch = changeSource.firstBatch();
+        assertEquals(10, batch.advanced());
+        assertEquals(5, batch.changes().size());
+        for (Change change : batch.changes()) {
+            assertEquals(1, sharder.shard(change.entityId()));
+        }
+    }
+
+    @Test
+    public void partitionsCoverTheRange() throws RetryableException {
+        List<IdRangeChangeSource> partitions = forItems(3, 1002, 7).partition(4);
+        assertEquals(4, partitions.size());
+        Set<String> ids = new HashSet<>();
+        for (IdRangeChangeSource partition : partitions) {
+            IdRangeChangeSource.Batch batch = partition.firstBatch();
+            while (true) {
+                for (Change change : batch.changes()) {
+                    assertTrue("Duplicate " + change.entityId(), ids.add(change.entityId()));
+                }
+                if (batch.last()) {
+                    break;
+                }
+                batch = partition.nextBatch(batch);
+            }
+        }
+        assertEquals(1000, ids.size());
+        assertTrue(ids.contains("Q3"));
+        assertTrue(ids.contains("Q1002"));
+        assertEquals("Q3-Q252", partitions.get(0).toString());
+        assertEquals("Q753-Q1002", partitions.get(3).toString());
+    }
+
+    @Test
+    public void morePartitionsThanIds() {
+        assertEquals(3, forItems(1, 3, 10).partition(5).size());
+    }
+
+    @Test
+    public void partitionsKeepTheShard() throws RetryableException {
+        EntitySharder sharder = EntitySharder.range(5);
+        List<IdRangeChangeSource> partitions = forItems(0, 9, 10).shard(sharder, 1).partition(2);
+        assertEquals(0, partitions.get(0).firstBatch().changes().size());
+        assertEquals(5, partitions.get(1).firstBatch().changes().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noPartitions() {
+        forItems(1, 3, 10).partition(0);
+    }
+
+    @Test
+    public void checkRevisionsSkipsMissingAndUpToDate() throws RetryableException {
+        final Map<String, Long> latest = new HashMap<>();
+        latest.put("Q2", 20L);
+        latest.put("Q3", 30L);
+        latest.put("Q60", 600L);
+        final Map<String, Long> stored = new HashMap<>();
+        stored.put("Q3", 30L);
+        final List<Integer> requestSizes = new ArrayList<>();
+        WikibaseRepository wikibase = new WikibaseRepository("http", "localhost") {
+            @Override
+            public Map<String, Long> fetchLatestRevisions(Collection<String> entityIds) {
+                requestSizes.add(entityIds.size());
+                Map<String, Long> result = new HashMap<>(latest);
+                result.keySet().retainAll(entityIds);
+                return result;
+            }
+        };
+        RdfRepository rdfRepository = new RdfRepository(URI.create("http://localhost:1/sparql"), WikibaseUris.TEST_WIKIDATA) {
+            @Override
+            public Map<String, Long> fetchRevisions(Collection<String> entityIds) {
+                Map<String, Long> result = new HashMap<>(stored);
+                result.keySet().retainAll(entityIds);
+                return result;
+            }
+        };
+        IdRangeChangeSource changeSource = forItems(1, 100, 100).checkRevisions(wikibase, rdfRepository);
+        IdRangeChangeSource.Batch batch = changeSource.firstBatch();
+        assertEquals(100, batch.advanced());
+        assertEquals(2, batch.changes().size());
+        assertEquals("Q2", batch.changes().get(0).entityId());
+        assertEquals(20, batch.changes().get(0).revision());
+        assertEquals("Q60", batch.changes().get(1).entityId());
+        assertEquals(Arrays.asList(50, 50), requestSizes);
+    }
 }
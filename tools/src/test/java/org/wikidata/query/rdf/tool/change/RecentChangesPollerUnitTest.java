@@ -3,11 +3,13 @@ package org.wikidata.query.rdf.tool.change;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.wikidata.query.rdf.tool.wikibase.WikibaseRepository.outputDateFormat;
@@ -17,6 +19,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -122,6 +127,75 @@ public class RecentChangesPollerUnitTest {
         assertEquals(contJson, argument.getValue());
     }
 
+    @Test
+    public void prefetchesTheNextBatch() throws RetryableException, InterruptedException {
+        Date startTime = new Date();
+        JSONObject first = recentChanges(1);
+        JSONObject second = recentChanges(0);
+        when(repository.fetchRecentChanges((Date) any(), (JSONObject) any(), anyInt())).thenReturn(first, second);
+        ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+        try {
+            RecentChangesPoller poller = new RecentChangesPoller(repository, startTime, 10).prefetch(prefetcher);
+            Batch batch = poller.firstBatch();
+            assertThat(batch.changes(), hasSize(1));
+            // The second batch is fetched without asking for it
+            verify(repository, timeout(10000).times(2)).fetchRecentChanges((Date) any(), (JSONObject) any(), anyInt());
+            batch = poller.nextBatch(batch);
+            assertThat(batch.changes(), hasSize(0));
+            // And the one after the empty batch isn't
+            prefetcher.shutdown();
+            prefetcher.awaitTermination(10, TimeUnit.SECONDS);
+            verify(repository, times(2)).fetchRecentChanges((Date) any(), (JSONObject) any(), anyInt());
+        } finally {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedPrefetchIsFetchedAgain() throws RetryableException {
+        Date startTime = new Date();
+        when(repository.fetchRecentChanges((Date) any(), (JSONObject) any(), anyInt())).thenReturn(recentChanges(1))
+                .thenThrow(new RetryableException("test")).thenReturn(recentChanges(0));
+        ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+        try {
+            RecentChangesPoller poller = new RecentChangesPoller(repository, startTime, 10).prefetch(prefetcher);
+            Batch batch = poller.firstBatch();
+            try {
+                poller.nextBatch(batch);
+                fail("Expected the prefetch to fail");
+            } catch (RetryableException e) {
+                assertEquals("test", e.getMessage());
+            }
+            assertThat(poller.nextBatch(batch).changes(), hasSize(0));
+            verify(repository, times(3)).fetchRecentChanges((Date) any(), (JSONObject) any(), anyInt());
+        } finally {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    /**
+     * Build a result from wikibase with some recent changes.
+     */
+    @SuppressWarnings("unchecked")
+    private JSONObject recentChanges(int count) {
+        JSONObject result = new JSONObject();
+        JSONObject query = new JSONObject();
+        result.put("query", query);
+        JSONArray recentChanges = new JSONArray();
+        query.put("recentchanges", recentChanges);
+        String date = WikibaseRepository.inputDateFormat().format(new Date());
+        for (int i = 0; i < count; i++) {
+            JSONObject rc = new JSONObject();
+            rc.put("ns", Long.valueOf(0));
+            rc.put("title", "Q" + i);
+            rc.put("timestamp", date);
+            rc.put("revid", Long.valueOf(i));
+            rc.put("rcid", Long.valueOf(i));
+            recentChanges.add(rc);
+        }
+        return result;
+    }
+
     @Before
     public void setupMocks() {
         repository = mock(WikibaseRepository.class);
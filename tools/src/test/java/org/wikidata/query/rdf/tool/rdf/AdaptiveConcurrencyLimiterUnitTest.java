@@ -0,0 +1,95 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Tests AdaptiveConcurrencyLimiter.
+ */
+public class AdaptiveConcurrencyLimiterUnitTest {
+    /**
+     * The limiter under test.
+     */
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 100);
+
+    @Test
+    public void startsAtMin() {
+        assertEquals(1, limiter.limit());
+    }
+
+    @Test
+    public void quickRequestsRaiseTheLimitAdditively() throws InterruptedException {
+        // 1 + 1/1 = 2, then 2 + 1/2 + 1/2.5 ... takes a limit's worth of requests to rise by one
+        finish(1, 10, false);
+        assertEquals(2, limiter.limit());
+        finish(2, 10, false);
+        assertEquals(2, limiter.limit());
+        finish(1, 10, false);
+        assertEquals(3, limiter.limit());
+    }
+
+    @Test
+    public void neverRaisesPastMax() throws InterruptedException {
+        finish(1000, 10, false);
+        assertEquals(8, limiter.limit());
+    }
+
+    @Test
+    public void slowOrFailedRequestsHalveTheLimit() throws InterruptedException {
+        finish(1000, 10, false);
+        finish(1, 500, false);
+        assertEquals(4, limiter.limit());
+        // Requests that were in flight when the limit was lowered don't lower it again
+        finish(3, 10, true);
+        assertEquals(4, limiter.limit());
+        finish(1, 10, true);
+        assertEquals(2, limiter.limit());
+    }
+
+    @Test
+    public void neverLowersPastMin() throws InterruptedException {
+        finish(10, 500, true);
+        assertEquals(1, limiter.limit());
+    }
+
+    @Test
+    public void acquireWaitsForRoomUnderTheLimit() throws InterruptedException {
+        MetricRegistry metrics = new MetricRegistry();
+        limiter.register(metrics, "test");
+        limiter.acquire();
+        assertEquals(1, metrics.getGauges().get("test-in-flight").getValue());
+        assertEquals(1, metrics.getGauges().get("test-limit").getValue());
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(100);
+        assertTrue(waiter.isAlive());
+        limiter.release(500, false);
+        waiter.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals(1, limiter.inFlight());
+    }
+
+    /**
+     * Run some requests through the limiter one at a time.
+     */
+    private void finish(int requests, long latencyMillis, boolean failed) throws InterruptedException {
+        for (int i = 0; i < requests; i++) {
+            limiter.acquire();
+            limiter.release(latencyMillis, failed);
+        }
+    }
+}
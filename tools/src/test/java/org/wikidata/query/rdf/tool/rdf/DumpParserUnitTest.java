@@ -0,0 +1,225 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import static com.google.common.io.Resources.getResource;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.hasSize;
+import static org.wikidata.query.rdf.test.StatementHelper.statement;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.util.ModelUtil;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.helpers.StatementCollector;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+/**
+ * Tests DumpParser by comparing it to Sesame's TurtleParser.
+ */
+@RunWith(RandomizedRunner.class)
+public class DumpParserUnitTest extends RandomizedTest {
+    private static final String BASE = "http://example.com/";
+
+    @Test
+    public void testDump() throws IOException, RDFParseException, RDFHandlerException {
+        assertMatchesSesame(Resources.toString(getResource(DumpParserUnitTest.class, "../test.ttl"), Charsets.UTF_8));
+    }
+
+    @Test
+    public void turtle() throws IOException, RDFParseException, RDFHandlerException {
+        assertMatchesSesame("@prefix ex: <http://example.com/> .\n"
+                + "@base <http://example.com/base/> .\n"
+                + "PREFIX sp: <http://example.com/sparql/>\n"
+                + "# A comment\n"
+                + "ex:s a ex:Type ; # comment after a statement\n"
+                + "    ex:p ex:o1, ex:o2 , <relative> ;\n"
+                + "    ex:p2 \"plain\", \"english\"@en, \"typed\"^^ex:type, \"long typed\"^^<http://example.com/type> ;\n"
+                + "    ex:p3 \"esc\\\"apes\\t\\n\\\\ \\u00e9 \\U0001F600\", 'single \"quoted\"', \"\" ;\n"
+                + "    ex:p4 \"\"\"long\n\"string\" \"\" here\"\"\", '''another\nlong one''' ;\n"
+                + "    ex:p5 1, -2, +3, 4.5, -.5, 1e3, 1.5E-3, true, false ;\n"
+                + "    ex:p6 \"Ünïcödé ユニコード \uD83D\uDE00\"@de-ch ;\n"
+                + "    ex:p7 sp:a.b.c, ex:dash-ed, ex:Q1 ;\n"
+                + "    ex:p8 1.\n"
+                + "sp:s ex:p ( 1 ex:item \"s\" ), () .\n"
+                + "_:b1 ex:p _:b2 .\n"
+                + "_:b2 ex:p [ ex:q ex:r ; ex:s [ ex:t 1 ] ] .\n"
+                + "[ ex:p ex:o ] .\n"
+                + "[ ex:p ex:o ] ex:q ex:r .\n"
+                + "ex:last ex:p ex:o ;.\n");
+    }
+
+    @Test
+    public void nTriples() throws IOException, RDFParseException, RDFHandlerException {
+        assertMatchesSesame("<http://example.com/s> <http://example.com/p> <http://example.com/o> .\n"
+                + "<http://example.com/s> <http://example.com/p> \"literal\"@en .\n"
+                + "<http://example.com/s> <http://example.com/p> \"1\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n"
+                + "_:a <http://example.com/p> \"\\u00e9\" .\n");
+    }
+
+    @Test
+    public void bufferBoundaries() throws IOException, RDFParseException, RDFHandlerException {
+        StringBuilder turtle = new StringBuilder("@prefix ex: <http://example.com/> .\n");
+        int statements = 0;
+        while (turtle.length() < 200000) {
+            turtle.append(String.format(Locale.ROOT, "ex:Q%s ex:p \"%s\"@%s, %s ; ex:q ex:a.%s .\n", statements,
+                    randomRealisticUnicodeOfCodepointLengthBetween(0, 20).replace("\\", "").replace("\"", ""),
+                    randomFrom(new String[] {"en", "de", "zh-hans"}), randomIntBetween(-10000, 10000), statements));
+            statements++;
+        }
+        String input = turtle.toString();
+        List<Statement> expected = sesame(input);
+        assertThat(expected, hasSize(statements * 3));
+        assertTrue(ModelUtil.equals(expected, parse(new ByteArrayInputStream(input.getBytes(Charsets.UTF_8)))));
+        assertTrue(ModelUtil.equals(expected, parse(new OneByteAtATimeInputStream(input.getBytes(Charsets.UTF_8)))));
+        assertTrue(ModelUtil.equals(expected, parse(input)));
+    }
+
+    @Test
+    public void namespaces() throws IOException, RDFParseException, RDFHandlerException {
+        StatementCollector collector = new StatementCollector();
+        RDFParser parser = new DumpParser();
+        parser.setRDFHandler(collector);
+        parser.parse(new StringReader("@prefix ex: <http://example.com/> .\nPREFIX wd: <http://www.wikidata.org/entity/>\n"), BASE);
+        assertThat(collector.getNamespaces(), hasEntry("ex", "http://example.com/"));
+        assertThat(collector.getNamespaces(), hasEntry("wd", "http://www.wikidata.org/entity/"));
+    }
+
+    @Test
+    public void uriWithSpace() throws IOException, RDFParseException, RDFHandlerException {
+        assertThat(parse("<http://example.com/s> <http://example.com/p> <http://example.com/o o> .\n"),
+                contains(statement("http://example.com/s", "http://example.com/p", DumpParser.ERROR_URI)));
+    }
+
+    @Test
+    public void skipsBrokenStatements() throws IOException, RDFParseException, RDFHandlerException {
+        assertThat(parse("@prefix ex: <http://example.com/> .\n"
+                + "Warning: ex:p ex:o .\n"
+                + "ex:s ex:p <http://example.com/unterminated ;\n"
+                + "    ex:p2 ex:o .\n"
+                + "ex:s ex:p ex:o ; ex:p2 \"broken\"^^ .\n"
+                + "ex:s2 ex:p ex:o .\n"),
+                contains(statement("http://example.com/s", "http://example.com/p", "http://example.com/o"),
+                        statement("http://example.com/s2", "http://example.com/p", "http://example.com/o")));
+    }
+
+    @Test
+    public void statementOffsets() throws IOException, RDFParseException, RDFHandlerException {
+        StringBuilder turtle = new StringBuilder("@prefix ex: <http://example.com/> .\n");
+        List<Integer> starts = new ArrayList<>();
+        while (turtle.length() < 200000) {
+            turtle.append(randomFrom(new String[] {"", "\n", "  "}));
+            starts.add(turtle.toString().getBytes(Charsets.UTF_8).length);
+            turtle.append(String.format(Locale.ROOT, "ex:Q%s ex:p \"%s\" ;\n\tex:q ex:a .\n", starts.size(),
+                    randomRealisticUnicodeOfCodepointLengthBetween(0, 20).replace("\\", "").replace("\"", "")));
+        }
+        final DumpParser parser = new DumpParser();
+        final List<Long> offsets = new ArrayList<>();
+        parser.setRDFHandler(new RDFHandlerBase() {
+            @Override
+            public void handleStatement(Statement st) {
+                if (st.getPredicate().stringValue().endsWith("/p")) {
+                    offsets.add(parser.currentStatementOffset());
+                }
+            }
+        });
+        parser.parse(new OneByteAtATimeInputStream(turtle.toString().getBytes(Charsets.UTF_8)), BASE);
+        assertThat(offsets, hasSize(starts.size()));
+        for (int i = 0; i < starts.size(); i++) {
+            assertEquals((long) starts.get(i), (long) offsets.get(i));
+        }
+    }
+
+    @Test
+    public void invalidUtf8() throws IOException, RDFParseException, RDFHandlerException {
+        byte[] start = "<http://example.com/s> <http://example.com/p> \"a".getBytes(Charsets.UTF_8);
+        byte[] end = "b\" .\n".getBytes(Charsets.UTF_8);
+        byte[] input = new byte[start.length + end.length + 2];
+        System.arraycopy(start, 0, input, 0, start.length);
+        input[start.length] = (byte) 0xC3;
+        input[start.length + 1] = (byte) 0x28;
+        System.arraycopy(end, 0, input, start.length + 2, end.length);
+        List<Statement> statements = parse(new ByteArrayInputStream(input));
+        assertThat(statements, hasSize(1));
+        assertEquals("a\uFFFD(b", ((Literal) statements.get(0).getObject()).getLabel());
+    }
+
+    /**
+     * Assert that DumpParser parses some turtle the same way as Sesame's
+     * TurtleParser.
+     */
+    private void assertMatchesSesame(String turtle) throws IOException, RDFParseException, RDFHandlerException {
+        List<Statement> expected = sesame(turtle);
+        List<Statement> actual = parse(new ByteArrayInputStream(turtle.getBytes(Charsets.UTF_8)));
+        assertTrue("Expected " + expected + " but was " + actual, ModelUtil.equals(expected, actual));
+    }
+
+    /**
+     * Parse with Sesame's TurtleParser.
+     */
+    private List<Statement> sesame(String turtle) throws IOException, RDFParseException, RDFHandlerException {
+        return parse(Rio.createParser(RDFFormat.TURTLE), new StringReader(turtle), null);
+    }
+
+    /**
+     * Parse a string with DumpParser.
+     */
+    private List<Statement> parse(String turtle) throws IOException, RDFParseException, RDFHandlerException {
+        return parse(new DumpParser(), new StringReader(turtle), null);
+    }
+
+    /**
+     * Parse a stream with DumpParser.
+     */
+    private List<Statement> parse(InputStream turtle) throws IOException, RDFParseException, RDFHandlerException {
+        return parse(new DumpParser(), null, turtle);
+    }
+
+    /**
+     * Parse from either a reader or a stream.
+     */
+    private List<Statement> parse(RDFParser parser, StringReader reader, InputStream stream) throws IOException, RDFParseException,
+            RDFHandlerException {
+        StatementCollector collector = new StatementCollector();
+        parser.setRDFHandler(collector);
+        if (reader == null) {
+            parser.parse(stream, BASE);
+        } else {
+            parser.parse(reader, BASE);
+        }
+        return new ArrayList<>(collector.getStatements());
+    }
+
+    /**
+     * Returns one byte per read to exercise refilling the buffer.
+     */
+    private static final class OneByteAtATimeInputStream extends FilterInputStream {
+        private OneByteAtATimeInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
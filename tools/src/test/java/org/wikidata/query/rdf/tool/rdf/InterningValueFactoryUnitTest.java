@@ -0,0 +1,91 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import static org.hamcrest.Matchers.hasSize;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.wikidata.query.rdf.common.uri.RDF;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+
+/**
+ * Tests InterningValueFactory.
+ */
+@RunWith(RandomizedRunner.class)
+public class InterningValueFactoryUnitTest extends RandomizedTest {
+    private final WikibaseUris uris = WikibaseUris.WIKIDATA;
+    private final InterningValueFactory factory = new InterningValueFactory(uris, 16);
+
+    @Test
+    public void pinnedTermsShareTheConstantsString() {
+        URI type = factory.createURI(new String(RDF.TYPE));
+        assertSame(type, factory.createURI(new String(RDF.TYPE)));
+        assertSame(RDF.TYPE, type.stringValue());
+    }
+
+    @Test
+    public void cachesOtherUris() {
+        String p31 = uris.property(WikibaseUris.PropertyType.DIRECT) + "P31";
+        URI uri = factory.createURI(p31);
+        assertEquals(p31, uri.stringValue());
+        assertSame(uri, factory.createURI(new String(p31)));
+        assertSame(uri, factory.createURI(uris.property(WikibaseUris.PropertyType.DIRECT), "P31"));
+    }
+
+    @Test
+    public void collisionsReplace() {
+        List<URI> created = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            created.add(factory.createURI(uris.entity() + "Q" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            URI uri = factory.createURI(uris.entity() + "Q" + i);
+            assertEquals(created.get(i), uri);
+        }
+    }
+
+    @Test
+    public void uniqueUrisArentCached() {
+        String statement = uris.statement() + "Q1-93a1c4e1-4bd6-5ea6-8ff2-8b7f1a5bb2a9";
+        assertNotSame(factory.createURI(statement), factory.createURI(statement));
+        String value = uris.value() + "a8f6e3d5e1bf4a2c9d8a9c6f3b7e2d1c";
+        assertNotSame(factory.createURI(value), factory.createURI(value));
+    }
+
+    @Test
+    public void parserUsesIt() throws RDFParseException, RDFHandlerException, IOException {
+        RDFParser parser = Rio.createParser(RDFFormat.TURTLE, factory);
+        StatementCollector collector = new StatementCollector();
+        parser.setRDFHandler(collector);
+        parser.parse(new StringReader("@prefix wd: <" + uris.entity() + "> .\n"
+                + "@prefix wdt: <" + uris.property(WikibaseUris.PropertyType.DIRECT) + "> .\n"
+                + "wd:Q1 <" + RDF.TYPE + "> wd:Q5 ; wdt:P31 wd:Q5 .\n"
+                + "wd:Q2 <" + RDF.TYPE + "> wd:Q5 ; wdt:P31 wd:Q5 .\n"), uris.entity());
+        List<Statement> statements = new ArrayList<>(collector.getStatements());
+        assertThat(statements, hasSize(4));
+        assertSame(RDF.TYPE, statements.get(0).getPredicate().stringValue());
+        assertSame(statements.get(0).getPredicate(), statements.get(2).getPredicate());
+        assertSame(statements.get(1).getPredicate(), statements.get(3).getPredicate());
+        assertSame(statements.get(0).getObject(), statements.get(3).getObject());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cacheMustHaveSlots() {
+        new InterningValueFactory(uris, 0);
+    }
+}
@@ -0,0 +1,190 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import static org.wikidata.query.rdf.test.StatementHelper.siteLink;
+import static org.wikidata.query.rdf.test.StatementHelper.statement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.wikidata.query.rdf.common.uri.Ontology;
+import org.wikidata.query.rdf.common.uri.Provenance;
+import org.wikidata.query.rdf.common.uri.RDF;
+import org.wikidata.query.rdf.common.uri.RDFS;
+import org.wikidata.query.rdf.common.uri.SKOS;
+import org.wikidata.query.rdf.common.uri.SchemaDotOrg;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.common.uri.WikibaseUris.PropertyType;
+
+/**
+ * Benchmarks the Munger on entities shaped like the ones in the Wikidata dump:
+ * labels, descriptions, and aliases in many languages, statements with
+ * qualifiers, references, and full values, and sitelinks. Not a test so it
+ * isn't run by the build. Run it with:
+ * <code>
+ * mvn -pl tools test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.wikidata.query.rdf.tool.rdf.MungerBenchmark
+ * </code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MungerBenchmark {
+    /**
+     * Languages for labels, descriptions, aliases, and sitelinks.
+     */
+    private static final String[] LANGUAGES = {"en", "de", "fr", "es", "it", "ru", "ja", "zh", "pl", "nl", "sv", "pt",
+        "uk", "ar", "fa", "he", "ko", "fi", "cs", "hu"};
+
+    /**
+     * Number of statements on each entity.
+     */
+    @Param({"10", "100"})
+    private int statementCount;
+
+    /**
+     * Uris of the benchmarked entities.
+     */
+    private final WikibaseUris uris = WikibaseUris.WIKIDATA;
+    /**
+     * The munger under benchmark.
+     */
+    private Munger munger;
+    /**
+     * The classifier under benchmark.
+     */
+    private UriClassifier classifier;
+    /**
+     * Ids of the entities.
+     */
+    private List<String> ids;
+    /**
+     * The entities. Munging modifies the statements list so each invocation
+     * munges a copy.
+     */
+    private List<List<Statement>> entities;
+
+    /**
+     * Build the entities.
+     */
+    @Setup
+    public void setup() {
+        munger = new Munger(uris);
+        classifier = new UriClassifier(uris);
+        Random random = new Random(42);
+        ids = new ArrayList<>();
+        entities = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String id = "Q" + (random.nextInt(20000000) + 1);
+            ids.add(id);
+            entities.add(entity(random, id));
+        }
+    }
+
+    /**
+     * Munge whole entities.
+     */
+    @Benchmark
+    public void munge(Blackhole blackhole) {
+        for (int i = 0; i < entities.size(); i++) {
+            List<Statement> statements = new ArrayList<>(entities.get(i));
+            munger.munge(ids.get(i), statements);
+            blackhole.consume(statements);
+        }
+    }
+
+    /**
+     * Just classify the subjects, predicates, and objects of the entities.
+     */
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        for (List<Statement> statements : entities) {
+            for (Statement statement : statements) {
+                blackhole.consume(classifier.classify(statement.getSubject().stringValue()));
+                blackhole.consume(classifier.classify(statement.getPredicate().stringValue()));
+                blackhole.consume(classifier.classify(statement.getObject().stringValue()));
+            }
+        }
+    }
+
+    /**
+     * Build an entity.
+     */
+    private List<Statement> entity(Random random, String id) {
+        List<Statement> statements = new ArrayList<>();
+        String entityData = uris.entityData() + id;
+        statement(statements, entityData, SchemaDotOrg.ABOUT, id);
+        statement(statements, entityData, SchemaDotOrg.VERSION, new LiteralImpl("2345678", XMLSchema.INTEGER));
+        statement(statements, entityData, SchemaDotOrg.DATE_MODIFIED, new LiteralImpl("2015-10-01T12:00:00Z", XMLSchema.DATETIME));
+        statement(statements, id, RDF.TYPE, Ontology.ITEM);
+        for (String language : LANGUAGES) {
+            LiteralImpl label = new LiteralImpl("label " + id, language);
+            statement(statements, id, RDFS.LABEL, label);
+            statement(statements, id, SKOS.PREF_LABEL, label);
+            statement(statements, id, SchemaDotOrg.NAME, label);
+            statement(statements, id, SchemaDotOrg.DESCRIPTION, new LiteralImpl("description of " + id, language));
+            statement(statements, id, SKOS.ALT_LABEL, new LiteralImpl("alias of " + id, language));
+        }
+        for (int s = 0; s < statementCount; s++) {
+            String property = "P" + (random.nextInt(2000) + 1);
+            String statementUri = String.format(Locale.ROOT, "%s%s-%08x-%04x", uris.statement(), id, random.nextInt(),
+                    random.nextInt(0x10000));
+            String object = "Q" + (random.nextInt(20000000) + 1);
+            String value = uris.value() + Long.toHexString(random.nextLong());
+            String reference = uris.reference() + Long.toHexString(random.nextLong());
+            statement(statements, id, uris.property(PropertyType.DIRECT) + property, object);
+            statement(statements, id, uris.property(PropertyType.CLAIM) + property, statementUri);
+            statement(statements, statementUri, RDF.TYPE, Ontology.STATEMENT);
+            statement(statements, statementUri, uris.property(PropertyType.STATEMENT) + property, object);
+            statement(statements, statementUri, Ontology.RANK, Ontology.NORMAL_RANK);
+            statement(statements, statementUri, uris.property(PropertyType.QUALIFIER) + "P580",
+                    new LiteralImpl("2000-01-01T00:00:00Z", XMLSchema.DATETIME));
+            statement(statements, statementUri, uris.property(PropertyType.QUALIFIER_VALUE) + "P580", value);
+            statement(statements, statementUri, Provenance.WAS_DERIVED_FROM, reference);
+            statement(statements, reference, RDF.TYPE, Ontology.REFERENCE);
+            statement(statements, reference, uris.property(PropertyType.REFERENCE) + "P143", "Q328");
+            statement(statements, reference, uris.property(PropertyType.REFERENCE_VALUE) + "P813", value);
+            statement(statements, value, RDF.TYPE, Ontology.VALUE);
+            statement(statements, value, Ontology.Time.VALUE, new LiteralImpl("2000-01-01T00:00:00Z", XMLSchema.DATETIME));
+            statement(statements, value, Ontology.Time.PRECISION, new LiteralImpl("11", XMLSchema.INTEGER));
+        }
+        for (String language : LANGUAGES) {
+            statements.addAll(siteLink(id, "https://" + language + ".wikipedia.org/wiki/" + id, language));
+        }
+        Collections.shuffle(statements.subList(3, statements.size()), random);
+        return statements;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MungerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.junit.Test;
@@ -302,6 +303,41 @@ public class MungerUnitTest extends RandomizedTest {
                 .test();
     }
 
+    @Test
+    public void nothingLeaksBetweenEntities() {
+        Munger munger = new Munger(uris).singleLabelMode("en");
+        String link = "http://en.wikipedia.org/wiki/George_Washington";
+        List<Statement> first = StatementHelper.basicEntity(uris, "Q23");
+        Statement label = statement("Q23", RDFS.LABEL, new LiteralImpl("George Washington", "en"));
+        first.add(label);
+        first.addAll(siteLink("Q23", link, "en"));
+        munger.munge("Q23", first);
+        assertThat(first, hasItem(label));
+
+        List<Statement> second = StatementHelper.basicEntity(uris, "Q24");
+        Statement otherLabel = statement("Q24", RDFS.LABEL, new LiteralImpl("Jacques Chirac", "fr"));
+        Statement staleLink = statement(link, SchemaDotOrg.NAME, new LiteralImpl("George Washington", "en"));
+        second.add(statement("Q24", "P509", "Q6"));
+        second.add(otherLabel);
+        second.add(staleLink);
+        munger.munge("Q24", second);
+        assertThat(second, not(hasItem(label)));
+        assertThat(second, not(hasItem(otherLabel)));
+        assertThat(second, not(hasItem(staleLink)));
+    }
+
+    @Test
+    public void mungesCollectionsWithoutRandomAccess() {
+        List<Statement> statements = new LinkedList<>(StatementHelper.basicEntity(uris, "Q23"));
+        Statement kept = statement("Q23", "P509", "Q6");
+        Statement removed = statement("Q23", RDF.TYPE, Ontology.ITEM);
+        statements.add(removed);
+        statements.add(kept);
+        new Munger(uris).munge("Q23", statements);
+        assertThat(statements, hasItem(kept));
+        assertThat(statements, not(hasItem(removed)));
+    }
+
     private Mungekin entity(String id) {
         return new Mungekin(uris, id);
     }
@@ -7,12 +7,14 @@ import static org.wikidata.query.rdf.test.StatementHelper.statement;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Before;
@@ -540,6 +542,16 @@ public class RdfRepositoryIntegrationTest extends AbstractRdfRepositoryIntegrati
         assertTrue(rdfRepository().hasRevision("Q23", 9));
     }
 
+    @Test
+    public void fetchRevisions() {
+        syncJustVersion("Q23", 10);
+        syncJustVersion("Q42", 7);
+        Map<String, Long> revisions = rdfRepository().fetchRevisions(Arrays.asList("Q23", "Q42", "Q1"));
+        assertEquals(2, revisions.size());
+        assertEquals(Long.valueOf(10), revisions.get("Q23"));
+        assertEquals(Long.valueOf(7), revisions.get("Q42"));
+    }
+
     /**
      * Updating items with lots of sitelinks shouldn't be painfully slow.
      */
@@ -0,0 +1,82 @@
+package org.wikidata.query.rdf.tool.rdf;
+
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.wikidata.query.rdf.common.uri.Ontology;
+import org.wikidata.query.rdf.common.uri.WikibaseUris;
+import org.wikidata.query.rdf.common.uri.WikibaseUris.PropertyType;
+import org.wikidata.query.rdf.tool.rdf.UriClassifier.Namespace;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+
+/**
+ * Tests UriClassifier.
+ */
+@RunWith(RandomizedRunner.class)
+public class UriClassifierUnitTest extends RandomizedTest {
+    private final WikibaseUris uris = WikibaseUris.WIKIDATA;
+    private final UriClassifier classifier = new UriClassifier(uris);
+
+    @Test
+    public void entityData() {
+        check(uris.entityData() + "Q1", Namespace.ENTITY_DATA);
+        check(uris.entityDataHttps() + "Q1", Namespace.ENTITY_DATA);
+    }
+
+    @Test
+    public void entity() {
+        check(uris.entity() + "Q1", Namespace.ENTITY);
+        check(uris.entity() + "P31", Namespace.ENTITY);
+    }
+
+    @Test
+    public void statementIsntEntity() {
+        check(uris.statement() + "Q1-18b24fd5-4b1f-7c4c-3b3c-4d1d6f3fe0d4", Namespace.STATEMENT);
+    }
+
+    @Test
+    public void referenceAndValue() {
+        check(uris.reference() + "fc2ac43a5d1a52c33b7c6db7a84cfa1e5ff1dd8d", Namespace.REFERENCE);
+        check(uris.value() + "2f5bcd13a9d69c2b7b2a9fc81bdb4a1d", Namespace.VALUE);
+    }
+
+    @Test
+    public void properties() {
+        check(uris.property(PropertyType.CLAIM) + "P31", Namespace.CLAIM);
+        check(uris.property(PropertyType.REFERENCE_VALUE) + "P813", Namespace.REFERENCE_VALUE);
+        check(uris.property(PropertyType.DIRECT) + "P31", Namespace.OTHER);
+        check(uris.property(PropertyType.STATEMENT_VALUE) + "P31", Namespace.OTHER);
+        check(uris.property(PropertyType.REFERENCE) + "P813", Namespace.OTHER);
+    }
+
+    @Test
+    public void namespaceItself() {
+        check(uris.entity(), Namespace.ENTITY);
+        check(uris.value(), Namespace.VALUE);
+    }
+
+    @Test
+    public void other() {
+        check("", Namespace.OTHER);
+        check("Q1", Namespace.OTHER);
+        check("https://en.wikipedia.org/wiki/Douglas_Adams", Namespace.OTHER);
+        check(Ontology.ITEM, Namespace.OTHER);
+        check(uris.root() + "/entity", Namespace.OTHER);
+        check(uris.root() + "/entitz/Q1", Namespace.OTHER);
+        check(uris.entity() + "Q1/Q2", Namespace.OTHER);
+        check(WikibaseUris.TEST_WIKIDATA.entity() + "Q1", Namespace.OTHER);
+    }
+
+    @Test
+    public void in() {
+        assertTrue(classifier.in(uris.entity() + "Q1", Namespace.ENTITY));
+        assertFalse(classifier.in(uris.entity() + "Q1", Namespace.STATEMENT));
+    }
+
+    private void check(String uri, Namespace namespace) {
+        assertThat(uri, classifier.classify(uri), equalTo(namespace));
+    }
+}
@@ -0,0 +1,62 @@
+package org.wikidata.query.rdf.tool.vocabulary;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+
+/**
+ * Tests LossyCounter.
+ */
+@RunWith(RandomizedRunner.class)
+public class LossyCounterUnitTest extends RandomizedTest {
+    @Test
+    public void emptyCounter() {
+        assertThat(new LossyCounter(0.01).top(10, 1), empty());
+    }
+
+    @Test
+    public void orderedByCountThenName() {
+        LossyCounter counter = new LossyCounter(0.01);
+        add(counter, "b", 2);
+        add(counter, "a", 2);
+        add(counter, "c", 5);
+        add(counter, "d", 1);
+        assertThat(counter.top(10, 1), contains("c", "a", "b", "d"));
+        assertThat(counter.top(2, 1), contains("c", "a"));
+        assertThat(counter.top(10, 2), contains("c", "a", "b"));
+    }
+
+    @Test
+    public void findsFrequentInNoise() {
+        LossyCounter counter = new LossyCounter(0.001);
+        for (int i = 0; i < 100000; i++) {
+            switch (randomIntBetween(0, 9)) {
+            case 0:
+            case 1:
+                counter.add("frequent");
+                break;
+            case 2:
+                counter.add("less frequent");
+                break;
+            default:
+                counter.add(randomAsciiOfLength(10));
+            }
+        }
+        List<String> top = counter.top(2, 1000);
+        assertThat(top, contains("frequent", "less frequent"));
+        assertEquals(100000, counter.total());
+    }
+
+    private void add(LossyCounter counter, String string, int times) {
+        for (int i = 0; i < times; i++) {
+            counter.add(string);
+        }
+    }
+}
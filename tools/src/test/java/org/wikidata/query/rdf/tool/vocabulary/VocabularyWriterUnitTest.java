@@ -0,0 +1,59 @@
+package org.wikidata.query.rdf.tool.vocabulary;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests VocabularyWriter.
+ */
+public class VocabularyWriterUnitTest {
+    @Test
+    public void writesClass() throws IOException {
+        String source = write(Arrays.asList("http://www.wikidata.org/prop/direct/P31",
+                "http://www.wikidata.org/entity/Q5"));
+        assertThat(source, containsString("package org.wikidata.query.rdf.blazegraph;\n"));
+        assertThat(source, containsString("public class WikibaseVocabularyV003 extends WikibaseVocabulary.V002 {\n"));
+        assertThat(source, containsString("        super.addValues();\n        addDecl(new Part(uris0()));\n    }\n"));
+        assertThat(source, containsString("            \"http://www.wikidata.org/prop/direct/P31\",\n"
+                + "            \"http://www.wikidata.org/entity/Q5\",\n"));
+        assertThat(source, not(containsString("uris1")));
+    }
+
+    @Test
+    public void splitsLargeVocabularies() throws IOException {
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            uris.add("http://www.wikidata.org/entity/Q" + i);
+        }
+        String source = write(uris);
+        assertThat(source, containsString("addDecl(new Part(uris2()));"));
+        assertThat(source, not(containsString("uris3")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLarge() throws IOException {
+        write(Arrays.asList(new String[VocabularyWriter.MAX_URIS + 1]));
+    }
+
+    @Test
+    public void escape() {
+        assertEquals("http://example.com/\\\"\\\\\\u00e9", VocabularyWriter.escape("http://example.com/\"\\é"));
+    }
+
+    private String write(List<String> uris) throws IOException {
+        StringWriter writer = new StringWriter();
+        new VocabularyWriter("org.wikidata.query.rdf.blazegraph", "WikibaseVocabularyV003", "WikibaseVocabulary.V002")
+                .write(writer, uris);
+        return writer.toString();
+    }
+}
@@ -2,6 +2,7 @@ package org.wikidata.query.rdf.tool.wikibase;
 
 import static org.hamcrest.Matchers.either;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.hasSize;
@@ -12,6 +13,7 @@ import static org.wikidata.query.rdf.tool.wikibase.WikibaseRepository.inputDateF
 
 import java.text.DateFormat;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -196,5 +198,14 @@ public class WikibaseRepositoryIntegrationTest extends RandomizedTest {
         assertTrue("Did not find new edit", found);
     }
 
+    @Test
+    public void latestRevisionsSkipMissingEntities() throws RetryableException, ContainedException {
+        String entityId = repo.firstEntityIdForLabelStartingWith("QueryTestItem", "en", "item");
+        String missing = "Q" + Integer.MAX_VALUE;
+        Map<String, Long> revisions = repo.fetchLatestRevisions(Arrays.asList(entityId, missing));
+        assertThat(revisions, hasEntry(equalTo(entityId), greaterThan(0L)));
+        assertThat(revisions, not(hasKey(missing)));
+    }
+
     // TODO we should verify the RDF dump format against a stored file
 }
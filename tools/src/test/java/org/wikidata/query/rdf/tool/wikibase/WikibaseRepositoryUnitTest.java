@@ -0,0 +1,92 @@
+package org.wikidata.query.rdf.tool.wikibase;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
+import org.wikidata.query.rdf.tool.exception.ContainedException;
+import org.wikidata.query.rdf.tool.exception.RetryableException;
+
+import com.carrotsearch.randomizedtesting.RandomizedRunner;
+import com.carrotsearch.randomizedtesting.RandomizedTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+
+/**
+ * Tests WikibaseRepository against a stub Wikibase.
+ */
+// NanoHTTPD's request threads can still be on their way out after we stop them
+@ThreadLeakLingering(linger = 1000)
+@RunWith(RandomizedRunner.class)
+public class WikibaseRepositoryUnitTest extends RandomizedTest {
+    /**
+     * The stub wikibase.
+     */
+    private final WikibaseStub stub = new WikibaseStub(0);
+
+    @Before
+    public void startStub() throws IOException {
+        stub.start();
+    }
+
+    @After
+    public void stopStub() throws InterruptedException {
+        stub.stop();
+    }
+
+    @Test
+    public void fetchRdfForEntity() throws RetryableException {
+        int entities = randomIntBetween(1, 30);
+        WikibaseRepository repository = stub.repository();
+        for (int i = 1; i <= entities; i++) {
+            stub.entity("Q" + i, i, entityTurtle("Q" + i, i));
+        }
+        for (int i = 1; i <= entities; i++) {
+            Collection<Statement> statements = repository.fetchRdfForEntity("Q" + i);
+            assertThat(statements, hasSize(1));
+            assertEquals("http://www.wikidata.org/entity/Q" + i, statements.iterator().next().getSubject().stringValue());
+        }
+        assertEquals(entities, stub.requests());
+    }
+
+    @Test
+    public void missingEntitiesAreEmpty() throws RetryableException {
+        WikibaseRepository repository = stub.repository();
+        // More than the connection pool holds so leaked connections would block
+        for (int i = 0; i < 50; i++) {
+            assertThat(repository.fetchRdfForEntity("Q" + i), empty());
+        }
+    }
+
+    @Test(expected = ContainedException.class)
+    public void brokenEntitiesThrow() throws RetryableException {
+        stub.entity("Q1", 1, entityTurtle("Q1", 1)).broken("Q1");
+        stub.repository().fetchRdfForEntity("Q1");
+    }
+
+    @Test
+    public void latestRevisions() throws RetryableException {
+        stub.entity("Q1", 10, entityTurtle("Q1", 10)).entity("Q3", 30, entityTurtle("Q3", 30));
+        Map<String, Long> revisions = stub.repository().fetchLatestRevisions(Arrays.asList("Q1", "Q2", "Q3"));
+        assertEquals(2, revisions.size());
+        assertEquals(Long.valueOf(10), revisions.get("Q1"));
+        assertEquals(Long.valueOf(30), revisions.get("Q3"));
+    }
+
+    /**
+     * Turtle for an entity with nothing but its revision.
+     */
+    private String entityTurtle(String entityId, long revision) {
+        return String.format(Locale.ROOT, "<http://www.wikidata.org/entity/%s> <http://schema.org/version> %s .\n", entityId,
+                revision);
+    }
+}
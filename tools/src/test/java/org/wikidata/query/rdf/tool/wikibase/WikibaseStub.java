@@ -0,0 +1,130 @@
+package org.wikidata.query.rdf.tool.wikibase;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONObject;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Stub Wikibase that serves preprogrammed entities on a local port so
+ * WikibaseRepository can be tested without a real wiki. Serves
+ * Special:EntityData's Turtle for single entities and wbgetentities with
+ * props=info.
+ */
+public class WikibaseStub extends NanoHTTPD {
+    /**
+     * Matches requests for an entity's RDF.
+     */
+    private static final Pattern ENTITY_DATA = Pattern.compile("/wiki/Special:EntityData/([^.]+)\\.ttl");
+
+    /**
+     * Turtle served for each entity.
+     */
+    private final Map<String, String> rdf = new ConcurrentHashMap<>();
+    /**
+     * Latest revision of each entity.
+     */
+    private final Map<String, Long> revisions = new ConcurrentHashMap<>();
+    /**
+     * Entities whose RDF requests fail with a 500.
+     */
+    private final Map<String, Boolean> broken = new ConcurrentHashMap<>();
+    /**
+     * Number of requests served.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public WikibaseStub(int port) {
+        super("localhost", port);
+    }
+
+    /**
+     * Add an entity.
+     *
+     * @return this for chaining
+     */
+    public WikibaseStub entity(String entityId, long revision, String turtle) {
+        revisions.put(entityId, revision);
+        rdf.put(entityId, turtle);
+        return this;
+    }
+
+    /**
+     * Make requests for an entity's RDF fail.
+     *
+     * @return this for chaining
+     */
+    public WikibaseStub broken(String entityId) {
+        broken.put(entityId, true);
+        return this;
+    }
+
+    /**
+     * Number of requests served.
+     */
+    public int requests() {
+        return requests.get();
+    }
+
+    /**
+     * Repository that talks to this stub.
+     */
+    public WikibaseRepository repository() {
+        return new WikibaseRepository("http", "localhost", getListeningPort());
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        requests.incrementAndGet();
+        Matcher entityData = ENTITY_DATA.matcher(session.getUri());
+        if (entityData.matches()) {
+            return entityData(entityData.group(1));
+        }
+        if (session.getUri().equals("/w/api.php") && "wbgetentities".equals(session.getParms().get("action"))) {
+            return entities(session.getParms().get("ids").split("\\|"));
+        }
+        return new Response(Response.Status.NOT_FOUND, "text/plain", "not found");
+    }
+
+    /**
+     * Serve an entity's RDF.
+     */
+    private Response entityData(String entityId) {
+        if (broken.containsKey(entityId)) {
+            return new Response(Response.Status.INTERNAL_ERROR, "text/plain", "broken");
+        }
+        String turtle = rdf.get(entityId);
+        if (turtle == null) {
+            return new Response(Response.Status.NOT_FOUND, "text/plain", "no such entity");
+        }
+        return new Response(Response.Status.OK, "text/turtle", turtle);
+    }
+
+    /**
+     * Serve wbgetentities' info about some entities.
+     */
+    @SuppressWarnings("unchecked")
+    private Response entities(String[] entityIds) {
+        JSONObject entities = new JSONObject();
+        for (String entityId : entityIds) {
+            JSONObject entity = new JSONObject();
+            entity.put("id", entityId);
+            Long revision = revisions.get(entityId);
+            if (revision == null) {
+                entity.put("missing", "");
+            } else {
+                entity.put("lastrevid", revision);
+            }
+            entities.put(entityId, entity);
+        }
+        JSONObject response = new JSONObject();
+        response.put("entities", entities);
+        response.put("success", 1);
+        return new Response(Response.Status.OK, "application/json", response.toJSONString());
+    }
+}